@@ -0,0 +1,322 @@
+package analytics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import controller.HealthRecordController;
+import model.BloodPressureCategory;
+import model.HealthRecord;
+
+/**
+ * Flags unusual readings as health records are added, such as a fever or a sudden change in weight.
+ *
+ * Registered as a record listener on the {@link HealthRecordController}, it sees each new record
+ * once, on the thread that stored it. Each user has a small fixed-size state: an exponentially
+ * weighted moving average and variance of weight and temperature, and a ring buffer of the last few
+ * weights in a primitive array. Checking a reading and updating the state takes constant time and
+ * never reads the user's history, so saving a record is only slowed by a fraction of a microsecond.
+ *
+ * A reading is flagged if the temperature is at or above the fever threshold, if the weight or
+ * temperature is more than the deviation threshold of standard deviations from the user's average,
+ * if the weight differs from the average of the recent weights by more than the jump fraction, or
+ * if the blood pressure is in the hypertensive crisis range. Comparisons with a user's own readings
+ * start once the ring buffer is full. Alerts are handed to the listeners on a separate thread, so a
+ * slow listener never holds up a save.
+ *
+ * The state starts empty when the application starts and only follows records in date order: a
+ * record dated before the user's latest reading, such as a restored one, is only checked for a
+ * fever or a crisis reading, and is not compared with or added to the user's own readings.
+ */
+public class AnomalyDetector implements HealthRecordController.RecordListener, AutoCloseable {
+
+    /**
+     * Receives the alerts raised by a detector.
+     */
+    public interface AlertListener {
+
+        /**
+         * Called on the detector's alert thread for every alert raised.
+         *
+         * @param alert the alert
+         */
+        void onAlert(HealthAlert alert);
+    }
+
+    /**
+     * The number of recent weights kept per user unless set otherwise.
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 7;
+
+    /**
+     * The weight given to each new reading in the moving averages unless set otherwise.
+     */
+    public static final double DEFAULT_SMOOTHING = 0.2;
+
+    /**
+     * The number of standard deviations from the average beyond which a reading is flagged, unless set otherwise.
+     */
+    public static final double DEFAULT_DEVIATION_THRESHOLD = 3.0;
+
+    /**
+     * The change from the recent average weight beyond which a weight is flagged, as a fraction, unless set otherwise.
+     */
+    public static final double DEFAULT_WEIGHT_JUMP_FRACTION = 0.05;
+
+    // Smallest standard deviations used, so a user with very steady readings is not flagged for tiny changes
+    private static final double MIN_WEIGHT_DEVIATION = 0.5;
+    private static final double MIN_TEMPERATURE_DEVIATION = 0.2;
+
+    private final int windowSize;
+    private final double smoothing;
+
+    private volatile float feverThreshold = CohortStatistics.FEVER_THRESHOLD;
+    private volatile double deviationThreshold = DEFAULT_DEVIATION_THRESHOLD;
+    private volatile double weightJumpFraction = DEFAULT_WEIGHT_JUMP_FRACTION;
+
+    private final Map<Integer, UserState> states = new ConcurrentHashMap<>();
+    private final List<AlertListener> listeners = new CopyOnWriteArrayList<>();
+
+    private final ExecutorService alertExecutor = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "anomaly-alerts");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Creates a detector.
+     *
+     * @param windowSize the number of recent weights kept per user, which is also the number of
+     *                   readings needed before a user's own readings are used for comparison
+     * @param smoothing the weight of each new reading in the moving averages, between 0 and 1
+     */
+    public AnomalyDetector(int windowSize, double smoothing) {
+        if (windowSize < 1 || smoothing <= 0 || smoothing > 1) {
+            throw new IllegalArgumentException("Invalid window size or smoothing: " + windowSize + ", " + smoothing);
+        }
+        this.windowSize = windowSize;
+        this.smoothing = smoothing;
+    }
+
+    /**
+     * Creates a detector with the default window size and smoothing.
+     */
+    public AnomalyDetector() {
+        this(DEFAULT_WINDOW_SIZE, DEFAULT_SMOOTHING);
+    }
+
+    /**
+     * Sets the temperature, in Celsius, at or above which a reading is flagged as a fever.
+     *
+     * @param feverThreshold the fever threshold
+     */
+    public void setFeverThreshold(float feverThreshold) {
+        this.feverThreshold = feverThreshold;
+    }
+
+    /**
+     * Sets the number of standard deviations from a user's average beyond which a weight or temperature is flagged.
+     *
+     * @param deviationThreshold the deviation threshold
+     */
+    public void setDeviationThreshold(double deviationThreshold) {
+        this.deviationThreshold = deviationThreshold;
+    }
+
+    /**
+     * Sets the change from a user's recent average weight, as a fraction, beyond which a weight is flagged.
+     *
+     * @param weightJumpFraction the jump fraction, e.g. 0.05 for 5%
+     */
+    public void setWeightJumpFraction(double weightJumpFraction) {
+        this.weightJumpFraction = weightJumpFraction;
+    }
+
+    /**
+     * Registers a listener for the alerts.
+     *
+     * @param listener the listener to add
+     */
+    public void addAlertListener(AlertListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Removes a listener registered with addAlertListener.
+     *
+     * @param listener the listener to remove
+     */
+    public void removeAlertListener(AlertListener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public void recordAdded(HealthRecord record) {
+        observe(record);
+    }
+
+    @Override
+    public void recordUpdated(HealthRecord record) {
+        // A corrected reading is not a new one
+    }
+
+    @Override
+    public void recordDeleted(HealthRecord record) {
+    }
+
+    /**
+     * Checks a new reading against the thresholds and the user's state, raises the alerts it
+     * deserves, and adds it to the state.
+     *
+     * @param record the new record
+     * @return the number of alerts raised
+     */
+    public int observe(HealthRecord record) {
+        UserState state = states.computeIfAbsent(record.getUserId(), userId -> new UserState(windowSize));
+        long epochDay = record.getDate().toEpochDay();
+        float temperature = record.getTemperature();
+
+        List<HealthAlert> alerts = null;
+        // Readings of zero were left empty. A fever needs no baseline, so a backdated reading raises it too
+        boolean fever = temperature > 0 && temperature >= feverThreshold;
+        if (fever) {
+            alerts = add(alerts, new HealthAlert(HealthAlert.Type.FEVER, record, temperature, feverThreshold));
+        }
+
+        synchronized (state) {
+            // A reading dated before the last one is not compared with, or added to, the baseline,
+            // which follows the days in order
+            if (epochDay >= state.lastEpochDay) {
+                state.lastEpochDay = epochDay;
+                alerts = compareAndAdd(state, record, fever, alerts);
+            }
+        }
+
+        if (BloodPressureCategory.classify(record.getBloodPressure()) == BloodPressureCategory.HYPERTENSIVE_CRISIS) {
+            alerts = add(alerts, new HealthAlert(HealthAlert.Type.BLOOD_PRESSURE_CRISIS, record, 0, 0));
+        }
+
+        if (alerts == null) {
+            return 0;
+        }
+        for (HealthAlert alert : alerts) {
+            alertExecutor.execute(() -> {
+                for (AlertListener listener : listeners) {
+                    listener.onAlert(alert);
+                }
+            });
+        }
+        return alerts.size();
+    }
+
+    /**
+     * Checks a reading against the user's baseline, raising the deviation alerts it deserves, and
+     * adds it to the baseline. Called with the state locked.
+     */
+    private List<HealthAlert> compareAndAdd(UserState state, HealthRecord record, boolean fever, List<HealthAlert> alerts) {
+        float weight = record.getWeight();
+        float temperature = record.getTemperature();
+        boolean warm = state.weightCount >= windowSize;
+
+        if (temperature > 0) {
+            if (!fever && state.temperatureCount >= windowSize
+                    && isDeviation(temperature, state.temperatureMean, state.temperatureVariance, MIN_TEMPERATURE_DEVIATION)) {
+                alerts = add(alerts, new HealthAlert(HealthAlert.Type.TEMPERATURE_DEVIATION, record, temperature, state.temperatureMean));
+            }
+            double difference = temperature - state.temperatureMean;
+            if (state.temperatureCount++ == 0) {
+                state.temperatureMean = temperature;
+            } else {
+                double increment = smoothing * difference;
+                state.temperatureMean += increment;
+                state.temperatureVariance = (1 - smoothing) * (state.temperatureVariance + difference * increment);
+            }
+        }
+
+        if (weight > 0) {
+            double recentMean = state.recentWeightSum / Math.max(1, state.recentWeightCount);
+            if (warm && Math.abs(weight - recentMean) > weightJumpFraction * recentMean) {
+                alerts = add(alerts, new HealthAlert(HealthAlert.Type.WEIGHT_JUMP, record, weight, recentMean));
+            } else if (warm && isDeviation(weight, state.weightMean, state.weightVariance, MIN_WEIGHT_DEVIATION)) {
+                alerts = add(alerts, new HealthAlert(HealthAlert.Type.WEIGHT_DEVIATION, record, weight, state.weightMean));
+            }
+            double difference = weight - state.weightMean;
+            if (state.weightCount++ == 0) {
+                state.weightMean = weight;
+            } else {
+                double increment = smoothing * difference;
+                state.weightMean += increment;
+                state.weightVariance = (1 - smoothing) * (state.weightVariance + difference * increment);
+            }
+            state.addRecentWeight(weight);
+        }
+        return alerts;
+    }
+
+    /**
+     * Hands the alerts already raised to the listeners and stops the alert thread.
+     */
+    @Override
+    public void close() {
+        alertExecutor.shutdown();
+        try {
+            alertExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean isDeviation(double value, double mean, double variance, double minDeviation) {
+        double deviation = Math.max(Math.sqrt(variance), minDeviation);
+        return Math.abs(value - mean) > deviationThreshold * deviation;
+    }
+
+    private static List<HealthAlert> add(List<HealthAlert> alerts, HealthAlert alert) {
+        if (alerts == null) {
+            alerts = new ArrayList<>(2);
+        }
+        alerts.add(alert);
+        return alerts;
+    }
+
+    /**
+     * The running statistics of one user's readings; guarded by itself.
+     */
+    private static class UserState {
+        long lastEpochDay = Long.MIN_VALUE;
+
+        long weightCount;
+        double weightMean;
+        double weightVariance;
+
+        long temperatureCount;
+        double temperatureMean;
+        double temperatureVariance;
+
+        // The last weights, oldest overwritten first, and their sum
+        final float[] recentWeights;
+        int nextRecentWeight;
+        int recentWeightCount;
+        double recentWeightSum;
+
+        UserState(int windowSize) {
+            recentWeights = new float[windowSize];
+        }
+
+        void addRecentWeight(float weight) {
+            if (recentWeightCount == recentWeights.length) {
+                recentWeightSum -= recentWeights[nextRecentWeight];
+            } else {
+                recentWeightCount++;
+            }
+            recentWeights[nextRecentWeight] = weight;
+            recentWeightSum += weight;
+            nextRecentWeight = (nextRecentWeight + 1) % recentWeights.length;
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package analytics;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import database.Database;
+import model.HealthRecord;
+
+/**
+ * Computes population-level statistics over the health records of all users.
+ *
+ * The user ID range of every shard is split into partitions which are scanned in parallel on a fork/join pool.
+ * Every partition streams its rows through its own read connection, in (user, date) order using the
+ * idx_health_records_user_date index, and folds them into a {@link CohortStatistics}. The archived
+ * records of each user in the partition are decoded and merged into that order, one user at a time.
+ * The partial results are merged as the tasks join, so memory use does not depend on the number of
+ * records.
+ */
+public class CohortAnalytics {
+
+    // Number of partitions created per worker thread, so that uneven partitions still balance out
+    private static final int PARTITIONS_PER_WORKER = 4;
+
+    // Rows fetched per round trip while streaming a partition
+    private static final int FETCH_SIZE = 1000;
+
+    // Short readings are stored once in text_values and referred to by bp_id
+    private static final String SCAN_SQL = "SELECT r.user_id, r.weight, r.temperature, COALESCE(t.text_value, r.bloodPressure), r.date " +
+            "FROM health_records r LEFT JOIN text_values t ON t.id = r.bp_id " +
+            "WHERE r.user_id BETWEEN ? AND ? ORDER BY r.user_id, r.date";
+
+    // The users of a partition that have archived records
+    private static final String ARCHIVED_USERS_SQL = "SELECT DISTINCT user_id FROM health_record_archive " +
+            "WHERE user_id BETWEEN ? AND ? ORDER BY user_id";
+
+    // The user ID range of a shard, over its records and its archive
+    private static final String USER_RANGE_SQL = "SELECT MIN(min_user_id), MAX(max_user_id) FROM (" +
+            "SELECT MIN(user_id) AS min_user_id, MAX(user_id) AS max_user_id FROM health_records UNION ALL " +
+            "SELECT MIN(user_id), MAX(user_id) FROM health_record_archive) ranges";
+
+    // The database to analyse
+    private final Database database;
+
+    // The number of worker threads used for the scan
+    private final int parallelism;
+
+    /**
+     * Creates an analytics engine that uses one worker per available processor.
+     *
+     * @param database the database to analyse
+     */
+    public CohortAnalytics(Database database) {
+        this(database, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates an analytics engine with a fixed number of worker threads.
+     *
+     * @param database the database to analyse
+     * @param parallelism the number of worker threads to scan with
+     */
+    public CohortAnalytics(Database database, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        }
+        this.database = database;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Scans all health records and computes the cohort statistics.
+     *
+     * @return the statistics over all users
+     * @throws SQLException if an SQL error occurs in any partition
+     */
+    public CohortStatistics compute() throws SQLException {
+        List<PartitionTask> shardTasks = new ArrayList<>();
+
+        // A sharded database is analysed shard by shard; every shard is split into its own partitions
+        for (Database shard : database.getShards()) {
+            int minUserId;
+            int maxUserId;
+
+            // Find the user ID range that the partitions of this shard have to cover
+            try (Connection connection = shard.openReadConnection();
+                 Statement stmt = connection.createStatement();
+                 ResultSet rs = stmt.executeQuery(USER_RANGE_SQL)) {
+                rs.next();
+                minUserId = rs.getInt(1);
+                maxUserId = rs.getInt(2);
+                if (rs.wasNull()) {
+                    // No records in this shard
+                    continue;
+                }
+            }
+
+            long span = (long) maxUserId - minUserId + 1;
+            long partitionSize = Math.max(1, span / ((long) parallelism * PARTITIONS_PER_WORKER));
+            shardTasks.add(new PartitionTask(shard, minUserId, maxUserId, partitionSize));
+        }
+
+        if (shardTasks.isEmpty()) {
+            return new CohortStatistics();
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            return pool.invoke(new RecursiveTask<CohortStatistics>() {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected CohortStatistics compute() {
+                    CohortStatistics total = new CohortStatistics();
+                    for (PartitionTask task : invokeAll(shardTasks)) {
+                        total.merge(task.join());
+                    }
+                    return total;
+                }
+            });
+        } catch (PartitionFailedException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Returns the number of worker threads this engine scans with.
+     * @return the parallelism
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Streams the records of one user ID range into a new statistics accumulator, merging in each
+     * user's archived records so that the rows stay in (user, date) order.
+     */
+    private CohortStatistics scan(Database shard, int fromUserId, int toUserId) throws SQLException {
+        CohortStatistics statistics = new CohortStatistics();
+
+        try (Connection connection = shard.openReadConnection()) {
+            List<Integer> archivedUsers = new ArrayList<>();
+            try (PreparedStatement pstmt = connection.prepareStatement(ARCHIVED_USERS_SQL)) {
+                pstmt.setInt(1, fromUserId);
+                pstmt.setInt(2, toUserId);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        archivedUsers.add(rs.getInt(1));
+                    }
+                }
+            }
+
+            try (PreparedStatement pstmt = connection.prepareStatement(SCAN_SQL)) {
+                pstmt.setInt(1, fromUserId);
+                pstmt.setInt(2, toUserId);
+                pstmt.setFetchSize(FETCH_SIZE);
+
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    boolean hasRow = rs.next();
+                    int nextArchivedUser = 0;
+                    List<HealthRecord> archived = Collections.emptyList();
+                    int nextArchived = 0;
+                    while (true) {
+                        // Decode the next user's archive once the rows have reached that user
+                        if (nextArchived == archived.size() && nextArchivedUser < archivedUsers.size()
+                                && (!hasRow || archivedUsers.get(nextArchivedUser) <= rs.getInt(1))) {
+                            archived = shard.getArchivedRecords(connection, archivedUsers.get(nextArchivedUser++));
+                            nextArchived = 0;
+                        }
+                        HealthRecord record = nextArchived < archived.size() ? archived.get(nextArchived) : null;
+                        if (record == null && !hasRow) {
+                            break;
+                        }
+                        if (record != null && (!hasRow || comesFirst(record, rs.getInt(1), rs.getLong(5)))) {
+                            statistics.accept(record.getUserId(), record.getWeight(), record.getTemperature(),
+                                    record.getBloodPressure(), Date.valueOf(record.getDate()).getTime());
+                            nextArchived++;
+                        } else {
+                            statistics.accept(rs.getInt(1), rs.getFloat(2), rs.getFloat(3), rs.getString(4), rs.getLong(5));
+                            hasRow = rs.next();
+                        }
+                    }
+                }
+            }
+        }
+
+        return statistics;
+    }
+
+    // Whether an archived record sorts before a row of health_records, by user, then date
+    private static boolean comesFirst(HealthRecord archived, int userId, long date) {
+        if (archived.getUserId() != userId) {
+            return archived.getUserId() < userId;
+        }
+        return Date.valueOf(archived.getDate()).getTime() <= date;
+    }
+
+    /**
+     * A fork/join task that splits a user ID range in half until it is small enough to scan directly.
+     */
+    private class PartitionTask extends RecursiveTask<CohortStatistics> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Database shard;
+        private final int fromUserId;
+        private final int toUserId;
+        private final long partitionSize;
+
+        PartitionTask(Database shard, int fromUserId, int toUserId, long partitionSize) {
+            this.shard = shard;
+            this.fromUserId = fromUserId;
+            this.toUserId = toUserId;
+            this.partitionSize = partitionSize;
+        }
+
+        @Override
+        protected CohortStatistics compute() {
+            long span = (long) toUserId - fromUserId + 1;
+            if (span <= partitionSize) {
+                try {
+                    return scan(shard, fromUserId, toUserId);
+                } catch (SQLException e) {
+                    throw new PartitionFailedException(e);
+                }
+            }
+
+            int middle = (int) (fromUserId + span / 2 - 1);
+            PartitionTask left = new PartitionTask(shard, fromUserId, middle, partitionSize);
+            PartitionTask right = new PartitionTask(shard, middle + 1, toUserId, partitionSize);
+            left.fork();
+            CohortStatistics result = right.compute();
+            return result.merge(left.join());
+        }
+    }
+
+    /**
+     * Carries an SQLException out of a fork/join task, whose compute method cannot throw checked exceptions.
+     */
+    private static class PartitionFailedException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        PartitionFailedException(SQLException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized SQLException getCause() {
+            return (SQLException) super.getCause();
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package analytics;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import model.BloodPressureCategory;
+
+/**
+ * Accumulates population-level statistics over health records.
+ *
+ * Each analytics worker fills its own instance from a stream of rows and the partial results are
+ * combined with {@link #merge(CohortStatistics)}. All state is held in fixed-size primitive arrays,
+ * so accumulating a row never allocates and merging is independent of the number of rows.
+ *
+ * Rows must be fed in (user, date) order within one instance so that fever days can be counted
+ * without remembering every date seen.
+ */
+public class CohortStatistics {
+
+    /**
+     * Temperatures at or above this value (in Celsius) count as a fever.
+     */
+    public static final float FEVER_THRESHOLD = 38.0f;
+
+    // Weight histogram resolution: one bucket per 0.1 kg, up to 500 kg
+    private static final int WEIGHT_BUCKETS_PER_KG = 10;
+    private static final int MAX_WEIGHT_KG = 500;
+
+    private final long[] weightHistogram = new long[MAX_WEIGHT_KG * WEIGHT_BUCKETS_PER_KG + 1];
+    private final long[] bloodPressureCounts = new long[BloodPressureCategory.values().length];
+
+    private long recordCount;
+    private long weightCount;
+    private long userCount;
+    private long feverDays;
+    private long usersWithFever;
+
+    // Position of the previous row, used to detect new users and repeated fever days
+    private int lastUserId = Integer.MIN_VALUE;
+    private long lastFeverDate = Long.MIN_VALUE;
+    private boolean lastUserHadFever;
+
+    /**
+     * Adds one health record row to the statistics.
+     *
+     * @param userId the ID of the user the record belongs to
+     * @param weight the recorded weight, or 0 if none was entered
+     * @param temperature the recorded temperature, or 0 if none was entered
+     * @param bloodPressure the recorded blood pressure, may be null
+     * @param date the record date as stored in the database (epoch milliseconds)
+     */
+    public void accept(int userId, float weight, float temperature, String bloodPressure, long date) {
+        recordCount++;
+
+        if (userId != lastUserId) {
+            // First row of a new user
+            userCount++;
+            lastUserId = userId;
+            lastFeverDate = Long.MIN_VALUE;
+            lastUserHadFever = false;
+        }
+
+        if (weight > 0) {
+            int bucket = Math.min(Math.round(weight * WEIGHT_BUCKETS_PER_KG), weightHistogram.length - 1);
+            weightHistogram[bucket]++;
+            weightCount++;
+        }
+
+        if (temperature >= FEVER_THRESHOLD && date != lastFeverDate) {
+            // Several fever readings on the same day only count as one fever day
+            feverDays++;
+            lastFeverDate = date;
+            if (!lastUserHadFever) {
+                usersWithFever++;
+                lastUserHadFever = true;
+            }
+        }
+
+        bloodPressureCounts[BloodPressureCategory.classify(bloodPressure).ordinal()]++;
+    }
+
+    /**
+     * Adds the statistics of another partition to this one. The partitions must cover disjoint
+     * sets of users, which is the case for the user ID ranges used by {@link CohortAnalytics}.
+     *
+     * @param other the partial statistics to add
+     * @return this instance, for chaining
+     */
+    public CohortStatistics merge(CohortStatistics other) {
+        for (int i = 0; i < weightHistogram.length; i++) {
+            weightHistogram[i] += other.weightHistogram[i];
+        }
+        for (int i = 0; i < bloodPressureCounts.length; i++) {
+            bloodPressureCounts[i] += other.bloodPressureCounts[i];
+        }
+        recordCount += other.recordCount;
+        weightCount += other.weightCount;
+        userCount += other.userCount;
+        feverDays += other.feverDays;
+        usersWithFever += other.usersWithFever;
+        return this;
+    }
+
+    /**
+     * Returns the weight below which the given fraction of weight readings fall.
+     *
+     * @param percentile the percentile to compute, between 0 and 100
+     * @return the weight at that percentile (to 0.1 kg), or 0 if no weights were recorded
+     */
+    public float getWeightPercentile(double percentile) {
+        if (weightCount == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * weightCount));
+        long seen = 0;
+        for (int i = 0; i < weightHistogram.length; i++) {
+            seen += weightHistogram[i];
+            if (seen >= rank) {
+                return (float) i / WEIGHT_BUCKETS_PER_KG;
+            }
+        }
+        return (float) (weightHistogram.length - 1) / WEIGHT_BUCKETS_PER_KG;
+    }
+
+    /**
+     * Returns the share of readings in each blood pressure category.
+     *
+     * @return the fraction (0 to 1) of records in each category
+     */
+    public Map<BloodPressureCategory, Double> getBloodPressurePrevalence() {
+        Map<BloodPressureCategory, Double> prevalence = new EnumMap<>(BloodPressureCategory.class);
+        for (BloodPressureCategory category : BloodPressureCategory.values()) {
+            double count = bloodPressureCounts[category.ordinal()];
+            prevalence.put(category, recordCount == 0 ? 0.0 : count / recordCount);
+        }
+        return prevalence;
+    }
+
+    /**
+     * Returns the number of records in the given blood pressure category.
+     *
+     * @param category the category to look up
+     * @return the number of records in that category
+     */
+    public long getBloodPressureCount(BloodPressureCategory category) {
+        return bloodPressureCounts[category.ordinal()];
+    }
+
+    /**
+     * Returns the number of records accumulated.
+     * @return the record count
+     */
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Returns the number of distinct users that have at least one record.
+     * @return the user count
+     */
+    public long getUserCount() {
+        return userCount;
+    }
+
+    /**
+     * Returns the total number of distinct (user, day) pairs with a fever reading.
+     * @return the number of fever days
+     */
+    public long getFeverDays() {
+        return feverDays;
+    }
+
+    /**
+     * Returns the number of users with at least one fever day.
+     * @return the number of users with a fever
+     */
+    public long getUsersWithFever() {
+        return usersWithFever;
+    }
+
+    /**
+     * Returns a multi-line summary of the statistics, suitable for printing.
+     *
+     * @return a human readable summary
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("records=").append(recordCount)
+          .append(", users=").append(userCount)
+          .append(System.lineSeparator());
+        sb.append("weight p10=").append(getWeightPercentile(10))
+          .append(" p50=").append(getWeightPercentile(50))
+          .append(" p90=").append(getWeightPercentile(90))
+          .append(" p99=").append(getWeightPercentile(99))
+          .append(System.lineSeparator());
+        sb.append("feverDays=").append(feverDays)
+          .append(", usersWithFever=").append(usersWithFever)
+          .append(System.lineSeparator());
+        for (Map.Entry<BloodPressureCategory, Double> entry : getBloodPressurePrevalence().entrySet()) {
+            sb.append(String.format("bp %-20s %6.2f%%%n", entry.getKey(), entry.getValue() * 100));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,95 @@
+package analytics;
+
+import model.HealthRecord;
+
+/**
+ * A reading that the {@link AnomalyDetector} found unusual, either in itself or for the user who entered it.
+ */
+public class HealthAlert {
+
+    /**
+     * The kinds of anomaly that are detected.
+     */
+    public enum Type {
+        /** The temperature is at or above the fever threshold. */
+        FEVER,
+        /** The temperature is far from the user's usual temperature. */
+        TEMPERATURE_DEVIATION,
+        /** The weight is far from the user's usual weight. */
+        WEIGHT_DEVIATION,
+        /** The weight changed by more than the allowed fraction of the user's recent weights. */
+        WEIGHT_JUMP,
+        /** The blood pressure is in the hypertensive crisis range. */
+        BLOOD_PRESSURE_CRISIS
+    }
+
+    private final Type type;
+    private final HealthRecord record;
+    private final double value;
+    private final double expected;
+
+    /**
+     * Constructs a health alert.
+     *
+     * @param type the kind of anomaly
+     * @param record the record holding the reading
+     * @param value the reading that was flagged
+     * @param expected the value the reading was compared with: the threshold, or the user's usual value
+     */
+    public HealthAlert(Type type, HealthRecord record, double value, double expected) {
+        this.type = type;
+        this.record = record;
+        this.value = value;
+        this.expected = expected;
+    }
+
+    /**
+     * Returns the kind of anomaly.
+     * @return the type
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Returns the record holding the reading.
+     * @return the record
+     */
+    public HealthRecord getRecord() {
+        return record;
+    }
+
+    /**
+     * Returns the reading that was flagged.
+     * @return the value
+     */
+    public double getValue() {
+        return value;
+    }
+
+    /**
+     * Returns the value the reading was compared with: the threshold, or the user's usual value.
+     * @return the expected value
+     */
+    public double getExpected() {
+        return expected;
+    }
+
+    @Override
+    public String toString() {
+        switch (type) {
+            case FEVER:
+                return String.format("Fever: temperature %.1f is at or above %.1f", value, expected);
+            case TEMPERATURE_DEVIATION:
+                return String.format("Unusual temperature: %.1f, usually about %.1f", value, expected);
+            case WEIGHT_DEVIATION:
+                return String.format("Unusual weight: %.1f, usually about %.1f", value, expected);
+            case WEIGHT_JUMP:
+                return String.format("Sudden weight change: %.1f, recently about %.1f", value, expected);
+            case BLOOD_PRESSURE_CRISIS:
+                return "Blood pressure " + record.getBloodPressure() + " is in the hypertensive crisis range";
+            default:
+                return type.name();
+        }
+    }
+}
@@ -0,0 +1,539 @@
+package application;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.function.Function;
+
+import controller.DraftAutosaver;
+import database.ConnectionSettings;
+import database.DataKeyStore;
+import database.Database;
+import database.DraftJournal;
+import database.EncryptedRepository;
+import database.HealthRecordQuery;
+import database.ReplicatedDatabase;
+import database.SyncWorker;
+import database.TuningProfile;
+
+/**
+ * The settings of the application: where the database is, how it is tuned, and the sizes of its
+ * caches, batches, pages and worker pools. Every setting has a typed {@link Key} with a default, and
+ * can be set in three places, each overriding the one before:
+ * <ol>
+ * <li>the configuration file, a properties file named by the myhealthtracker.config system property,
+ * myhealthtracker.properties in the working directory by default;</li>
+ * <li>an environment variable named after the key in upper case with underscores, such as
+ * MYHEALTHTRACKER_DB_URL for myhealthtracker.db.url;</li>
+ * <li>a system property with the key's name, such as -Dmyhealthtracker.db.url=jdbc:h2:./myhealthtracker.</li>
+ * </ol>
+ * The keys keep the names of the system properties the application has always read, so existing
+ * start scripts work unchanged.
+ *
+ * A configuration is immutable. Reloadable settings can be changed while the application runs by
+ * editing the configuration file, see {@link AppContext}; the others take effect at the next start.
+ */
+public final class AppConfig {
+
+    /**
+     * The system property that names the configuration file; the environment variable
+     * MYHEALTHTRACKER_CONFIG can name it too.
+     */
+    public static final String FILE_PROPERTY = "myhealthtracker.config";
+
+    /**
+     * The configuration file read when none is named.
+     */
+    public static final String DEFAULT_FILE = "myhealthtracker.properties";
+
+    /**
+     * A setting: its name, type, default value, and whether it can change while the application runs.
+     *
+     * @param <T> the type of the value
+     */
+    public static final class Key<T> {
+        private final String name;
+        private final T defaultValue;
+        private final boolean reloadable;
+        private final Function<String, T> parser;
+
+        private Key(String name, T defaultValue, boolean reloadable, Function<String, T> parser) {
+            this.name = name;
+            this.defaultValue = defaultValue;
+            this.reloadable = reloadable;
+            this.parser = parser;
+        }
+
+        /**
+         * Returns the name of the setting, as used in the file and for the system property.
+         * @return the name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the name of the environment variable for the setting.
+         * @return the name in upper case with underscores
+         */
+        public String getEnvironmentName() {
+            return name.toUpperCase(Locale.ROOT).replace('.', '_');
+        }
+
+        /**
+         * Returns the value used when the setting is not set anywhere.
+         * @return the default value, may be null
+         */
+        public T getDefaultValue() {
+            return defaultValue;
+        }
+
+        /**
+         * Returns whether a change of the setting is applied while the application runs.
+         * @return true if the setting is reloadable
+         */
+        public boolean isReloadable() {
+            return reloadable;
+        }
+
+        private T parse(String text, String source) {
+            try {
+                return parser.apply(text.trim());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid " + name + " in the " + source + ": " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    // Every key, in the order they are declared and described
+    private static final List<Key<?>> KEYS = new ArrayList<>();
+
+    /**
+     * The JDBC URL of the application database.
+     */
+    public static final Key<String> DB_URL = key(Database.URL_PROPERTY, Database.DEFAULT_URL, false, AppConfig::text);
+
+    /**
+     * The SQLite tuning profile the database settings start from; unset starts from the engine defaults.
+     * The other myhealthtracker.db settings override single settings of the profile.
+     */
+    public static final Key<TuningProfile> DB_PROFILE = key("myhealthtracker.db.profile", null, true, TuningProfile::forName);
+
+    /**
+     * The SQLite journal mode, set when the database is opened; unset keeps the file's mode.
+     */
+    public static final Key<String> DB_JOURNAL_MODE = key("myhealthtracker.db.journal_mode", null, false,
+            text -> ConnectionSettings.oneOf(ConnectionSettings.JOURNAL_MODES, "journal mode", text));
+
+    /**
+     * The SQLite page cache per connection: pages if positive, KiB if negative; unset keeps the default.
+     */
+    public static final Key<Integer> DB_CACHE_SIZE = key("myhealthtracker.db.cache_size", null, true, Integer::valueOf);
+
+    /**
+     * The most bytes of the SQLite file read through memory-mapped I/O, 0 for none; unset keeps the default.
+     */
+    public static final Key<Long> DB_MMAP_SIZE = key("myhealthtracker.db.mmap_size", null, true, AppConfig::nonNegativeLong);
+
+    /**
+     * The SQLite synchronous level; unset keeps the default.
+     */
+    public static final Key<String> DB_SYNCHRONOUS = key("myhealthtracker.db.synchronous", null, true,
+            text -> ConnectionSettings.oneOf(ConnectionSettings.SYNCHRONOUS_MODES, "synchronous", text));
+
+    /**
+     * Where SQLite keeps temporary tables and indexes; unset keeps the default.
+     */
+    public static final Key<String> DB_TEMP_STORE = key("myhealthtracker.db.temp_store", null, true,
+            text -> ConnectionSettings.oneOf(ConnectionSettings.TEMP_STORES, "temp store", text));
+
+    /**
+     * The SQLite page size in bytes of a new database file; unset keeps the default.
+     */
+    public static final Key<Integer> DB_PAGE_SIZE = key("myhealthtracker.db.page_size", null, false,
+            text -> ConnectionSettings.checkPageSize(Integer.parseInt(text)));
+
+    /**
+     * The elapsed time in milliseconds from which a statement is written to the slow query log;
+     * unset keeps the log off.
+     */
+    public static final Key<Long> DB_SLOW_QUERY_MILLIS = key("myhealthtracker.db.slow_query_ms", null, true,
+            AppConfig::nonNegativeLong);
+
+    /**
+     * The file the slow query log appends to.
+     */
+    public static final Key<String> DB_SLOW_QUERY_LOG = key("myhealthtracker.db.slow_query_log",
+            "myhealthtracker-slow-queries.log", false, AppConfig::text);
+
+    /**
+     * The JDBC URLs of read replicas of the application database, separated by commas; unset reads
+     * from the application database itself.
+     */
+    public static final Key<List<String>> DB_REPLICA_URLS = key("myhealthtracker.db.replica_urls", null, false,
+            AppConfig::textList);
+
+    /**
+     * How old the data of a replica may be, in milliseconds, for it to serve the record list, the
+     * user list and the export.
+     */
+    public static final Key<Long> DB_REPLICA_MAX_STALENESS_MILLIS = key("myhealthtracker.db.replica_max_staleness_ms",
+            ReplicatedDatabase.DEFAULT_MAX_STALENESS_MILLIS, true, AppConfig::nonNegativeLong);
+
+    /**
+     * The number of distinct blood pressure readings and notes the database keeps in memory.
+     */
+    public static final Key<Integer> TEXT_CACHE_SIZE = key("myhealthtracker.cache.text_values",
+            Database.DEFAULT_TEXT_CACHE_SIZE, true, AppConfig::positiveInt);
+
+    /**
+     * The number of decrypted records kept in memory when records are encrypted.
+     */
+    public static final Key<Integer> RECORD_CACHE_SIZE = key("myhealthtracker.cache.decrypted_records",
+            EncryptedRepository.DEFAULT_CACHE_SIZE, true, AppConfig::positiveInt);
+
+    /**
+     * The number of records per page of the record table.
+     */
+    public static final Key<Integer> PAGE_SIZE = key("myhealthtracker.page.size",
+            HealthRecordQuery.DEFAULT_PAGE_SIZE, true, AppConfig::positiveInt);
+
+    /**
+     * Whether health records are stored encrypted.
+     */
+    public static final Key<Boolean> ENCRYPT = key(EncryptedRepository.ENCRYPT_PROPERTY, false, false, AppConfig::bool);
+
+    /**
+     * The file holding the master key of the encrypted records.
+     */
+    public static final Key<String> KEY_FILE = key(DataKeyStore.MASTER_KEY_PATH_PROPERTY,
+            DataKeyStore.DEFAULT_MASTER_KEY_PATH, false, AppConfig::text);
+
+    /**
+     * The JDBC URL of the central database that the local database is synchronized to; unset works
+     * on the application database directly.
+     */
+    public static final Key<String> PRIMARY_URL = key(SyncWorker.PRIMARY_URL_PROPERTY, null, false, AppConfig::text);
+
+    /**
+     * The most outbox entries sent to the central database in one transaction.
+     */
+    public static final Key<Integer> SYNC_BATCH_SIZE = key("myhealthtracker.sync.batch_size",
+            SyncWorker.DEFAULT_BATCH_SIZE, false, AppConfig::positiveInt);
+
+    /**
+     * The pause between synchronization attempts, in milliseconds.
+     */
+    public static final Key<Long> SYNC_INTERVAL_MILLIS = key("myhealthtracker.sync.interval_ms",
+            SyncWorker.DEFAULT_INTERVAL_MILLIS, false, AppConfig::positiveLong);
+
+    /**
+     * The journal file of the record form drafts.
+     */
+    public static final Key<String> DRAFTS_FILE = key(DraftJournal.PATH_PROPERTY, DraftJournal.DEFAULT_PATH, false, AppConfig::text);
+
+    /**
+     * The longest time a draft edit waits before it is written, in milliseconds.
+     */
+    public static final Key<Long> DRAFTS_INTERVAL_MILLIS = key("myhealthtracker.drafts.interval_ms",
+            DraftAutosaver.DEFAULT_INTERVAL_MILLIS, false, AppConfig::positiveLong);
+
+    /**
+     * The number of worker threads of the report generator.
+     */
+    public static final Key<Integer> REPORT_THREADS = key("myhealthtracker.report.threads",
+            Runtime.getRuntime().availableProcessors(), false, AppConfig::positiveInt);
+
+    private final Path file;
+    private final boolean fileFound;
+    private final Map<Key<?>, Object> values;
+    private final Map<Key<?>, String> sources;
+
+    private AppConfig(Path file, boolean fileFound, Map<Key<?>, Object> values, Map<Key<?>, String> sources) {
+        this.file = file;
+        this.fileFound = fileFound;
+        this.values = values;
+        this.sources = sources;
+    }
+
+    private static <T> Key<T> key(String name, T defaultValue, boolean reloadable, Function<String, T> parser) {
+        Key<T> key = new Key<>(name, defaultValue, reloadable, parser);
+        KEYS.add(key);
+        return key;
+    }
+
+    /**
+     * Returns every setting the configuration has.
+     * @return the keys, in the order they are described
+     */
+    public static List<Key<?>> keys() {
+        return Collections.unmodifiableList(KEYS);
+    }
+
+    /**
+     * Loads the configuration from the configuration file, the environment and the system properties.
+     * A missing configuration file is the same as an empty one.
+     *
+     * @return the configuration
+     * @throws IOException if the configuration file exists but cannot be read
+     * @throws IllegalArgumentException if a setting has an invalid value, or the file has an unknown setting
+     */
+    public static AppConfig load() throws IOException {
+        Path file = configFile();
+        Properties fileSettings = new Properties();
+        boolean found = Files.exists(file);
+        if (found) {
+            try (Reader reader = Files.newBufferedReader(file)) {
+                fileSettings.load(reader);
+            }
+        }
+        return new Builder(file, found).fromFile(fileSettings).fromEnvironment(System.getenv())
+                .fromSystemProperties(System.getProperties()).build();
+    }
+
+    /**
+     * Builds a configuration from the given settings instead of the real sources, for tests and tools.
+     *
+     * @param fileSettings the settings of the configuration file
+     * @param environment the environment variables
+     * @param systemProperties the system properties
+     * @return the configuration
+     * @throws IllegalArgumentException if a setting has an invalid value, or the file settings have an unknown setting
+     */
+    public static AppConfig of(Properties fileSettings, Map<String, String> environment, Properties systemProperties) {
+        return new Builder(Paths.get(DEFAULT_FILE), false).fromFile(fileSettings).fromEnvironment(environment)
+                .fromSystemProperties(systemProperties).build();
+    }
+
+    /**
+     * Returns the configuration file named by the myhealthtracker.config system property or environment variable.
+     * @return the path of the file, which may not exist
+     */
+    public static Path configFile() {
+        String name = System.getProperty(FILE_PROPERTY, System.getenv("MYHEALTHTRACKER_CONFIG"));
+        return Paths.get(name != null ? name : DEFAULT_FILE);
+    }
+
+    /**
+     * Returns the value of a setting.
+     *
+     * @param key the setting
+     * @param <T> the type of the value
+     * @return the value, or the key's default if it is not set; may be null for optional settings
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(Key<T> key) {
+        return (T) values.get(key);
+    }
+
+    /**
+     * Returns where the value of a setting came from.
+     *
+     * @param key the setting
+     * @return "default", "file", "environment" or "system property"
+     */
+    public String getSource(Key<?> key) {
+        return sources.get(key);
+    }
+
+    /**
+     * Returns the configuration file this configuration was read from.
+     * @return the path of the file, which may not exist
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the engine settings for the database connections: those of the tuning profile, if one
+     * is set, with the single settings that are set applied on top.
+     * @return the connection settings
+     */
+    public ConnectionSettings getConnectionSettings() {
+        TuningProfile profile = get(DB_PROFILE);
+        ConnectionSettings base = profile != null ? profile.getSettings() : ConnectionSettings.DEFAULTS;
+        return base.overriddenBy(new ConnectionSettings(get(DB_CACHE_SIZE), get(DB_MMAP_SIZE), get(DB_SYNCHRONOUS),
+                get(DB_TEMP_STORE), get(DB_PAGE_SIZE), get(DB_JOURNAL_MODE)));
+    }
+
+    /**
+     * Returns the settings whose values differ between this configuration and another.
+     *
+     * @param other the other configuration
+     * @return the keys whose values differ
+     */
+    public List<Key<?>> changedKeys(AppConfig other) {
+        List<Key<?>> changed = new ArrayList<>();
+        for (Key<?> key : KEYS) {
+            if (!Objects.equals(get(key), other.get(key))) {
+                changed.add(key);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Returns the configuration that is in effect after a newer one is read while the application
+     * runs: the reloadable settings of the newer configuration, and the others of this one.
+     *
+     * @param newer the configuration read later
+     * @return the configuration in effect
+     */
+    public AppConfig withReloadable(AppConfig newer) {
+        Map<Key<?>, Object> mergedValues = new HashMap<>(values);
+        Map<Key<?>, String> mergedSources = new HashMap<>(sources);
+        for (Key<?> key : KEYS) {
+            if (key.isReloadable()) {
+                mergedValues.put(key, newer.get(key));
+                mergedSources.put(key, newer.getSource(key));
+            }
+        }
+        return new AppConfig(newer.file, newer.fileFound, mergedValues, mergedSources);
+    }
+
+    /**
+     * Describes the configuration in effect, one setting per line with its value and where it came
+     * from, for the startup output and support requests. Reloadable settings are marked with a star,
+     * and passwords in JDBC URLs are masked.
+     *
+     * @return the description
+     */
+    public String describe() {
+        StringBuilder description = new StringBuilder("Configuration (")
+                .append(file.toAbsolutePath()).append(fileFound ? "" : ", not found").append("):");
+        for (Key<?> key : KEYS) {
+            Object value = get(key);
+            // JDBC URLs may carry a password
+            String shown = value == null ? "(unset)" : value.toString().replaceAll("(?i)(password=)[^;&]*", "$1***");
+            description.append(String.format("%n  %-40s %-32s %s%s", key.getName(), shown,
+                    getSource(key), key.isReloadable() ? " *" : ""));
+        }
+        return description.append(String.format("%n  * applied while running when the file changes")).toString();
+    }
+
+    @Override
+    public String toString() {
+        return describe();
+    }
+
+    /**
+     * Collects the values of the sources in order, each overriding the ones before.
+     */
+    private static final class Builder {
+        private final Path file;
+        private final boolean fileFound;
+        private final Map<Key<?>, Object> values = new HashMap<>();
+        private final Map<Key<?>, String> sources = new HashMap<>();
+
+        Builder(Path file, boolean fileFound) {
+            this.file = file;
+            this.fileFound = fileFound;
+            for (Key<?> key : KEYS) {
+                values.put(key, key.getDefaultValue());
+                sources.put(key, "default");
+            }
+        }
+
+        Builder fromFile(Properties settings) {
+            for (String name : settings.stringPropertyNames()) {
+                if (KEYS.stream().noneMatch(key -> key.getName().equals(name))) {
+                    // Most likely a typo that would otherwise be ignored without a word
+                    throw new IllegalArgumentException("Unknown setting " + name + " in the configuration file " + file);
+                }
+            }
+            return set(settings::getProperty, Key::getName, "file");
+        }
+
+        Builder fromEnvironment(Map<String, String> environment) {
+            return set(environment::get, Key::getEnvironmentName, "environment");
+        }
+
+        Builder fromSystemProperties(Properties properties) {
+            return set(properties::getProperty, Key::getName, "system property");
+        }
+
+        private Builder set(Function<String, String> source, Function<Key<?>, String> nameOf, String sourceName) {
+            for (Key<?> key : KEYS) {
+                String text = source.apply(nameOf.apply(key));
+                if (text != null && !text.trim().isEmpty()) {
+                    values.put(key, key.parse(text, sourceName));
+                    sources.put(key, sourceName);
+                }
+            }
+            return this;
+        }
+
+        AppConfig build() {
+            AppConfig config = new AppConfig(file, fileFound, values, sources);
+            // Fails here rather than when the database is opened
+            config.getConnectionSettings();
+            return config;
+        }
+    }
+
+    private static String text(String text) {
+        return text;
+    }
+
+    private static List<String> textList(String text) {
+        List<String> items = new ArrayList<>();
+        for (String item : text.split(",")) {
+            if (!item.trim().isEmpty()) {
+                items.add(item.trim());
+            }
+        }
+        if (items.isEmpty()) {
+            throw new IllegalArgumentException("expected one or more values separated by commas");
+        }
+        return Collections.unmodifiableList(items);
+    }
+
+    private static boolean bool(String text) {
+        if (text.equalsIgnoreCase("true")) {
+            return true;
+        }
+        if (text.equalsIgnoreCase("false")) {
+            return false;
+        }
+        throw new IllegalArgumentException("expected true or false, was '" + text + "'");
+    }
+
+    private static int positiveInt(String text) {
+        int value = Integer.parseInt(text);
+        if (value < 1) {
+            throw new IllegalArgumentException("must be at least 1, was " + value);
+        }
+        return value;
+    }
+
+    private static long positiveLong(String text) {
+        long value = Long.parseLong(text);
+        if (value < 1) {
+            throw new IllegalArgumentException("must be at least 1, was " + value);
+        }
+        return value;
+    }
+
+    private static long nonNegativeLong(String text) {
+        long value = Long.parseLong(text);
+        if (value < 0) {
+            throw new IllegalArgumentException("must not be negative, was " + value);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,481 @@
+package application;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import analytics.AnomalyDetector;
+import controller.DraftAutosaver;
+import controller.HealthRecordController;
+import controller.UserController;
+import database.DataKeyStore;
+import database.Database;
+import database.DraftJournal;
+import database.EncryptedRepository;
+import database.HealthRepository;
+import database.OfflineDatabase;
+import database.ReplicatedDatabase;
+import database.SlowQueryLog;
+import database.SyncWorker;
+
+/**
+ * Owns the long-lived parts of the running application: the one database, the repository the health
+ * records are stored through, the controllers, and the workers with their threads and queues. Every
+ * other part gets these from the context instead of creating its own.
+ *
+ * The parts are created in dependency order from an {@link AppConfig}. The draft autosaver and the
+ * anomaly detector are created with the context, since the view needs them to show the login screen.
+ * The storage and the controllers on top of it are opened by {@link #open(Executor)} off the calling
+ * thread. The storage is a single database, optionally synchronized to a primary database or
+ * replicated to read-only copies (myhealthtracker.db.replica_urls); sharded storage is not supported
+ * by the context.
+ *
+ * Once open, the context checks the configuration file for changes every few seconds. A changed
+ * reloadable setting (the tuning profile, the SQLite cache_size, mmap_size, synchronous level and
+ * temp_store, the cache sizes, the page size and the replica staleness bound) is applied to the running parts, except the journal
+ * mode and page size of a changed profile. A change to any other setting is reported and takes
+ * effect at the next start. A file that no longer reads as a valid configuration is reported and
+ * changes nothing.
+ *
+ * If myhealthtracker.db.slow_query_ms is set, the statements of the database that take longer are
+ * written to a {@link SlowQueryLog}; setting, changing or removing it takes effect on reload. Once
+ * the database is ready, the query plans of its most common reads are checked, and every full table
+ * scan is reported on standard error and in the slow query log.
+ *
+ * {@link #close()} shuts down in the opposite order, timing each phase:
+ * <ol>
+ * <li>the configuration file is no longer checked;</li>
+ * <li>drafts not written yet are written to the journal;</li>
+ * <li>the anomaly detector hands out the alerts already raised;</li>
+ * <li>the sync worker stops, leaving unsent writes in the outbox for the next start;</li>
+ * <li>the decrypted-record and text caches are emptied;</li>
+ * <li>the database waits for the write in progress, checkpoints its log and closes, after its
+ * replicas have applied the batch in progress, then the slow query log is closed.</li>
+ * </ol>
+ * A phase that fails is reported and the next one still runs.
+ */
+public class AppContext implements AutoCloseable {
+
+    /**
+     * The system property that, when set to true, prints the shutdown timing report when the
+     * application exits.
+     */
+    public static final String SHUTDOWN_REPORT_PROPERTY = "myhealthtracker.shutdown.report";
+
+    /**
+     * How often the configuration file is checked for changes, in milliseconds.
+     */
+    public static final long CONFIG_CHECK_MILLIS = 2000;
+
+    /**
+     * A step of the shutdown.
+     */
+    private interface ShutdownPhase {
+        void run() throws Exception;
+    }
+
+    private final StartupTimer startupTimer;
+
+    // The configuration in effect; replaced when reloadable settings change
+    private volatile AppConfig config;
+
+    // Checks the configuration file for changes once the context is open
+    private final ScheduledExecutorService configChecker = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "config-reload");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // The modification time of the configuration file when it was last read; used by configChecker only
+    private long configModified;
+
+    // Flags unusual readings in the records being saved
+    private final AnomalyDetector anomalyDetector = new AnomalyDetector();
+
+    // Saves the record form as a draft while the user types
+    private final DraftJournal draftJournal;
+    private final DraftAutosaver draftAutosaver;
+
+    // Set once the storage is open; read by close() on another thread
+    private volatile Database database;
+    private volatile HealthRepository recordRepository;
+    private volatile SyncWorker syncWorker;
+    private volatile HealthRecordController healthRecordController;
+    private volatile UserController userController;
+
+    private CompletableFuture<AppContext> opened;
+    private boolean closed;
+
+    // The name and duration in nanoseconds of each shutdown phase, in the order they ran
+    private final List<String> shutdownPhases = new ArrayList<>();
+    private final List<Long> shutdownTimes = new ArrayList<>();
+
+    /**
+     * Creates the context with the parts the login screen needs.
+     *
+     * @param config the configuration the parts are created with
+     * @param startupTimer the timer the startup milestones are marked on
+     */
+    public AppContext(AppConfig config, StartupTimer startupTimer) {
+        this.config = config;
+        this.startupTimer = startupTimer;
+        this.configModified = lastModified(config);
+        // The draft journal is only read when a user logs in, after the storage is open
+        this.draftJournal = new DraftJournal(Paths.get(config.get(AppConfig.DRAFTS_FILE)));
+        this.draftAutosaver = new DraftAutosaver(draftJournal, config.get(AppConfig.DRAFTS_INTERVAL_MILLIS));
+    }
+
+    /**
+     * Opens the database and creates the controllers on top of it, on the given executor.
+     * Can be called once.
+     *
+     * @param executor runs the opening; it loads the driver and creates the tables, so it should
+     *                 not be the UI thread
+     * @return completes with this context once the controllers are ready
+     */
+    public synchronized CompletableFuture<AppContext> open(Executor executor) {
+        if (opened != null) {
+            throw new IllegalStateException("Already opened");
+        }
+        opened = CompletableFuture.supplyAsync(() -> {
+            database = openDatabase();
+            database.setTextCacheSize(config.get(AppConfig.TEXT_CACHE_SIZE));
+            setSlowQueryThreshold(config);
+            startupTimer.mark("database ready");
+            checkQueryPlans();
+            startupTimer.mark("query plans checked");
+
+            recordRepository = recordRepository(database);
+            healthRecordController = new HealthRecordController(recordRepository);
+            healthRecordController.setPageSize(config.get(AppConfig.PAGE_SIZE));
+            healthRecordController.addRecordListener(anomalyDetector);
+            userController = new UserController(database, healthRecordController);
+            startupTimer.mark("controllers ready");
+
+            configChecker.scheduleWithFixedDelay(this::reloadConfigIfChanged, CONFIG_CHECK_MILLIS, CONFIG_CHECK_MILLIS,
+                    TimeUnit.MILLISECONDS);
+            return this;
+        }, executor);
+        return opened;
+    }
+
+    /**
+     * Returns the configuration in effect.
+     * @return the configuration, including the reloadable settings changed since startup
+     */
+    public AppConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Returns the application database.
+     * @return the database, or null until the context is open
+     */
+    public Database getDatabase() {
+        return database;
+    }
+
+    /**
+     * Returns the repository health records are stored through, which encrypts them if configured.
+     * @return the repository, or null until the context is open
+     */
+    public HealthRepository getRecordRepository() {
+        return recordRepository;
+    }
+
+    /**
+     * Returns the controller for health records.
+     * @return the controller, or null until the context is open
+     */
+    public HealthRecordController getHealthRecordController() {
+        return healthRecordController;
+    }
+
+    /**
+     * Returns the controller for users.
+     * @return the controller, or null until the context is open
+     */
+    public UserController getUserController() {
+        return userController;
+    }
+
+    /**
+     * Returns the autosaver for the record form.
+     * @return the draft autosaver
+     */
+    public DraftAutosaver getDraftAutosaver() {
+        return draftAutosaver;
+    }
+
+    /**
+     * Returns the detector of unusual readings.
+     * @return the anomaly detector
+     */
+    public AnomalyDetector getAnomalyDetector() {
+        return anomalyDetector;
+    }
+
+    /**
+     * Returns the timer the startup milestones are marked on.
+     * @return the startup timer
+     */
+    public StartupTimer getStartupTimer() {
+        return startupTimer;
+    }
+
+    /**
+     * Shuts the application's parts down in order. If the storage is still being opened, waits for
+     * it first so that it is closed too. Closing twice does nothing.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (opened != null) {
+            try {
+                opened.join();
+            } catch (CompletionException e) {
+                // Opening failed; close whatever was opened before the failure
+                e.printStackTrace();
+            }
+        }
+
+        phase("stop config reload", () -> {
+            configChecker.shutdown();
+            configChecker.awaitTermination(5, TimeUnit.SECONDS);
+        });
+        phase("write drafts", draftAutosaver::close);
+        phase("deliver alerts", anomalyDetector::close);
+        phase("stop sync worker", () -> {
+            if (syncWorker != null) {
+                syncWorker.close();
+            }
+        });
+        phase("empty caches", () -> {
+            if (recordRepository instanceof EncryptedRepository) {
+                ((EncryptedRepository) recordRepository).clearCache();
+            }
+            if (database != null) {
+                database.clearTextCache();
+            }
+        });
+        phase("close database", () -> {
+            if (database != null) {
+                database.close();
+                if (database.getSlowQueryLog() != null) {
+                    database.getSlowQueryLog().close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the shutdown report, one phase per line in the order they ran.
+     *
+     * @return the report, without phases until the context is closed
+     */
+    public synchronized String getShutdownReport() {
+        StringBuilder report = new StringBuilder("Shutdown timing (ms per phase):");
+        long total = 0;
+        for (int i = 0; i < shutdownPhases.size(); i++) {
+            report.append(String.format("%n  %-28s %7.1f", shutdownPhases.get(i), shutdownTimes.get(i) / 1e6));
+            total += shutdownTimes.get(i);
+        }
+        report.append(String.format("%n  %-28s %7.1f", "total", total / 1e6));
+        return report.toString();
+    }
+
+    private void phase(String name, ShutdownPhase phase) {
+        long start = System.nanoTime();
+        try {
+            phase.run();
+        } catch (Exception e) {
+            // Report the failure and carry on, so the later phases still run
+            e.printStackTrace();
+        }
+        shutdownPhases.add(name);
+        shutdownTimes.add(System.nanoTime() - start);
+    }
+
+    /**
+     * Reads the configuration file again if it changed since it was last read, and applies the
+     * reloadable settings that changed. Runs on the config-reload thread.
+     */
+    private void reloadConfigIfChanged() {
+        long modified = lastModified(config);
+        if (modified == configModified) {
+            return;
+        }
+        configModified = modified;
+
+        AppConfig newer;
+        try {
+            newer = AppConfig.load();
+        } catch (IOException | IllegalArgumentException e) {
+            // Keep running with the settings in effect until the file is fixed
+            System.err.println("Configuration not reloaded: " + e.getMessage());
+            return;
+        }
+        AppConfig current = config;
+        List<AppConfig.Key<?>> changed = current.changedKeys(newer);
+        if (changed.isEmpty()) {
+            return;
+        }
+        AppConfig applied = current.withReloadable(newer);
+        try {
+            applyReloadable(applied);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return;
+        }
+        config = applied;
+        for (AppConfig.Key<?> key : changed) {
+            System.out.println(key.isReloadable()
+                    ? "Configuration reloaded: " + key + " = " + newer.get(key)
+                    : "Configuration changed: " + key + " = " + newer.get(key) + ", takes effect at the next start");
+        }
+    }
+
+    /**
+     * Applies the reloadable settings of a configuration to the running parts.
+     */
+    private void applyReloadable(AppConfig applied) throws SQLException {
+        if (!applied.getConnectionSettings().equals(database.getConnectionSettings())) {
+            database.applySettings(applied.getConnectionSettings());
+        }
+        database.setTextCacheSize(applied.get(AppConfig.TEXT_CACHE_SIZE));
+        if (recordRepository instanceof EncryptedRepository) {
+            ((EncryptedRepository) recordRepository).setCacheSize(applied.get(AppConfig.RECORD_CACHE_SIZE));
+        }
+        healthRecordController.setPageSize(applied.get(AppConfig.PAGE_SIZE));
+        if (database instanceof ReplicatedDatabase) {
+            ((ReplicatedDatabase) database).setMaxStalenessMillis(applied.get(AppConfig.DB_REPLICA_MAX_STALENESS_MILLIS));
+        }
+        setSlowQueryThreshold(applied);
+    }
+
+    /**
+     * Starts, adjusts or stops the slow query log of the database to match a configuration.
+     */
+    private void setSlowQueryThreshold(AppConfig applied) {
+        Long threshold = applied.get(AppConfig.DB_SLOW_QUERY_MILLIS);
+        SlowQueryLog log = database.getSlowQueryLog();
+        try {
+            if (threshold == null) {
+                if (log != null) {
+                    database.setSlowQueryLog(null);
+                    log.close();
+                }
+            } else if (log != null) {
+                log.setThresholdMillis(threshold);
+            } else {
+                database.setSlowQueryLog(new SlowQueryLog(Paths.get(applied.get(AppConfig.DB_SLOW_QUERY_LOG)), threshold));
+            }
+        } catch (IOException e) {
+            // The application runs the same without the log
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Reports the full table scans in the query plans of the database's most common reads.
+     */
+    private void checkQueryPlans() {
+        try {
+            for (String scan : database.checkQueryPlans()) {
+                System.err.println("Query plan check: " + scan);
+                if (database.getSlowQueryLog() != null) {
+                    database.getSlowQueryLog().note("Query plan check: " + scan);
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Returns the modification time of a configuration's file, or 0 if there is no such file.
+     */
+    private static long lastModified(AppConfig config) {
+        try {
+            return Files.exists(config.getFile()) ? Files.getLastModifiedTime(config.getFile()).toMillis() : 0;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Opens the application database with the configured connection settings. If a primary database
+     * is configured, the application database is a local file whose health record writes are
+     * synchronized to the primary in the background, so the application keeps working while the
+     * primary is out of reach. If replicas are configured instead, the application database
+     * replicates to them, and the record list, the user list and the export read from a replica
+     * within the staleness bound. Encrypted records cannot be synchronized to a primary database,
+     * whose copies would lack the users' keys. A {@link database.ShardedDatabase} is not supported here; it is
+     * opened by the tools that work on a folder of shards only.
+     *
+     * @return the database the controllers work on
+     */
+    private Database openDatabase() {
+        String url = config.get(AppConfig.DB_URL);
+        String primaryUrl = config.get(AppConfig.PRIMARY_URL);
+        List<String> replicaUrls = config.get(AppConfig.DB_REPLICA_URLS);
+        if (primaryUrl != null && replicaUrls != null) {
+            throw new IllegalStateException(AppConfig.PRIMARY_URL + " and " + AppConfig.DB_REPLICA_URLS + " cannot both be set");
+        }
+        if (primaryUrl != null && config.get(AppConfig.ENCRYPT)) {
+            // The data keys are not synchronized, so nobody could read the records on the primary
+            throw new IllegalStateException(AppConfig.ENCRYPT + " cannot be used with " + AppConfig.PRIMARY_URL +
+                    ": the users' data keys are not copied to the primary database");
+        }
+        if (replicaUrls != null) {
+            try {
+                return new ReplicatedDatabase(url, config.getConnectionSettings(), replicaUrls,
+                        config.get(AppConfig.DB_REPLICA_MAX_STALENESS_MILLIS));
+            } catch (SQLException e) {
+                throw new IllegalStateException("The database replicas could not be prepared", e);
+            }
+        }
+        if (primaryUrl == null) {
+            return new Database(url, config.getConnectionSettings());
+        }
+        OfflineDatabase local = new OfflineDatabase(url, config.getConnectionSettings());
+        syncWorker = new SyncWorker(local, primaryUrl, config.get(AppConfig.SYNC_BATCH_SIZE), config.get(AppConfig.SYNC_INTERVAL_MILLIS));
+        syncWorker.start();
+        return local;
+    }
+
+    /**
+     * Returns the repository the health records are stored through: the database itself, or, if
+     * encryption is configured, an encrypting layer on top of it whose master key is read from the
+     * configured key file. With encryption, the record form drafts are encrypted with the same keys.
+     *
+     * @param opened the application database
+     * @return the repository for health records
+     */
+    private HealthRepository recordRepository(Database opened) {
+        if (!config.get(AppConfig.ENCRYPT)) {
+            return opened;
+        }
+        try {
+            DataKeyStore keyStore = new DataKeyStore(DataKeyStore.loadMasterKey(Paths.get(config.get(AppConfig.KEY_FILE))), opened);
+            draftJournal.setKeyStore(keyStore);
+            return new EncryptedRepository(opened, keyStore, config.get(AppConfig.RECORD_CACHE_SIZE));
+        } catch (IOException e) {
+            // Never fall back to storing records in the clear
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -2,48 +2,100 @@ package application;
 
 import controller.HealthRecordController;
 import controller.UserController;
-import database.Database;
 import view.MyHealthTrackerView;
 import javafx.application.Application;
 import javafx.stage.Stage;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * This class represents the main application for the MyHealthTracker.
  * It initializes and sets up the necessary controllers, database and view for the application.
  */
 public class MyHealthTracker extends Application {
-    
-    // The controller that handles user-related tasks and interactions
-    private UserController userController; 
-    
-    // The controller that handles health record-related tasks and interactions
-    private HealthRecordController healthRecordController;
 
-    // The database object that handles data persistence for the application
-    private Database database;                          
+    /**
+     * The system property that, when set to true, prints the startup timing report once the login screen
+     * is shown and the database is open.
+     */
+    public static final String STARTUP_REPORT_PROPERTY = "myhealthtracker.startup.report";
+
+    // Measures the time to each startup milestone from JVM start
+    private static final StartupTimer startupTimer = new StartupTimer();
+    
+    // Owns the database, the controllers and the background workers, and shuts them down in order
+    private AppContext context;
     
     /**
      * This method is the entry point of the JavaFX application.
-     * It sets up the necessary controllers, database, and view, and starts the application GUI.
+     * It loads the configuration and prints it, starts opening the database on a background thread, then
+     * builds the view and shows the login scene without waiting for it. The controllers are handed to the
+     * view once the database is open.
      *
      * @param primaryStage the main window for the application
+     * @throws IOException if the configuration file cannot be read
      */
     @Override
-    public void start(Stage primaryStage) {
-        // Initialize the database object
-        database = new Database();
+    public void start(Stage primaryStage) throws IOException {
+        startupTimer.mark("JavaFX started");
+
+        // Printed on every start, so a support request can include the settings in effect
+        AppConfig config = AppConfig.load();
+        System.out.println(config.describe());
+        context = new AppContext(config, startupTimer);
 
-        // Initialize the health record controller, providing it with the database object for data persistence
-        healthRecordController = new HealthRecordController(database);
+        // Open the database off the JavaFX thread, so loading the driver and creating the tables
+        // does not delay the first frame
+        CompletableFuture<AppContext> contextReady = context.open(MyHealthTracker::startWarmUpThread);
+        CompletableFuture<HealthRecordController> healthRecordControllerReady = contextReady.thenApply(AppContext::getHealthRecordController);
+        CompletableFuture<UserController> userControllerReady = contextReady.thenApply(AppContext::getUserController);
 
-        // Initialize the user controller, providing it with the database object and the health record controller
-        userController = new UserController(database, healthRecordController);
+        // Initialize the view for the application; only the login scene is built at this point
+        MyHealthTrackerView view = new MyHealthTrackerView(primaryStage, userControllerReady, healthRecordControllerReady,
+                context.getDraftAutosaver());
+        context.getAnomalyDetector().addAlertListener(view::showHealthAlert);
+        startupTimer.mark("login scene built");
 
-        // Initialize the view for the application, providing it with the primary stage and controllers
-        MyHealthTrackerView view = new MyHealthTrackerView(primaryStage, userController, healthRecordController);
+        // The stage reports being shown once its window is on screen
+        CompletableFuture<Void> loginShown = new CompletableFuture<>();
+        primaryStage.setOnShown(e -> {
+            startupTimer.mark("login screen shown");
+            loginShown.complete(null);
+        });
 
         // Display the login scene as the first scene
         view.showLoginScene();
+
+        if (Boolean.getBoolean(STARTUP_REPORT_PROPERTY)) {
+            loginShown.runAfterBoth(contextReady, () -> System.out.println(startupTimer.report()));
+        }
+    }
+
+    /**
+     * Called when the application exits. Shuts down the application context: the draft edits that have
+     * not been saved yet are written, so the user is offered them on the next login, the background
+     * workers stop, and the database is checkpointed and closed.
+     */
+    @Override
+    public void stop() {
+        if (context == null) {
+            return;
+        }
+        context.close();
+        if (Boolean.getBoolean(AppContext.SHUTDOWN_REPORT_PROPERTY)) {
+            System.out.println(context.getShutdownReport());
+        }
+    }
+
+    /**
+     * Runs the database warm-up on a daemon thread, so it never keeps the application from exiting.
+     *
+     * @param task the warm-up task
+     */
+    private static void startWarmUpThread(Runnable task) {
+        Thread thread = new Thread(task, "database-warm-up");
+        thread.setDaemon(true);
+        thread.start();
     }
     
     /**
@@ -52,6 +104,8 @@ public class MyHealthTracker extends Application {
      * @param args command line arguments
      */
     public static void main(String[] args) {
+        startupTimer.mark("main");
+
         // Start the JavaFX application
         launch(args);
     }
@@ -0,0 +1,66 @@
+package application;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records how long the application takes to reach each startup milestone, measured from the start
+ * of the JVM, so that the time to the login screen can be tracked and kept low.
+ *
+ * Milestones may be marked from any thread. The report lists every milestone with its time since
+ * JVM start and since the previous milestone.
+ */
+public class StartupTimer {
+
+    // System.nanoTime() at the moment the JVM started
+    private final long originNanos;
+
+    private final List<String> phases = new ArrayList<>();
+    private final List<Long> times = new ArrayList<>();
+
+    /**
+     * Creates a timer whose clock starts at JVM start.
+     */
+    public StartupTimer() {
+        long sinceJvmStartMillis = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+        this.originNanos = System.nanoTime() - sinceJvmStartMillis * 1_000_000L;
+    }
+
+    /**
+     * Records that a milestone has been reached now.
+     *
+     * @param phase the name of the milestone
+     */
+    public synchronized void mark(String phase) {
+        phases.add(phase);
+        times.add(System.nanoTime() - originNanos);
+    }
+
+    /**
+     * Returns the time from JVM start to a milestone.
+     *
+     * @param phase the name of the milestone
+     * @return the time in milliseconds, or -1 if the milestone has not been reached
+     */
+    public synchronized long getMillis(String phase) {
+        int index = phases.indexOf(phase);
+        return index < 0 ? -1 : times.get(index) / 1_000_000L;
+    }
+
+    /**
+     * Returns the startup report, one milestone per line in the order they were reached.
+     *
+     * @return the report
+     */
+    public synchronized String report() {
+        StringBuilder report = new StringBuilder("Startup timing (ms since JVM start, +ms since previous):");
+        long previous = 0;
+        for (int i = 0; i < phases.size(); i++) {
+            long time = times.get(i);
+            report.append(String.format("%n  %-28s %7.1f  +%7.1f", phases.get(i), time / 1e6, (time - previous) / 1e6));
+            previous = time;
+        }
+        return report.toString();
+    }
+}
@@ -0,0 +1,123 @@
+package benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.List;
+
+import database.Database;
+import database.HealthRecordQuery;
+import model.HealthRecord;
+import tools.SyntheticDataGenerator;
+
+/**
+ * Measures what the archive tier saves in file size and costs in read speed.
+ *
+ * A fresh database file is filled with the generated dataset and compacted with VACUUM, and every
+ * user's records are read once in full and once as a one-month range query. Then all records are
+ * archived, the file is compacted again and the same reads are repeated. The report gives the file
+ * size and bytes per record before and after, the size of the compressed blocks alone, and the read
+ * throughput in records per second for both tiers.
+ *
+ * Usage: java benchmark.ArchiveBenchmark [database file] [users] [records per user]
+ */
+public class ArchiveBenchmark {
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args optional database file, user count and records per user
+     * @throws SQLException if an SQL error occurs
+     * @throws IOException if the database file cannot be removed or measured
+     */
+    public static void main(String[] args) throws SQLException, IOException {
+        Path file = Paths.get(args.length > 0 ? args[0] : "archive-benchmark.db");
+        int users = args.length > 1 ? Integer.parseInt(args[1]) : 1_000;
+        int recordsPerUser = args.length > 2 ? Integer.parseInt(args[2]) : 365;
+
+        Files.deleteIfExists(file);
+        Database database = new Database("jdbc:sqlite:" + file);
+        int firstUserId = database.getNextUserId();
+        long records = new SyntheticDataGenerator(42, users, recordsPerUser, firstUserId, SyntheticDataGenerator.DEFAULT_START_DATE)
+                .writeTo(database);
+        // A month in the middle of every user's records, for the range reads
+        LocalDate monthStart = SyntheticDataGenerator.DEFAULT_START_DATE.plusDays(recordsPerUser / 2).withDayOfMonth(1);
+
+        long hotSize = compact(database, file);
+        scan(database, "hot", firstUserId, users, records);
+        rangeScan(database, "hot", firstUserId, users, monthStart);
+
+        long start = System.nanoTime();
+        long archived = database.archiveRecords(SyntheticDataGenerator.DEFAULT_START_DATE.plusDays(recordsPerUser));
+        System.out.printf("archived %,d records in %.1f s%n", archived, (System.nanoTime() - start) / 1e9);
+
+        long archiveSize = compact(database, file);
+        long blockBytes;
+        try (Statement stmt = database.getConnection().createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT SUM(LENGTH(data)) FROM health_record_archive")) {
+            blockBytes = rs.next() ? rs.getLong(1) : 0;
+        }
+        scan(database, "archived", firstUserId, users, records);
+        rangeScan(database, "archived", firstUserId, users, monthStart);
+
+        System.out.printf("file size: %,d bytes hot, %,d bytes archived (%.1fx smaller)%n",
+                hotSize, archiveSize, (double) hotSize / archiveSize);
+        System.out.printf("bytes per record: %.1f hot, %.1f archived, %.1f in the compressed blocks alone%n",
+                (double) hotSize / records, (double) archiveSize / records, (double) blockBytes / records);
+    }
+
+    /**
+     * Compacts the database file and returns its size.
+     */
+    private static long compact(Database database, Path file) throws SQLException, IOException {
+        try (Statement stmt = database.getConnection().createStatement()) {
+            stmt.execute("VACUUM");
+        }
+        return Files.size(file);
+    }
+
+    /**
+     * Reads every user's records in full, twice, and reports the second pass so the JIT is warm.
+     */
+    private static void scan(Database database, String tier, int firstUserId, int users, long expected) throws SQLException {
+        for (int pass = 0; pass < 2; pass++) {
+            long read = 0;
+            long start = System.nanoTime();
+            for (int userId = firstUserId; userId < firstUserId + users; userId++) {
+                read += database.getAllHealthRecords(userId).size();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            if (read != expected) {
+                throw new IllegalStateException("Read " + read + " records, expected " + expected);
+            }
+            if (pass == 1) {
+                System.out.printf("%-9s full scan:  %,12.0f records/s%n", tier, read / seconds);
+            }
+        }
+    }
+
+    /**
+     * Reads one month of every user's records through the paged query, twice, and reports the second pass.
+     */
+    private static void rangeScan(Database database, String tier, int firstUserId, int users, LocalDate monthStart) throws SQLException {
+        for (int pass = 0; pass < 2; pass++) {
+            long read = 0;
+            long start = System.nanoTime();
+            for (int userId = firstUserId; userId < firstUserId + users; userId++) {
+                HealthRecordQuery query = new HealthRecordQuery(userId);
+                query.setDateRange(monthStart, monthStart.plusMonths(1).minusDays(1));
+                List<HealthRecord> page = database.queryHealthRecords(query, null);
+                read += page.size();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            if (pass == 1) {
+                System.out.printf("%-9s month range: %,11.0f records/s%n", tier, read / seconds);
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package benchmark;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import analytics.CohortAnalytics;
+import analytics.CohortStatistics;
+import database.Database;
+import tools.SyntheticDataGenerator;
+
+/**
+ * Measures how the cohort analytics scale with the number of worker threads.
+ *
+ * The benchmark fills a separate database file with generated records (10 million by default),
+ * then runs the analytics with 1, 2, 4 and 8 workers and prints the time, throughput and speedup
+ * of each run.
+ *
+ * Usage: java benchmark.CohortAnalyticsBenchmark [database file] [record count] [records per user]
+ */
+public class CohortAnalyticsBenchmark {
+
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8};
+
+    // Timed runs per thread count; the best run is reported
+    private static final int RUNS = 3;
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args optional database file, record count and records per user
+     * @throws SQLException if an SQL error occurs
+     */
+    public static void main(String[] args) throws SQLException {
+        String file = args.length > 0 ? args[0] : "cohort-benchmark.db";
+        long records = args.length > 1 ? Long.parseLong(args[1]) : 10_000_000L;
+        int recordsPerUser = args.length > 2 ? Integer.parseInt(args[2]) : 1_000;
+
+        Database database = new Database("jdbc:sqlite:" + file);
+        populate(database, records, recordsPerUser);
+
+        // Warm up the JIT and the page cache before timing anything
+        new CohortAnalytics(database, THREAD_COUNTS[THREAD_COUNTS.length - 1]).compute();
+
+        long baseline = 0;
+        CohortStatistics statistics = null;
+        System.out.printf("%-8s %12s %14s %8s%n", "threads", "best ms", "rows/s", "speedup");
+        for (int threads : THREAD_COUNTS) {
+            CohortAnalytics analytics = new CohortAnalytics(database, threads);
+            long best = Long.MAX_VALUE;
+            for (int run = 0; run < RUNS; run++) {
+                long start = System.nanoTime();
+                statistics = analytics.compute();
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            if (baseline == 0) {
+                baseline = best;
+            }
+            System.out.printf("%-8d %12.1f %14.0f %8.2f%n", threads, best / 1e6,
+                    statistics.getRecordCount() / (best / 1e9), (double) baseline / best);
+        }
+
+        System.out.println();
+        System.out.print(statistics);
+    }
+
+    /**
+     * Tops the benchmark database up to the requested number of records with generated users.
+     */
+    private static void populate(Database database, long records, int recordsPerUser) throws SQLException {
+        long existing;
+        try (Connection connection = database.openReadConnection();
+             Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM health_records")) {
+            existing = rs.getLong(1);
+        }
+        if (existing >= records) {
+            return;
+        }
+
+        int users = (int) ((records - existing + recordsPerUser - 1) / recordsPerUser);
+        System.out.printf("Generating %d users with %d records each...%n", users, recordsPerUser);
+        SyntheticDataGenerator generator = new SyntheticDataGenerator(42, users, recordsPerUser,
+                database.getNextUserId(), SyntheticDataGenerator.DEFAULT_START_DATE);
+        generator.writeTo(database);
+    }
+}
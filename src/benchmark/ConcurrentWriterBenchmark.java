@@ -0,0 +1,158 @@
+package benchmark;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import database.Database;
+import model.HealthRecord;
+import tools.SyntheticDataGenerator;
+
+/**
+ * Measures write throughput with several concurrent writers on each database engine.
+ *
+ * Every writer thread opens its own {@link Database} on the same URL, as separate application
+ * instances or a UI next to an import job would, and adds single health records in their own
+ * transactions for a fixed time. The benchmark prints the throughput, p99 latency and number of
+ * failed writes per engine and writer count. A second run repeats the 4-writer case while a bulk
+ * import is loading into the same database, which is where SQLite's file-level write lock hurts most.
+ *
+ * Usage: java benchmark.ConcurrentWriterBenchmark [seconds] url...
+ * e.g.   java benchmark.ConcurrentWriterBenchmark 10 jdbc:sqlite:writers.db jdbc:h2:./writers
+ */
+public class ConcurrentWriterBenchmark {
+
+    private static final int[] WRITER_COUNTS = {1, 2, 4, 8};
+
+    // Writers running next to the bulk import in the mixed run
+    private static final int MIXED_WRITERS = 4;
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args the run time per case in seconds, followed by the JDBC URLs to compare
+     * @throws Exception if a database cannot be opened or a thread is interrupted
+     */
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        List<String> urls = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            urls.add(args[i]);
+        }
+        if (urls.isEmpty()) {
+            urls.add("jdbc:sqlite:writers.db");
+            urls.add("jdbc:h2:./writers");
+        }
+
+        System.out.printf("%-8s %-14s %8s %12s %10s %8s%n", "engine", "case", "writers", "writes/s", "p99 ms", "errors");
+        for (String url : urls) {
+            String engine = new Database(url).getDialect().getName();
+            for (int writers : WRITER_COUNTS) {
+                Result result = runWriters(url, writers, seconds, false);
+                result.print(engine, "writers", writers);
+            }
+            Result mixed = runWriters(url, MIXED_WRITERS, seconds, true);
+            mixed.print(engine, "with import", MIXED_WRITERS);
+        }
+    }
+
+    /**
+     * Runs the writers for the given time, optionally next to a bulk import.
+     */
+    private static Result runWriters(String url, int writers, int seconds, boolean withImport) throws Exception {
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        LatencyHistogram histogram = new LatencyHistogram();
+        AtomicLong errors = new AtomicLong();
+        List<Thread> threads = new ArrayList<>();
+
+        for (int w = 0; w < writers; w++) {
+            Database database = new Database(url);
+            int writer = w;
+            threads.add(new Thread(() -> {
+                SplittableRandom random = new SplittableRandom(writer);
+                while (System.nanoTime() < deadline) {
+                    HealthRecord record = new HealthRecord(0, 50 + random.nextInt(50), 36.5f, "120/80", "writer " + writer,
+                            LocalDate.of(2024, 1, 1).plusDays(random.nextInt(365)), 1 + random.nextInt(1000));
+                    long start = System.nanoTime();
+                    try {
+                        database.addHealthRecord(record);
+                        histogram.record(System.nanoTime() - start);
+                    } catch (SQLException e) {
+                        // On SQLite this is the database-is-locked error when the busy timeout runs out
+                        errors.incrementAndGet();
+                    }
+                }
+            }, "writer-" + w));
+        }
+
+        Thread importer = null;
+        if (withImport) {
+            Database database = new Database(url);
+            importer = new Thread(() -> {
+                try {
+                    // More records than fit in the run, so the import is active for all of it
+                    SyntheticDataGenerator generator = new SyntheticDataGenerator(7, 100_000, 365,
+                            database.getNextUserId(), SyntheticDataGenerator.DEFAULT_START_DATE);
+                    database.bulkLoadUsers(generator.users(), 5_000);
+                    database.bulkLoadHealthRecords(untilDeadline(generator.records(), deadline), 5_000);
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
+            }, "importer");
+            importer.start();
+        }
+
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        if (importer != null) {
+            importer.join();
+        }
+        return new Result(histogram.getCount() / elapsed, histogram.getPercentile(99) / 1e6, errors.get());
+    }
+
+    /**
+     * The outcome of one case.
+     */
+    private static class Result {
+        private final double throughput;
+        private final double p99Millis;
+        private final long errors;
+
+        Result(double throughput, double p99Millis, long errors) {
+            this.throughput = throughput;
+            this.p99Millis = p99Millis;
+            this.errors = errors;
+        }
+
+        void print(String engine, String label, int writers) {
+            System.out.printf("%-8s %-14s %8d %12.0f %10.2f %8d%n", engine, label, writers, throughput, p99Millis, errors);
+        }
+    }
+
+    /**
+     * Ends an iteration once the deadline has passed.
+     */
+    private static <T> Iterator<T> untilDeadline(Iterator<T> items, long deadline) {
+        return new Iterator<T>() {
+            @Override
+            public boolean hasNext() {
+                return System.nanoTime() < deadline && items.hasNext();
+            }
+
+            @Override
+            public T next() {
+                return items.next();
+            }
+        };
+    }
+}
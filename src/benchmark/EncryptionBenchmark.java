@@ -0,0 +1,149 @@
+package benchmark;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import database.DataKeyStore;
+import database.Database;
+import database.EncryptedRepository;
+import database.HealthRepository;
+import database.InMemoryDatabase;
+import model.HealthRecord;
+import tools.SyntheticDataGenerator;
+
+/**
+ * Measures what encrypting health records costs, by running the same operations against plaintext
+ * storage and against an {@link EncryptedRepository} on the same kind of storage.
+ *
+ * Record lists are timed twice: cold, with the cache of decrypted records emptied before every list
+ * so each record is decrypted, and warm, as when a user's records are shown again. Plaintext storage
+ * has no such cache, so its two list rows measure the same thing. The last column is the throughput
+ * relative to plaintext.
+ *
+ * Usage: java benchmark.EncryptionBenchmark [database file prefix | memory] [users] [records per user] [operations]
+ */
+public class EncryptionBenchmark {
+
+    /**
+     * The operations that are timed.
+     */
+    private enum Operation {
+        ADD_RECORD, LIST_RECORDS_COLD, LIST_RECORDS_WARM
+    }
+
+    // Untimed operations run first so that both variants are measured with a warm JIT
+    private static final int WARMUP_OPERATIONS = 2_000;
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args optional database file prefix or "memory", user count, records per user and operations per kind
+     * @throws SQLException if an SQL error occurs
+     */
+    public static void main(String[] args) throws SQLException {
+        String storage = args.length > 0 ? args[0] : "encryption-benchmark";
+        int users = args.length > 1 ? Integer.parseInt(args[1]) : 1_000;
+        int recordsPerUser = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        int operations = args.length > 3 ? Integer.parseInt(args[3]) : 20_000;
+
+        HealthRepository plain;
+        HealthRepository stored;
+        DataKeyStore keyStore;
+        if (storage.equals("memory")) {
+            plain = new InMemoryDatabase();
+            stored = new InMemoryDatabase();
+            keyStore = new DataKeyStore(DataKeyStore.generateMasterKey());
+        } else {
+            plain = new Database("jdbc:sqlite:" + storage + "-plain.db");
+            Database encryptedFile = new Database("jdbc:sqlite:" + storage + "-encrypted.db");
+            stored = encryptedFile;
+            keyStore = new DataKeyStore(DataKeyStore.generateMasterKey(), encryptedFile);
+        }
+        // Room for every record, including the ones added while timing, so warm lists measure cache hits
+        int cacheSize = users * recordsPerUser + 2 * (operations + WARMUP_OPERATIONS);
+        EncryptedRepository encrypted = new EncryptedRepository(stored, keyStore, cacheSize);
+
+        int firstUserId = load(plain, users, recordsPerUser);
+        if (load(encrypted, users, recordsPerUser) != firstUserId) {
+            throw new IllegalStateException("Both databases must start from the same user ID; delete the old files");
+        }
+
+        System.out.printf("%-10s %-18s %12s %10s %10s %10s%n", "storage", "operation", "ops/s", "p50 us", "p99 us", "vs plain");
+        for (Operation operation : Operation.values()) {
+            run(plain, null, firstUserId, users, WARMUP_OPERATIONS, operation, new LatencyHistogram());
+            run(encrypted, encrypted, firstUserId, users, WARMUP_OPERATIONS, operation, new LatencyHistogram());
+
+            double plainRate = 0;
+            for (boolean isEncrypted : new boolean[] {false, true}) {
+                LatencyHistogram histogram = new LatencyHistogram();
+                long start = System.nanoTime();
+                run(isEncrypted ? encrypted : plain, isEncrypted ? encrypted : null, firstUserId, users, operations, operation, histogram);
+                double seconds = (System.nanoTime() - start) / 1e9;
+                double opsPerSecond = histogram.getCount() / seconds;
+                if (!isEncrypted) {
+                    plainRate = opsPerSecond;
+                }
+                System.out.printf("%-10s %-18s %12.0f %10.1f %10.1f %9.0f%%%n", isEncrypted ? "encrypted" : "plain", operation,
+                        opsPerSecond, histogram.getPercentile(50) / 1e3, histogram.getPercentile(99) / 1e3,
+                        100 * opsPerSecond / plainRate);
+            }
+        }
+        System.out.printf("decrypted-record cache: %,d hits, %,d misses%n", encrypted.getCacheHits(), encrypted.getCacheMisses());
+    }
+
+    /**
+     * Fills a repository with the generated dataset and returns the ID of its first user.
+     */
+    private static int load(HealthRepository repository, int users, int recordsPerUser) throws SQLException {
+        int firstUserId = repository.getNextUserId();
+        new SyntheticDataGenerator(42, users, recordsPerUser, firstUserId, SyntheticDataGenerator.DEFAULT_START_DATE)
+                .writeTo(repository);
+        return firstUserId;
+    }
+
+    /**
+     * Runs one operation the given number of times against random users, recording each latency.
+     * The cache of the encrypted repository, if given, is emptied before every cold list.
+     */
+    private static void run(HealthRepository repository, EncryptedRepository encrypted, int firstUserId, int users,
+                            int count, Operation operation, LatencyHistogram histogram) throws SQLException {
+        SplittableRandom random = new SplittableRandom(operation.ordinal());
+
+        List<Integer> targets = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            targets.add(firstUserId + random.nextInt(users));
+        }
+
+        for (int userId : targets) {
+            switch (operation) {
+                case ADD_RECORD: {
+                    HealthRecord record = new HealthRecord(0, 70.0f, 36.6f, "120/80", "benchmark", LocalDate.now(), userId);
+                    long start = System.nanoTime();
+                    repository.addHealthRecord(record);
+                    histogram.record(System.nanoTime() - start);
+                    break;
+                }
+                case LIST_RECORDS_COLD: {
+                    if (encrypted != null) {
+                        encrypted.clearCache();
+                    }
+                    long start = System.nanoTime();
+                    repository.getAllHealthRecords(userId);
+                    histogram.record(System.nanoTime() - start);
+                    break;
+                }
+                case LIST_RECORDS_WARM: {
+                    long start = System.nanoTime();
+                    repository.getAllHealthRecords(userId);
+                    histogram.record(System.nanoTime() - start);
+                    break;
+                }
+                default:
+                    throw new IllegalStateException("Unknown operation: " + operation);
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package benchmark;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size, thread-safe histogram of latencies in nanoseconds.
+ *
+ * Values are stored in log-linear buckets: each power of two is split into 64 sub-buckets, so every
+ * recorded value is kept to within about 1.6% of its true value, from 1 ns up to several centuries.
+ * Recording is a single atomic increment and never allocates, which keeps the measuring overhead
+ * small compared with the operations being measured.
+ */
+public class LatencyHistogram {
+
+    // Sub-buckets per power of two, as a number of bits
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    // Enough buckets for any positive long value
+    private static final int BUCKET_COUNT = SUB_BUCKET_COUNT * (64 - SUB_BUCKET_BITS + 1);
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLongArray totals = new AtomicLongArray(3);
+
+    // Indexes into totals
+    private static final int COUNT = 0;
+    private static final int SUM = 1;
+    private static final int MAX = 2;
+
+    /**
+     * Records one latency.
+     *
+     * @param nanos the latency in nanoseconds; negative values are recorded as zero
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucketIndex(value));
+        totals.incrementAndGet(COUNT);
+        totals.addAndGet(SUM, value);
+
+        long max = totals.get(MAX);
+        while (value > max && !totals.compareAndSet(MAX, max, value)) {
+            max = totals.get(MAX);
+        }
+    }
+
+    /**
+     * Adds all values recorded in another histogram to this one.
+     *
+     * @param other the histogram to add
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long count = other.counts.get(i);
+            if (count != 0) {
+                counts.addAndGet(i, count);
+            }
+        }
+        totals.addAndGet(COUNT, other.totals.get(COUNT));
+        totals.addAndGet(SUM, other.totals.get(SUM));
+        long otherMax = other.totals.get(MAX);
+        long max = totals.get(MAX);
+        while (otherMax > max && !totals.compareAndSet(MAX, max, otherMax)) {
+            max = totals.get(MAX);
+        }
+    }
+
+    /**
+     * Returns the number of recorded values.
+     * @return the count
+     */
+    public long getCount() {
+        return totals.get(COUNT);
+    }
+
+    /**
+     * Returns the largest recorded value.
+     * @return the maximum in nanoseconds, or 0 if nothing was recorded
+     */
+    public long getMax() {
+        return totals.get(MAX);
+    }
+
+    /**
+     * Returns the mean of the recorded values.
+     * @return the mean in nanoseconds, or 0 if nothing was recorded
+     */
+    public double getMean() {
+        long count = getCount();
+        return count == 0 ? 0 : (double) totals.get(SUM) / count;
+    }
+
+    /**
+     * Returns the value at the given percentile, i.e. the smallest bucket value that at least
+     * that percentage of the recorded values are less than or equal to.
+     *
+     * @param percentile the percentile, between 0 and 100
+     * @return the value in nanoseconds, or 0 if nothing was recorded
+     */
+    public long getPercentile(double percentile) {
+        long count = getCount();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestValueInBucket(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Returns the bucket that holds the given non-negative value.
+     */
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+    }
+
+    /**
+     * Returns the largest value that falls into the given bucket.
+     */
+    static long highestValueInBucket(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        long top = index - ((long) shift << SUB_BUCKET_BITS);
+        return ((top + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,352 @@
+package benchmark;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import controller.HealthRecordController;
+import controller.UserController;
+import database.Database;
+import database.HealthRepository;
+import database.InMemoryDatabase;
+import model.HealthRecord;
+import model.User;
+
+/**
+ * Replays simulated user sessions against the controllers at a fixed target rate.
+ *
+ * Operations are issued by an open-loop scheduler: operation i is due at start + i / rate, whether or
+ * not earlier operations have finished, and its latency is measured from that due time rather than
+ * from when a worker got round to it. Queueing delay caused by a slow system is therefore counted
+ * against the system, instead of silently lowering the offered load (coordinated omission).
+ *
+ * Each simulated user owns its own UserController session and is used by one operation at a time.
+ * At the end the harness prints the throughput and the p50/p99/p99.9 latency of each operation.
+ *
+ * Usage: java benchmark.LoadTestHarness [--db file | --db memory] [--rate opsPerSecond] [--seconds n]
+ *        [--users n] [--threads n] [--mix register=1,login=10,add=20,update=10,delete=4,list=45,export=10]
+ */
+public class LoadTestHarness {
+
+    /**
+     * The operations a simulated user can perform.
+     */
+    public enum Operation {
+        REGISTER, LOGIN, ADD, UPDATE, DELETE, LIST, EXPORT
+    }
+
+    /**
+     * The default share of each operation in the workload, modelled on the use of the application.
+     */
+    public static final String DEFAULT_MIX = "register=1,login=10,add=20,update=10,delete=4,list=45,export=10";
+
+    private final HealthRecordController healthRecordController;
+    private final HealthRepository database;
+    private final int workerThreads;
+    private final Operation[] mixTable;
+    private final List<Session> sessions = new ArrayList<>();
+    private final Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+    private final Map<Operation, AtomicLong> errors = new EnumMap<>(Operation.class);
+
+    // Used to give registered users unique names across runs
+    private final String runId = Long.toString(System.currentTimeMillis(), 36);
+    private final AtomicInteger registrations = new AtomicInteger();
+
+    /**
+     * Creates a harness that drives the controllers on top of the given database.
+     *
+     * @param database the database the controllers use
+     * @param workerThreads the number of threads executing operations
+     * @param mix the share of each operation, e.g. "login=10,list=90"
+     */
+    public LoadTestHarness(HealthRepository database, int workerThreads, String mix) {
+        this.database = database;
+        this.healthRecordController = new HealthRecordController(database);
+        this.workerThreads = workerThreads;
+        this.mixTable = parseMix(mix);
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, new LatencyHistogram());
+            errors.put(operation, new AtomicLong());
+        }
+    }
+
+    /**
+     * Registers the pool of simulated users that the sessions run as.
+     *
+     * @param userCount the number of simulated users
+     */
+    public void createSessions(int userCount) {
+        for (int i = 0; i < userCount; i++) {
+            String username = "loadtest-" + runId + "-" + i;
+            UserController userController = new UserController(database, healthRecordController);
+            User user = userController.register(username, "password", "Load", "Test " + i);
+            if (user == null) {
+                throw new IllegalStateException("Could not register simulated user " + username);
+            }
+            userController.login(username, "password");
+            sessions.add(new Session(userController, user, i));
+        }
+    }
+
+    /**
+     * Runs the workload at the given rate for the given time and waits for all issued operations to finish.
+     *
+     * @param ratePerSecond the number of operations to start per second
+     * @param seconds how long to keep issuing operations
+     * @return the number of operations issued
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public long run(double ratePerSecond, int seconds) throws InterruptedException {
+        if (sessions.isEmpty()) {
+            throw new IllegalStateException("createSessions must be called before run");
+        }
+
+        ExecutorService workers = Executors.newFixedThreadPool(workerThreads);
+        SplittableRandom random = new SplittableRandom(42);
+        long intervalNanos = (long) (1_000_000_000L / ratePerSecond);
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        long issued = 0;
+
+        // The dispatcher only schedules; all operations run on the worker pool
+        for (long due = start; due < end; due = start + ++issued * intervalNanos) {
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            Operation operation = mixTable[random.nextInt(mixTable.length)];
+            Session session = sessions.get((int) (issued % sessions.size()));
+            long intendedStart = due;
+            workers.execute(() -> execute(session, operation, intendedStart));
+        }
+
+        workers.shutdown();
+        workers.awaitTermination(1, TimeUnit.HOURS);
+        return issued;
+    }
+
+    /**
+     * Runs one operation for a session and records its latency from the intended start time.
+     */
+    private void execute(Session session, Operation operation, long intendedStart) {
+        boolean ok;
+        synchronized (session) {
+            try {
+                ok = session.perform(operation);
+            } catch (RuntimeException | IOException e) {
+                ok = false;
+            }
+        }
+        latencies.get(operation).record(System.nanoTime() - intendedStart);
+        if (!ok) {
+            errors.get(operation).incrementAndGet();
+        }
+    }
+
+    /**
+     * Prints throughput and latency percentiles per operation.
+     *
+     * @param elapsedSeconds the wall-clock duration of the run, used for throughput
+     */
+    public void printReport(double elapsedSeconds) {
+        System.out.printf("%-9s %9s %7s %10s %10s %10s %10s %10s%n",
+                "operation", "count", "errors", "ops/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+        LatencyHistogram all = new LatencyHistogram();
+        long allErrors = 0;
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram histogram = latencies.get(operation);
+            long errorCount = errors.get(operation).get();
+            all.add(histogram);
+            allErrors += errorCount;
+            printRow(operation.name().toLowerCase(), histogram, errorCount, elapsedSeconds);
+        }
+        printRow("all", all, allErrors, elapsedSeconds);
+    }
+
+    private static void printRow(String name, LatencyHistogram histogram, long errorCount, double elapsedSeconds) {
+        System.out.printf("%-9s %9d %7d %10.1f %10.2f %10.2f %10.2f %10.2f%n", name, histogram.getCount(), errorCount,
+                histogram.getCount() / elapsedSeconds, histogram.getPercentile(50) / 1e6,
+                histogram.getPercentile(99) / 1e6, histogram.getPercentile(99.9) / 1e6, histogram.getMax() / 1e6);
+    }
+
+    /**
+     * Returns the latency histogram of one operation.
+     *
+     * @param operation the operation
+     * @return the histogram of its latencies
+     */
+    public LatencyHistogram getLatencies(Operation operation) {
+        return latencies.get(operation);
+    }
+
+    /**
+     * Returns the number of failed runs of one operation.
+     *
+     * @param operation the operation
+     * @return the number of errors
+     */
+    public long getErrors(Operation operation) {
+        return errors.get(operation).get();
+    }
+
+    /**
+     * Expands a mix such as "login=1,list=3" into a table with one entry per share, for O(1) sampling.
+     */
+    private static Operation[] parseMix(String mix) {
+        List<Operation> table = new ArrayList<>();
+        for (String part : mix.split(",")) {
+            String[] keyValue = part.trim().split("=");
+            Operation operation = Operation.valueOf(keyValue[0].trim().toUpperCase());
+            int weight = Integer.parseInt(keyValue[1].trim());
+            for (int i = 0; i < weight; i++) {
+                table.add(operation);
+            }
+        }
+        if (table.isEmpty()) {
+            throw new IllegalArgumentException("The operation mix is empty");
+        }
+        return table.toArray(new Operation[0]);
+    }
+
+    /**
+     * One simulated user: a logged-in controller session plus the IDs of the records it has created.
+     */
+    private class Session {
+
+        private final UserController userController;
+        private final User user;
+        private final SplittableRandom random;
+        private final List<Integer> recordIds = new ArrayList<>();
+
+        Session(UserController userController, User user, int index) {
+            this.userController = userController;
+            this.user = user;
+            this.random = new SplittableRandom(index);
+        }
+
+        boolean perform(Operation operation) throws IOException {
+            switch (operation) {
+                case REGISTER:
+                    String username = "loadtest-" + runId + "-new-" + registrations.incrementAndGet();
+                    return new UserController(database, healthRecordController)
+                            .register(username, "password", "Load", "Test") != null;
+                case LOGIN:
+                    return userController.login(user.getUsername(), user.getPassword());
+                case ADD:
+                    return add();
+                case UPDATE:
+                    if (recordIds.isEmpty()) {
+                        return add();
+                    }
+                    HealthRecord updated = newRecord();
+                    updated.setId(recordIds.get(random.nextInt(recordIds.size())));
+                    healthRecordController.updateHealthRecord(updated);
+                    return true;
+                case DELETE:
+                    if (recordIds.isEmpty()) {
+                        return add();
+                    }
+                    int id = recordIds.remove(random.nextInt(recordIds.size()));
+                    healthRecordController.deleteHealthRecord(new HealthRecord(id, 0, 0, "", "", LocalDate.now(), user.getId()));
+                    return true;
+                case LIST:
+                    healthRecordController.getHealthRecordsForUser(user);
+                    return true;
+                case EXPORT:
+                    healthRecordController.exportHealthRecords(user, NullWriter.INSTANCE);
+                    return true;
+                default:
+                    throw new IllegalArgumentException("Unknown operation: " + operation);
+            }
+        }
+
+        private boolean add() {
+            HealthRecord record = newRecord();
+            healthRecordController.addHealthRecord(user, record);
+            if (record.getId() > 0) {
+                recordIds.add(record.getId());
+                return true;
+            }
+            return false;
+        }
+
+        private HealthRecord newRecord() {
+            return new HealthRecord(0, 60 + random.nextInt(400) / 10f, 36 + random.nextInt(30) / 10f,
+                    (110 + random.nextInt(40)) + "/" + (70 + random.nextInt(20)), "load test", LocalDate.now(), user.getId());
+        }
+    }
+
+    /**
+     * A writer that discards everything, so exports measure the read path rather than the disk.
+     */
+    private static class NullWriter extends Writer {
+
+        static final NullWriter INSTANCE = new NullWriter();
+
+        @Override
+        public void write(char[] buffer, int offset, int length) {
+        }
+
+        @Override
+        public void write(String text) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Runs a load test from the command line.
+     *
+     * @param args options as described in the class documentation
+     * @throws InterruptedException if interrupted while waiting for the workers
+     */
+    public static void main(String[] args) throws InterruptedException {
+        String dbFile = "loadtest.db";
+        double rate = 200;
+        int seconds = 30;
+        int users = 50;
+        int threads = 8;
+        String mix = DEFAULT_MIX;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--db": dbFile = args[i + 1]; break;
+                case "--rate": rate = Double.parseDouble(args[i + 1]); break;
+                case "--seconds": seconds = Integer.parseInt(args[i + 1]); break;
+                case "--users": users = Integer.parseInt(args[i + 1]); break;
+                case "--threads": threads = Integer.parseInt(args[i + 1]); break;
+                case "--mix": mix = args[i + 1]; break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        // "--db memory" runs against the in-memory engine, to separate controller cost from storage cost
+        HealthRepository database = dbFile.equals("memory") ? new InMemoryDatabase() : new Database("jdbc:sqlite:" + dbFile);
+        LoadTestHarness harness = new LoadTestHarness(database, threads, mix);
+        harness.createSessions(users);
+
+        System.out.printf("Running %s at %.0f ops/s for %d s with %d users on %d threads%n", mix, rate, seconds, users, threads);
+        long start = System.nanoTime();
+        long issued = harness.run(rate, seconds);
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("Issued %d operations (target %.0f ops/s, achieved %.1f ops/s)%n", issued, rate, issued / elapsed);
+        harness.printReport(elapsed);
+    }
+}
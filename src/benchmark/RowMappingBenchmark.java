@@ -0,0 +1,102 @@
+package benchmark;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+
+import controller.HealthRecordController;
+import database.Database;
+import model.HealthRecord;
+import model.User;
+import tools.SyntheticDataGenerator;
+
+/**
+ * Measures the memory allocated per record by the ways of reading a user's records: the full list of
+ * getAllHealthRecords, the streaming forEachHealthRecord, and the export built on it, compared with
+ * an export that formats every record of the list with toString() as it used to.
+ *
+ * Each read runs over all users three times and the last pass is reported, so the JIT is warm.
+ * Allocation is measured with the per-thread counters of the HotSpot management extension and
+ * includes what the JDBC driver allocates.
+ *
+ * Usage: java benchmark.RowMappingBenchmark [database file] [users] [records per user]
+ */
+public class RowMappingBenchmark {
+
+    /**
+     * A read of one user's records.
+     */
+    private interface UserRead {
+        long read(int userId) throws SQLException, IOException;
+    }
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args optional database file, user count and records per user
+     * @throws SQLException if an SQL error occurs
+     * @throws IOException if the database file cannot be removed
+     */
+    public static void main(String[] args) throws SQLException, IOException {
+        Path file = Paths.get(args.length > 0 ? args[0] : "row-mapping-benchmark.db");
+        int users = args.length > 1 ? Integer.parseInt(args[1]) : 1_000;
+        int recordsPerUser = args.length > 2 ? Integer.parseInt(args[2]) : 365;
+
+        Files.deleteIfExists(file);
+        Database database = new Database("jdbc:sqlite:" + file);
+        int firstUserId = database.getNextUserId();
+        new SyntheticDataGenerator(42, users, recordsPerUser, firstUserId, SyntheticDataGenerator.DEFAULT_START_DATE)
+                .writeTo(database);
+
+        HealthRecordController controller = new HealthRecordController(database);
+        Writer discard = new Writer() {
+            @Override
+            public void write(char[] buffer, int offset, int length) {
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        measure("record list", firstUserId, users, userId -> database.getAllHealthRecords(userId).size());
+        measure("streaming rows", firstUserId, users, userId -> database.forEachHealthRecord(userId, row -> { }));
+        measure("export, toString", firstUserId, users, userId -> {
+            long count = 0;
+            for (HealthRecord record : database.getAllHealthRecords(userId)) {
+                discard.write(record.toString() + System.lineSeparator());
+                count++;
+            }
+            return count;
+        });
+        measure("export, streamed", firstUserId, users,
+                userId -> controller.exportHealthRecords(new User(userId, "", "", "", ""), discard));
+    }
+
+    private static void measure(String name, int firstUserId, int users, UserRead read) throws SQLException, IOException {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        for (int pass = 0; pass < 3; pass++) {
+            long records = 0;
+            long allocated = threads.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            for (int userId = firstUserId; userId < firstUserId + users; userId++) {
+                records += read.read(userId);
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            allocated = threads.getThreadAllocatedBytes(threadId) - allocated;
+            if (pass == 2) {
+                System.out.printf("%-17s %,12.0f records/s, %,6.0f bytes allocated per record%n",
+                        name, records / seconds, (double) allocated / records);
+            }
+        }
+    }
+}
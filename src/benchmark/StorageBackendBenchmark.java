@@ -0,0 +1,134 @@
+package benchmark;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import database.Database;
+import database.HealthRepository;
+import database.InMemoryDatabase;
+import model.HealthRecord;
+import model.User;
+import tools.SyntheticDataGenerator;
+
+/**
+ * Compares storage backends on the operations the controllers perform.
+ *
+ * Each backend is loaded with the same generated dataset, then every operation is run a fixed
+ * number of times against random users, and the throughput and p50/p99 latency are printed per
+ * backend and operation.
+ *
+ * Usage: java benchmark.StorageBackendBenchmark [database file] [users] [records per user] [operations]
+ */
+public class StorageBackendBenchmark {
+
+    /**
+     * The operations that are timed.
+     */
+    private enum Operation {
+        GET_USER_BY_USERNAME, LIST_RECORDS, ADD_RECORD, UPDATE_RECORD
+    }
+
+    // Untimed operations run first so that both backends are measured with a warm JIT
+    private static final int WARMUP_OPERATIONS = 2_000;
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args optional database file, user count, records per user and operations per kind
+     * @throws SQLException if an SQL error occurs
+     */
+    public static void main(String[] args) throws SQLException {
+        String file = args.length > 0 ? args[0] : "backend-benchmark.db";
+        int users = args.length > 1 ? Integer.parseInt(args[1]) : 1_000;
+        int recordsPerUser = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        int operations = args.length > 3 ? Integer.parseInt(args[3]) : 20_000;
+
+        Map<String, HealthRepository> backends = new LinkedHashMap<>();
+        backends.put("sqlite", new Database("jdbc:sqlite:" + file));
+        backends.put("memory", new InMemoryDatabase());
+
+        System.out.printf("%-8s %-22s %12s %10s %10s%n", "backend", "operation", "ops/s", "p50 us", "p99 us");
+        for (Map.Entry<String, HealthRepository> backend : backends.entrySet()) {
+            HealthRepository repository = backend.getValue();
+            int firstUserId = repository.getNextUserId();
+            new SyntheticDataGenerator(42, users, recordsPerUser, firstUserId, SyntheticDataGenerator.DEFAULT_START_DATE)
+                    .writeTo(repository);
+
+            warmUp(repository, firstUserId, users);
+            for (Operation operation : Operation.values()) {
+                LatencyHistogram histogram = new LatencyHistogram();
+                long start = System.nanoTime();
+                run(repository, firstUserId, users, operations, operation, histogram);
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.printf("%-8s %-22s %12.0f %10.1f %10.1f%n", backend.getKey(), operation,
+                        histogram.getCount() / seconds, histogram.getPercentile(50) / 1e3, histogram.getPercentile(99) / 1e3);
+            }
+        }
+    }
+
+    /**
+     * Runs every operation a few thousand times without reporting it.
+     */
+    private static void warmUp(HealthRepository repository, int firstUserId, int users) throws SQLException {
+        for (Operation operation : Operation.values()) {
+            run(repository, firstUserId, users, WARMUP_OPERATIONS, operation, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * Runs one operation the given number of times against random users, recording each latency.
+     */
+    private static void run(HealthRepository repository, int firstUserId, int users, int count,
+                            Operation operation, LatencyHistogram histogram) throws SQLException {
+        SplittableRandom random = new SplittableRandom(operation.ordinal());
+
+        // Look the inputs up in advance so that only the operation itself is timed
+        List<User> targets = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            targets.add(repository.getUser(firstUserId + random.nextInt(users)));
+        }
+
+        for (User user : targets) {
+            switch (operation) {
+                case GET_USER_BY_USERNAME: {
+                    long start = System.nanoTime();
+                    repository.getUserByUsername(user.getUsername());
+                    histogram.record(System.nanoTime() - start);
+                    break;
+                }
+                case LIST_RECORDS: {
+                    long start = System.nanoTime();
+                    repository.getAllHealthRecords(user.getId());
+                    histogram.record(System.nanoTime() - start);
+                    break;
+                }
+                case ADD_RECORD: {
+                    HealthRecord record = new HealthRecord(0, 70.0f, 36.6f, "120/80", "benchmark", LocalDate.now(), user.getId());
+                    long start = System.nanoTime();
+                    repository.addHealthRecord(record);
+                    histogram.record(System.nanoTime() - start);
+                    break;
+                }
+                case UPDATE_RECORD: {
+                    List<HealthRecord> records = repository.getAllHealthRecords(user.getId());
+                    if (records.isEmpty()) {
+                        continue;
+                    }
+                    HealthRecord record = records.get(random.nextInt(records.size()));
+                    record.setWeight(record.getWeight() + 0.1f);
+                    long start = System.nanoTime();
+                    repository.updateHealthRecord(record);
+                    histogram.record(System.nanoTime() - start);
+                    break;
+                }
+                default:
+                    throw new IllegalStateException("Unknown operation: " + operation);
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package benchmark;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import database.Database;
+import tools.SyntheticDataGenerator;
+
+/**
+ * Measures what storing short blood pressure readings and notes once, in the text_values dictionary,
+ * saves in file size and in memory allocated while reading records.
+ *
+ * A fresh database file is filled with the generated dataset, whose readings and notes repeat as they
+ * do in real use, and compacted with VACUUM. Every user's records are then read in full. Afterwards
+ * the dictionary references are written back into the rows as text, as older versions stored them,
+ * and the file is compacted and read again. The report gives the file size, the bytes allocated per
+ * record read and the hit rate of the dictionary cache.
+ *
+ * Allocation is measured with the per-thread counters of the HotSpot management extension, so it
+ * needs a HotSpot-based JVM.
+ *
+ * Usage: java benchmark.TextDictionaryBenchmark [database file] [users] [records per user]
+ */
+public class TextDictionaryBenchmark {
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args optional database file, user count and records per user
+     * @throws SQLException if an SQL error occurs
+     * @throws IOException if the database file cannot be removed or measured
+     */
+    public static void main(String[] args) throws SQLException, IOException {
+        Path file = Paths.get(args.length > 0 ? args[0] : "text-dictionary-benchmark.db");
+        int users = args.length > 1 ? Integer.parseInt(args[1]) : 1_000;
+        int recordsPerUser = args.length > 2 ? Integer.parseInt(args[2]) : 365;
+
+        Files.deleteIfExists(file);
+        Database database = new Database("jdbc:sqlite:" + file);
+        int firstUserId = database.getNextUserId();
+        long records = new SyntheticDataGenerator(42, users, recordsPerUser, firstUserId, SyntheticDataGenerator.DEFAULT_START_DATE)
+                .writeTo(database);
+
+        long dictionarySize = compact(database, file);
+        long distinctValues;
+        try (Statement stmt = database.getConnection().createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM text_values")) {
+            distinctValues = rs.next() ? rs.getLong(1) : 0;
+        }
+        double dictionaryAllocated = scan(database, "dictionary", firstUserId, users, records);
+        System.out.printf("dictionary cache: %,d hits, %,d misses, %,d distinct values%n",
+                database.getTextCacheHits(), database.getTextCacheMisses(), distinctValues);
+
+        // Store the text in the rows again, as before the dictionary existed
+        try (Statement stmt = database.getConnection().createStatement()) {
+            stmt.executeUpdate("UPDATE health_records SET " +
+                    "bloodPressure = COALESCE((SELECT text_value FROM text_values WHERE text_values.id = bp_id), bloodPressure), " +
+                    "note = COALESCE((SELECT text_value FROM text_values WHERE text_values.id = note_id), note), " +
+                    "bp_id = NULL, note_id = NULL");
+            stmt.executeUpdate("DELETE FROM text_values");
+        }
+        database.clearTextCache();
+        long inlineSize = compact(database, file);
+        double inlineAllocated = scan(database, "inline", firstUserId, users, records);
+
+        System.out.printf("file size: %,d bytes inline, %,d bytes with the dictionary (%.1f%% smaller)%n",
+                inlineSize, dictionarySize, 100.0 * (inlineSize - dictionarySize) / inlineSize);
+        System.out.printf("bytes allocated per record read: %.0f inline, %.0f with the dictionary%n",
+                inlineAllocated, dictionaryAllocated);
+    }
+
+    /**
+     * Compacts the database file and returns its size.
+     */
+    private static long compact(Database database, Path file) throws SQLException, IOException {
+        try (Statement stmt = database.getConnection().createStatement()) {
+            stmt.execute("VACUUM");
+        }
+        return Files.size(file);
+    }
+
+    /**
+     * Reads every user's records in full, twice, and reports the second pass so the JIT is warm.
+     *
+     * @return the bytes allocated per record in the second pass
+     */
+    private static double scan(Database database, String layout, int firstUserId, int users, long expected) throws SQLException {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        double allocatedPerRecord = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            long read = 0;
+            long allocated = threads.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            for (int userId = firstUserId; userId < firstUserId + users; userId++) {
+                read += database.getAllHealthRecords(userId).size();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            allocated = threads.getThreadAllocatedBytes(threadId) - allocated;
+            if (read != expected) {
+                throw new IllegalStateException("Read " + read + " records, expected " + expected);
+            }
+            if (pass == 1) {
+                allocatedPerRecord = (double) allocated / read;
+                System.out.printf("%-10s full scan: %,12.0f records/s, %,6.0f bytes allocated per record%n",
+                        layout, read / seconds, allocatedPerRecord);
+            }
+        }
+        return allocatedPerRecord;
+    }
+}
@@ -0,0 +1,173 @@
+package benchmark;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import database.ConnectionSettings;
+import database.Database;
+import database.TuningProfile;
+import tools.SyntheticDataGenerator;
+
+/**
+ * Runs the standard workload under every {@link TuningProfile} and the engine defaults, and
+ * recommends a profile for this host.
+ *
+ * Each candidate gets a new database file in the given folder, so the page size and journal mode of
+ * the profile apply. The file is loaded with the same generated dataset, timing the load, and then
+ * the {@link LoadTestHarness} replays its default operation mix at a fixed rate, reporting the
+ * latency percentiles of all operations. An untimed run on a small database warms up the JIT first.
+ *
+ * The recommendation for the application is desktop-safe, unless the p99 latency of
+ * server-throughput is at least 1.25 times lower and the host has the memory for its caches;
+ * server-throughput also needs the database file on a local disk, which the benchmark cannot tell,
+ * so it is printed as a condition. For imports, bulk-load is recommended if it loads at least 1.25
+ * times as fast as the profile recommended for the application.
+ *
+ * Usage: java benchmark.TuningProfileBenchmark [--dir folder] [--users n] [--records n]
+ *        [--rate opsPerSecond] [--seconds n] [--threads n]
+ */
+public class TuningProfileBenchmark {
+
+    // The improvement a faster but less durable profile must bring to be recommended
+    private static final double MIN_GAIN = 1.25;
+
+    // The physical memory below which the large caches of server-throughput are not recommended
+    private static final long MIN_SERVER_MEMORY = 4L << 30;
+
+    /**
+     * The measurements of one candidate.
+     */
+    private static class Result {
+        double loadRecordsPerSecond;
+        long p50Nanos;
+        long p99Nanos;
+        long errors;
+    }
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args options as described in the class documentation
+     * @throws SQLException if an SQL error occurs
+     * @throws IOException if a database file cannot be removed
+     * @throws InterruptedException if interrupted while waiting for the load test workers
+     */
+    public static void main(String[] args) throws SQLException, IOException, InterruptedException {
+        Path folder = Paths.get(".");
+        int users = 500;
+        int recordsPerUser = 365;
+        double rate = 200;
+        int seconds = 20;
+        int threads = 8;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--dir": folder = Paths.get(args[i + 1]); break;
+                case "--users": users = Integer.parseInt(args[i + 1]); break;
+                case "--records": recordsPerUser = Integer.parseInt(args[i + 1]); break;
+                case "--rate": rate = Double.parseDouble(args[i + 1]); break;
+                case "--seconds": seconds = Integer.parseInt(args[i + 1]); break;
+                case "--threads": threads = Integer.parseInt(args[i + 1]); break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        Map<String, ConnectionSettings> candidates = new LinkedHashMap<>();
+        candidates.put("engine defaults", ConnectionSettings.DEFAULTS);
+        for (TuningProfile profile : TuningProfile.values()) {
+            candidates.put(profile.getName(), profile.getSettings());
+        }
+
+        System.out.printf("Loading %d users with %d records each, then %.0f ops/s for %d s on %d threads%n",
+                users, recordsPerUser, rate, seconds, threads);
+        run(folder.resolve("tuning-warm-up.db"), ConnectionSettings.DEFAULTS, 50, 30, rate, 3, threads);
+
+        Map<String, Result> results = new LinkedHashMap<>();
+        System.out.printf("%-18s %14s %10s %10s %7s%n", "profile", "load rec/s", "p50 ms", "p99 ms", "errors");
+        for (Map.Entry<String, ConnectionSettings> candidate : candidates.entrySet()) {
+            Result result = run(folder.resolve("tuning-" + candidate.getKey().replace(' ', '-') + ".db"),
+                    candidate.getValue(), users, recordsPerUser, rate, seconds, threads);
+            results.put(candidate.getKey(), result);
+            System.out.printf("%-18s %,14.0f %10.2f %10.2f %7d%n", candidate.getKey(), result.loadRecordsPerSecond,
+                    result.p50Nanos / 1e6, result.p99Nanos / 1e6, result.errors);
+        }
+        recommend(results);
+    }
+
+    /**
+     * Loads a new database with the given settings and runs the load test on it.
+     */
+    private static Result run(Path file, ConnectionSettings settings, int users, int recordsPerUser, double rate,
+                              int seconds, int threads) throws SQLException, IOException, InterruptedException {
+        deleteDatabase(file);
+        Database database = new Database("jdbc:sqlite:" + file, settings);
+        Result result = new Result();
+        try {
+            int firstUserId = database.getNextUserId();
+            long start = System.nanoTime();
+            long records = new SyntheticDataGenerator(42, users, recordsPerUser, firstUserId,
+                    SyntheticDataGenerator.DEFAULT_START_DATE).writeTo(database);
+            result.loadRecordsPerSecond = records / ((System.nanoTime() - start) / 1e9);
+
+            LoadTestHarness harness = new LoadTestHarness(database, threads, LoadTestHarness.DEFAULT_MIX);
+            harness.createSessions(50);
+            harness.run(rate, seconds);
+            LatencyHistogram all = new LatencyHistogram();
+            for (LoadTestHarness.Operation operation : LoadTestHarness.Operation.values()) {
+                all.add(harness.getLatencies(operation));
+                result.errors += harness.getErrors(operation);
+            }
+            result.p50Nanos = all.getPercentile(50);
+            result.p99Nanos = all.getPercentile(99);
+        } finally {
+            database.close();
+            deleteDatabase(file);
+        }
+        return result;
+    }
+
+    /**
+     * Prints the profile recommended for the application and for imports on this host.
+     */
+    private static void recommend(Map<String, Result> results) {
+        Result safe = results.get(TuningProfile.DESKTOP_SAFE.getName());
+        Result server = results.get(TuningProfile.SERVER_THROUGHPUT.getName());
+        Result bulk = results.get(TuningProfile.BULK_LOAD.getName());
+        // Deprecated from Java 14 for getTotalMemorySize, which Java 11 does not have
+        @SuppressWarnings("deprecation")
+        long memory = ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean())
+                .getTotalPhysicalMemorySize();
+
+        TuningProfile application = TuningProfile.DESKTOP_SAFE;
+        String reason;
+        if (server.p99Nanos * MIN_GAIN > safe.p99Nanos) {
+            reason = "the p99 latency of server-throughput is not 1.25x lower";
+        } else if (memory < MIN_SERVER_MEMORY) {
+            reason = String.format("the host has %.1f GiB of memory, too little for the caches of server-throughput", memory / (double) (1L << 30));
+        } else {
+            application = TuningProfile.SERVER_THROUGHPUT;
+            reason = String.format("its p99 latency is %.1fx lower; only if the database file is on a local disk",
+                    (double) safe.p99Nanos / server.p99Nanos);
+        }
+        System.out.printf("%nRecommended for the application: myhealthtracker.db.profile=%s (%s)%n", application, reason);
+
+        Result chosen = results.get(application.getName());
+        if (bulk.loadRecordsPerSecond >= chosen.loadRecordsPerSecond * MIN_GAIN) {
+            System.out.printf("Recommended for imports: myhealthtracker.db.profile=%s (loads %.1fx faster; switch back afterwards)%n",
+                    TuningProfile.BULK_LOAD, bulk.loadRecordsPerSecond / chosen.loadRecordsPerSecond);
+        } else {
+            System.out.printf("Recommended for imports: myhealthtracker.db.profile=%s (bulk-load does not load 1.25x as fast)%n", application);
+        }
+    }
+
+    private static void deleteDatabase(Path file) throws IOException {
+        for (String suffix : new String[] {"", "-journal", "-wal", "-shm"}) {
+            Files.deleteIfExists(Paths.get(file + suffix));
+        }
+    }
+}
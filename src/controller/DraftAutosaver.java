@@ -0,0 +1,154 @@
+package controller;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import database.DraftJournal;
+import model.RecordDraft;
+
+/**
+ * Saves the record form as a draft while the user types, without a write per keystroke.
+ *
+ * Edits are coalesced: the first edit after a quiet period schedules a write one interval later, and
+ * every edit until then only replaces the pending draft. So however fast the user types, the journal
+ * receives at most one small write per interval, holding the latest text. All journal access runs on
+ * one background thread, so the JavaFX thread never waits for the disk while typing.
+ */
+public class DraftAutosaver implements AutoCloseable {
+
+    /**
+     * The longest time an edit waits before it is written, unless set otherwise.
+     */
+    public static final long DEFAULT_INTERVAL_MILLIS = 1000;
+
+    private final DraftJournal journal;
+    private final long intervalMillis;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "draft-autosave");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // The drafts not written yet, by user ID; guarded by this
+    private final Map<Integer, RecordDraft> pending = new LinkedHashMap<>();
+    private boolean writeScheduled;
+
+    /**
+     * Creates an autosaver.
+     *
+     * @param journal the journal the drafts are written to
+     * @param intervalMillis the longest time an edit waits before it is written
+     */
+    public DraftAutosaver(DraftJournal journal, long intervalMillis) {
+        this.journal = journal;
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * Records the current content of the form. It is written with the next scheduled write.
+     *
+     * @param draft the content of the form
+     */
+    public synchronized void update(RecordDraft draft) {
+        pending.put(draft.getUserId(), draft);
+        if (!writeScheduled) {
+            writeScheduled = true;
+            executor.schedule(this::writePending, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Removes a user's draft, pending or written, once the record has been saved or the edit abandoned.
+     *
+     * @param userId the user's ID
+     */
+    public void discard(int userId) {
+        synchronized (this) {
+            pending.remove(userId);
+        }
+        // Queued behind any write already under way, so the draft cannot reappear after it
+        executor.execute(() -> {
+            try {
+                journal.clear(userId);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * Returns a user's latest draft, including one not written yet.
+     *
+     * @param userId the user's ID
+     * @return the draft, or null if the user has none or it could not be read
+     */
+    public RecordDraft getDraft(int userId) {
+        synchronized (this) {
+            RecordDraft draft = pending.get(userId);
+            if (draft != null) {
+                return draft;
+            }
+        }
+        // Read on the journal's thread, after the discards queued before this call
+        try {
+            return executor.submit(() -> journal.getDraft(userId)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Writes the pending drafts now and waits until they are written.
+     */
+    public void flush() {
+        try {
+            executor.submit(this::writePending).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Writes the pending drafts and closes the journal.
+     */
+    @Override
+    public void close() {
+        flush();
+        executor.shutdown();
+        try {
+            journal.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void writePending() {
+        List<RecordDraft> drafts;
+        synchronized (this) {
+            drafts = new ArrayList<>(pending.values());
+            pending.clear();
+            writeScheduled = false;
+        }
+        for (RecordDraft draft : drafts) {
+            try {
+                journal.write(draft);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -1,32 +1,92 @@
 package controller;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.sql.SQLException;
+import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import model.HealthRecord;
+import model.HealthRecordVersion;
+import model.PeriodSummary;
+import model.RollupPeriod;
 import model.User;
-import database.Database;
+import database.HealthRecordQuery;
+import database.HealthRepository;
 
 /**
  * This class represents a controller for health records in the application.
  * It provides methods for adding, deleting, updating, and retrieving health records from the database.
  */
 public class HealthRecordController {
+
+    /**
+     * Receives the health records added, updated and deleted through a controller, after the change
+     * has been stored. Changes that fail are not reported. Listeners run on the thread that made the change.
+     */
+    public interface RecordListener {
+
+        /**
+         * Called after a record has been added, or a deleted record restored.
+         *
+         * @param record the record, with its ID set
+         */
+        void recordAdded(HealthRecord record);
+
+        /**
+         * Called after a record has been updated.
+         *
+         * @param record the record as it was saved
+         */
+        void recordUpdated(HealthRecord record);
+
+        /**
+         * Called after a record has been deleted.
+         *
+         * @param record the deleted record
+         */
+        void recordDeleted(HealthRecord record);
+    }
     
     // The database object that handles data persistence for the application
-    private Database database; 
+    private HealthRepository database; 
+
+    // The listeners told about every stored change
+    private final List<RecordListener> listeners = new CopyOnWriteArrayList<>();
+
+    // The number of records per page of the queries made by newQuery; may change while running
+    private volatile int pageSize = HealthRecordQuery.DEFAULT_PAGE_SIZE;
 
     /**
      * Constructs a HealthRecordController with a given database.
      *
      * @param database the database for storing health records
      */
-    public HealthRecordController(Database database) {
+    public HealthRecordController(HealthRepository database) {
         // Initialize the database attribute with the provided database
         this.database = database; 
     }
 
+    /**
+     * Registers a listener that is told about every health record change made through this controller.
+     *
+     * @param listener the listener to add
+     */
+    public void addRecordListener(RecordListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Removes a listener registered with addRecordListener.
+     *
+     * @param listener the listener to remove
+     */
+    public void removeRecordListener(RecordListener listener) {
+        listeners.remove(listener);
+    }
+
     /**
      * Adds a health record for a user in the database.
      *
@@ -40,6 +100,10 @@ public class HealthRecordController {
             
             // Add the health record to the database
             database.addHealthRecord(record);
+
+            for (RecordListener listener : listeners) {
+                listener.recordAdded(record);
+            }
         } catch (SQLException e) {
             // Print the stack trace for any SQLExceptions
             e.printStackTrace();
@@ -55,6 +119,10 @@ public class HealthRecordController {
         try {
             // Delete the health record from the database using its id
             database.deleteHealthRecord(record.getId());
+
+            for (RecordListener listener : listeners) {
+                listener.recordDeleted(record);
+            }
         } catch (SQLException e) {
             // Print the stack trace for any SQLExceptions
             e.printStackTrace();
@@ -70,12 +138,33 @@ public class HealthRecordController {
         try {
             // Update the health record in the database
             database.updateHealthRecord(record);
+
+            for (RecordListener listener : listeners) {
+                listener.recordUpdated(record);
+            }
         } catch (SQLException e) {
             // Print the stack trace for any SQLExceptions
             e.printStackTrace();
         }
     }
 
+    /**
+     * Retrieves a health record by its ID.
+     *
+     * @param id the ID of the health record
+     * @return the health record, or null if there is none or an error occurs
+     */
+    public HealthRecord getHealthRecord(int id) {
+        try {
+            // Return the health record from the database
+            return database.getHealthRecord(id);
+        } catch (SQLException e) {
+            // Print the stack trace for any SQLExceptions and return null
+            e.printStackTrace();
+            return null;
+        }
+    }
+
     /**
      * Retrieves all health records for a user from the database.
      *
@@ -84,8 +173,50 @@ public class HealthRecordController {
      */
     public List<HealthRecord> getHealthRecordsForUser(User user) {
         try {
-            // Return all health records for the user from the database
-            return database.getAllHealthRecords(user.getId());
+            // Read from a replica when one is recent enough, otherwise from the database itself
+            return database.getReadRepository().getAllHealthRecords(user.getId());
+        } catch (SQLException e) {
+            // Print the stack trace for any SQLExceptions and return an empty list
+            e.printStackTrace();
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Creates a query for all of a user's records, with the page size set on this controller.
+     *
+     * @param userId the user's ID
+     * @return a new query, to be narrowed with filters
+     */
+    public HealthRecordQuery newQuery(int userId) {
+        HealthRecordQuery query = new HealthRecordQuery(userId);
+        query.setPageSize(pageSize);
+        return query;
+    }
+
+    /**
+     * Changes the page size of the queries created from now on by {@link #newQuery(int)}.
+     *
+     * @param pageSize the number of records per page, at least 1
+     */
+    public void setPageSize(int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("The page size must be at least 1: " + pageSize);
+        }
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Retrieves one page of a user's health records, filtered and sorted by the database.
+     * Like the full record list, the page is read from a replica when one is recent enough.
+     *
+     * @param query the filters, sort order and page size
+     * @param after the last record of the previous page, or null for the first page
+     * @return the records of the page, or an empty list if an error occurs
+     */
+    public List<HealthRecord> getHealthRecordsPage(HealthRecordQuery query, HealthRecord after) {
+        try {
+            return database.getReadRepository().queryHealthRecords(query, after);
         } catch (SQLException e) {
             // Print the stack trace for any SQLExceptions and return an empty list
             e.printStackTrace();
@@ -93,4 +224,111 @@ public class HealthRecordController {
         }
     }
 
+    /**
+     * Retrieves every stored version of a health record, oldest first.
+     *
+     * @param record the health record to retrieve the history for
+     * @return the versions of the record, or an empty list if an error occurs
+     */
+    public List<HealthRecordVersion> getHealthRecordHistory(HealthRecord record) {
+        try {
+            // Return the history of the record from the database
+            return database.getHealthRecordHistory(record.getId());
+        } catch (SQLException e) {
+            // Print the stack trace for any SQLExceptions and return an empty list
+            e.printStackTrace();
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Retrieves the deleted health records of a user that can still be restored.
+     *
+     * @param user the user to retrieve the deleted health records for
+     * @return the deleted records, or an empty list if an error occurs
+     */
+    public List<HealthRecord> getDeletedHealthRecords(User user) {
+        try {
+            // Return the user's deleted records from the database
+            return database.getDeletedHealthRecords(user.getId());
+        } catch (SQLException e) {
+            // Print the stack trace for any SQLExceptions and return an empty list
+            e.printStackTrace();
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Restores a deleted health record.
+     *
+     * @param record the deleted health record to restore
+     * @return the restored record, or null if it could not be restored
+     */
+    public HealthRecord restoreHealthRecord(HealthRecord record) {
+        try {
+            // Restore the record in the database using its id
+            HealthRecord restored = database.restoreHealthRecord(record.getId());
+            if (restored != null) {
+                for (RecordListener listener : listeners) {
+                    listener.recordAdded(restored);
+                }
+            }
+            return restored;
+        } catch (SQLException e) {
+            // Print the stack trace for any SQLExceptions
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Summarises a user's health records by day, week or month, e.g. the weekly average weight or
+     * the monthly highest temperature over a year. The summaries come from the rollups the database
+     * keeps, so the user's records are not read. They are read from the database itself, because
+     * replicas do not hold the rollups.
+     *
+     * @param user the user whose records to summarise
+     * @param period the length of the periods
+     * @param from the first date to cover
+     * @param to the last date to cover
+     * @return the summaries of the periods that have records, oldest first, or an empty list if an error occurs
+     */
+    public List<PeriodSummary> getPeriodSummaries(User user, RollupPeriod period, LocalDate from, LocalDate to) {
+        try {
+            return database.getPeriodSummaries(user.getId(), period, from, to);
+        } catch (SQLException e) {
+            // Print the stack trace for any SQLExceptions and return an empty list
+            e.printStackTrace();
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Writes all health records of a user to the given writer, one record per line.
+     * Like the record list, the export reads from a replica when the database has one that is recent enough.
+     *
+     * @param user the user whose health records to export
+     * @param writer the writer to export to; it is not closed
+     * @return the number of records written
+     * @throws IOException if writing fails
+     */
+    public int exportHealthRecords(User user, Writer writer) throws IOException {
+        // Each line is built in the same buffer, so the records are streamed without a list or a string per record
+        StringBuilder line = new StringBuilder(256);
+        char[] buffer = new char[256];
+        try {
+            return (int) database.getReadRepository().forEachHealthRecord(user.getId(), row -> {
+                line.setLength(0);
+                row.appendTo(line).append(System.lineSeparator());
+                char[] chars = line.length() <= buffer.length ? buffer : new char[line.length()];
+                line.getChars(0, line.length(), chars, 0);
+                writer.write(chars, 0, line.length());
+            });
+        } catch (SQLException e) {
+            // Print the stack trace for any SQLExceptions; the records written so far stay in the file
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
 }
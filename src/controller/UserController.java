@@ -1,10 +1,10 @@
 package controller;
 
-import java.sql.*;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
 
-import database.Database;
+import database.HealthRepository;
 import model.HealthRecord;
 import model.User;
 
@@ -18,7 +18,7 @@ public class UserController {
     private User currentUser;
 
     // The database object for handling data persistence
-    private Database database;
+    private HealthRepository database;
 
     // The controller for handling health record-related actions
     private HealthRecordController healthRecordController;
@@ -29,7 +29,7 @@ public class UserController {
      * @param database the database for storing user information
      * @param healthRecordController the controller for handling health record-related actions
      */
-    public UserController(Database database, HealthRecordController healthRecordController) {
+    public UserController(HealthRepository database, HealthRecordController healthRecordController) {
         this.database = database;
         this.healthRecordController = healthRecordController;
     }
@@ -42,35 +42,14 @@ public class UserController {
      * @return the user with the specified username, or null if no such user exists
      */
     public User getUserByUsername(String username) {
-        // Initialize User object to hold retrieved user information
-        User user = null;
-
-        // SQL query string to find user with given username
-        String sql = "SELECT * FROM users WHERE username = ?";
-
-        // Try-with-resources statement to automatically close the resources after use
-        try (PreparedStatement pstmt = database.getConnection().prepareStatement(sql)) {
-
-            // Set the username in the prepared statement
-            pstmt.setString(1, username);
-
-            // Execute the SQL query and get the result set
-            ResultSet rs = pstmt.executeQuery();
-
-            // If a user with the given username exists, create a new User object with the retrieved data
-            if (rs.next()) {
-                user = new User(rs.getInt("id"), rs.getString("username"), 
-                                rs.getString("password"), rs.getString("firstName"), 
-                                rs.getString("lastName"));
-            }
-
-             // Catch any SQL exceptions and print the stack trace for debugging
+        try {
+            // Look the user up in the database
+            return database.getUserByUsername(username);
         } catch (SQLException e) {
+            // Catch any SQL exceptions and print the stack trace for debugging
             e.printStackTrace();
+            return null;
         }
-
-        // Return the User object if a user was found, or null otherwise
-        return user;
     }
 
     /**
@@ -205,8 +184,8 @@ public class UserController {
         List<User> users = new ArrayList<>();
         try
         {
-            // Call the getAllUsers method of the Database class to retrieve all users
-            users = database.getAllUsers();
+            // Retrieve all users, from a replica when one is recent enough
+            users = database.getReadRepository().getAllUsers();
         } catch (SQLException e) {
             // If a SQLException occurs, print the stack trace
             e.printStackTrace();
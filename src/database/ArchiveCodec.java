@@ -0,0 +1,403 @@
+package database;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import model.HealthRecord;
+
+/**
+ * Packs one user's health records into a compressed block for the archive tier, and unpacks them again.
+ *
+ * Each column is encoded on its own, the way time-series databases store readings:
+ * <ul>
+ *   <li>dates and record IDs with delta-of-delta encoding, so a record every day costs a single bit,
+ *       and so do IDs handed out at a steady rate;</li>
+ *   <li>weights and temperatures with the XOR encoding of Facebook's Gorilla, so an unchanged reading
+ *       costs one bit and a small change only the bits that differ from the previous reading;</li>
+ *   <li>blood pressure readings and notes through a dictionary local to the block, so a value equal
+ *       to the previous record's costs one bit and any other repeated value a byte or two;</li>
+ *   <li>versions as one bit for the first version, which nearly every archived record is at.</li>
+ * </ul>
+ * The records are stored sorted by date, then ID. A block is self-contained: it can be decoded
+ * without any other block, so a range read only decodes the blocks overlapping the range.
+ */
+public final class ArchiveCodec {
+
+    // Written first, so the format can change without misreading older blocks
+    private static final int FORMAT_VERSION = 1;
+
+    private ArchiveCodec() {
+    }
+
+    /**
+     * Encodes the records of one user into a block.
+     *
+     * @param records the records, all of the same user; they are stored sorted by date, then ID
+     * @return the block
+     */
+    public static byte[] encode(List<HealthRecord> records) {
+        List<HealthRecord> sorted = new ArrayList<>(records);
+        sorted.sort((a, b) -> {
+            int byDate = a.getDate().compareTo(b.getDate());
+            return byDate != 0 ? byDate : Integer.compare(a.getId(), b.getId());
+        });
+
+        BitWriter out = new BitWriter(sorted.size() * 4 + 16);
+        out.writeVarint(FORMAT_VERSION);
+        out.writeVarint(sorted.size());
+        if (sorted.isEmpty()) {
+            return out.toByteArray();
+        }
+
+        DeltaEncoder ids = new DeltaEncoder();
+        DeltaEncoder dates = new DeltaEncoder();
+        FloatEncoder weights = new FloatEncoder();
+        FloatEncoder temperatures = new FloatEncoder();
+        Map<String, Integer> dictionary = new HashMap<>();
+        TextEncoder bloodPressures = new TextEncoder(dictionary);
+        TextEncoder notes = new TextEncoder(dictionary);
+        for (HealthRecord record : sorted) {
+            ids.write(out, record.getId());
+            if (record.getVersion() == 1) {
+                out.writeBits(0, 1);
+            } else {
+                out.writeBits(1, 1);
+                out.writeVarint(record.getVersion());
+            }
+            dates.write(out, record.getDate().toEpochDay());
+            weights.write(out, Float.floatToRawIntBits(record.getWeight()));
+            temperatures.write(out, Float.floatToRawIntBits(record.getTemperature()));
+            bloodPressures.write(out, record.getBloodPressure());
+            notes.write(out, record.getNote());
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes a block back into its records, sorted by date, then ID.
+     *
+     * @param block the block, as returned by {@link #encode(List)}
+     * @param userId the ID of the user the block belongs to, which the block does not store
+     * @return the records
+     * @throws IllegalArgumentException if the block was written in an unknown format
+     */
+    public static List<HealthRecord> decode(byte[] block, int userId) {
+        BitReader in = new BitReader(block);
+        int formatVersion = in.readVarint();
+        if (formatVersion != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unknown archive block format: " + formatVersion);
+        }
+        int count = in.readVarint();
+        List<HealthRecord> records = new ArrayList<>(count);
+
+        DeltaDecoder ids = new DeltaDecoder();
+        DeltaDecoder dates = new DeltaDecoder();
+        FloatDecoder weights = new FloatDecoder();
+        FloatDecoder temperatures = new FloatDecoder();
+        List<String> dictionary = new ArrayList<>();
+        TextDecoder bloodPressures = new TextDecoder(dictionary);
+        TextDecoder notes = new TextDecoder(dictionary);
+        for (int i = 0; i < count; i++) {
+            int id = (int) ids.read(in);
+            int version = in.readBits(1) == 0 ? 1 : in.readVarint();
+            LocalDate date = LocalDate.ofEpochDay(dates.read(in));
+            float weight = Float.intBitsToFloat(weights.read(in));
+            float temperature = Float.intBitsToFloat(temperatures.read(in));
+            String bloodPressure = bloodPressures.read(in);
+            String note = notes.read(in);
+
+            HealthRecord record = new HealthRecord(id, weight, temperature, bloodPressure, note, date, userId);
+            record.setVersion(version);
+            records.add(record);
+        }
+        return records;
+    }
+
+    /**
+     * Dictionary encoding of one text column. A value equal to the previous record's is written as
+     * a 0 bit. Any other is a 1 bit followed by 0 for null, the dictionary position of a value seen
+     * before, or the next free position followed by the value itself. The dictionary is shared by
+     * the text columns of a block.
+     */
+    private static class TextEncoder {
+        private final Map<String, Integer> dictionary;
+        private boolean started;
+        private String previous;
+
+        TextEncoder(Map<String, Integer> dictionary) {
+            this.dictionary = dictionary;
+        }
+
+        void write(BitWriter out, String value) {
+            if (started && Objects.equals(value, previous)) {
+                out.writeBits(0, 1);
+                return;
+            }
+            started = true;
+            previous = value;
+            out.writeBits(1, 1);
+            if (value == null) {
+                out.writeVarint(0);
+                return;
+            }
+            Integer known = dictionary.get(value);
+            if (known != null) {
+                out.writeVarint(known);
+                return;
+            }
+            int position = dictionary.size() + 1;
+            dictionary.put(value, position);
+            out.writeVarint(position);
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeVarint(bytes.length);
+            for (byte b : bytes) {
+                out.writeBits(b & 0xFF, 8);
+            }
+        }
+    }
+
+    private static class TextDecoder {
+        private final List<String> dictionary;
+        private String previous;
+
+        TextDecoder(List<String> dictionary) {
+            this.dictionary = dictionary;
+        }
+
+        String read(BitReader in) {
+            if (in.readBits(1) == 0) {
+                return previous;
+            }
+            int position = in.readVarint();
+            if (position == 0) {
+                previous = null;
+            } else if (position <= dictionary.size()) {
+                previous = dictionary.get(position - 1);
+            } else {
+                byte[] bytes = new byte[in.readVarint()];
+                for (int i = 0; i < bytes.length; i++) {
+                    bytes[i] = (byte) in.readBits(8);
+                }
+                previous = new String(bytes, StandardCharsets.UTF_8);
+                dictionary.add(previous);
+            }
+            return previous;
+        }
+    }
+
+    /**
+     * Delta-of-delta encoding of a sequence of whole numbers, such as epoch days in order. The first
+     * number is stored in full; after that each change in the gap between consecutive numbers is
+     * stored in the smallest of five bucket sizes.
+     */
+    private static class DeltaEncoder {
+        private boolean started;
+        private long previous;
+        private long previousDelta;
+
+        void write(BitWriter out, long value) {
+            if (!started) {
+                out.writeBits((int) value, 32);
+                started = true;
+            } else {
+                long delta = value - previous;
+                writeDeltaOfDelta(out, delta - previousDelta);
+                previousDelta = delta;
+            }
+            previous = value;
+        }
+
+        private static void writeDeltaOfDelta(BitWriter out, long value) {
+            if (value == 0) {
+                out.writeBits(0, 1);
+            } else if (value >= -63 && value <= 64) {
+                out.writeBits(0b10, 2);
+                out.writeBits((int) (value + 63), 7);
+            } else if (value >= -255 && value <= 256) {
+                out.writeBits(0b110, 3);
+                out.writeBits((int) (value + 255), 9);
+            } else if (value >= -2047 && value <= 2048) {
+                out.writeBits(0b1110, 4);
+                out.writeBits((int) (value + 2047), 12);
+            } else {
+                out.writeBits(0b1111, 4);
+                out.writeBits((int) value, 32);
+            }
+        }
+    }
+
+    private static class DeltaDecoder {
+        private boolean started;
+        private long previous;
+        private long previousDelta;
+
+        long read(BitReader in) {
+            if (!started) {
+                started = true;
+                previous = in.readBits(32);
+                return previous;
+            }
+            long deltaOfDelta;
+            if (in.readBits(1) == 0) {
+                deltaOfDelta = 0;
+            } else if (in.readBits(1) == 0) {
+                deltaOfDelta = in.readBits(7) - 63;
+            } else if (in.readBits(1) == 0) {
+                deltaOfDelta = in.readBits(9) - 255;
+            } else if (in.readBits(1) == 0) {
+                deltaOfDelta = in.readBits(12) - 2047;
+            } else {
+                deltaOfDelta = in.readBits(32);
+            }
+            previousDelta += deltaOfDelta;
+            previous += previousDelta;
+            return previous;
+        }
+    }
+
+    /**
+     * Gorilla XOR encoding of 32-bit floats. A value equal to the previous one costs one bit.
+     * Otherwise the meaningful bits of the XOR with the previous value are stored, inside the
+     * previous window of leading and trailing zeros if they fit, else with a new window.
+     */
+    private static class FloatEncoder {
+        private boolean started;
+        private int previous;
+        private int leading = -1;
+        private int trailing;
+
+        void write(BitWriter out, int bits) {
+            if (!started) {
+                out.writeBits(bits, 32);
+                started = true;
+                previous = bits;
+                return;
+            }
+            int xor = bits ^ previous;
+            previous = bits;
+            if (xor == 0) {
+                out.writeBits(0, 1);
+                return;
+            }
+            int newLeading = Integer.numberOfLeadingZeros(xor);
+            int newTrailing = Integer.numberOfTrailingZeros(xor);
+            if (leading >= 0 && newLeading >= leading && newTrailing >= trailing) {
+                out.writeBits(0b10, 2);
+                out.writeBits(xor >>> trailing, 32 - leading - trailing);
+            } else {
+                int meaningful = 32 - newLeading - newTrailing;
+                out.writeBits(0b11, 2);
+                out.writeBits(newLeading, 5);
+                out.writeBits(meaningful - 1, 5);
+                out.writeBits(xor >>> newTrailing, meaningful);
+                leading = newLeading;
+                trailing = newTrailing;
+            }
+        }
+    }
+
+    private static class FloatDecoder {
+        private boolean started;
+        private int previous;
+        private int leading;
+        private int trailing;
+
+        int read(BitReader in) {
+            if (!started) {
+                started = true;
+                previous = in.readBits(32);
+                return previous;
+            }
+            if (in.readBits(1) == 0) {
+                return previous;
+            }
+            if (in.readBits(1) == 1) {
+                leading = in.readBits(5);
+                trailing = 32 - leading - (in.readBits(5) + 1);
+            }
+            previous ^= in.readBits(32 - leading - trailing) << trailing;
+            return previous;
+        }
+    }
+
+    /**
+     * Appends values of up to 32 bits to a growing byte array, most significant bit first.
+     */
+    private static class BitWriter {
+        private byte[] bytes;
+        private int bitCount;
+
+        BitWriter(int initialBytes) {
+            bytes = new byte[initialBytes];
+        }
+
+        void writeBits(int value, int bits) {
+            if (bitCount + bits > bytes.length * 8L) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, (bitCount + bits) / 8 + 8));
+            }
+            while (bits > 0) {
+                int free = 8 - (bitCount & 7);
+                int take = Math.min(free, bits);
+                int chunk = (int) ((value & 0xFFFFFFFFL) >>> (bits - take)) & ((1 << take) - 1);
+                bytes[bitCount >>> 3] |= chunk << (free - take);
+                bitCount += take;
+                bits -= take;
+            }
+        }
+
+        /**
+         * Writes a non-negative number in groups of seven bits, each preceded by a bit saying
+         * whether another group follows.
+         */
+        void writeVarint(int value) {
+            while ((value & ~0x7F) != 0) {
+                writeBits(0x80 | (value & 0x7F), 8);
+                value >>>= 7;
+            }
+            writeBits(value, 8);
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, (bitCount + 7) >>> 3);
+        }
+    }
+
+    private static class BitReader {
+        private final byte[] bytes;
+        private int position;
+
+        BitReader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        int readBits(int bits) {
+            int result = 0;
+            while (bits > 0) {
+                int available = 8 - (position & 7);
+                int take = Math.min(available, bits);
+                int chunk = ((bytes[position >>> 3] & 0xFF) >>> (available - take)) & ((1 << take) - 1);
+                result = (result << take) | chunk;
+                position += take;
+                bits -= take;
+            }
+            return result;
+        }
+
+        int readVarint() {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                int group = readBits(8);
+                value |= (group & 0x7F) << shift;
+                if ((group & 0x80) == 0) {
+                    return value;
+                }
+            }
+        }
+    }
+}
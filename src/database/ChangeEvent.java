@@ -0,0 +1,146 @@
+package database;
+
+/**
+ * One entry of the change log: a committed insert, update or delete of a single row in the
+ * users or health_records table, of one block of the health record archive, of one entry of the
+ * text_values dictionary, or of a user's wrapped data key. Events carry the row's key rather than its contents; consumers
+ * read the current row if they need it, so applying the same event twice is harmless.
+ */
+public class ChangeEvent {
+
+    /**
+     * The table name used for changes to users.
+     */
+    public static final String USERS = "users";
+
+    /**
+     * The table name used for changes to health records.
+     */
+    public static final String HEALTH_RECORDS = "health_records";
+
+    /**
+     * The table name used for changes to archive blocks; the row ID is the block ID.
+     */
+    public static final String HEALTH_RECORD_ARCHIVE = "health_record_archive";
+
+    /**
+     * The table name used for changes to the record index of an archive block; the row ID is the block ID.
+     */
+    public static final String HEALTH_RECORD_ARCHIVE_INDEX = "health_record_archive_index";
+
+    /**
+     * The table name used for new entries of the dictionary of readings and notes; the row ID is the entry ID.
+     */
+    public static final String TEXT_VALUES = "text_values";
+
+    /**
+     * The table name used for new data keys of {@link DataKeyStore}; the row ID is the user ID.
+     */
+    public static final String USER_KEYS = "user_keys";
+
+    /**
+     * The kinds of change that are logged.
+     */
+    public enum Operation {
+        INSERT,
+        UPDATE,
+        DELETE,
+
+        /**
+         * Many rows were loaded at once through a bulk-load path. No per-row events are written,
+         * so subscribers should rebuild any state derived from the table.
+         */
+        BULK_LOAD
+    }
+
+    private final long seq;
+    private final String table;
+    private final Operation operation;
+    private final int rowId;
+    private final int userId;
+    private final long changedAt;
+
+    /**
+     * Constructs a change event.
+     *
+     * @param seq the position of the event in the log; later events have larger numbers
+     * @param table the table that changed, one of the table name constants
+     * @param operation the kind of change
+     * @param rowId the ID of the changed row
+     * @param userId the ID of the user the row belongs to
+     * @param changedAt the time of the change in epoch milliseconds
+     */
+    public ChangeEvent(long seq, String table, Operation operation, int rowId, int userId, long changedAt) {
+        this.seq = seq;
+        this.table = table;
+        this.operation = operation;
+        this.rowId = rowId;
+        this.userId = userId;
+        this.changedAt = changedAt;
+    }
+
+    /**
+     * Returns the position of the event in the log, which subscribers use as their cursor.
+     * @return the sequence number
+     */
+    public long getSeq() {
+        return seq;
+    }
+
+    /**
+     * Returns the name of the table that changed.
+     * @return the table name
+     */
+    public String getTable() {
+        return table;
+    }
+
+    /**
+     * Returns the kind of change.
+     * @return the operation
+     */
+    public Operation getOperation() {
+        return operation;
+    }
+
+    /**
+     * Returns the ID of the changed row.
+     * @return the row ID
+     */
+    public int getRowId() {
+        return rowId;
+    }
+
+    /**
+     * Returns the ID of the user the changed row belongs to. For the users table this is the row ID.
+     * @return the user ID
+     */
+    public int getUserId() {
+        return userId;
+    }
+
+    /**
+     * Returns the time the change was committed.
+     * @return the time in epoch milliseconds
+     */
+    public long getChangedAt() {
+        return changedAt;
+    }
+
+    /**
+     * Returns a string representation of the change event.
+     *
+     * @return a string representation of the change event
+     */
+    @Override
+    public String toString() {
+        return "ChangeEvent {" +
+                "seq=" + seq +
+                ", table='" + table + '\'' +
+                ", operation=" + operation +
+                ", rowId=" + rowId +
+                ", userId=" + userId +
+                ", changedAt=" + changedAt +
+                '}';
+    }
+}
@@ -0,0 +1,230 @@
+package database;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Delivers the change log of a {@link Database} to subscribers, so that caches, statistics and other
+ * derived state can be updated incrementally instead of re-reading whole tables.
+ *
+ * Each subscription starts from a cursor (the sequence number of the last event it has already
+ * processed) and receives the following events in order, in batches. A reader thread fetches
+ * batches into a small bounded queue and a delivery thread hands them to the listener one at a time.
+ * When the listener falls behind the queue fills up and the reader stops fetching, so a slow
+ * subscriber never causes unbounded buffering. The cursor only moves once the listener has returned
+ * from a batch, so a subscriber that stores its cursor can resume without gaps after a restart.
+ *
+ * Subscribers are woken as soon as the database commits; a slow poll also picks up changes written
+ * by other processes.
+ */
+public class ChangeLog implements AutoCloseable {
+
+    /**
+     * Receives batches of change events.
+     */
+    public interface ChangeListener {
+
+        /**
+         * Processes one batch of events. The events are in sequence order and directly follow
+         * the previous batch. Throwing an exception stops the subscription.
+         *
+         * @param batch the events to process, never empty
+         * @throws Exception if the batch could not be processed
+         */
+        void onChanges(List<ChangeEvent> batch) throws Exception;
+    }
+
+    // How long a reader waits for a commit notification before polling anyway, in milliseconds
+    private static final long POLL_INTERVAL_MILLIS = 1000;
+
+    private final Database database;
+
+    // Incremented on every commit; readers wait for it to change when the log is exhausted
+    private final Object commitMonitor = new Object();
+    private long commitCount;
+
+    private final Runnable commitListener = this::onCommit;
+
+    /**
+     * Creates a change log reader for the given database.
+     *
+     * @param database the database whose changes to deliver
+     */
+    public ChangeLog(Database database) {
+        this.database = database;
+        database.addCommitListener(commitListener);
+    }
+
+    /**
+     * Subscribes to the change log.
+     *
+     * @param cursor the sequence number of the last event already processed; 0 for the whole log,
+     *               or {@link Database#getLatestChangeSeq()} for new changes only
+     * @param batchSize the maximum number of events per batch
+     * @param maxPendingBatches how many fetched batches may wait for the listener before fetching pauses
+     * @param listener the listener that processes the batches
+     * @return the running subscription
+     */
+    public Subscription subscribe(long cursor, int batchSize, int maxPendingBatches, ChangeListener listener) {
+        Subscription subscription = new Subscription(cursor, batchSize, maxPendingBatches, listener);
+        subscription.start();
+        return subscription;
+    }
+
+    /**
+     * Stops waking subscribers on commit. Subscriptions should be closed first.
+     */
+    @Override
+    public void close() {
+        database.removeCommitListener(commitListener);
+        onCommit();
+    }
+
+    private void onCommit() {
+        synchronized (commitMonitor) {
+            commitCount++;
+            commitMonitor.notifyAll();
+        }
+    }
+
+    /**
+     * A running subscription to the change log.
+     */
+    public class Subscription implements AutoCloseable {
+
+        private final int batchSize;
+        private final ChangeListener listener;
+        private final BlockingQueue<List<ChangeEvent>> pending;
+        private final Thread reader;
+        private final Thread deliverer;
+
+        // Last event fetched by the reader, and last event the listener has finished with
+        private long fetchedSeq;
+        private volatile long cursor;
+
+        private volatile boolean running = true;
+        private volatile Exception failure;
+
+        Subscription(long cursor, int batchSize, int maxPendingBatches, ChangeListener listener) {
+            this.cursor = cursor;
+            this.fetchedSeq = cursor;
+            this.batchSize = batchSize;
+            this.listener = listener;
+            this.pending = new ArrayBlockingQueue<>(maxPendingBatches);
+            this.reader = new Thread(this::readLoop, "change-log-reader");
+            this.deliverer = new Thread(this::deliverLoop, "change-log-delivery");
+            reader.setDaemon(true);
+            deliverer.setDaemon(true);
+        }
+
+        void start() {
+            reader.start();
+            deliverer.start();
+        }
+
+        /**
+         * Returns the sequence number of the last event the listener has finished processing.
+         * Store this to resume the subscription later.
+         *
+         * @return the cursor
+         */
+        public long getCursor() {
+            return cursor;
+        }
+
+        /**
+         * Returns whether the subscription is still delivering events.
+         * @return true until the subscription is closed or fails
+         */
+        public boolean isRunning() {
+            return running;
+        }
+
+        /**
+         * Returns the error that stopped the subscription, if any.
+         * @return the listener or database error, or null
+         */
+        public Exception getFailure() {
+            return failure;
+        }
+
+        /**
+         * Stops the subscription. A batch that is being processed is allowed to finish.
+         */
+        @Override
+        public void close() {
+            running = false;
+            reader.interrupt();
+        }
+
+        /**
+         * Waits until a closed subscription's threads have finished, including the batch that was
+         * being processed when it was closed.
+         *
+         * @throws InterruptedException if interrupted while waiting
+         */
+        void awaitStopped() throws InterruptedException {
+            reader.join();
+            deliverer.join();
+        }
+
+        private void readLoop() {
+            try (Connection readConnection = database.openReadConnection()) {
+                while (running) {
+                    long seenCommits;
+                    synchronized (commitMonitor) {
+                        seenCommits = commitCount;
+                    }
+
+                    List<ChangeEvent> batch = database.getChanges(readConnection, fetchedSeq, batchSize);
+                    if (batch.isEmpty()) {
+                        // Wait for the next commit, or poll again after a while
+                        synchronized (commitMonitor) {
+                            if (commitCount == seenCommits) {
+                                commitMonitor.wait(POLL_INTERVAL_MILLIS);
+                            }
+                        }
+                        continue;
+                    }
+
+                    // Blocks while the listener is behind, which is the back-pressure
+                    pending.put(batch);
+                    fetchedSeq = batch.get(batch.size() - 1).getSeq();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (SQLException e) {
+                fail(e);
+            }
+        }
+
+        private void deliverLoop() {
+            try {
+                while (running) {
+                    // Time out now and then to notice that the subscription was closed
+                    List<ChangeEvent> batch = pending.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                    if (batch == null) {
+                        continue;
+                    }
+                    listener.onChanges(batch);
+                    cursor = batch.get(batch.size() - 1).getSeq();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                fail(e);
+            }
+        }
+
+        private void fail(Exception e) {
+            if (running) {
+                failure = e;
+                close();
+            }
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package database;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * The engine settings applied to every connection a {@link Database} opens: the SQLite page cache,
+ * memory-mapped I/O, the synchronous level, where temporary tables go, the page size and the journal
+ * mode. A setting left null keeps the engine's default, or for the journal mode whatever the database
+ * file was last set to. Engines without these settings ignore them. Named sets of settings for common
+ * uses are the {@link TuningProfile}s.
+ *
+ * The page size only takes effect when the database file is created, since existing files keep
+ * the page size they were written with.
+ *
+ * Settings are immutable; a database is given a new instance to change them while it runs.
+ */
+public final class ConnectionSettings {
+
+    /**
+     * The values of the synchronous setting, from fastest to most durable.
+     */
+    public static final List<String> SYNCHRONOUS_MODES = Collections.unmodifiableList(
+            Arrays.asList("OFF", "NORMAL", "FULL", "EXTRA"));
+
+    /**
+     * The values of the temp_store setting: the compile-time default, a temporary file, or memory.
+     */
+    public static final List<String> TEMP_STORES = Collections.unmodifiableList(
+            Arrays.asList("DEFAULT", "FILE", "MEMORY"));
+
+    /**
+     * The values of the journal mode setting.
+     */
+    public static final List<String> JOURNAL_MODES = Collections.unmodifiableList(
+            Arrays.asList("DELETE", "TRUNCATE", "PERSIST", "MEMORY", "WAL", "OFF"));
+
+    /**
+     * Settings that leave every engine default in place.
+     */
+    public static final ConnectionSettings DEFAULTS = new ConnectionSettings(null, null, null, null, null, null);
+
+    private final Integer cacheSize;
+    private final Long mmapSize;
+    private final String synchronous;
+    private final String tempStore;
+    private final Integer pageSize;
+    private final String journalMode;
+
+    /**
+     * Creates connection settings.
+     *
+     * @param cacheSize the page cache size: pages if positive, KiB if negative, as SQLite's cache_size; null for the default
+     * @param mmapSize the most bytes of the file read through memory-mapped I/O, 0 to turn it off; null for the default
+     * @param synchronous one of {@link #SYNCHRONOUS_MODES}, in any case; null for the default
+     * @param tempStore one of {@link #TEMP_STORES}, in any case; null for the default
+     * @param pageSize the page size of a new database file in bytes, a power of two from 512 to 65536;
+     *                 null for the default
+     * @param journalMode one of {@link #JOURNAL_MODES}, in any case; null to keep the file's mode
+     * @throws IllegalArgumentException if a value is out of range
+     */
+    public ConnectionSettings(Integer cacheSize, Long mmapSize, String synchronous, String tempStore, Integer pageSize,
+                              String journalMode) {
+        if (mmapSize != null && mmapSize < 0) {
+            throw new IllegalArgumentException("The mmap size must not be negative: " + mmapSize);
+        }
+        if (pageSize != null) {
+            checkPageSize(pageSize);
+        }
+        this.cacheSize = cacheSize;
+        this.mmapSize = mmapSize;
+        this.synchronous = oneOf(SYNCHRONOUS_MODES, "synchronous", synchronous);
+        this.tempStore = oneOf(TEMP_STORES, "temp store", tempStore);
+        this.pageSize = pageSize;
+        this.journalMode = oneOf(JOURNAL_MODES, "journal mode", journalMode);
+    }
+
+    /**
+     * Returns these settings with the settings that another one sets replaced by its values, for
+     * adjusting a profile.
+     *
+     * @param overrides the settings to change; its null values keep the values of these settings
+     * @return the combined settings
+     */
+    public ConnectionSettings overriddenBy(ConnectionSettings overrides) {
+        return new ConnectionSettings(
+                overrides.cacheSize != null ? overrides.cacheSize : cacheSize,
+                overrides.mmapSize != null ? overrides.mmapSize : mmapSize,
+                overrides.synchronous != null ? overrides.synchronous : synchronous,
+                overrides.tempStore != null ? overrides.tempStore : tempStore,
+                overrides.pageSize != null ? overrides.pageSize : pageSize,
+                overrides.journalMode != null ? overrides.journalMode : journalMode);
+    }
+
+    /**
+     * Returns the page cache size.
+     * @return pages if positive, KiB if negative, or null for the engine default
+     */
+    public Integer getCacheSize() {
+        return cacheSize;
+    }
+
+    /**
+     * Returns the most bytes read through memory-mapped I/O.
+     * @return the size in bytes, or null for the engine default
+     */
+    public Long getMmapSize() {
+        return mmapSize;
+    }
+
+    /**
+     * Returns the synchronous setting.
+     * @return one of {@link #SYNCHRONOUS_MODES}, or null for the engine default
+     */
+    public String getSynchronous() {
+        return synchronous;
+    }
+
+    /**
+     * Returns where temporary tables and indexes are kept.
+     * @return one of {@link #TEMP_STORES}, or null for the engine default
+     */
+    public String getTempStore() {
+        return tempStore;
+    }
+
+    /**
+     * Returns the page size of a new database file.
+     * @return the size in bytes, or null for the engine default
+     */
+    public Integer getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Returns the journal mode.
+     * @return one of {@link #JOURNAL_MODES}, or null to keep the file's mode
+     */
+    public String getJournalMode() {
+        return journalMode;
+    }
+
+    /**
+     * Normalizes a setting to upper case and checks it is one of the allowed values.
+     *
+     * @param allowed the allowed values
+     * @param name the name of the setting, for the error message
+     * @param value the value, may be null
+     * @return the value in upper case, or null
+     * @throws IllegalArgumentException if the value is not allowed
+     */
+    public static String oneOf(List<String> allowed, String name, String value) {
+        if (value == null) {
+            return null;
+        }
+        String normalized = value.trim().toUpperCase(Locale.ROOT);
+        if (!allowed.contains(normalized)) {
+            throw new IllegalArgumentException("Unknown " + name + " '" + value + "', expected one of " + allowed);
+        }
+        return normalized;
+    }
+
+    /**
+     * Checks that a page size is one SQLite supports.
+     *
+     * @param pageSize the page size in bytes
+     * @return the page size
+     * @throws IllegalArgumentException if it is not a power of two from 512 to 65536
+     */
+    public static int checkPageSize(int pageSize) {
+        if (pageSize < 512 || pageSize > 65536 || Integer.bitCount(pageSize) != 1) {
+            throw new IllegalArgumentException("The page size must be a power of two from 512 to 65536: " + pageSize);
+        }
+        return pageSize;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof ConnectionSettings)) {
+            return false;
+        }
+        ConnectionSettings that = (ConnectionSettings) other;
+        return Objects.equals(cacheSize, that.cacheSize) && Objects.equals(mmapSize, that.mmapSize)
+                && Objects.equals(synchronous, that.synchronous) && Objects.equals(tempStore, that.tempStore)
+                && Objects.equals(pageSize, that.pageSize) && Objects.equals(journalMode, that.journalMode);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(cacheSize, mmapSize, synchronous, tempStore, pageSize, journalMode);
+    }
+
+    /**
+     * Returns the settings as SQLite pragmas, for reports.
+     * @return a string representation of the settings
+     */
+    @Override
+    public String toString() {
+        return "cache_size=" + orDefault(cacheSize) + ", mmap_size=" + orDefault(mmapSize)
+                + ", synchronous=" + orDefault(synchronous) + ", temp_store=" + orDefault(tempStore)
+                + ", page_size=" + orDefault(pageSize) + ", journal_mode=" + orDefault(journalMode);
+    }
+
+    private static String orDefault(Object value) {
+        return value == null ? "default" : value.toString();
+    }
+}
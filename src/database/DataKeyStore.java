@@ -0,0 +1,192 @@
+package database;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.sql.SQLException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The data encryption keys of the users, for {@link EncryptedRepository}.
+ *
+ * Every user has a random AES-256 key of their own. It is stored in the user_keys table wrapped
+ * (encrypted with AES-GCM) by a master key that is kept outside the database, so a copy of the
+ * database file alone reveals nothing. A user's key is created on first use and unwrapped once;
+ * afterwards it is served from memory.
+ */
+public class DataKeyStore {
+
+    /**
+     * The master key file used unless the myhealthtracker.key.file system property names another.
+     */
+    public static final String DEFAULT_MASTER_KEY_PATH = "myhealthtracker.key";
+
+    /**
+     * The system property that selects the master key file.
+     */
+    public static final String MASTER_KEY_PATH_PROPERTY = "myhealthtracker.key.file";
+
+    private static final int KEY_BYTES = 32;
+    private static final int IV_BYTES = 12;
+    private static final int TAG_BITS = 128;
+
+    private final SecretKey masterKey;
+
+    // The database holding the wrapped keys, or null if they are only kept in memory
+    private final Database database;
+
+    // The unwrapped key of every user seen so far; guarded by this
+    private final Map<Integer, SecretKey> keys = new HashMap<>();
+
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * Creates a key store that keeps the wrapped keys in the user_keys table of a database.
+     *
+     * @param masterKey the key the data keys are wrapped with
+     * @param database the database holding the wrapped keys
+     */
+    public DataKeyStore(SecretKey masterKey, Database database) {
+        this.masterKey = masterKey;
+        this.database = database;
+    }
+
+    /**
+     * Creates a key store that keeps the keys in memory only, for in-memory storage and tests.
+     *
+     * @param masterKey the key the data keys are wrapped with
+     */
+    public DataKeyStore(SecretKey masterKey) {
+        this(masterKey, null);
+    }
+
+    /**
+     * Returns a user's data key, creating and storing it if the user has none yet. The key is read
+     * and stored in one transaction of the database, and kept in memory only once that committed,
+     * so no record is sealed with a key that is not stored.
+     *
+     * @param userId the user's ID
+     * @return the user's key
+     * @throws SQLException if the key cannot be read, stored or unwrapped
+     */
+    public synchronized SecretKey getKey(int userId) throws SQLException {
+        SecretKey[] key = {keys.get(userId)};
+        if (key[0] != null) {
+            return key[0];
+        }
+        if (database == null) {
+            key[0] = newKey();
+        } else {
+            database.inTransaction(() -> {
+                String wrapped = database.getWrappedKey(userId);
+                if (wrapped != null) {
+                    key[0] = unwrap(userId, wrapped);
+                } else {
+                    key[0] = newKey();
+                    database.addWrappedKey(userId, wrap(userId, key[0]));
+                }
+            });
+        }
+        keys.put(userId, key[0]);
+        return key[0];
+    }
+
+    private SecretKey newKey() {
+        byte[] bytes = new byte[KEY_BYTES];
+        random.nextBytes(bytes);
+        return new SecretKeySpec(bytes, "AES");
+    }
+
+    /**
+     * Encrypts a data key with the master key. The user ID is authenticated with it, so a wrapped key
+     * cannot be moved to another user.
+     */
+    private String wrap(int userId, SecretKey key) throws SQLException {
+        try {
+            byte[] iv = new byte[IV_BYTES];
+            random.nextBytes(iv);
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, masterKey, new GCMParameterSpec(TAG_BITS, iv));
+            cipher.updateAAD(userAad(userId));
+            byte[] sealed = cipher.doFinal(key.getEncoded());
+            return Base64.getEncoder().encodeToString(ByteBuffer.allocate(iv.length + sealed.length).put(iv).put(sealed).array());
+        } catch (GeneralSecurityException e) {
+            throw new SQLException("Cannot wrap the data key of user " + userId, e);
+        }
+    }
+
+    private SecretKey unwrap(int userId, String wrapped) throws SQLException {
+        try {
+            byte[] bytes = Base64.getDecoder().decode(wrapped);
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.DECRYPT_MODE, masterKey, new GCMParameterSpec(TAG_BITS, bytes, 0, IV_BYTES));
+            cipher.updateAAD(userAad(userId));
+            return new SecretKeySpec(cipher.doFinal(bytes, IV_BYTES, bytes.length - IV_BYTES), "AES");
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            throw new SQLException("Cannot unwrap the data key of user " + userId + "; is this the right master key?", e);
+        }
+    }
+
+    static byte[] userAad(int userId) {
+        return ByteBuffer.allocate(4).putInt(userId).array();
+    }
+
+    /**
+     * Creates a random master key.
+     *
+     * @return the new key
+     */
+    public static SecretKey generateMasterKey() {
+        byte[] bytes = new byte[KEY_BYTES];
+        new SecureRandom().nextBytes(bytes);
+        return new SecretKeySpec(bytes, "AES");
+    }
+
+    /**
+     * Reads the master key from a file holding it in Base64, creating the file with a new key if it
+     * does not exist. Where the file system supports it, a new file is readable by its owner only.
+     * Losing the file makes every encrypted record unreadable, so it should be backed up, but not
+     * next to the database.
+     *
+     * @param path the key file
+     * @return the master key
+     * @throws IOException if the file cannot be read or created, or does not hold a key
+     */
+    public static SecretKey loadMasterKey(Path path) throws IOException {
+        if (Files.exists(path)) {
+            String encoded = new String(Files.readAllBytes(path), StandardCharsets.US_ASCII).trim();
+            byte[] bytes;
+            try {
+                bytes = Base64.getDecoder().decode(encoded);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Not a master key file: " + path, e);
+            }
+            if (bytes.length != KEY_BYTES) {
+                throw new IOException("Not a master key file: " + path);
+            }
+            return new SecretKeySpec(bytes, "AES");
+        }
+
+        SecretKey key = generateMasterKey();
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            Files.createFile(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } else {
+            Files.createFile(path);
+        }
+        Files.write(path, Base64.getEncoder().encode(key.getEncoded()));
+        return key;
+    }
+}
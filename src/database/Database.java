@@ -1,5 +1,7 @@
 package database;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.sql.Connection;
 import java.sql.Date;
 import java.sql.DriverManager;
@@ -7,36 +9,172 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Types;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
 
+import model.BloodPressureCategory;
 import model.HealthRecord;
+import model.HealthRecordVersion;
+import model.PeriodSummary;
+import model.RollupPeriod;
 import model.User;
 
 /**
  * This class manages the database operations of the application. 
  * It is responsible for creating the database connection, creating tables, and executing CRUD operations.
+ * It is the SQLite implementation of {@link HealthRepository}.
  */
-public class Database {
+public class Database implements HealthRepository {
 
-    private Connection connection;
+    /**
+     * The JDBC URL of the default application database file.
+     */
+    public static final String DEFAULT_URL = "jdbc:sqlite:myhealthtracker.db";
+
+    /**
+     * The system property that selects the application database, e.g.
+     * -Dmyhealthtracker.db.url=jdbc:h2:./myhealthtracker to run on H2.
+     */
+    public static final String URL_PROPERTY = "myhealthtracker.db.url";
+
+    // Inserts one health_rollups row, with the parameters bound by bindRollup
+    private static final String INSERT_ROLLUP_SQL = "INSERT INTO health_rollups (user_id, period, period_start, record_count, " +
+            "weight_count, weight_sum, weight_min, weight_max, temperature_count, temperature_sum, temperature_min, temperature_max) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    // The most records packed into one archive block
+    private static final int ARCHIVE_BLOCK_SIZE = 512;
+
+    /**
+     * The number of distinct blood pressure readings and notes kept in memory by the text dictionary,
+     * unless set otherwise.
+     */
+    public static final int DEFAULT_TEXT_CACHE_SIZE = 10_000;
+
+    // The columns of health_records that make up a record, in the order readRow and readRecord read them
+    private static final String RECORD_COLUMNS = "id, user_id, weight, temperature, bloodPressure, note, bp_id, note_id, date, version";
+
+    // The same columns of health_record_history, followed by deleted and superseded_at
+    private static final String HISTORY_COLUMNS = "record_id, user_id, weight, temperature, bloodPressure, note, bp_id, note_id, date, version, " +
+            "deleted, superseded_at";
+
+    // The columns of users, in the order readUser reads them
+    private static final String USER_COLUMNS = "id, username, password, firstName, lastName";
+
+    // The reads the application makes most; checkQueryPlans makes sure each is answered through an index
+    private static final String USER_BY_ID_SQL = "SELECT " + USER_COLUMNS + " FROM users WHERE id = ?";
+    private static final String USER_BY_USERNAME_SQL = "SELECT " + USER_COLUMNS + " FROM users WHERE username = ?";
+    private static final String RECORD_BY_ID_SQL = "SELECT " + RECORD_COLUMNS + " FROM health_records WHERE id = ?";
+    private static final String RECORDS_BY_USER_SQL = "SELECT " + RECORD_COLUMNS + " FROM health_records WHERE user_id = ?";
+    private static final String RECORDS_BY_DATES_SQL = "SELECT weight, temperature, date FROM health_records " +
+            "WHERE user_id = ? AND date >= ? AND date < ?";
+
+    // A step of a SQLite query plan that reads every row of health_records or users
+    private static final Pattern FULL_SCAN = Pattern.compile("^SCAN (TABLE )?(health_records|users)\\b");
+
+    // Dates of recent days, shared by all reads
+    private static final DateCache DATES = new DateCache(4096);
+
+    // The shared connection, wrapped by the slow query log while there is one
+    private volatile Connection connection;
+
+    // The shared connection as opened
+    private Connection sharedConnection;
+
+    // Logs the slow statements of every connection, or null
+    private volatile SlowQueryLog slowQueryLog;
+
+    // Serializes writes that span more than one statement on the shared connection
+    private final Object writeLock = new Object();
+
+    // The thread whose transaction is open on the shared connection, or null; guarded by writeLock
+    private Thread transactionOwner;
+
+    // The JDBC URL this database was opened with
+    private final String url;
+
+    // The SQL differences of the engine behind the URL
+    private final SqlDialect dialect;
+
+    // The engine settings applied to every new connection; replaced whole by applySettings
+    private volatile ConnectionSettings settings;
+
+    // Callbacks run after every committed write
+    private final List<Runnable> commitListeners = new CopyOnWriteArrayList<>();
+
+    // The short readings and notes that records refer to by ID, with their caches
+    private final TextDictionary textValues = new TextDictionary(DEFAULT_TEXT_CACHE_SIZE);
 
     /**
      * The constructor for the Database class. It initializes the SQLite database connection 
      * and creates the necessary tables if they do not already exist.
      * 
-     * The database file is named 'myhealthtracker.db'.
+     * The database file is named 'myhealthtracker.db', unless another JDBC URL is set
+     * in the myhealthtracker.db.url system property.
      *
      * It handles any SQLException that might occur during this process by printing the stack trace.
      */
     public Database() {
+        this(System.getProperty(URL_PROPERTY, DEFAULT_URL));
+    }
+
+    /**
+     * Creates a Database connected to the given JDBC URL, creating the tables if they do not already exist.
+     * This is used by tools and benchmarks that work on a database file other than the application's one.
+     *
+     * @param url the JDBC URL of the database, e.g. "jdbc:sqlite:benchmark.db" or "jdbc:h2:./benchmark"
+     */
+    public Database(String url) {
+        this(url, ConnectionSettings.DEFAULTS);
+    }
+
+    /**
+     * Creates a Database connected to the given JDBC URL with the given engine settings, creating the
+     * tables if they do not already exist.
+     *
+     * @param url the JDBC URL of the database
+     * @param settings the engine settings applied to every connection the database opens
+     */
+    public Database(String url, ConnectionSettings settings) {
+        this(url, settings, true);
+    }
+
+    /**
+     * Creates a Database connected to the given JDBC URL, for subclasses that keep tables of their own
+     * in it instead of the application's.
+     *
+     * @param url the JDBC URL of the database
+     * @param settings the engine settings applied to every connection the database opens
+     * @param createTables whether to create the application's tables if they do not already exist
+     */
+    Database(String url, ConnectionSettings settings, boolean createTables) {
+        this.url = url;
+        this.dialect = SqlDialect.forUrl(url);
+        this.settings = settings;
         try {
-            // Connect to the SQLite database
-            connection = DriverManager.getConnection("jdbc:sqlite:myhealthtracker.db");
+            // Connect to the database
+            sharedConnection = openUnloggedConnection();
+            connection = sharedConnection;
 
             // Create tables if they do not exist
-            createTablesIfNotExist();
+            if (createTables) {
+                createTablesIfNotExist();
+            }
 
         } catch (SQLException e) {
             e.printStackTrace();
@@ -48,28 +186,304 @@ public class Database {
      * @throws SQLException if an SQL error occurs
      */
     private void createTablesIfNotExist() throws SQLException {
+        String text = dialect.textType();
+        String millis = dialect.millisType();
+
         String createUserTable = "CREATE TABLE IF NOT EXISTS users (" +
-                "id INTEGER PRIMARY KEY," +
-                "firstName TEXT," +
-                "lastName TEXT," +
-                "username TEXT," +
-                "password TEXT" +
+                "id " + dialect.generatedIdColumn() + "," +
+                "firstName " + text + "," +
+                "lastName " + text + "," +
+                "username " + text + "," +
+                "password " + text +
                 ")";
 
         String createRecordTable = "CREATE TABLE IF NOT EXISTS health_records (" +
-                "id INTEGER PRIMARY KEY," +
+                "id " + dialect.generatedIdColumn() + "," +
                 "user_id INTEGER," +  // Note: 'userId' -> 'user_id'
                 "weight REAL," +
                 "temperature REAL," +
-                "bloodPressure TEXT," +
-                "note TEXT," +
-                "date TEXT" +
+                "bloodPressure " + text + "," +
+                "note " + text + "," +
+                "date " + dialect.dateType() +
+                ")";
+
+        // Finds the user logging in without reading every user
+        String createUserNameIndex = "CREATE INDEX IF NOT EXISTS idx_users_username ON users (username)";
+
+        // Lets per-user and cross-user scans read records in (user, date) order without sorting
+        String createRecordUserDateIndex = "CREATE INDEX IF NOT EXISTS idx_health_records_user_date " +
+                "ON health_records (user_id, date)";
+
+        // Append-only log of every committed change to users and health_records, read by ChangeLog subscribers
+        String createChangeLogTable = "CREATE TABLE IF NOT EXISTS change_log (" +
+                "seq " + dialect.sequenceColumn() + "," +
+                "table_name " + text + " NOT NULL," +
+                "operation " + text + " NOT NULL," +
+                "row_id INTEGER NOT NULL," +
+                "user_id INTEGER NOT NULL," +
+                "changed_at " + millis + " NOT NULL" +
+                ")";
+
+        // Earlier versions of every health record, including the final state of deleted records
+        String createHistoryTable = "CREATE TABLE IF NOT EXISTS health_record_history (" +
+                "record_id INTEGER NOT NULL," +
+                "version INTEGER NOT NULL," +
+                "user_id INTEGER," +
+                "weight REAL," +
+                "temperature REAL," +
+                "bloodPressure " + text + "," +
+                "note " + text + "," +
+                "date " + dialect.dateType() + "," +
+                "deleted INTEGER NOT NULL DEFAULT 0," +
+                "superseded_at " + millis + " NOT NULL," +
+                "PRIMARY KEY (record_id, version)" +
+                ")";
+
+        // Each user's data encryption key, wrapped with the master key; see DataKeyStore
+        String createUserKeyTable = "CREATE TABLE IF NOT EXISTS user_keys (" +
+                "user_id INTEGER PRIMARY KEY," +
+                "wrapped_key " + text + " NOT NULL" +
+                ")";
+
+        // Per-user totals of every day, week and month that has records, kept up to date by each write
+        // to health_records so that period summaries never scan the records themselves
+        String createRollupTable = "CREATE TABLE IF NOT EXISTS health_rollups (" +
+                "user_id INTEGER NOT NULL," +
+                "period " + text + " NOT NULL," +
+                "period_start " + millis + " NOT NULL," +
+                "record_count INTEGER NOT NULL," +
+                "weight_count INTEGER NOT NULL," +
+                "weight_sum DOUBLE PRECISION NOT NULL," +
+                "weight_min REAL," +
+                "weight_max REAL," +
+                "temperature_count INTEGER NOT NULL," +
+                "temperature_sum DOUBLE PRECISION NOT NULL," +
+                "temperature_min REAL," +
+                "temperature_max REAL," +
+                "PRIMARY KEY (user_id, period, period_start)" +
+                ")";
+
+        // Health records moved out of health_records by archiveRecords, packed per user into compressed
+        // blocks (see ArchiveCodec). A block is keyed by the smallest record ID in it, which is unique
+        // across shards, and the index table finds the block of a record by its ID.
+        String createArchiveTable = "CREATE TABLE IF NOT EXISTS health_record_archive (" +
+                "block_id INTEGER PRIMARY KEY," +
+                "user_id INTEGER NOT NULL," +
+                "first_date " + millis + " NOT NULL," +
+                "last_date " + millis + " NOT NULL," +
+                "record_count INTEGER NOT NULL," +
+                "data BLOB NOT NULL" +
+                ")";
+        String createArchiveIndexTable = "CREATE TABLE IF NOT EXISTS health_record_archive_index (" +
+                "record_id INTEGER PRIMARY KEY," +
+                "user_id INTEGER NOT NULL," +
+                "block_id INTEGER NOT NULL" +
+                ")";
+        String createArchiveUserIndex = "CREATE INDEX IF NOT EXISTS idx_health_record_archive_user " +
+                "ON health_record_archive (user_id, first_date)";
+        String createArchiveBlockIndex = "CREATE INDEX IF NOT EXISTS idx_health_record_archive_index_block " +
+                "ON health_record_archive_index (block_id)";
+
+        // Each distinct short blood pressure reading and note, stored once; records refer to them by
+        // bp_id and note_id instead of holding the text (see TextDictionary)
+        // The column is not called value, which is a reserved word in H2
+        String createTextValueTable = "CREATE TABLE IF NOT EXISTS text_values (" +
+                "id " + dialect.generatedIdColumn() + "," +
+                "text_value " + text + " NOT NULL" +
                 ")";
+        String createTextValueIndex = "CREATE UNIQUE INDEX IF NOT EXISTS idx_text_values_value ON text_values (text_value)";
+
+        // The one-time upgrades of older database files that have been completed, by name
+        String createSchemaUpgradeTable = "CREATE TABLE IF NOT EXISTS schema_upgrades (" +
+                "name " + text + " PRIMARY KEY," +
+                "applied_at " + millis + " NOT NULL" +
+                ")";
+
+        String createHistoryUserIndex = "CREATE INDEX IF NOT EXISTS idx_health_record_history_user " +
+                "ON health_record_history (user_id, deleted)";
+
+        // Serve the filters and sort orders of queryHealthRecords from an index instead of scanning the user's records
+        String createRecordCategoryIndex = "CREATE INDEX IF NOT EXISTS idx_health_records_user_category " +
+                "ON health_records (user_id, bp_category, date)";
+        String createRecordWeightIndex = "CREATE INDEX IF NOT EXISTS idx_health_records_user_weight " +
+                "ON health_records (user_id, weight)";
+        String createRecordTemperatureIndex = "CREATE INDEX IF NOT EXISTS idx_health_records_user_temperature " +
+                "ON health_records (user_id, temperature)";
 
         try (Statement stmt = connection.createStatement()) {
             stmt.execute(createUserTable);
+            stmt.execute(createUserNameIndex);
             stmt.execute(createRecordTable);
+            addColumnIfMissing(stmt, "health_records", "version", "INTEGER NOT NULL DEFAULT 1");
+            addColumnIfMissing(stmt, "health_records", "bp_category", text);
+            addColumnIfMissing(stmt, "health_records", "bp_id", "INTEGER");
+            addColumnIfMissing(stmt, "health_records", "note_id", "INTEGER");
+            stmt.execute(createRecordUserDateIndex);
+            stmt.execute(createRecordCategoryIndex);
+            stmt.execute(createRecordWeightIndex);
+            stmt.execute(createRecordTemperatureIndex);
+            stmt.execute(createChangeLogTable);
+            stmt.execute(createHistoryTable);
+            addColumnIfMissing(stmt, "health_record_history", "bp_id", "INTEGER");
+            addColumnIfMissing(stmt, "health_record_history", "note_id", "INTEGER");
+            stmt.execute(createHistoryUserIndex);
+            stmt.execute(createUserKeyTable);
+            stmt.execute(createRollupTable);
+            stmt.execute(createArchiveTable);
+            stmt.execute(createArchiveIndexTable);
+            stmt.execute(createArchiveUserIndex);
+            stmt.execute(createArchiveBlockIndex);
+            stmt.execute(createTextValueTable);
+            if (dialect.hasColumn(connection, "text_values", "value")) {
+                // Written by a version that named the column value; its index follows the rename
+                stmt.execute("ALTER TABLE text_values RENAME COLUMN value TO text_value");
+            }
+            stmt.execute(createTextValueIndex);
+            stmt.execute(createSchemaUpgradeTable);
+        }
+        runUpgradeOnce("encode_repeated_text", this::encodeRepeatedText);
+        runUpgradeOnce("classify_blood_pressure", this::classifyUncategorizedRecords);
+        buildMissingRollups();
+    }
+
+    /**
+     * Runs a one-time upgrade of the rows of an older database file unless it has been completed
+     * before, and records its completion in the same transaction, so an upgrade that fails runs
+     * again at the next start.
+     */
+    private void runUpgradeOnce(String name, TransactionWork upgrade) throws SQLException {
+        inTransaction(() -> {
+            try (PreparedStatement select = connection.prepareStatement("SELECT 1 FROM schema_upgrades WHERE name = ?")) {
+                select.setString(1, name);
+                try (ResultSet rs = select.executeQuery()) {
+                    if (rs.next()) {
+                        return;
+                    }
+                }
+            }
+            upgrade.run();
+            try (PreparedStatement insert = connection.prepareStatement("INSERT INTO schema_upgrades (name, applied_at) VALUES (?, ?)")) {
+                insert.setString(1, name);
+                insert.setLong(2, System.currentTimeMillis());
+                insert.executeUpdate();
+            }
+        });
+    }
+
+    /**
+     * Fills in the blood pressure category of records written before the bp_category column existed.
+     * Runs once, through runUpgradeOnce; afterwards every write sets the category.
+     */
+    private void classifyUncategorizedRecords() throws SQLException {
+        String selectSql = "SELECT id, bloodPressure, bp_id FROM health_records WHERE bp_category IS NULL";
+        String updateSql = "UPDATE health_records SET bp_category = ? WHERE id = ?";
+
+        inTransaction(() -> {
+            try (Statement select = connection.createStatement();
+                 ResultSet rs = select.executeQuery(selectSql);
+                 PreparedStatement update = connection.prepareStatement(updateSql)) {
+                int pending = 0;
+                while (rs.next()) {
+                    update.setString(1, BloodPressureCategory.classify(readText(rs, 2, 3)).name());
+                    update.setInt(2, rs.getInt(1));
+                    update.addBatch();
+                    if (++pending == 5_000) {
+                        update.executeBatch();
+                        pending = 0;
+                    }
+                }
+                update.executeBatch();
+            }
+        });
+    }
+
+    /**
+     * Moves the short readings and notes of records written before the text_values table existed into
+     * the dictionary. Runs once, through runUpgradeOnce; afterwards every write stores short text by ID.
+     */
+    private void encodeRepeatedText() throws SQLException {
+        String[][] tables = {{"health_records", "id"}, {"health_record_history", "record_id, version"}};
+        long[] encoded = new long[1];
+
+        inTransaction(() -> {
+            for (String[] table : tables) {
+                encoded[0] += encodeRepeatedText(table[0], table[1], "bloodPressure", "bp_id");
+                encoded[0] += encodeRepeatedText(table[0], table[1], "note", "note_id");
+            }
+            if (encoded[0] > 0) {
+                // Replicas copy both tables again rather than one event per row
+                logChange(ChangeEvent.TEXT_VALUES, ChangeEvent.Operation.BULK_LOAD, 0, 0);
+                logChange(ChangeEvent.HEALTH_RECORDS, ChangeEvent.Operation.BULK_LOAD, 0, 0);
+            }
+        });
+    }
+
+    /**
+     * Replaces the short values of one text column of a table by their dictionary IDs.
+     *
+     * @return the number of values replaced
+     */
+    private long encodeRepeatedText(String table, String key, String textColumn, String idColumn) throws SQLException {
+        String[] keyColumns = key.split(", ");
+        String selectSql = "SELECT " + key + ", " + textColumn + " FROM " + table +
+                " WHERE " + idColumn + " IS NULL AND LENGTH(" + textColumn + ") <= " + TextDictionary.MAX_LENGTH;
+        StringBuilder updateSql = new StringBuilder("UPDATE " + table + " SET " + idColumn + " = ?, " + textColumn + " = NULL WHERE ");
+        for (int i = 0; i < keyColumns.length; i++) {
+            updateSql.append(i == 0 ? "" : " AND ").append(keyColumns[i]).append(" = ?");
+        }
+
+        long encoded = 0;
+        try (Statement select = connection.createStatement();
+             ResultSet rs = select.executeQuery(selectSql);
+             PreparedStatement update = connection.prepareStatement(updateSql.toString())) {
+            while (rs.next()) {
+                Integer id = textValues.idOf(connection, rs.getString(textColumn));
+                if (id == null) {
+                    continue;
+                }
+                update.setInt(1, id);
+                for (int i = 0; i < keyColumns.length; i++) {
+                    update.setInt(i + 2, rs.getInt(keyColumns[i]));
+                }
+                update.addBatch();
+                if (++encoded % 5_000 == 0) {
+                    update.executeBatch();
+                }
+            }
+            update.executeBatch();
+        }
+        return encoded;
+    }
+
+    /**
+     * Fills the health_rollups table of a database file written before the table existed, or copied
+     * in without it. Runs once; afterwards every write keeps the rollups up to date.
+     */
+    private void buildMissingRollups() throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            try (ResultSet rs = stmt.executeQuery("SELECT 1 FROM health_rollups LIMIT 1")) {
+                if (rs.next()) {
+                    return;
+                }
+            }
+            try (ResultSet rs = stmt.executeQuery("SELECT 1 FROM health_records LIMIT 1")) {
+                if (!rs.next()) {
+                    return;
+                }
+            }
+        }
+        rebuildRollups();
+    }
+
+    /**
+     * Adds a column to an existing table unless it is already there, so that database files
+     * created by older versions of the application are upgraded in place.
+     */
+    private void addColumnIfMissing(Statement stmt, String table, String column, String definition) throws SQLException {
+        if (dialect.hasColumn(connection, table, column)) {
+            return;
         }
+        stmt.execute("ALTER TABLE " + table + " ADD COLUMN " + column + " " + definition);
     }
 
     /**
@@ -80,20 +494,268 @@ public class Database {
         return connection;
     }
 
+    /**
+     * Closes the shared connection once the write in progress, if any, has committed. The engine's
+     * log is checkpointed into the database file first, so the next start opens it without recovery.
+     * Connections handed out by openReadConnection are closed by their users. Closing twice does nothing.
+     *
+     * @throws SQLException if the checkpoint or the close fails; the connection is closed either way
+     */
+    public void close() throws SQLException {
+        synchronized (writeLock) {
+            if (connection == null || connection.isClosed()) {
+                return;
+            }
+            try (Statement stmt = connection.createStatement()) {
+                dialect.checkpoint(stmt);
+            } finally {
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * Returns the engine settings applied to the connections of this database.
+     * @return the current settings
+     */
+    public ConnectionSettings getConnectionSettings() {
+        return settings;
+    }
+
+    /**
+     * Changes the engine settings while the database is in use. The shared connection is changed
+     * once the write in progress is done, and connections opened from now on get the new settings;
+     * read connections already open keep theirs until they are closed. The page size and journal
+     * mode are not changed on an open database; the journal mode takes effect when it is next opened.
+     *
+     * @param newSettings the new settings
+     * @throws SQLException if a setting cannot be applied to the shared connection
+     */
+    public void applySettings(ConnectionSettings newSettings) throws SQLException {
+        synchronized (writeLock) {
+            settings = newSettings;
+            try (Statement stmt = connection.createStatement()) {
+                dialect.applySettings(stmt, newSettings, false);
+            }
+        }
+    }
+
+    /**
+     * Starts or stops logging slow statements. Once the write in progress is done, the statements of
+     * the shared connection and of connections opened from now on go through the log; connections
+     * already handed out are not watched. The caller owns the log and closes it.
+     *
+     * @param log the log, or null to stop logging
+     */
+    public void setSlowQueryLog(SlowQueryLog log) {
+        synchronized (writeLock) {
+            slowQueryLog = log;
+            connection = log == null ? sharedConnection : log.wrap(sharedConnection);
+        }
+    }
+
+    /**
+     * Returns the log of slow statements.
+     * @return the log, or null if slow statements are not logged
+     */
+    public SlowQueryLog getSlowQueryLog() {
+        return slowQueryLog;
+    }
+
+    /**
+     * Asks the engine how it would run the reads the application makes most, and reports each step
+     * that reads all of health_records or users instead of finding the rows through an index. Run at
+     * startup, this catches an index that was dropped or a query that no longer fits its index before
+     * the users notice. The statements are planned, not run.
+     *
+     * The reads checked are a user by ID and by username, a record by ID, a user's records, a user's
+     * records over a date range, and the first and next page of the record table in every sort order.
+     *
+     * @return one description per full scan, empty if there is none or the engine has no query plans
+     * @throws SQLException if a plan cannot be read
+     */
+    public List<String> checkQueryPlans() throws SQLException {
+        Map<String, List<Object>> statements = new LinkedHashMap<>();
+        statements.put(USER_BY_ID_SQL, Arrays.asList(1));
+        statements.put(USER_BY_USERNAME_SQL, Arrays.asList("user"));
+        statements.put(RECORD_BY_ID_SQL, Arrays.asList(1));
+        statements.put(RECORDS_BY_USER_SQL, Arrays.asList(1));
+        long today = toMillis(LocalDate.now());
+        statements.put(RECORDS_BY_DATES_SQL, Arrays.asList(1, today, today));
+
+        HealthRecord cursor = new HealthRecord(1, 70, 36.6f, "120/80", "", LocalDate.now(), 1);
+        for (HealthRecordQuery.SortColumn column : HealthRecordQuery.SortColumn.values()) {
+            HealthRecordQuery query = new HealthRecordQuery(1);
+            query.setSort(column, false);
+            for (HealthRecord after : new HealthRecord[] {null, cursor}) {
+                List<Object> parameters = new ArrayList<>();
+                statements.put(pageQuery(query, after, parameters), parameters);
+            }
+        }
+
+        List<String> scans = new ArrayList<>();
+        for (Map.Entry<String, List<Object>> statement : statements.entrySet()) {
+            for (String step : dialect.queryPlan(connection, statement.getKey(), statement.getValue())) {
+                if (isFullScan(step)) {
+                    scans.add("Full table scan (" + step + ") in: " + statement.getKey());
+                }
+            }
+        }
+        return scans;
+    }
+
+    /**
+     * Returns whether a step of a SQLite query plan reads every row of health_records or users,
+     * whether from the table itself or from one of its indexes.
+     *
+     * @param planStep the detail of a query plan step, such as "SCAN users"
+     * @return true if the step is a full scan of health_records or users
+     */
+    public static boolean isFullScan(String planStep) {
+        return FULL_SCAN.matcher(planStep).find();
+    }
+
+    /**
+     * Changes the number of distinct blood pressure readings and notes kept in memory. Shrinking
+     * drops the least recently used values, which are read from the table again when needed.
+     *
+     * @param size the number of values kept in each direction
+     */
+    public void setTextCacheSize(int size) {
+        textValues.setMaxEntries(size);
+    }
+
+    /**
+     * Returns the JDBC URL this database was opened with.
+     * @return the JDBC URL
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * Returns the number of blood pressure readings and notes read from the text dictionary's cache.
+     * @return the number of cache hits
+     */
+    public long getTextCacheHits() {
+        return textValues.getHits();
+    }
+
+    /**
+     * Returns the number of blood pressure readings and notes the text dictionary had to look up.
+     * @return the number of cache misses
+     */
+    public long getTextCacheMisses() {
+        return textValues.getMisses();
+    }
+
+    /**
+     * Empties the caches of the text dictionary.
+     */
+    public void clearTextCache() {
+        textValues.clear();
+    }
+
+    /**
+     * Returns the SQL dialect of the engine this database runs on.
+     * @return the dialect
+     */
+    public SqlDialect getDialect() {
+        return dialect;
+    }
+
+    /**
+     * Returns the physical databases that hold this database's users and health records.
+     * A single-file database returns itself; a sharded database returns its shards, which lets
+     * cross-user jobs such as the cohort analytics scan every shard directly.
+     *
+     * @return the databases holding the data
+     */
+    public List<Database> getShards() {
+        return Collections.singletonList(this);
+    }
+
+    /**
+     * Returns the database that read-only queries which tolerate slightly stale data should use.
+     * A single-file database returns itself; a replicated database returns a replica that is
+     * recent enough, or the primary if no replica is.
+     *
+     * @return the database to read from
+     */
+    public Database getReadDatabase() {
+        return this;
+    }
+
+    @Override
+    public HealthRepository getReadRepository() {
+        return getReadDatabase();
+    }
+
+    /**
+     * Opens an additional connection to the same database file. Parallel readers such as the
+     * cohort analytics use one connection per worker, because a single JDBC connection serializes
+     * every statement. The caller owns the returned connection and must close it.
+     *
+     * @return a new connection to this database
+     * @throws SQLException if the connection cannot be opened
+     */
+    public Connection openReadConnection() throws SQLException {
+        return openConnection();
+    }
+
+    /**
+     * Opens a connection to the database with the dialect's connection settings applied, watched by
+     * the slow query log if there is one.
+     */
+    private Connection openConnection() throws SQLException {
+        SlowQueryLog log = slowQueryLog;
+        Connection newConnection = openUnloggedConnection();
+        return log == null ? newConnection : log.wrap(newConnection);
+    }
+
+    private Connection openUnloggedConnection() throws SQLException {
+        Connection newConnection = DriverManager.getConnection(url);
+        try (Statement stmt = newConnection.createStatement()) {
+            dialect.configureConnection(newConnection);
+            dialect.applySettings(stmt, settings, true);
+        } catch (SQLException e) {
+            newConnection.close();
+            throw e;
+        }
+        return newConnection;
+    }
+
     /**
      * Inserts the specified user into the users table.
+     * A user with an ID greater than zero is stored under that ID; otherwise the ID assigned
+     * by the database is set on the user.
      * @param user the user to add
      * @throws SQLException if an SQL error occurs
      */
     public void addUser(User user) throws SQLException {
-        String sql = "INSERT INTO users (firstName, lastName, username, password) VALUES (?, ?, ?, ?)";
+        String sql = "INSERT INTO users (id, firstName, lastName, username, password) VALUES (?, ?, ?, ?, ?)";
+        boolean explicitId = user.getId() > 0;
 
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            pstmt.setString(1, user.getFirstName());
-            pstmt.setString(2, user.getLastName());
-            pstmt.setString(3, user.getUsername());
-            pstmt.setString(4, user.getPassword());
-            pstmt.executeUpdate();
+        inTransaction(() -> {
+            try (PreparedStatement pstmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                setIdOrNull(pstmt, 1, user.getId());
+                pstmt.setString(2, user.getFirstName());
+                pstmt.setString(3, user.getLastName());
+                pstmt.setString(4, user.getUsername());
+                pstmt.setString(5, user.getPassword());
+                pstmt.executeUpdate();
+
+                // Hand the generated ID back to the caller
+                try (ResultSet keys = pstmt.getGeneratedKeys()) {
+                    if (keys.next()) {
+                        user.setId(keys.getInt(1));
+                    }
+                }
+            }
+            logChange(ChangeEvent.USERS, ChangeEvent.Operation.INSERT, user.getId(), user.getId());
+        });
+        if (explicitId) {
+            syncGeneratedKeys("users", "id");
         }
     }
 
@@ -104,16 +766,31 @@ public class Database {
      * @throws SQLException if an SQL error occurs
      */
     public User getUser(int id) throws SQLException {
-        String sql = "SELECT * FROM users WHERE id = ?";
-
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+        try (PreparedStatement pstmt = connection.prepareStatement(USER_BY_ID_SQL)) {
             pstmt.setInt(1, id);
             ResultSet rs = pstmt.executeQuery();
             
             if (rs.next()) {
-                return new User(rs.getInt("id"), rs.getString("username"), 
-                                rs.getString("password"), rs.getString("firstName"), 
-                                rs.getString("lastName"));
+                return readUser(rs);
+            } else {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Returns the user with the specified username from the users table.
+     * @param username the username of the user to retrieve
+     * @return the user with the specified username, or null if no such user exists
+     * @throws SQLException if an SQL error occurs
+     */
+    public User getUserByUsername(String username) throws SQLException {
+        try (PreparedStatement pstmt = connection.prepareStatement(USER_BY_USERNAME_SQL)) {
+            pstmt.setString(1, username);
+            ResultSet rs = pstmt.executeQuery();
+
+            if (rs.next()) {
+                return readUser(rs);
             } else {
                 return null;
             }
@@ -128,14 +805,62 @@ public class Database {
     public void updateUser(User user) throws SQLException {
         String sql = "UPDATE users SET firstName = ?, lastName = ?, username = ?, password = ? WHERE id = ?";
 
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            pstmt.setString(1, user.getFirstName());
-            pstmt.setString(2, user.getLastName());
-            pstmt.setString(3, user.getUsername());
-            pstmt.setString(4, user.getPassword());
-            pstmt.setInt(5, user.getId());
-            pstmt.executeUpdate();
-        }
+        inTransaction(() -> {
+            try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+                pstmt.setString(1, user.getFirstName());
+                pstmt.setString(2, user.getLastName());
+                pstmt.setString(3, user.getUsername());
+                pstmt.setString(4, user.getPassword());
+                pstmt.setInt(5, user.getId());
+                if (pstmt.executeUpdate() > 0) {
+                    logChange(ChangeEvent.USERS, ChangeEvent.Operation.UPDATE, user.getId(), user.getId());
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the data key of a user as wrapped by {@link DataKeyStore}.
+     *
+     * @param userId the user's ID
+     * @return the wrapped key, or null if the user has none yet
+     * @throws SQLException if an SQL error occurs
+     */
+    String getWrappedKey(int userId) throws SQLException {
+        String sql = "SELECT wrapped_key FROM user_keys WHERE user_id = ?";
+        String[] wrapped = new String[1];
+
+        inTransaction(() -> {
+            try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+                pstmt.setInt(1, userId);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (rs.next()) {
+                        wrapped[0] = rs.getString(1);
+                    }
+                }
+            }
+        });
+        return wrapped[0];
+    }
+
+    /**
+     * Stores the first data key of a user, wrapped by {@link DataKeyStore}.
+     *
+     * @param userId the user's ID
+     * @param wrappedKey the wrapped key
+     * @throws SQLException if an SQL error occurs, or the user has a key already
+     */
+    void addWrappedKey(int userId, String wrappedKey) throws SQLException {
+        String sql = "INSERT INTO user_keys (user_id, wrapped_key) VALUES (?, ?)";
+
+        inTransaction(() -> {
+            try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+                pstmt.setInt(1, userId);
+                pstmt.setString(2, wrappedKey);
+                pstmt.executeUpdate();
+            }
+            logChange(ChangeEvent.USER_KEYS, ChangeEvent.Operation.INSERT, userId, userId);
+        });
     }
 
     /**
@@ -146,150 +871,1583 @@ public class Database {
     public void deleteUser(int id) throws SQLException {
         String sql = "DELETE FROM users WHERE id = ?";
 
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            pstmt.setInt(1, id);
-            pstmt.executeUpdate();
-        }
+        inTransaction(() -> {
+            try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+                pstmt.setInt(1, id);
+                if (pstmt.executeUpdate() > 0) {
+                    logChange(ChangeEvent.USERS, ChangeEvent.Operation.DELETE, id, id);
+                }
+            }
+        });
     }
 
     /**
      * Inserts the specified health record into the health_records table.
+     * A record with an ID greater than zero is stored under that ID; otherwise the ID assigned
+     * by the database is set on the record.
      * @param record the health record to add
      * @throws SQLException if an SQL error occurs
      */
     public void addHealthRecord(HealthRecord record) throws SQLException {
-        String sql = "INSERT INTO health_records(user_id, weight, temperature, bloodPressure, note, date) VALUES(?, ?, ?, ?, ?, ?)";
+        String sql = "INSERT INTO health_records(id, user_id, weight, temperature, bloodPressure, note, date, bp_category, bp_id, note_id) " +
+                "VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+        boolean explicitId = record.getId() > 0;
     
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            pstmt.setInt(1, record.getUserId());
-            pstmt.setFloat(2, record.getWeight());
-            pstmt.setFloat(3, record.getTemperature());
-            pstmt.setString(4, record.getBloodPressure());
-            pstmt.setString(5, record.getNote());
-            pstmt.setDate(6, Date.valueOf(record.getDate()));
-            pstmt.executeUpdate();
+        // The generated key is read back from the connection, so no other insert may run in between
+        inTransaction(() -> {
+            try (PreparedStatement pstmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                setIdOrNull(pstmt, 1, record.getId());
+                pstmt.setInt(2, record.getUserId());
+                pstmt.setFloat(3, record.getWeight());
+                pstmt.setFloat(4, record.getTemperature());
+                bindText(textValues, pstmt, 5, 9, record.getBloodPressure());
+                bindText(textValues, pstmt, 6, 10, record.getNote());
+                pstmt.setLong(7, toMillis(record.getDate()));
+                pstmt.setString(8, categoryOf(record));
+                pstmt.executeUpdate();
+
+                // Hand the generated ID back so callers can update or delete the record later
+                try (ResultSet keys = pstmt.getGeneratedKeys()) {
+                    if (keys.next()) {
+                        record.setId(keys.getInt(1));
+                    }
+                }
+            }
+            refreshRollups(record.getUserId(), record.getDate());
+            logChange(ChangeEvent.HEALTH_RECORDS, ChangeEvent.Operation.INSERT, record.getId(), record.getUserId());
+        });
+        if (explicitId) {
+            syncGeneratedKeys("health_records", "id");
         }
     }
     
     /**
-     * Returns the health record with the specified ID from the health_records table.
+     * Returns the health record with the specified ID from the health_records table,
+     * or from the archive if it has been archived.
      * @param id the ID of the health record to retrieve
      * @return the health record with the specified ID, or null if no such record exists
      * @throws SQLException if an SQL error occurs
      */
     public HealthRecord getHealthRecord(int id) throws SQLException {
-        String sql = "SELECT * FROM health_records WHERE id = ?";
-    
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+        try (PreparedStatement pstmt = connection.prepareStatement(RECORD_BY_ID_SQL)) {
             pstmt.setInt(1, id);
             ResultSet rs = pstmt.executeQuery();
     
             if (rs.next()) {
-                return new HealthRecord(
-                    rs.getInt("id"),
-                    rs.getFloat("weight"),
-                    rs.getFloat("temperature"),
-                    rs.getString("blood_pressure"),  // Note: 'bloodPressure' -> 'blood_pressure'
-                    rs.getString("note"),
-                    rs.getDate("date").toLocalDate(),
-                    rs.getInt("user_id")  // Note: 'userId' -> 'user_id'
-                );
+                return readRecord(rs);
             }
         }
     
-        return null;  // Return null if no health record found for the given id
+        return getArchivedRecord(id);  // Null if no health record found for the given id
     }
     
     /**
      * Updates the specified health record in the health_records table.
+     * The previous version is kept in the health_record_history table and the record's
+     * version number is incremented, both in the database and on the given record.
+     * An archived record is moved back into health_records first.
      * @param record the health record to update
      * @throws SQLException if an SQL error occurs
      */
     public void updateHealthRecord(HealthRecord record) throws SQLException {
-        String sql = "UPDATE health_records SET weight = ?, temperature = ?, bloodPressure = ?, note = ?, date = ?, user_id = ? WHERE id = ?";
+        String selectSql = "SELECT user_id, date FROM health_records WHERE id = ?";
+        String sql = "UPDATE health_records SET weight = ?, temperature = ?, bloodPressure = ?, note = ?, date = ?, user_id = ?, " +
+                "bp_category = ?, bp_id = ?, note_id = ?, version = version + 1 WHERE id = ?";
 
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            pstmt.setFloat(1, record.getWeight());
-            pstmt.setFloat(2, record.getTemperature());
-            pstmt.setString(3, record.getBloodPressure());
-            pstmt.setString(4, record.getNote());
-            pstmt.setDate(5, Date.valueOf(record.getDate()));
-            pstmt.setInt(6, record.getUserId());
-            pstmt.setInt(7, record.getId());
-            pstmt.executeUpdate();
-        }
-    }
-    
+        inTransaction(() -> {
+            thawArchivedRecord(record.getId());
+            int previousVersion = archiveVersion(record.getId(), false);
+            if (previousVersion == 0) {
+                // No such record
+                return;
+            }
+            // The record may move to another day or user, whose rollups then change too
+            int previousUserId;
+            LocalDate previousDate;
+            try (PreparedStatement pstmt = connection.prepareStatement(selectSql)) {
+                pstmt.setInt(1, record.getId());
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    rs.next();
+                    previousUserId = rs.getInt(1);
+                    previousDate = toLocalDate(rs.getLong(2));
+                }
+            }
+            try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+                pstmt.setFloat(1, record.getWeight());
+                pstmt.setFloat(2, record.getTemperature());
+                bindText(textValues, pstmt, 3, 8, record.getBloodPressure());
+                bindText(textValues, pstmt, 4, 9, record.getNote());
+                pstmt.setLong(5, toMillis(record.getDate()));
+                pstmt.setInt(6, record.getUserId());
+                pstmt.setString(7, categoryOf(record));
+                pstmt.setInt(10, record.getId());
+                pstmt.executeUpdate();
+            }
+            record.setVersion(previousVersion + 1);
+            refreshRollups(record.getUserId(), record.getDate());
+            if (previousUserId != record.getUserId() || !previousDate.equals(record.getDate())) {
+                refreshRollups(previousUserId, previousDate);
+            }
+            logChange(ChangeEvent.HEALTH_RECORDS, ChangeEvent.Operation.UPDATE, record.getId(), record.getUserId());
+        });
+    }
+    
     /**
      * Deletes the health record with the specified ID from the health_records table.
+     *
+     * This is a soft delete: the record's final state is kept in health_record_history, marked as
+     * deleted, and can be brought back with restoreHealthRecord. Only the hot health_records table
+     * loses the row, which keeps everyday queries on it small. An archived record is moved back
+     * into health_records first.
      * @param id the ID of the health record to delete
      * @throws SQLException if an SQL error occurs
      */
     public void deleteHealthRecord(int id) throws SQLException {
+        String selectSql = "SELECT user_id, date FROM health_records WHERE id = ?";
         String sql = "DELETE FROM health_records WHERE id = ?";
 
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            pstmt.setInt(1, id);
-            pstmt.executeUpdate();
-        }
+        inTransaction(() -> {
+            thawArchivedRecord(id);
+            // Look up the owner and date first so the change event can say whose record went away,
+            // and the rollups the record was counted in can be refreshed
+            int userId;
+            LocalDate date;
+            try (PreparedStatement pstmt = connection.prepareStatement(selectSql)) {
+                pstmt.setInt(1, id);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (!rs.next()) {
+                        return;
+                    }
+                    userId = rs.getInt(1);
+                    date = toLocalDate(rs.getLong(2));
+                }
+            }
+            archiveVersion(id, true);
+            try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+                pstmt.setInt(1, id);
+                pstmt.executeUpdate();
+            }
+            refreshRollups(userId, date);
+            logChange(ChangeEvent.HEALTH_RECORDS, ChangeEvent.Operation.DELETE, id, userId);
+        });
     }
     
     /**
-     * Retrieves all health records for a given user from the health_records table.
+     * Retrieves all health records for a given user from the health_records table,
+     * followed by the user's archived records.
      * @param userId the ID of the user whose health records to retrieve
      * @return a list of health records for the specified user
      * @throws SQLException if an SQL error occurs
      */
     public List<HealthRecord> getAllHealthRecords(int userId) throws SQLException {
         List<HealthRecord> records = new ArrayList<>();
-        String sql = "SELECT * FROM health_records WHERE user_id = ?";
     
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+        try (PreparedStatement pstmt = connection.prepareStatement(RECORDS_BY_USER_SQL)) {
             pstmt.setInt(1, userId);
             ResultSet rs = pstmt.executeQuery();
     
             while (rs.next()) {
-                long timestamp = rs.getLong("date");
-                java.sql.Date date = new java.sql.Date(timestamp);
-                LocalDate localDate = date.toLocalDate();
+                records.add(readRecord(rs));
+            }
+        }
+        scanArchive(userId, null, null, records::add);
+    
+        return records;
+    }
 
+    /**
+     * Passes all health records of a user to a visitor, in the order of getAllHealthRecords. The rows
+     * of health_records are read into one reused row; archived records are decoded a block at a time.
+     *
+     * @param userId the ID of the user whose health records to read
+     * @param visitor the visitor to pass each record to
+     * @return the number of records visited
+     * @throws SQLException if an SQL error occurs
+     * @throws IOException if the visitor fails
+     */
+    @Override
+    public long forEachHealthRecord(int userId, HealthRecordVisitor visitor) throws SQLException, IOException {
+        HealthRecordRow row = new HealthRecordRow();
+        long[] count = new long[1];
 
-                
-                records.add(new HealthRecord(
-                    rs.getInt("id"),
-                    rs.getFloat("weight"),
-                    rs.getFloat("temperature"),
-                    rs.getString("bloodPressure"),
-                    rs.getString("note"),
-                    localDate,
-                    rs.getInt("user_id")
-                ));
+        try (PreparedStatement pstmt = connection.prepareStatement(RECORDS_BY_USER_SQL)) {
+            pstmt.setInt(1, userId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    readRow(rs, row);
+                    visitor.visit(row);
+                    count[0]++;
+                }
             }
         }
+        try {
+            scanArchive(userId, null, null, record -> {
+                row.set(record);
+                try {
+                    visitor.visit(row);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                count[0]++;
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return count[0];
+    }
     
+    /**
+     * Retrieves one page of a user's health records, filtered and sorted by the database.
+     *
+     * The page starts after the given record in the query's order, so the next page is fetched by
+     * passing the last record of the current one. Each filter and sort column has an index that starts
+     * with user_id, so only the user's matching records are read.
+     *
+     * Archived records are merged into the page from the archive blocks that overlap the date range,
+     * decoded one block at a time.
+     *
+     * @param query the filters, sort order and page size
+     * @param after the last record of the previous page, or null for the first page
+     * @return up to query.getPageSize() records, fewer only on the last page
+     * @throws SQLException if an SQL error occurs
+     */
+    public List<HealthRecord> queryHealthRecords(HealthRecordQuery query, HealthRecord after) throws SQLException {
+        List<Object> parameters = new ArrayList<>();
+        String sql = pageQuery(query, after, parameters);
+
+        List<HealthRecord> records = new ArrayList<>();
+        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            for (int i = 0; i < parameters.size(); i++) {
+                pstmt.setObject(i + 1, parameters.get(i));
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    records.add(readRecord(rs));
+                }
+            }
+        }
+        mergeArchivedRecords(query, after, records);
         return records;
     }
-    
+
+    /**
+     * Builds the SQL of one page of a query on health_records.
+     *
+     * @param query the filters, sort order and page size
+     * @param after the last record of the previous page, or null for the first page
+     * @param parameters receives the values of the parameters, in order
+     * @return the SQL
+     */
+    private static String pageQuery(HealthRecordQuery query, HealthRecord after, List<Object> parameters) {
+        StringBuilder sql = new StringBuilder(RECORDS_BY_USER_SQL);
+        parameters.add(query.getUserId());
+
+        // On SQLite the date column has TEXT affinity, so dates are compared as the digit strings the index holds
+        if (query.getFromDate() != null) {
+            sql.append(" AND date >= ?");
+            parameters.add(toMillis(query.getFromDate()));
+        }
+        if (query.getToDate() != null) {
+            sql.append(" AND date <= ?");
+            parameters.add(toMillis(query.getToDate()));
+        }
+        if (query.getMinWeight() != null) {
+            sql.append(" AND weight >= ?");
+            parameters.add(query.getMinWeight());
+        }
+        if (query.getMaxWeight() != null) {
+            sql.append(" AND weight <= ?");
+            parameters.add(query.getMaxWeight());
+        }
+        if (query.getMinTemperature() != null) {
+            sql.append(" AND temperature >= ?");
+            parameters.add(query.getMinTemperature());
+        }
+        if (query.getMaxTemperature() != null) {
+            sql.append(" AND temperature <= ?");
+            parameters.add(query.getMaxTemperature());
+        }
+        if (query.getCategory() != null) {
+            sql.append(" AND bp_category = ?");
+            parameters.add(query.getCategory().name());
+        }
+
+        String sortExpression = sortExpression(query.getSortColumn());
+        String direction = query.isAscending() ? "ASC" : "DESC";
+        if (after != null) {
+            // Rows past the cursor: a later sort value, or the same one and a later ID
+            String comparison = query.isAscending() ? ">" : "<";
+            sql.append(" AND (").append(sortExpression).append(' ').append(comparison).append(" ? OR (")
+                    .append(sortExpression).append(" = ? AND id ").append(comparison).append(" ?))");
+            Object cursor = sortValue(query.getSortColumn(), after);
+            parameters.add(cursor);
+            parameters.add(cursor);
+            parameters.add(after.getId());
+        }
+        sql.append(" ORDER BY ").append(sortExpression).append(' ').append(direction)
+                .append(", id ").append(direction).append(" LIMIT ?");
+        parameters.add(query.getPageSize());
+        return sql.toString();
+    }
+
+    /**
+     * Merges the user's archived records that pass a query into a page read from health_records,
+     * keeping the first query.getPageSize() records in the query's order.
+     */
+    private void mergeArchivedRecords(HealthRecordQuery query, HealthRecord after, List<HealthRecord> page) throws SQLException {
+        Long from = query.getFromDate() == null ? null : toMillis(query.getFromDate());
+        Long to = query.getToDate() == null ? null : toMillis(query.getToDate());
+        if (after != null && query.getSortColumn() == HealthRecordQuery.SortColumn.DATE) {
+            // Blocks that end before the cursor in the query's direction cannot hold the next page
+            long cursor = toMillis(after.getDate());
+            if (query.isAscending()) {
+                from = from == null ? cursor : Math.max(from, cursor);
+            } else {
+                to = to == null ? cursor : Math.min(to, cursor);
+            }
+        }
+
+        Comparator<HealthRecord> order = query.comparator();
+        int pageSize = query.getPageSize();
+        // Keep the first pageSize records in a heap whose head is the last of them
+        PriorityQueue<HealthRecord> merged = new PriorityQueue<>(pageSize + 1, order.reversed());
+        merged.addAll(page);
+        boolean[] changed = new boolean[1];
+        scanArchive(query.getUserId(), from, to, record -> {
+            if (!query.matches(record) || (after != null && order.compare(record, after) <= 0)) {
+                return;
+            }
+            if (merged.size() < pageSize) {
+                merged.add(record);
+            } else if (order.compare(record, merged.peek()) < 0) {
+                merged.poll();
+                merged.add(record);
+            } else {
+                return;
+            }
+            changed[0] = true;
+        });
+        if (changed[0]) {
+            page.clear();
+            page.addAll(merged);
+            page.sort(order);
+        }
+    }
+
+    // The dictionary value a text ID column of health_records refers to, for the column in place of %s
+    private static final String DICTIONARY_TEXT = "(SELECT text_value FROM text_values WHERE text_values.id = health_records.%s)";
+
+    /**
+     * Returns the SQL expression a query sorts by. Missing text values sort as empty text,
+     * as HealthRecordQuery.comparator() expects.
+     */
+    private static String sortExpression(HealthRecordQuery.SortColumn column) {
+        switch (column) {
+            case WEIGHT: return "weight";
+            case TEMPERATURE: return "temperature";
+            case BLOOD_PRESSURE: return "COALESCE(" + DICTIONARY_TEXT.replace("%s", "bp_id") + ", bloodPressure, '')";
+            case NOTE: return "COALESCE(" + DICTIONARY_TEXT.replace("%s", "note_id") + ", note, '')";
+            default: return "date";
+        }
+    }
+
+    /**
+     * Returns a record's value of a sort column as it is stored, for the page cursor.
+     */
+    private static Object sortValue(HealthRecordQuery.SortColumn column, HealthRecord record) {
+        switch (column) {
+            case WEIGHT: return record.getWeight();
+            case TEMPERATURE: return record.getTemperature();
+            case BLOOD_PRESSURE: return record.getBloodPressure() == null ? "" : record.getBloodPressure();
+            case NOTE: return record.getNote() == null ? "" : record.getNote();
+            default: return toMillis(record.getDate());
+        }
+    }
+
+    /**
+     * Returns a user's summaries of the days, weeks or months that contain any date between from and
+     * to, inclusive, oldest first. Only the health_rollups table is read, so a year of weekly summaries is about
+     * fifty rows however many records the user has. Periods without records are left out.
+     *
+     * @param userId the ID of the user
+     * @param period the length of the periods
+     * @param from the first date to cover
+     * @param to the last date to cover
+     * @return the summaries of the periods that have records
+     * @throws SQLException if an SQL error occurs
+     */
+    public List<PeriodSummary> getPeriodSummaries(int userId, RollupPeriod period, LocalDate from, LocalDate to) throws SQLException {
+        String sql = "SELECT * FROM health_rollups WHERE user_id = ? AND period = ? " +
+                "AND period_start >= ? AND period_start <= ? ORDER BY period_start";
+        List<PeriodSummary> summaries = new ArrayList<>();
+
+        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            pstmt.setInt(1, userId);
+            pstmt.setString(2, period.name());
+            pstmt.setLong(3, toMillis(period.startOf(from)));
+            pstmt.setLong(4, toMillis(to));
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    summaries.add(new PeriodSummary(userId, period,
+                            toLocalDate(rs.getLong("period_start")),
+                            rs.getInt("record_count"),
+                            rs.getInt("weight_count"), rs.getDouble("weight_sum"),
+                            rs.getFloat("weight_min"), rs.getFloat("weight_max"),
+                            rs.getInt("temperature_count"), rs.getDouble("temperature_sum"),
+                            rs.getFloat("temperature_min"), rs.getFloat("temperature_max")));
+                }
+            }
+        }
+        return summaries;
+    }
+
+    /**
+     * Recomputes the whole health_rollups table from the health records, in one transaction.
+     * Needed only if health_records was changed without going through this class, for example by
+     * hand or by a restore from a backup; see tools.RollupRebuilder.
+     *
+     * @return the number of rollup rows written
+     * @throws SQLException if an SQL error occurs
+     */
+    public long rebuildRollups() throws SQLException {
+        // Users with archived records are summed up one by one, merging in their archive blocks
+        String selectSql = "SELECT user_id, weight, temperature, date FROM health_records " +
+                "WHERE user_id NOT IN (SELECT user_id FROM health_record_archive) ORDER BY user_id, date";
+        long[] written = new long[1];
+
+        inTransaction(() -> {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.executeUpdate("DELETE FROM health_rollups");
+            }
+            try (Statement select = connection.createStatement();
+                 ResultSet rs = select.executeQuery(selectSql);
+                 PreparedStatement insert = connection.prepareStatement(INSERT_ROLLUP_SQL)) {
+                RollupWriter writer = new RollupWriter(insert);
+                while (rs.next()) {
+                    writer.add(rs.getInt(1), toLocalDate(rs.getLong(4)), rs.getFloat(2), rs.getFloat(3));
+                }
+                written[0] = writer.finish();
+            }
+
+            List<Integer> archivedUserIds = new ArrayList<>();
+            try (Statement stmt = connection.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT DISTINCT user_id FROM health_record_archive")) {
+                while (rs.next()) {
+                    archivedUserIds.add(rs.getInt(1));
+                }
+            }
+            written[0] += rebuildRollups(archivedUserIds);
+        });
+        return written[0];
+    }
+
+    /**
+     * Recomputes the rollups of the given users, in one transaction.
+     */
+    private long rebuildRollups(Collection<Integer> userIds) throws SQLException {
+        if (userIds.isEmpty()) {
+            return 0;
+        }
+        String selectSql = "SELECT user_id, weight, temperature, date FROM health_records WHERE user_id = ? ORDER BY date";
+        long[] written = new long[1];
+
+        inTransaction(() -> {
+            try (PreparedStatement delete = connection.prepareStatement("DELETE FROM health_rollups WHERE user_id = ?");
+                 PreparedStatement select = connection.prepareStatement(selectSql);
+                 PreparedStatement insert = connection.prepareStatement(INSERT_ROLLUP_SQL)) {
+                for (int userId : userIds) {
+                    delete.setInt(1, userId);
+                    delete.executeUpdate();
+
+                    List<HealthRecord> archived = new ArrayList<>();
+                    scanArchive(userId, null, null, archived::add);
+                    archived.sort(Comparator.comparing(HealthRecord::getDate));
+
+                    RollupWriter writer = new RollupWriter(insert);
+                    int next = 0;
+                    select.setInt(1, userId);
+                    try (ResultSet rs = select.executeQuery()) {
+                        while (rs.next()) {
+                            LocalDate date = toLocalDate(rs.getLong(4));
+                            // Both sources are in date order, so archived records dated earlier go first
+                            for (; next < archived.size() && archived.get(next).getDate().isBefore(date); next++) {
+                                HealthRecord record = archived.get(next);
+                                writer.add(userId, record.getDate(), record.getWeight(), record.getTemperature());
+                            }
+                            writer.add(userId, date, rs.getFloat(2), rs.getFloat(3));
+                        }
+                    }
+                    for (; next < archived.size(); next++) {
+                        HealthRecord record = archived.get(next);
+                        writer.add(userId, record.getDate(), record.getWeight(), record.getTemperature());
+                    }
+                    written[0] += writer.finish();
+                }
+            }
+        });
+        return written[0];
+    }
+
+    /**
+     * Adds up readings supplied sorted by user and date into one rollup row per user and period,
+     * inserted in batches.
+     */
+    private static class RollupWriter {
+        private static final RollupPeriod[] PERIODS = RollupPeriod.values();
+
+        private final PreparedStatement insert;
+        private final RollupAccumulator[] totals = new RollupAccumulator[PERIODS.length];
+        private final LocalDate[] starts = new LocalDate[PERIODS.length];
+        private int userId;
+        private long written;
+
+        RollupWriter(PreparedStatement insert) {
+            this.insert = insert;
+        }
+
+        void add(int rowUserId, LocalDate date, float weight, float temperature) throws SQLException {
+            for (int i = 0; i < PERIODS.length; i++) {
+                LocalDate start = PERIODS[i].startOf(date);
+                if (totals[i] != null && (rowUserId != userId || !start.equals(starts[i]))) {
+                    // The rows are sorted, so the open period is complete
+                    bindRollup(insert, userId, PERIODS[i], starts[i], totals[i]);
+                    insert.addBatch();
+                    if (++written % 5_000 == 0) {
+                        insert.executeBatch();
+                    }
+                    totals[i] = null;
+                }
+                if (totals[i] == null) {
+                    totals[i] = new RollupAccumulator();
+                    starts[i] = start;
+                }
+                totals[i].add(weight, temperature);
+            }
+            userId = rowUserId;
+        }
+
+        /**
+         * Writes the periods still open and returns the number of rollup rows written.
+         */
+        long finish() throws SQLException {
+            for (int i = 0; i < PERIODS.length; i++) {
+                if (totals[i] != null) {
+                    bindRollup(insert, userId, PERIODS[i], starts[i], totals[i]);
+                    insert.addBatch();
+                    written++;
+                    totals[i] = null;
+                }
+            }
+            insert.executeBatch();
+            return written;
+        }
+    }
+
+    /**
+     * Recomputes the day, week and month rollups containing a date from the user's records, after
+     * a record on that date was written. Must be called inside the transaction making the change.
+     *
+     * The periods are recomputed rather than adjusted, so that a deleted or changed reading that was
+     * the minimum or maximum is handled too. One query reads the records of the month and of the
+     * week, which may reach into the neighbouring month, through idx_health_records_user_date.
+     * Archive blocks overlapping those dates are decoded and counted as well.
+     */
+    private void refreshRollups(int userId, LocalDate date) throws SQLException {
+        String deleteSql = "DELETE FROM health_rollups WHERE user_id = ? AND period = ? AND period_start = ?";
+
+        RollupPeriod[] periods = RollupPeriod.values();
+        RollupAccumulator[] totals = new RollupAccumulator[periods.length];
+        long[] starts = new long[periods.length];
+        long[] ends = new long[periods.length];
+        long from = Long.MAX_VALUE;
+        long to = Long.MIN_VALUE;
+        for (int i = 0; i < periods.length; i++) {
+            LocalDate start = periods[i].startOf(date);
+            totals[i] = new RollupAccumulator();
+            starts[i] = toMillis(start);
+            ends[i] = toMillis(periods[i].next(start));
+            from = Math.min(from, starts[i]);
+            to = Math.max(to, ends[i]);
+        }
+
+        try (PreparedStatement pstmt = connection.prepareStatement(RECORDS_BY_DATES_SQL)) {
+            pstmt.setInt(1, userId);
+            pstmt.setLong(2, from);
+            pstmt.setLong(3, to);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    long millis = rs.getLong(3);
+                    for (int i = 0; i < periods.length; i++) {
+                        if (millis >= starts[i] && millis < ends[i]) {
+                            totals[i].add(rs.getFloat(1), rs.getFloat(2));
+                        }
+                    }
+                }
+            }
+        }
+        scanArchive(userId, from, to - 1, record -> {
+            long millis = toMillis(record.getDate());
+            for (int i = 0; i < periods.length; i++) {
+                if (millis >= starts[i] && millis < ends[i]) {
+                    totals[i].add(record.getWeight(), record.getTemperature());
+                }
+            }
+        });
+
+        try (PreparedStatement delete = connection.prepareStatement(deleteSql);
+             PreparedStatement insert = connection.prepareStatement(INSERT_ROLLUP_SQL)) {
+            for (int i = 0; i < periods.length; i++) {
+                delete.setInt(1, userId);
+                delete.setString(2, periods[i].name());
+                delete.setLong(3, starts[i]);
+                delete.executeUpdate();
+                if (totals[i].recordCount > 0) {
+                    bindRollup(insert, userId, periods[i], periods[i].startOf(date), totals[i]);
+                    insert.executeUpdate();
+                }
+            }
+        }
+    }
+
+    private static void bindRollup(PreparedStatement pstmt, int userId, RollupPeriod period, LocalDate start,
+                                   RollupAccumulator totals) throws SQLException {
+        pstmt.setInt(1, userId);
+        pstmt.setString(2, period.name());
+        pstmt.setLong(3, toMillis(start));
+        pstmt.setInt(4, totals.recordCount);
+        pstmt.setInt(5, totals.weightCount);
+        pstmt.setDouble(6, totals.weightSum);
+        setFloatOrNull(pstmt, 7, totals.weightCount, totals.weightMin);
+        setFloatOrNull(pstmt, 8, totals.weightCount, totals.weightMax);
+        pstmt.setInt(9, totals.temperatureCount);
+        pstmt.setDouble(10, totals.temperatureSum);
+        setFloatOrNull(pstmt, 11, totals.temperatureCount, totals.temperatureMin);
+        setFloatOrNull(pstmt, 12, totals.temperatureCount, totals.temperatureMax);
+    }
+
+    /**
+     * Binds a minimum or maximum, or NULL if there were no readings to take it from.
+     */
+    private static void setFloatOrNull(PreparedStatement pstmt, int index, int count, float value) throws SQLException {
+        if (count > 0) {
+            pstmt.setFloat(index, value);
+        } else {
+            pstmt.setNull(index, Types.REAL);
+        }
+    }
+
     /**
      * Retrieves all users from the users table.
      * @return a list of all users
      * @throws SQLException if an SQL error occurs
      */
     public List<User> getAllUsers() throws SQLException {
-        String sql = "SELECT * FROM users";
+        String sql = "SELECT " + USER_COLUMNS + " FROM users";
         List<User> users = new ArrayList<>();
 
         try (Statement stmt  = connection.createStatement();
              ResultSet rs    = stmt.executeQuery(sql)){
 
             while (rs.next()) {
-                User user = new User(rs.getInt("id"), rs.getString("username"), 
-                                     rs.getString("password"), rs.getString("firstName"), 
-                                     rs.getString("lastName"));
-                users.add(user);
+                users.add(readUser(rs));
             }
         }
 
         return users;
     }
+
+    /**
+     * Returns the ID that the next user would receive if IDs are handed out sequentially,
+     * i.e. one more than the largest ID in the users table.
+     * @return the next free user ID
+     * @throws SQLException if an SQL error occurs
+     */
+    public int getNextUserId() throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(id), 0) + 1 FROM users")) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    /**
+     * Inserts users in large batches, one transaction per batch. Users with an ID greater than zero
+     * are stored under that ID; otherwise the database assigns one.
+     *
+     * @param users the users to insert
+     * @param batchSize the number of users per transaction
+     * @return the number of users inserted
+     * @throws SQLException if an SQL error occurs; batches committed before the error are kept
+     */
+    public long bulkLoadUsers(Iterator<User> users, int batchSize) throws SQLException {
+        String sql = "INSERT INTO users (id, firstName, lastName, username, password) VALUES (?, ?, ?, ?, ?)";
+
+        return bulkLoad(sql, ChangeEvent.USERS, users, batchSize, (pstmt, user) -> {
+            setIdOrNull(pstmt, 1, user.getId());
+            pstmt.setString(2, user.getFirstName());
+            pstmt.setString(3, user.getLastName());
+            pstmt.setString(4, user.getUsername());
+            pstmt.setString(5, user.getPassword());
+        });
+    }
+
+    /**
+     * Inserts health records in large batches, one transaction per batch. Records with an ID greater
+     * than zero are stored under that ID; otherwise the database assigns one.
+     *
+     * Records should be supplied in (user, date) order where possible, which keeps the
+     * idx_health_records_user_date index appending instead of splitting pages.
+     *
+     * The rollups of the users whose records were loaded are rebuilt once the load ends, rather
+     * than refreshed row by row.
+     *
+     * @param records the health records to insert
+     * @param batchSize the number of records per transaction
+     * @return the number of records inserted
+     * @throws SQLException if an SQL error occurs; batches committed before the error are kept
+     */
+    public long bulkLoadHealthRecords(Iterator<HealthRecord> records, int batchSize) throws SQLException {
+        String sql = "INSERT INTO health_records(id, user_id, weight, temperature, bloodPressure, note, date, bp_category, bp_id, note_id) " +
+                "VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+        Set<Integer> userIds = new HashSet<>();
+        // A load on its own connection must not hand its uncommitted IDs to writes on the shared one
+        TextDictionary loadValues = dialect.supportsConcurrentWriters() ? new TextDictionary(DEFAULT_TEXT_CACHE_SIZE) : textValues;
+
+        try {
+            return bulkLoad(sql, ChangeEvent.HEALTH_RECORDS, records, batchSize, (pstmt, record) -> {
+                userIds.add(record.getUserId());
+                setIdOrNull(pstmt, 1, record.getId());
+                pstmt.setInt(2, record.getUserId());
+                pstmt.setFloat(3, record.getWeight());
+                pstmt.setFloat(4, record.getTemperature());
+                bindText(loadValues, pstmt, 5, 9, record.getBloodPressure());
+                bindText(loadValues, pstmt, 6, 10, record.getNote());
+                pstmt.setLong(7, toMillis(record.getDate()));
+                pstmt.setString(8, categoryOf(record));
+            });
+        } finally {
+            // Batches committed before an error are kept, so their users need new rollups either way
+            rebuildRollups(userIds);
+        }
+    }
+
+    /**
+     * Converts a record date to the epoch milliseconds stored in the date columns, which is the
+     * value the SQLite driver has always stored for a java.sql.Date.
+     */
+    static long toMillis(LocalDate date) {
+        return Date.valueOf(date).getTime();
+    }
+
+    /**
+     * Converts the epoch milliseconds stored in a date column back to the record date.
+     */
+    static LocalDate toLocalDate(long millis) {
+        return DATES.toLocalDate(millis);
+    }
+
+    /**
+     * Returns the value stored in the bp_category column for a record.
+     */
+    private static String categoryOf(HealthRecord record) {
+        return BloodPressureCategory.classify(record.getBloodPressure()).name();
+    }
+
+    /**
+     * Binds a blood pressure reading or note: a short value as the ID of its text_values entry, with
+     * the text parameter NULL, and a long or missing value as text, with the ID parameter NULL.
+     * Must be called inside the transaction of the statement, which may add the value to the dictionary.
+     */
+    private static void bindText(TextDictionary dictionary, PreparedStatement pstmt, int textIndex, int idIndex, String value) throws SQLException {
+        Integer id = TextDictionary.isDictionaryValue(value) ? dictionary.idOf(pstmt.getConnection(), value) : null;
+        if (id != null) {
+            pstmt.setNull(textIndex, Types.VARCHAR);
+            pstmt.setInt(idIndex, id);
+        } else {
+            pstmt.setString(textIndex, value);
+            pstmt.setNull(idIndex, Types.INTEGER);
+        }
+    }
+
+    /**
+     * Reads a blood pressure reading or note stored either as a dictionary ID or as text in the row.
+     */
+    private String readText(ResultSet rs, int textIndex, int idIndex) throws SQLException {
+        int id = rs.getInt(idIndex);
+        if (rs.wasNull()) {
+            return rs.getString(textIndex);
+        }
+        return textValues.valueOf(connection, id);
+    }
+
+    /**
+     * Reads the health record in the current row of a query that selects RECORD_COLUMNS or
+     * HISTORY_COLUMNS. Columns are read by position, which the drivers resolve without a name lookup.
+     */
+    private HealthRecord readRecord(ResultSet rs) throws SQLException {
+        HealthRecord record = new HealthRecord(
+            rs.getInt(1),
+            rs.getFloat(3),
+            rs.getFloat(4),
+            readText(rs, 5, 7),
+            readText(rs, 6, 8),
+            toLocalDate(rs.getLong(9)),
+            rs.getInt(2)
+        );
+        record.setVersion(rs.getInt(10));
+        return record;
+    }
+
+    /**
+     * Refills a streaming row from the current row of a query that selects RECORD_COLUMNS.
+     */
+    private void readRow(ResultSet rs, HealthRecordRow row) throws SQLException {
+        row.set(rs.getInt(1), rs.getInt(2), rs.getFloat(3), rs.getFloat(4), readText(rs, 5, 7), readText(rs, 6, 8),
+                toLocalDate(rs.getLong(9)), rs.getInt(10));
+    }
+
+    /**
+     * Reads the user in the current row of a query that selects USER_COLUMNS.
+     */
+    private static User readUser(ResultSet rs) throws SQLException {
+        return new User(rs.getInt(1), rs.getString(2), rs.getString(3), rs.getString(4), rs.getString(5));
+    }
+
+    /**
+     * Binds an ID parameter, or NULL if the ID is not positive so that the database assigns one.
+     */
+    private static void setIdOrNull(PreparedStatement pstmt, int index, int id) throws SQLException {
+        if (id > 0) {
+            pstmt.setInt(index, id);
+        } else {
+            pstmt.setNull(index, Types.INTEGER);
+        }
+    }
+
+    /**
+     * Binds the values of one item to an insert statement.
+     *
+     * @param <T> the type of item being inserted
+     */
+    private interface RowBinder<T> {
+        void bind(PreparedStatement pstmt, T item) throws SQLException;
+    }
+
+    /**
+     * Runs a batched insert with durability relaxed for the duration of the load (synchronous writes
+     * are switched off on SQLite). Every batch is committed on its own, so a crash loses at most the
+     * batch in progress.
+     *
+     * On an engine with concurrent writers the load runs on its own connection, so interactive writes
+     * on the shared connection carry on while it runs. On SQLite it holds the write lock instead.
+     *
+     * Rather than one change event per row, the load is recorded as a single BULK_LOAD event
+     * for the table, which tells subscribers to rebuild. On SQLite it is written with the first batch.
+     * With concurrent writers it is written through the shared connection once the load is done,
+     * so change log sequence numbers still follow commit order.
+     */
+    private <T> long bulkLoad(String sql, String table, Iterator<T> items, int batchSize, RowBinder<T> binder) throws SQLException {
+        long count;
+        if (dialect.supportsConcurrentWriters()) {
+            try (Connection loadConnection = openConnection()) {
+                count = bulkLoadOn(loadConnection, sql, table, items, batchSize, binder, false);
+                dialect.syncGeneratedKeys(loadConnection, table, "id");
+            }
+            inTransaction(() -> logChange(table, ChangeEvent.Operation.BULK_LOAD, 0, 0));
+        } else {
+            synchronized (writeLock) {
+                count = bulkLoadOn(connection, sql, table, items, batchSize, binder, true);
+            }
+        }
+        return count;
+    }
+
+    private <T> long bulkLoadOn(Connection loadConnection, String sql, String table, Iterator<T> items, int batchSize,
+                                RowBinder<T> binder, boolean logLoad) throws SQLException {
+        boolean autoCommit = loadConnection.getAutoCommit();
+        String durability;
+        try (Statement stmt = loadConnection.createStatement()) {
+            durability = dialect.beginBulkLoad(stmt);
+        }
+
+        long count = 0;
+        try (PreparedStatement pstmt = loadConnection.prepareStatement(sql)) {
+            loadConnection.setAutoCommit(false);
+            if (logLoad) {
+                logChange(loadConnection, table, ChangeEvent.Operation.BULK_LOAD, 0, 0);
+            }
+
+            while (items.hasNext()) {
+                binder.bind(pstmt, items.next());
+                pstmt.addBatch();
+                if (++count % batchSize == 0) {
+                    pstmt.executeBatch();
+                    loadConnection.commit();
+                }
+            }
+            pstmt.executeBatch();
+            loadConnection.commit();
+        } catch (SQLException e) {
+            loadConnection.rollback();
+            // Values added by the rolled back batch are gone again
+            textValues.clear();
+            throw e;
+        } finally {
+            loadConnection.setAutoCommit(autoCommit);
+            try (Statement stmt = loadConnection.createStatement()) {
+                dialect.endBulkLoad(stmt, durability);
+            }
+            fireCommitted();
+        }
+
+        return count;
+    }
+
+    /**
+     * Moves the health records dated before a cutoff out of health_records into the archive, where
+     * each user's records are packed into compressed blocks of up to 512 records (see ArchiveCodec).
+     * Archived records are still returned by every read and can still be changed: changing or
+     * deleting one first moves its block back into health_records. Their rollups stay as they are.
+     *
+     * Each user is archived in a transaction of its own, so writes carry on between users. A user's
+     * last block is topped up before a new one is started, so archiving often still fills whole
+     * blocks. Replicas copy the archive and health_records again once the run ends, rather than
+     * applying one change event per moved record.
+     *
+     * @param cutoff records dated before this day are archived
+     * @return the number of records archived
+     * @throws SQLException if an SQL error occurs; users archived before the error stay archived
+     */
+    public long archiveRecords(LocalDate cutoff) throws SQLException {
+        List<Integer> userIds = new ArrayList<>();
+        try (PreparedStatement pstmt = connection.prepareStatement("SELECT DISTINCT user_id FROM health_records WHERE date < ?")) {
+            pstmt.setLong(1, toMillis(cutoff));
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    userIds.add(rs.getInt(1));
+                }
+            }
+        }
+
+        long archived = 0;
+        try {
+            for (int userId : userIds) {
+                archived += archiveUserRecords(userId, cutoff);
+            }
+        } finally {
+            if (archived > 0) {
+                inTransaction(() -> {
+                    logChange(ChangeEvent.HEALTH_RECORD_ARCHIVE, ChangeEvent.Operation.BULK_LOAD, 0, 0);
+                    logChange(ChangeEvent.HEALTH_RECORD_ARCHIVE_INDEX, ChangeEvent.Operation.BULK_LOAD, 0, 0);
+                    logChange(ChangeEvent.HEALTH_RECORDS, ChangeEvent.Operation.BULK_LOAD, 0, 0);
+                });
+            }
+        }
+        return archived;
+    }
+
+    /**
+     * Archives one user's records dated before the cutoff, in one transaction.
+     */
+    private int archiveUserRecords(int userId, LocalDate cutoff) throws SQLException {
+        String selectSql = "SELECT " + RECORD_COLUMNS + " FROM health_records WHERE user_id = ? AND date < ?";
+        String openBlockSql = "SELECT block_id, data FROM health_record_archive WHERE user_id = ? AND record_count < ? " +
+                "ORDER BY last_date DESC LIMIT 1";
+        String deleteSql = "DELETE FROM health_records WHERE user_id = ? AND date < ?";
+        int[] archived = new int[1];
+
+        inTransaction(() -> {
+            List<HealthRecord> records = new ArrayList<>();
+            try (PreparedStatement pstmt = connection.prepareStatement(selectSql)) {
+                pstmt.setInt(1, userId);
+                pstmt.setLong(2, toMillis(cutoff));
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        records.add(readRecord(rs));
+                    }
+                }
+            }
+            if (records.isEmpty()) {
+                return;
+            }
+            archived[0] = records.size();
+
+            int openBlockId = 0;
+            try (PreparedStatement pstmt = connection.prepareStatement(openBlockSql)) {
+                pstmt.setInt(1, userId);
+                pstmt.setInt(2, ARCHIVE_BLOCK_SIZE);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (rs.next()) {
+                        openBlockId = rs.getInt(1);
+                        records.addAll(ArchiveCodec.decode(rs.getBytes(2), userId));
+                    }
+                }
+            }
+            if (openBlockId != 0) {
+                deleteArchiveBlock(openBlockId);
+            }
+
+            records.sort(Comparator.comparing(HealthRecord::getDate).thenComparingInt(HealthRecord::getId));
+            for (int start = 0; start < records.size(); start += ARCHIVE_BLOCK_SIZE) {
+                writeArchiveBlock(userId, records.subList(start, Math.min(start + ARCHIVE_BLOCK_SIZE, records.size())));
+            }
+
+            try (PreparedStatement pstmt = connection.prepareStatement(deleteSql)) {
+                pstmt.setInt(1, userId);
+                pstmt.setLong(2, toMillis(cutoff));
+                pstmt.executeUpdate();
+            }
+        });
+        return archived[0];
+    }
+
+    /**
+     * Encodes records sorted by date into one archive block and indexes their IDs.
+     */
+    private void writeArchiveBlock(int userId, List<HealthRecord> block) throws SQLException {
+        String insertSql = "INSERT INTO health_record_archive (block_id, user_id, first_date, last_date, record_count, data) " +
+                "VALUES (?, ?, ?, ?, ?, ?)";
+        String indexSql = "INSERT INTO health_record_archive_index (record_id, user_id, block_id) VALUES (?, ?, ?)";
+
+        int blockId = Integer.MAX_VALUE;
+        for (HealthRecord record : block) {
+            blockId = Math.min(blockId, record.getId());
+        }
+        try (PreparedStatement pstmt = connection.prepareStatement(insertSql)) {
+            pstmt.setInt(1, blockId);
+            pstmt.setInt(2, userId);
+            pstmt.setLong(3, toMillis(block.get(0).getDate()));
+            pstmt.setLong(4, toMillis(block.get(block.size() - 1).getDate()));
+            pstmt.setInt(5, block.size());
+            pstmt.setBytes(6, ArchiveCodec.encode(block));
+            pstmt.executeUpdate();
+        }
+        try (PreparedStatement pstmt = connection.prepareStatement(indexSql)) {
+            for (HealthRecord record : block) {
+                pstmt.setInt(1, record.getId());
+                pstmt.setInt(2, userId);
+                pstmt.setInt(3, blockId);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        }
+    }
+
+    private void deleteArchiveBlock(int blockId) throws SQLException {
+        try (PreparedStatement pstmt = connection.prepareStatement("DELETE FROM health_record_archive_index WHERE block_id = ?")) {
+            pstmt.setInt(1, blockId);
+            pstmt.executeUpdate();
+        }
+        try (PreparedStatement pstmt = connection.prepareStatement("DELETE FROM health_record_archive WHERE block_id = ?")) {
+            pstmt.setInt(1, blockId);
+            pstmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Moves the archive block holding a record back into health_records, so the record can be changed
+     * like any other. Blocks are written in one piece, so the block's other records move with it.
+     * Must be called inside the transaction making the change; does nothing if the record is not archived.
+     */
+    private void thawArchivedRecord(int recordId) throws SQLException {
+        String selectSql = "SELECT a.block_id, a.user_id, a.data FROM health_record_archive_index i " +
+                "JOIN health_record_archive a ON a.block_id = i.block_id WHERE i.record_id = ?";
+        String insertSql = "INSERT INTO health_records (id, user_id, weight, temperature, bloodPressure, note, date, version, bp_category, " +
+                "bp_id, note_id) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+        int blockId;
+        int userId;
+        List<HealthRecord> records;
+        try (PreparedStatement pstmt = connection.prepareStatement(selectSql)) {
+            pstmt.setInt(1, recordId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next()) {
+                    return;
+                }
+                blockId = rs.getInt(1);
+                userId = rs.getInt(2);
+                records = ArchiveCodec.decode(rs.getBytes(3), userId);
+            }
+        }
+
+        try (PreparedStatement pstmt = connection.prepareStatement(insertSql)) {
+            for (HealthRecord record : records) {
+                pstmt.setInt(1, record.getId());
+                pstmt.setInt(2, userId);
+                pstmt.setFloat(3, record.getWeight());
+                pstmt.setFloat(4, record.getTemperature());
+                bindText(textValues, pstmt, 5, 10, record.getBloodPressure());
+                bindText(textValues, pstmt, 6, 11, record.getNote());
+                pstmt.setLong(7, toMillis(record.getDate()));
+                pstmt.setInt(8, record.getVersion());
+                pstmt.setString(9, categoryOf(record));
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        }
+        deleteArchiveBlock(blockId);
+
+        for (HealthRecord record : records) {
+            logChange(ChangeEvent.HEALTH_RECORDS, ChangeEvent.Operation.INSERT, record.getId(), userId);
+        }
+        logChange(ChangeEvent.HEALTH_RECORD_ARCHIVE, ChangeEvent.Operation.DELETE, blockId, userId);
+        logChange(ChangeEvent.HEALTH_RECORD_ARCHIVE_INDEX, ChangeEvent.Operation.DELETE, blockId, userId);
+    }
+
+    /**
+     * Returns an archived record by its ID, or null if no such record is archived.
+     */
+    private HealthRecord getArchivedRecord(int id) throws SQLException {
+        String sql = "SELECT a.user_id, a.data FROM health_record_archive_index i " +
+                "JOIN health_record_archive a ON a.block_id = i.block_id WHERE i.record_id = ?";
+
+        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            pstmt.setInt(1, id);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    for (HealthRecord record : ArchiveCodec.decode(rs.getBytes(2), rs.getInt(1))) {
+                        if (record.getId() == id) {
+                            return record;
+                        }
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Decodes the archive blocks of a user that may hold records dated between two times (epoch
+     * milliseconds, inclusive; null for no bound), one block at a time, and passes every record of
+     * those blocks to the visitor. Records outside the dates are passed on too, so callers filter.
+     */
+    private void scanArchive(int userId, Long fromMillis, Long toMillis, Consumer<HealthRecord> visitor) throws SQLException {
+        scanArchive(connection, userId, fromMillis, toMillis, visitor);
+    }
+
+    private static void scanArchive(Connection source, int userId, Long fromMillis, Long toMillis,
+                                    Consumer<HealthRecord> visitor) throws SQLException {
+        StringBuilder sql = new StringBuilder("SELECT data FROM health_record_archive WHERE user_id = ?");
+        if (fromMillis != null) {
+            sql.append(" AND last_date >= ?");
+        }
+        if (toMillis != null) {
+            sql.append(" AND first_date <= ?");
+        }
+        sql.append(" ORDER BY first_date");
+
+        try (PreparedStatement pstmt = source.prepareStatement(sql.toString())) {
+            int index = 1;
+            pstmt.setInt(index++, userId);
+            if (fromMillis != null) {
+                pstmt.setLong(index++, fromMillis);
+            }
+            if (toMillis != null) {
+                pstmt.setLong(index, toMillis);
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    for (HealthRecord record : ArchiveCodec.decode(rs.getBytes(1), userId)) {
+                        visitor.accept(record);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns all archived records of a user sorted by date, then ID, read through the given
+     * connection. Lets scans that stream health_records on a connection of their own, such as
+     * analytics.CohortAnalytics, merge in the archive; only one user's records are held at a time.
+     *
+     * @param readConnection the connection to read through, see {@link #openReadConnection()}
+     * @param userId the ID of the user
+     * @return the user's archived records, empty if none are archived
+     * @throws SQLException if an SQL error occurs
+     */
+    public List<HealthRecord> getArchivedRecords(Connection readConnection, int userId) throws SQLException {
+        List<HealthRecord> records = new ArrayList<>();
+        scanArchive(readConnection, userId, null, null, records::add);
+        // Each block is sorted, but blocks written by different runs may overlap in dates
+        records.sort(Comparator.comparing(HealthRecord::getDate).thenComparingInt(HealthRecord::getId));
+        return records;
+    }
+
+    /**
+     * Returns every stored version of a health record, oldest first. The current version comes last,
+     * unless the record is deleted, in which case the last entry is its final state marked as deleted.
+     *
+     * Versions removed by history compaction are not returned.
+     *
+     * @param recordId the ID of the health record
+     * @return the record's versions, empty if the record never existed
+     * @throws SQLException if an SQL error occurs
+     */
+    public List<HealthRecordVersion> getHealthRecordHistory(int recordId) throws SQLException {
+        String sql = "SELECT " + HISTORY_COLUMNS + " FROM health_record_history WHERE record_id = ? ORDER BY version";
+        List<HealthRecordVersion> versions = new ArrayList<>();
+
+        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            pstmt.setInt(1, recordId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    versions.add(new HealthRecordVersion(readRecord(rs), rs.getInt(11) == 1, rs.getLong(12)));
+                }
+            }
+        }
+
+        HealthRecord current = getHealthRecord(recordId);
+        if (current != null) {
+            versions.add(new HealthRecordVersion(current, false, 0));
+        }
+        return versions;
+    }
+
+    /**
+     * Returns the final state of each deleted health record of a user that can still be restored.
+     *
+     * @param userId the ID of the user
+     * @return the deleted records, with the version they had when they were deleted
+     * @throws SQLException if an SQL error occurs
+     */
+    public List<HealthRecord> getDeletedHealthRecords(int userId) throws SQLException {
+        // HISTORY_COLUMNS, qualified
+        String sql = "SELECT h.record_id, h.user_id, h.weight, h.temperature, h.bloodPressure, h.note, h.bp_id, h.note_id, " +
+                "h.date, h.version, h.deleted, h.superseded_at FROM health_record_history h " +
+                "WHERE h.user_id = ? AND h.deleted = 1 " +
+                "AND h.version = (SELECT MAX(version) FROM health_record_history WHERE record_id = h.record_id) " +
+                "AND NOT EXISTS (SELECT 1 FROM health_records r WHERE r.id = h.record_id) " +
+                "AND NOT EXISTS (SELECT 1 FROM health_record_archive_index i WHERE i.record_id = h.record_id)";
+        List<HealthRecord> deleted = new ArrayList<>();
+
+        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            pstmt.setInt(1, userId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    deleted.add(readRecord(rs));
+                }
+            }
+        }
+
+        return deleted;
+    }
+
+    /**
+     * Brings back a soft-deleted health record under its original ID, as a new version.
+     *
+     * @param recordId the ID of the deleted record
+     * @return the restored record, or null if there is no deleted record with that ID
+     * @throws SQLException if an SQL error occurs
+     */
+    public HealthRecord restoreHealthRecord(int recordId) throws SQLException {
+        String sql = "INSERT INTO health_records (id, user_id, weight, temperature, bloodPressure, note, bp_id, note_id, date, version) " +
+                "SELECT record_id, user_id, weight, temperature, bloodPressure, note, bp_id, note_id, date, version + 1 " +
+                "FROM health_record_history WHERE record_id = ? AND deleted = 1 " +
+                "AND version = (SELECT MAX(version) FROM health_record_history WHERE record_id = ?) " +
+                "AND NOT EXISTS (SELECT 1 FROM health_records WHERE id = ?) " +
+                "AND NOT EXISTS (SELECT 1 FROM health_record_archive_index WHERE record_id = ?)";
+
+        HealthRecord[] restored = new HealthRecord[1];
+        inTransaction(() -> {
+            try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+                pstmt.setInt(1, recordId);
+                pstmt.setInt(2, recordId);
+                pstmt.setInt(3, recordId);
+                pstmt.setInt(4, recordId);
+                if (pstmt.executeUpdate() == 0) {
+                    return;
+                }
+            }
+            restored[0] = getHealthRecord(recordId);
+            // The history does not keep the category, so classify the restored reading again
+            try (PreparedStatement pstmt = connection.prepareStatement("UPDATE health_records SET bp_category = ? WHERE id = ?")) {
+                pstmt.setString(1, categoryOf(restored[0]));
+                pstmt.setInt(2, recordId);
+                pstmt.executeUpdate();
+            }
+            refreshRollups(restored[0].getUserId(), restored[0].getDate());
+            logChange(ChangeEvent.HEALTH_RECORDS, ChangeEvent.Operation.INSERT, recordId, restored[0].getUserId());
+        });
+        return restored[0];
+    }
+
+    /**
+     * Removes one batch of expired history versions, as part of history compaction.
+     *
+     * A version is expired if it was superseded before the cutoff, or if more than maxVersions newer
+     * versions of the same record are kept. For each record all expired versions except the newest
+     * are removed, so the history still shows the record's state at the edge of the retention
+     * window, and the final state of a deleted record is never lost.
+     *
+     * A batch looks at the history of the records with IDs fromRecordId to fromRecordId + batchSize - 1
+     * only, through the primary key, and removes at most batchSize versions, so each transaction is
+     * short however little of the history has expired. The caller works through the history in
+     * small transactions by resuming where the previous batch stopped.
+     *
+     * @param cutoffMillis versions superseded before this time (epoch milliseconds) are expired
+     * @param maxVersions the number of history versions per record that are kept regardless of age
+     * @param fromRecordId the record ID to start from
+     * @param batchSize the number of record IDs looked at, and the maximum number of versions removed
+     * @return the ID of the record to continue from, or -1 if the end of the history was reached
+     * @throws SQLException if an SQL error occurs
+     */
+    public int compactHistoryBatch(long cutoffMillis, int maxVersions, int fromRecordId, int batchSize) throws SQLException {
+        String selectSql = "SELECT h.record_id, h.version FROM health_record_history h " +
+                "WHERE h.record_id BETWEEN ? AND ? AND (" +
+                "EXISTS (SELECT 1 FROM health_record_history n WHERE n.record_id = h.record_id " +
+                "AND n.version > h.version AND n.superseded_at < ?) " +
+                "OR (SELECT COUNT(*) FROM health_record_history n WHERE n.record_id = h.record_id AND n.version > h.version) > ?" +
+                ") ORDER BY h.record_id, h.version LIMIT ?";
+        String deleteSql = "DELETE FROM health_record_history WHERE record_id = ? AND version = ?";
+        int toRecordId = (int) Math.min(Integer.MAX_VALUE, (long) fromRecordId + batchSize - 1);
+
+        int[] next = {-1};
+        inTransaction(() -> {
+            try (PreparedStatement select = connection.prepareStatement(selectSql);
+                 PreparedStatement delete = connection.prepareStatement(deleteSql)) {
+                select.setInt(1, fromRecordId);
+                select.setInt(2, toRecordId);
+                select.setLong(3, cutoffMillis);
+                select.setInt(4, maxVersions);
+                select.setInt(5, batchSize);
+
+                int found = 0;
+                int lastRecordId = fromRecordId;
+                try (ResultSet rs = select.executeQuery()) {
+                    while (rs.next()) {
+                        lastRecordId = rs.getInt(1);
+                        delete.setInt(1, lastRecordId);
+                        delete.setInt(2, rs.getInt(2));
+                        delete.addBatch();
+                        found++;
+                    }
+                }
+                delete.executeBatch();
+
+                if (found == batchSize) {
+                    // A full batch may have stopped part way through a record, so resume at that record
+                    next[0] = lastRecordId;
+                } else if (toRecordId < maxHistoryRecordId()) {
+                    next[0] = toRecordId + 1;
+                }
+            }
+        });
+        return next[0];
+    }
+
+    private int maxHistoryRecordId() throws SQLException {
+        try (PreparedStatement pstmt = connection.prepareStatement("SELECT MAX(record_id) FROM health_record_history");
+             ResultSet rs = pstmt.executeQuery()) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    /**
+     * Copies the current row of a health record into the history table.
+     * Must be called inside the transaction that changes or deletes the row.
+     *
+     * @return the version that was archived, or 0 if there is no such record
+     */
+    private int archiveVersion(int recordId, boolean deleted) throws SQLException {
+        String sql = "INSERT INTO health_record_history " +
+                "(record_id, version, user_id, weight, temperature, bloodPressure, note, bp_id, note_id, date, deleted, superseded_at) " +
+                "SELECT id, version, user_id, weight, temperature, bloodPressure, note, bp_id, note_id, date, ?, ? " +
+                "FROM health_records WHERE id = ?";
+
+        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            pstmt.setInt(1, deleted ? 1 : 0);
+            pstmt.setLong(2, System.currentTimeMillis());
+            pstmt.setInt(3, recordId);
+            if (pstmt.executeUpdate() == 0) {
+                return 0;
+            }
+        }
+
+        try (PreparedStatement pstmt = connection.prepareStatement("SELECT version FROM health_records WHERE id = ?")) {
+            pstmt.setInt(1, recordId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+    }
+
+    /**
+     * Returns up to limit change events with a sequence number greater than afterSeq, oldest first.
+     *
+     * @param afterSeq the sequence number of the last event already seen, or 0 to start from the beginning
+     * @param limit the maximum number of events to return
+     * @return the next change events, empty if there are none
+     * @throws SQLException if an SQL error occurs
+     */
+    public List<ChangeEvent> getChanges(long afterSeq, int limit) throws SQLException {
+        try (Connection readConnection = openReadConnection()) {
+            return getChanges(readConnection, afterSeq, limit);
+        }
+    }
+
+    /**
+     * Returns up to limit change events after afterSeq, read through the given connection.
+     * Subscribers that poll repeatedly keep their own connection open and use this method.
+     *
+     * @param readConnection the connection to read through
+     * @param afterSeq the sequence number of the last event already seen
+     * @param limit the maximum number of events to return
+     * @return the next change events, empty if there are none
+     * @throws SQLException if an SQL error occurs
+     */
+    public List<ChangeEvent> getChanges(Connection readConnection, long afterSeq, int limit) throws SQLException {
+        String sql = "SELECT seq, table_name, operation, row_id, user_id, changed_at FROM change_log " +
+                "WHERE seq > ? ORDER BY seq LIMIT ?";
+        List<ChangeEvent> changes = new ArrayList<>();
+
+        try (PreparedStatement pstmt = readConnection.prepareStatement(sql)) {
+            pstmt.setLong(1, afterSeq);
+            pstmt.setInt(2, limit);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    changes.add(new ChangeEvent(rs.getLong(1), rs.getString(2),
+                            ChangeEvent.Operation.valueOf(rs.getString(3)), rs.getInt(4), rs.getInt(5), rs.getLong(6)));
+                }
+            }
+        }
+
+        return changes;
+    }
+
+    /**
+     * Returns the sequence number of the most recent change event.
+     * @return the latest sequence number, or 0 if the log is empty
+     * @throws SQLException if an SQL error occurs
+     */
+    public long getLatestChangeSeq() throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(seq), 0) FROM change_log")) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    /**
+     * Removes change events up to and including the given sequence number. Call this once every
+     * subscriber's cursor has moved past them, to keep the log from growing without bound.
+     *
+     * @param upToSeq the last sequence number to remove
+     * @return the number of events removed
+     * @throws SQLException if an SQL error occurs
+     */
+    public int truncateChangeLog(long upToSeq) throws SQLException {
+        synchronized (writeLock) {
+            try (PreparedStatement pstmt = connection.prepareStatement("DELETE FROM change_log WHERE seq <= ?")) {
+                pstmt.setLong(1, upToSeq);
+                return pstmt.executeUpdate();
+            }
+        }
+    }
+
+    /**
+     * Registers a callback that runs after every committed write. The change log uses it to wake up
+     * subscribers instead of polling; callbacks must be quick and must not write to the database.
+     *
+     * @param listener the callback to run after each commit
+     */
+    public void addCommitListener(Runnable listener) {
+        commitListeners.add(listener);
+    }
+
+    /**
+     * Removes a callback registered with addCommitListener.
+     *
+     * @param listener the callback to remove
+     */
+    public void removeCommitListener(Runnable listener) {
+        commitListeners.remove(listener);
+    }
+
+    /**
+     * A unit of work run inside a transaction.
+     */
+    interface TransactionWork {
+        void run() throws SQLException;
+    }
+
+    /**
+     * Runs the work in a transaction on the shared connection, committing only if it completes.
+     * Calls made by the thread that opened the transaction, from inside its work, join that
+     * transaction, which lets subclasses wrap a write and their own bookkeeping in one transaction.
+     * Calls from other threads wait on the write lock until the transaction has ended.
+     *
+     * Reads on the shared connection do not take the write lock, so a read from another thread
+     * while a transaction is open sees its uncommitted rows. Readers that need committed data only
+     * use a connection of their own, see {@link #openReadConnection()}.
+     */
+    void inTransaction(TransactionWork work) throws SQLException {
+        synchronized (writeLock) {
+            if (transactionOwner == Thread.currentThread()) {
+                // Already inside this thread's transaction: its outermost call commits or rolls back
+                work.run();
+                return;
+            }
+            if (!connection.getAutoCommit()) {
+                throw new IllegalStateException("A transaction was left open on the shared connection");
+            }
+
+            transactionOwner = Thread.currentThread();
+            connection.setAutoCommit(false);
+            try {
+                work.run();
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                // Dictionary values added by the transaction are gone again
+                textValues.clear();
+                throw e;
+            } finally {
+                transactionOwner = null;
+                connection.setAutoCommit(true);
+            }
+        }
+        fireCommitted();
+    }
+
+    /**
+     * Appends one event to the change log. Must be called inside the transaction making the change.
+     */
+    private void logChange(String table, ChangeEvent.Operation operation, int rowId, int userId) throws SQLException {
+        logChange(connection, table, operation, rowId, userId);
+    }
+
+    static void logChange(Connection target, String table, ChangeEvent.Operation operation, int rowId, int userId) throws SQLException {
+        String sql = "INSERT INTO change_log (table_name, operation, row_id, user_id, changed_at) VALUES (?, ?, ?, ?, ?)";
+
+        try (PreparedStatement pstmt = target.prepareStatement(sql)) {
+            pstmt.setString(1, table);
+            pstmt.setString(2, operation.name());
+            pstmt.setInt(3, rowId);
+            pstmt.setInt(4, userId);
+            pstmt.setLong(5, System.currentTimeMillis());
+            pstmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Lets generated keys continue after rows that were inserted with explicit keys. Skipped inside
+     * a caller's transaction, where the dialect's schema change would commit it early.
+     */
+    private void syncGeneratedKeys(String table, String column) throws SQLException {
+        synchronized (writeLock) {
+            if (connection.getAutoCommit()) {
+                dialect.syncGeneratedKeys(connection, table, column);
+            }
+        }
+    }
+
+    /**
+     * Notifies the commit listeners that new changes are visible. Package tools that write to the
+     * database file through their own connection call this once they have committed.
+     */
+    void fireCommitted() {
+        for (Runnable listener : commitListeners) {
+            listener.run();
+        }
+    }
 }
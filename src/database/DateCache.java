@@ -0,0 +1,60 @@
+package database;
+
+import java.time.LocalDate;
+
+/**
+ * Converts the epoch milliseconds stored in the date columns back to dates, keeping the result for
+ * each recent day so that reading thousands of records of the same few months does not create a
+ * java.sql.Date and a LocalDate per row.
+ *
+ * Days map to slots by their number, so the cache holds about eleven years of consecutive days
+ * without collisions. Entries are immutable and replaced whole, which makes the cache safe to share
+ * between threads without locking; a lost race only means converting the same day again. The
+ * conversion is the one the SQLite driver has always used, in the default time zone at the time of
+ * the first read.
+ */
+class DateCache {
+
+    private static final long MILLIS_PER_DAY = 86_400_000L;
+
+    private final Entry[] entries;
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param slots the number of days kept, a power of two
+     */
+    DateCache(int slots) {
+        if (Integer.bitCount(slots) != 1) {
+            throw new IllegalArgumentException("slots must be a power of two");
+        }
+        this.entries = new Entry[slots];
+    }
+
+    /**
+     * Returns the date stored as the given epoch milliseconds.
+     *
+     * @param millis the stored value
+     * @return the date, the same instance for every call while it stays cached
+     */
+    LocalDate toLocalDate(long millis) {
+        int slot = (int) (Math.floorDiv(millis, MILLIS_PER_DAY) & (entries.length - 1));
+        Entry entry = entries[slot];
+        if (entry != null && entry.millis == millis) {
+            return entry.date;
+        }
+        LocalDate date = new java.sql.Date(millis).toLocalDate();
+        entries[slot] = new Entry(millis, date);
+        return date;
+    }
+
+    private static final class Entry {
+        final long millis;
+        final LocalDate date;
+
+        Entry(long millis, LocalDate date) {
+            this.millis = millis;
+            this.date = date;
+        }
+    }
+}
@@ -0,0 +1,322 @@
+package database;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.sql.SQLException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+
+import model.RecordDraft;
+
+/**
+ * A local append-only file of record drafts, so that what a user has typed survives the application
+ * closing before the record is saved. Every write appends one line holding the whole draft, and a
+ * cleared draft appends a one-line marker, so a write is a single small append however often the
+ * user types. The latest draft of each user is kept in memory.
+ *
+ * Each line is flushed when written. A line cut short by a crash has no line end and is skipped
+ * when the file is read. Once the file holds many superseded lines it is rewritten with only the
+ * current drafts and swapped in with an atomic rename.
+ *
+ * The file is read on first use, not when the journal is created.
+ *
+ * When the health records are encrypted, the journal is given the {@link DataKeyStore} and every
+ * draft's fields are encrypted with the user's data key, as the records are; only the user ID stays
+ * readable. Drafts written in the clear before are rewritten encrypted when the file is read.
+ */
+public class DraftJournal implements Closeable {
+
+    /**
+     * The journal file used unless the myhealthtracker.drafts.file system property names another.
+     */
+    public static final String DEFAULT_PATH = "myhealthtracker-drafts.journal";
+
+    /**
+     * The system property that selects the journal file.
+     */
+    public static final String PATH_PROPERTY = "myhealthtracker.drafts.file";
+
+    // Lines appended after which the file is rewritten with only the current drafts
+    private static final int COMPACT_AFTER_LINES = 1000;
+
+    private static final String CLEARED = "CLEARED";
+
+    // Marks a line whose draft fields are encrypted
+    private static final String SEALED = "SEALED";
+
+    private static final int IV_BYTES = 12;
+    private static final int TAG_BITS = 128;
+
+    private final Path path;
+    private final SecureRandom random = new SecureRandom();
+
+    // The users' data keys if drafts are encrypted, otherwise null
+    private DataKeyStore keyStore;
+
+    // Whether a draft in the clear was read while drafts are encrypted
+    private boolean clearDraftsRead;
+
+    // The latest draft of each user
+    private final Map<Integer, RecordDraft> drafts = new HashMap<>();
+
+    private Writer writer;
+    private int linesSinceCompaction;
+    private long linesWritten;
+
+    /**
+     * Creates a journal on the given file, which is created when the first draft is written.
+     *
+     * @param path the journal file
+     */
+    public DraftJournal(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Encrypts the drafts with each user's data key from now on. Must be called before the journal
+     * is first used; without a key store, encrypted lines in the file are skipped.
+     *
+     * @param keyStore the users' data keys
+     */
+    public synchronized void setKeyStore(DataKeyStore keyStore) {
+        this.keyStore = keyStore;
+    }
+
+    /**
+     * Stores a draft, replacing the user's previous draft.
+     *
+     * @param draft the draft to store
+     * @throws IOException if the journal cannot be written
+     */
+    public synchronized void write(RecordDraft draft) throws IOException {
+        open();
+        append(format(draft));
+        drafts.put(draft.getUserId(), draft);
+    }
+
+    /**
+     * Removes a user's draft, once it has been saved as a record or abandoned.
+     *
+     * @param userId the user's ID
+     * @throws IOException if the journal cannot be written
+     */
+    public synchronized void clear(int userId) throws IOException {
+        open();
+        if (drafts.remove(userId) != null) {
+            append(userId + "\t" + CLEARED);
+        }
+    }
+
+    /**
+     * Returns a user's current draft.
+     *
+     * @param userId the user's ID
+     * @return the draft, or null if the user has none
+     * @throws IOException if the journal cannot be read
+     */
+    public synchronized RecordDraft getDraft(int userId) throws IOException {
+        open();
+        return drafts.get(userId);
+    }
+
+    /**
+     * Returns the number of lines written to the journal since it was opened.
+     *
+     * @return the number of lines written
+     */
+    public synchronized long getLinesWritten() {
+        return linesWritten;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+
+    /**
+     * Reads the file into memory and opens it for appending, on first use.
+     */
+    private void open() throws IOException {
+        if (writer != null) {
+            return;
+        }
+        if (Files.exists(path)) {
+            String content = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+            int start = 0;
+            int end;
+            // Only complete lines count; a trailing fragment is the remains of an interrupted write
+            while ((end = content.indexOf('\n', start)) >= 0) {
+                readLine(content.substring(start, end));
+                linesSinceCompaction++;
+                start = end + 1;
+            }
+            if (start < content.length() || clearDraftsRead) {
+                // Drop the fragment so the next line starts cleanly, and encrypt drafts written in the clear
+                rewrite();
+            }
+        }
+        writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private void readLine(String line) {
+        String[] fields = line.split("\t", -1);
+        try {
+            int userId = Integer.parseInt(fields[0]);
+            if (fields.length == 2 && CLEARED.equals(fields[1])) {
+                drafts.remove(userId);
+            } else if (fields.length == 3 && SEALED.equals(fields[1])) {
+                String[] opened = unseal(userId, fields[2]);
+                if (opened != null && opened.length == 6) {
+                    drafts.put(userId, parse(userId, opened));
+                }
+            } else if (fields.length == 7) {
+                String[] draftFields = new String[6];
+                System.arraycopy(fields, 1, draftFields, 0, 6);
+                drafts.put(userId, parse(userId, draftFields));
+                clearDraftsRead |= keyStore != null;
+            }
+        } catch (NumberFormatException e) {
+            // Not a line this journal wrote; skip it
+        }
+    }
+
+    /**
+     * Builds a draft from its fields after the user ID: record ID, time saved and the four form fields.
+     */
+    private static RecordDraft parse(int userId, String[] fields) {
+        return new RecordDraft(userId, Integer.parseInt(fields[0]), unescape(fields[2]), unescape(fields[3]),
+                unescape(fields[4]), unescape(fields[5]), Long.parseLong(fields[1]));
+    }
+
+    private void append(String line) throws IOException {
+        writer.write(line);
+        writer.write('\n');
+        writer.flush();
+        linesWritten++;
+        if (++linesSinceCompaction >= COMPACT_AFTER_LINES) {
+            writer.close();
+            rewrite();
+            writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+    }
+
+    /**
+     * Replaces the file with one holding only the current drafts.
+     */
+    private void rewrite() throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+            for (RecordDraft draft : drafts.values()) {
+                out.write(format(draft));
+                out.write('\n');
+            }
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        linesSinceCompaction = drafts.size();
+    }
+
+    /**
+     * Formats a draft as one journal line, without the line end, encrypted if there is a key store.
+     */
+    private String format(RecordDraft draft) throws IOException {
+        String fields = draft.getRecordId() + "\t" + draft.getSavedAt() + "\t" +
+                escape(draft.getWeight()) + "\t" + escape(draft.getTemperature()) + "\t" +
+                escape(draft.getBloodPressure()) + "\t" + escape(draft.getNote());
+        if (keyStore == null) {
+            return draft.getUserId() + "\t" + fields;
+        }
+        return draft.getUserId() + "\t" + SEALED + "\t" + seal(draft.getUserId(), fields);
+    }
+
+    /**
+     * Encrypts the fields of a user's draft with the user's data key; the user ID is authenticated
+     * with them, so a line cannot be moved to another user.
+     */
+    private String seal(int userId, String fields) throws IOException {
+        byte[] plain = fields.getBytes(StandardCharsets.UTF_8);
+        byte[] sealed = new byte[IV_BYTES + plain.length + TAG_BITS / 8];
+        byte[] iv = new byte[IV_BYTES];
+        random.nextBytes(iv);
+        System.arraycopy(iv, 0, sealed, 0, IV_BYTES);
+        try {
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, keyStore.getKey(userId), new GCMParameterSpec(TAG_BITS, iv));
+            cipher.updateAAD(DataKeyStore.userAad(userId));
+            cipher.doFinal(plain, 0, plain.length, sealed, IV_BYTES);
+        } catch (GeneralSecurityException | SQLException e) {
+            throw new IOException("Cannot encrypt the draft of user " + userId, e);
+        }
+        return Base64.getEncoder().encodeToString(sealed);
+    }
+
+    /**
+     * Decrypts the fields of an encrypted draft, or returns null if there is no key store or the
+     * line does not decrypt with the user's key.
+     */
+    private String[] unseal(int userId, String text) {
+        if (keyStore == null) {
+            return null;
+        }
+        try {
+            byte[] sealed = Base64.getDecoder().decode(text);
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.DECRYPT_MODE, keyStore.getKey(userId), new GCMParameterSpec(TAG_BITS, sealed, 0, IV_BYTES));
+            cipher.updateAAD(DataKeyStore.userAad(userId));
+            byte[] plain = cipher.doFinal(sealed, IV_BYTES, sealed.length - IV_BYTES);
+            return new String(plain, StandardCharsets.UTF_8).split("\t", -1);
+        } catch (GeneralSecurityException | SQLException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Escapes the characters that separate fields and lines.
+     */
+    private static String escape(String text) {
+        if (text == null) {
+            return "";
+        }
+        StringBuilder escaped = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '\\': escaped.append("\\\\"); break;
+                case '\t': escaped.append("\\t"); break;
+                case '\n': escaped.append("\\n"); break;
+                case '\r': escaped.append("\\r"); break;
+                default: escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    private static String unescape(String text) {
+        StringBuilder unescaped = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\\' && i + 1 < text.length()) {
+                char next = text.charAt(++i);
+                unescaped.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else {
+                unescaped.append(c);
+            }
+        }
+        return unescaped.toString();
+    }
+}
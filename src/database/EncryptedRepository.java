@@ -0,0 +1,473 @@
+package database;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+
+import model.HealthRecord;
+import model.HealthRecordVersion;
+import model.PeriodSummary;
+import model.RollupPeriod;
+import model.User;
+
+/**
+ * A {@link HealthRepository} that stores the readings and notes of health records encrypted, on top
+ * of another repository that does the storing.
+ *
+ * The weight, temperature, blood pressure and note of a record are encrypted together with AES-GCM
+ * under the owner's data key from a {@link DataKeyStore}, and the result is stored in the note
+ * column; the other reading columns are left empty. The record ID, owner, date and version stay in
+ * the clear, so records are still found, paged by date and versioned by the storage underneath. The
+ * owner's ID is authenticated along with the fields, so a record moved to another user fails to
+ * decrypt. Records stored before encryption was turned on are read as they are.
+ *
+ * Sealing all fields of a record as one message costs one cipher initialization per record rather
+ * than per field, and each thread reuses its Cipher object. Decrypted fields are kept in a bounded
+ * cache keyed by the stored ciphertext, which is unique to every write because each write uses a
+ * new IV. Reading the same records again therefore returns them without decrypting, and a changed
+ * record can never be served stale, because its new ciphertext is a different key.
+ *
+ * Filters on the encrypted fields, and sorting by them, cannot run in the database. Such queries are
+ * answered by decrypting the user's records (mostly from the cache) and filtering them in memory,
+ * and so are period summaries. Users are passed through unchanged.
+ */
+public class EncryptedRepository implements HealthRepository {
+
+    /**
+     * The number of decrypted records kept in the cache unless set otherwise.
+     */
+    public static final int DEFAULT_CACHE_SIZE = 50_000;
+
+    /**
+     * The system property that, when set to true, makes the application store health records encrypted.
+     */
+    public static final String ENCRYPT_PROPERTY = "myhealthtracker.encrypt";
+
+    // Marks a note column value as an encrypted record
+    private static final String PREFIX = "gcm1:";
+
+    private static final int IV_BYTES = 12;
+    private static final int TAG_BITS = 128;
+
+    private static final ThreadLocal<Cipher> CIPHERS = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance("AES/GCM/NoPadding");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("AES-GCM is not available", e);
+        }
+    });
+
+    private final HealthRepository delegate;
+    private final DataKeyStore keyStore;
+    private final DecryptedCache cache;
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * Creates an encrypting repository.
+     *
+     * @param delegate the repository that stores the encrypted records
+     * @param keyStore the users' data keys
+     * @param cacheSize the maximum number of decrypted records kept in memory
+     */
+    public EncryptedRepository(HealthRepository delegate, DataKeyStore keyStore, int cacheSize) {
+        this(delegate, keyStore, new DecryptedCache(cacheSize));
+    }
+
+    private EncryptedRepository(HealthRepository delegate, DataKeyStore keyStore, DecryptedCache cache) {
+        this.delegate = delegate;
+        this.keyStore = keyStore;
+        this.cache = cache;
+    }
+
+    /**
+     * Returns the number of record reads answered from the cache of decrypted records.
+     * @return the number of cache hits
+     */
+    public long getCacheHits() {
+        return cache.getHits();
+    }
+
+    /**
+     * Returns the number of records that had to be decrypted.
+     * @return the number of cache misses
+     */
+    public long getCacheMisses() {
+        return cache.getMisses();
+    }
+
+    /**
+     * Empties the cache of decrypted records.
+     */
+    public void clearCache() {
+        cache.clear();
+    }
+
+    /**
+     * Changes the maximum number of decrypted records kept in memory. Shrinking the cache drops the
+     * least recently used records.
+     *
+     * @param cacheSize the maximum number of decrypted records kept in memory
+     */
+    public void setCacheSize(int cacheSize) {
+        cache.setMaxEntries(cacheSize);
+    }
+
+    @Override
+    public void addUser(User user) throws SQLException {
+        delegate.addUser(user);
+    }
+
+    @Override
+    public User getUser(int id) throws SQLException {
+        return delegate.getUser(id);
+    }
+
+    @Override
+    public User getUserByUsername(String username) throws SQLException {
+        return delegate.getUserByUsername(username);
+    }
+
+    @Override
+    public void updateUser(User user) throws SQLException {
+        delegate.updateUser(user);
+    }
+
+    @Override
+    public void deleteUser(int id) throws SQLException {
+        delegate.deleteUser(id);
+    }
+
+    @Override
+    public List<User> getAllUsers() throws SQLException {
+        return delegate.getAllUsers();
+    }
+
+    @Override
+    public int getNextUserId() throws SQLException {
+        return delegate.getNextUserId();
+    }
+
+    @Override
+    public void addHealthRecord(HealthRecord record) throws SQLException {
+        HealthRecord sealed = seal(record);
+        delegate.addHealthRecord(sealed);
+        record.setId(sealed.getId());
+        record.setVersion(sealed.getVersion());
+    }
+
+    @Override
+    public HealthRecord getHealthRecord(int id) throws SQLException {
+        return open(delegate.getHealthRecord(id));
+    }
+
+    @Override
+    public void updateHealthRecord(HealthRecord record) throws SQLException {
+        HealthRecord sealed = seal(record);
+        delegate.updateHealthRecord(sealed);
+        record.setVersion(sealed.getVersion());
+    }
+
+    @Override
+    public void deleteHealthRecord(int id) throws SQLException {
+        delegate.deleteHealthRecord(id);
+    }
+
+    @Override
+    public List<HealthRecord> getAllHealthRecords(int userId) throws SQLException {
+        return openAll(delegate.getAllHealthRecords(userId));
+    }
+
+    @Override
+    public List<HealthRecord> queryHealthRecords(HealthRecordQuery query, HealthRecord after) throws SQLException {
+        if (!usesEncryptedFields(query)) {
+            return openAll(delegate.queryHealthRecords(query, after));
+        }
+
+        Comparator<HealthRecord> order = query.comparator();
+        int pageSize = query.getPageSize();
+
+        // Keep the first pageSize matches in a heap whose head is the last of them, as InMemoryDatabase does
+        PriorityQueue<HealthRecord> page = new PriorityQueue<>(pageSize + 1, order.reversed());
+        for (HealthRecord record : getAllHealthRecords(query.getUserId())) {
+            if (!query.matches(record) || (after != null && order.compare(record, after) <= 0)) {
+                continue;
+            }
+            if (page.size() < pageSize) {
+                page.add(record);
+            } else if (order.compare(record, page.peek()) < 0) {
+                page.poll();
+                page.add(record);
+            }
+        }
+        List<HealthRecord> result = new ArrayList<>(page);
+        result.sort(order);
+        return result;
+    }
+
+    @Override
+    public List<HealthRecordVersion> getHealthRecordHistory(int recordId) throws SQLException {
+        List<HealthRecordVersion> versions = delegate.getHealthRecordHistory(recordId);
+        List<HealthRecordVersion> opened = new ArrayList<>(versions.size());
+        for (HealthRecordVersion version : versions) {
+            opened.add(new HealthRecordVersion(open(version.getRecord()), version.isDeleted(), version.getSupersededAt()));
+        }
+        return opened;
+    }
+
+    @Override
+    public List<HealthRecord> getDeletedHealthRecords(int userId) throws SQLException {
+        return openAll(delegate.getDeletedHealthRecords(userId));
+    }
+
+    @Override
+    public HealthRecord restoreHealthRecord(int recordId) throws SQLException {
+        return open(delegate.restoreHealthRecord(recordId));
+    }
+
+    /**
+     * Summarises the decrypted records in memory. The rollups kept by the storage only see the
+     * blanked readings, and storing totals of the real ones would leak them.
+     */
+    @Override
+    public List<PeriodSummary> getPeriodSummaries(int userId, RollupPeriod period, LocalDate from, LocalDate to) throws SQLException {
+        return RollupAccumulator.summarize(getAllHealthRecords(userId), userId, period, from, to);
+    }
+
+    @Override
+    public long bulkLoadUsers(Iterator<User> users, int batchSize) throws SQLException {
+        return delegate.bulkLoadUsers(users, batchSize);
+    }
+
+    @Override
+    public long bulkLoadHealthRecords(Iterator<HealthRecord> records, int batchSize) throws SQLException {
+        // Encrypt each record as the storage underneath takes it; a failure aborts the load
+        try {
+            return delegate.bulkLoadHealthRecords(new Iterator<HealthRecord>() {
+                @Override
+                public boolean hasNext() {
+                    return records.hasNext();
+                }
+
+                @Override
+                public HealthRecord next() {
+                    try {
+                        return seal(records.next());
+                    } catch (SQLException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            }, batchSize);
+        } catch (IllegalStateException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public HealthRepository getReadRepository() {
+        HealthRepository readRepository = delegate.getReadRepository();
+        if (readRepository == delegate) {
+            return this;
+        }
+        // Shares the keys and the cache, so records decrypted on either side are found by both
+        return new EncryptedRepository(readRepository, keyStore, cache);
+    }
+
+    /**
+     * Returns whether a query filters or sorts on a field that is stored encrypted.
+     */
+    private static boolean usesEncryptedFields(HealthRecordQuery query) {
+        return query.getMinWeight() != null || query.getMaxWeight() != null
+                || query.getMinTemperature() != null || query.getMaxTemperature() != null
+                || query.getCategory() != null
+                || query.getSortColumn() != HealthRecordQuery.SortColumn.DATE;
+    }
+
+    /**
+     * Returns a copy of a record whose readings and note are replaced by their encrypted form.
+     */
+    private HealthRecord seal(HealthRecord record) throws SQLException {
+        byte[] plain;
+        try (ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+             DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeFloat(record.getWeight());
+            out.writeFloat(record.getTemperature());
+            writeNullable(out, record.getBloodPressure());
+            writeNullable(out, record.getNote());
+            out.flush();
+            plain = bytes.toByteArray();
+        } catch (IOException e) {
+            throw new SQLException("Cannot encode health record " + record.getId(), e);
+        }
+
+        byte[] iv = new byte[IV_BYTES];
+        random.nextBytes(iv);
+        byte[] sealed = new byte[IV_BYTES + plain.length + TAG_BITS / 8];
+        System.arraycopy(iv, 0, sealed, 0, IV_BYTES);
+        try {
+            Cipher cipher = CIPHERS.get();
+            cipher.init(Cipher.ENCRYPT_MODE, keyStore.getKey(record.getUserId()), new GCMParameterSpec(TAG_BITS, iv));
+            cipher.updateAAD(DataKeyStore.userAad(record.getUserId()));
+            cipher.doFinal(plain, 0, plain.length, sealed, IV_BYTES);
+        } catch (GeneralSecurityException e) {
+            throw new SQLException("Cannot encrypt health record " + record.getId(), e);
+        }
+
+        String note = PREFIX + Base64.getEncoder().encodeToString(sealed);
+        HealthRecord copy = new HealthRecord(record.getId(), 0, 0, null, note, record.getDate(), record.getUserId());
+        copy.setVersion(record.getVersion());
+        // Decrypting what was just written would give back these fields
+        cache.put(note, new Fields(record.getWeight(), record.getTemperature(), record.getBloodPressure(), record.getNote()));
+        return copy;
+    }
+
+    /**
+     * Returns a stored record with its readings and note decrypted, or the record itself if it is
+     * not encrypted.
+     */
+    private HealthRecord open(HealthRecord stored) throws SQLException {
+        if (stored == null || stored.getNote() == null || !stored.getNote().startsWith(PREFIX)) {
+            return stored;
+        }
+        Fields fields = cache.get(stored.getNote());
+        if (fields == null) {
+            fields = decrypt(stored);
+            cache.put(stored.getNote(), fields);
+        }
+        HealthRecord record = new HealthRecord(stored.getId(), fields.weight, fields.temperature,
+                fields.bloodPressure, fields.note, stored.getDate(), stored.getUserId());
+        record.setVersion(stored.getVersion());
+        return record;
+    }
+
+    private List<HealthRecord> openAll(List<HealthRecord> stored) throws SQLException {
+        List<HealthRecord> records = new ArrayList<>(stored.size());
+        for (HealthRecord record : stored) {
+            records.add(open(record));
+        }
+        return records;
+    }
+
+    private Fields decrypt(HealthRecord stored) throws SQLException {
+        byte[] sealed;
+        byte[] plain;
+        try {
+            sealed = Base64.getDecoder().decode(stored.getNote().substring(PREFIX.length()));
+            Cipher cipher = CIPHERS.get();
+            cipher.init(Cipher.DECRYPT_MODE, keyStore.getKey(stored.getUserId()), new GCMParameterSpec(TAG_BITS, sealed, 0, IV_BYTES));
+            cipher.updateAAD(DataKeyStore.userAad(stored.getUserId()));
+            plain = cipher.doFinal(sealed, IV_BYTES, sealed.length - IV_BYTES);
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            throw new SQLException("Cannot decrypt health record " + stored.getId(), e);
+        }
+
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(plain))) {
+            return new Fields(in.readFloat(), in.readFloat(), readNullable(in), readNullable(in));
+        } catch (IOException e) {
+            throw new SQLException("Cannot decode health record " + stored.getId(), e);
+        }
+    }
+
+    private static void writeNullable(DataOutputStream out, String text) throws IOException {
+        out.writeBoolean(text != null);
+        if (text != null) {
+            out.writeUTF(text);
+        }
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * The decrypted fields of one record.
+     */
+    private static class Fields {
+        final float weight;
+        final float temperature;
+        final String bloodPressure;
+        final String note;
+
+        Fields(float weight, float temperature, String bloodPressure, String note) {
+            this.weight = weight;
+            this.temperature = temperature;
+            this.bloodPressure = bloodPressure;
+            this.note = note;
+        }
+    }
+
+    /**
+     * A least-recently-used cache of decrypted fields, keyed by the stored ciphertext.
+     */
+    private static class DecryptedCache {
+
+        private final Map<String, Fields> entries;
+        private int maxEntries;
+        private long hits;
+        private long misses;
+
+        DecryptedCache(int maxEntries) {
+            this.maxEntries = maxEntries;
+            this.entries = new LinkedHashMap<String, Fields>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Fields> eldest) {
+                    return size() > DecryptedCache.this.maxEntries;
+                }
+            };
+        }
+
+        synchronized void setMaxEntries(int maxEntries) {
+            this.maxEntries = maxEntries;
+            Iterator<String> eldest = entries.keySet().iterator();
+            while (entries.size() > maxEntries) {
+                eldest.next();
+                eldest.remove();
+            }
+        }
+
+        synchronized Fields get(String sealed) {
+            Fields fields = entries.get(sealed);
+            if (fields != null) {
+                hits++;
+            } else {
+                misses++;
+            }
+            return fields;
+        }
+
+        synchronized void put(String sealed, Fields fields) {
+            entries.put(sealed, fields);
+        }
+
+        synchronized void clear() {
+            entries.clear();
+        }
+
+        synchronized long getHits() {
+            return hits;
+        }
+
+        synchronized long getMisses() {
+            return misses;
+        }
+    }
+}
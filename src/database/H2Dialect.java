@@ -0,0 +1,103 @@
+package database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Embedded H2 (version 2): multi-version storage with row-level locks, so connections writing
+ * different rows do not wait for each other.
+ */
+class H2Dialect extends SqlDialect {
+
+    @Override
+    public String getName() {
+        return "H2";
+    }
+
+    @Override
+    public String generatedIdColumn() {
+        // DEFAULT ON NULL lets inserts pass NULL for a new key, as they do on SQLite
+        return "INTEGER GENERATED BY DEFAULT AS IDENTITY DEFAULT ON NULL PRIMARY KEY";
+    }
+
+    @Override
+    public String sequenceColumn() {
+        return "BIGINT GENERATED BY DEFAULT AS IDENTITY DEFAULT ON NULL PRIMARY KEY";
+    }
+
+    @Override
+    public String textType() {
+        return "VARCHAR";
+    }
+
+    @Override
+    public String millisType() {
+        return "BIGINT";
+    }
+
+    @Override
+    public boolean supportsConcurrentWriters() {
+        return true;
+    }
+
+    @Override
+    public void configureConnection(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            // Wait for a locked row instead of failing straight away
+            stmt.execute("SET LOCK_TIMEOUT 10000");
+        }
+    }
+
+    @Override
+    public List<String> columnNames(Connection connection, String table) throws SQLException {
+        String sql = "SELECT COLUMN_NAME FROM INFORMATION_SCHEMA.COLUMNS WHERE TABLE_SCHEMA = SCHEMA() " +
+                "AND UPPER(TABLE_NAME) = UPPER(?) ORDER BY ORDINAL_POSITION";
+        List<String> columns = new ArrayList<>();
+        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            pstmt.setString(1, table);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    columns.add(rs.getString(1));
+                }
+            }
+        }
+        return columns;
+    }
+
+    @Override
+    public boolean hasColumn(Connection connection, String table, String column) throws SQLException {
+        String sql = "SELECT 1 FROM INFORMATION_SCHEMA.COLUMNS WHERE TABLE_SCHEMA = SCHEMA() " +
+                "AND UPPER(TABLE_NAME) = UPPER(?) AND UPPER(COLUMN_NAME) = UPPER(?)";
+        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            pstmt.setString(1, table);
+            pstmt.setString(2, column);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    @Override
+    public void checkpoint(Statement stmt) throws SQLException {
+        stmt.execute("CHECKPOINT");
+    }
+
+    @Override
+    public void syncGeneratedKeys(Connection connection, String table, String column) throws SQLException {
+        // H2 does not move an identity past explicitly inserted keys, so restart it after the highest one
+        long next;
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(" + column + "), 0) + 1 FROM " + table)) {
+            rs.next();
+            next = rs.getLong(1);
+        }
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("ALTER TABLE " + table + " ALTER COLUMN " + column + " RESTART WITH " + next);
+        }
+    }
+}
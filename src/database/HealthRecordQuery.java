@@ -0,0 +1,293 @@
+package database;
+
+import java.time.LocalDate;
+import java.util.Comparator;
+
+import model.BloodPressureCategory;
+import model.HealthRecord;
+
+/**
+ * Selects, orders and pages the health records of one user. The filters are optional and combine
+ * with AND. {@link Database} turns a query into SQL on indexed columns, so only the requested page
+ * is read and sorted by the database rather than by the caller.
+ *
+ * Pages are fetched with a cursor rather than an offset: the next page starts after the last record
+ * of the previous one, so reading a later page does not read the pages before it again. Records with
+ * equal sort values are ordered by ID, which makes the order, and therefore the cursor, unambiguous.
+ */
+public class HealthRecordQuery {
+
+    /**
+     * The columns health records can be sorted by.
+     */
+    public enum SortColumn {
+        DATE,
+        WEIGHT,
+        TEMPERATURE,
+        BLOOD_PRESSURE,
+        NOTE
+    }
+
+    /**
+     * The number of records per page unless set otherwise.
+     */
+    public static final int DEFAULT_PAGE_SIZE = 200;
+
+    private final int userId;
+    private LocalDate fromDate;
+    private LocalDate toDate;
+    private Float minWeight;
+    private Float maxWeight;
+    private Float minTemperature;
+    private Float maxTemperature;
+    private BloodPressureCategory category;
+    private SortColumn sortColumn = SortColumn.DATE;
+    private boolean ascending = true;
+    private int pageSize = DEFAULT_PAGE_SIZE;
+
+    /**
+     * Creates a query for all records of a user, oldest first.
+     *
+     * @param userId the ID of the user whose records to read
+     */
+    public HealthRecordQuery(int userId) {
+        this.userId = userId;
+    }
+
+    /**
+     * Creates a copy of a query.
+     *
+     * @param other the query to copy
+     */
+    public HealthRecordQuery(HealthRecordQuery other) {
+        this.userId = other.userId;
+        this.fromDate = other.fromDate;
+        this.toDate = other.toDate;
+        this.minWeight = other.minWeight;
+        this.maxWeight = other.maxWeight;
+        this.minTemperature = other.minTemperature;
+        this.maxTemperature = other.maxTemperature;
+        this.category = other.category;
+        this.sortColumn = other.sortColumn;
+        this.ascending = other.ascending;
+        this.pageSize = other.pageSize;
+    }
+
+    /**
+     * Returns the ID of the user whose records are read.
+     * @return the user ID
+     */
+    public int getUserId() {
+        return userId;
+    }
+
+    /**
+     * Returns the first date included, or null if there is no lower bound.
+     * @return the first date
+     */
+    public LocalDate getFromDate() {
+        return fromDate;
+    }
+
+    /**
+     * Returns the last date included, or null if there is no upper bound.
+     * @return the last date
+     */
+    public LocalDate getToDate() {
+        return toDate;
+    }
+
+    /**
+     * Limits the query to records dated within a range.
+     *
+     * @param fromDate the first date included, or null for no lower bound
+     * @param toDate the last date included, or null for no upper bound
+     */
+    public void setDateRange(LocalDate fromDate, LocalDate toDate) {
+        this.fromDate = fromDate;
+        this.toDate = toDate;
+    }
+
+    /**
+     * Returns the lowest weight included, or null if there is no lower bound.
+     * @return the lowest weight
+     */
+    public Float getMinWeight() {
+        return minWeight;
+    }
+
+    /**
+     * Returns the highest weight included, or null if there is no upper bound.
+     * @return the highest weight
+     */
+    public Float getMaxWeight() {
+        return maxWeight;
+    }
+
+    /**
+     * Limits the query to records whose weight is within a range.
+     *
+     * @param minWeight the lowest weight included, or null for no lower bound
+     * @param maxWeight the highest weight included, or null for no upper bound
+     */
+    public void setWeightRange(Float minWeight, Float maxWeight) {
+        this.minWeight = minWeight;
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * Returns the lowest temperature included, or null if there is no lower bound.
+     * @return the lowest temperature
+     */
+    public Float getMinTemperature() {
+        return minTemperature;
+    }
+
+    /**
+     * Returns the highest temperature included, or null if there is no upper bound.
+     * @return the highest temperature
+     */
+    public Float getMaxTemperature() {
+        return maxTemperature;
+    }
+
+    /**
+     * Limits the query to records whose temperature is within a range.
+     *
+     * @param minTemperature the lowest temperature included, or null for no lower bound
+     * @param maxTemperature the highest temperature included, or null for no upper bound
+     */
+    public void setTemperatureRange(Float minTemperature, Float maxTemperature) {
+        this.minTemperature = minTemperature;
+        this.maxTemperature = maxTemperature;
+    }
+
+    /**
+     * Returns the blood pressure category records must fall in, or null for any category.
+     * @return the category
+     */
+    public BloodPressureCategory getCategory() {
+        return category;
+    }
+
+    /**
+     * Limits the query to records whose blood pressure reading falls in a category.
+     *
+     * @param category the category, or null for records of any category
+     */
+    public void setCategory(BloodPressureCategory category) {
+        this.category = category;
+    }
+
+    /**
+     * Returns the column the records are sorted by.
+     * @return the sort column
+     */
+    public SortColumn getSortColumn() {
+        return sortColumn;
+    }
+
+    /**
+     * Returns whether the records are sorted in ascending order.
+     * @return true if ascending
+     */
+    public boolean isAscending() {
+        return ascending;
+    }
+
+    /**
+     * Sets the order of the records.
+     *
+     * @param sortColumn the column to sort by
+     * @param ascending true for ascending order, false for descending
+     */
+    public void setSort(SortColumn sortColumn, boolean ascending) {
+        this.sortColumn = sortColumn;
+        this.ascending = ascending;
+    }
+
+    /**
+     * Returns the largest number of records returned per page.
+     * @return the page size
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Sets the largest number of records returned per page.
+     *
+     * @param pageSize the page size, at least 1
+     */
+    public void setPageSize(int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("The page size must be at least 1: " + pageSize);
+        }
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Returns whether a record passes the query's filters, exactly as the database would decide.
+     * Storage engines without SQL and callers that patch already fetched pages use this.
+     *
+     * @param record the record to test
+     * @return true if the record belongs to the user and passes every filter
+     */
+    public boolean matches(HealthRecord record) {
+        if (record.getUserId() != userId) {
+            return false;
+        }
+        if (fromDate != null && record.getDate().isBefore(fromDate)) {
+            return false;
+        }
+        if (toDate != null && record.getDate().isAfter(toDate)) {
+            return false;
+        }
+        if (minWeight != null && record.getWeight() < minWeight) {
+            return false;
+        }
+        if (maxWeight != null && record.getWeight() > maxWeight) {
+            return false;
+        }
+        if (minTemperature != null && record.getTemperature() < minTemperature) {
+            return false;
+        }
+        if (maxTemperature != null && record.getTemperature() > maxTemperature) {
+            return false;
+        }
+        return category == null || BloodPressureCategory.classify(record.getBloodPressure()) == category;
+    }
+
+    /**
+     * Returns the order of the query's results, including the tie-break on ID.
+     * A missing blood pressure reading or note sorts as an empty one, as in the database.
+     *
+     * @return the comparator
+     */
+    public Comparator<HealthRecord> comparator() {
+        Comparator<HealthRecord> bySortColumn;
+        switch (sortColumn) {
+            case WEIGHT:
+                bySortColumn = Comparator.comparingDouble(HealthRecord::getWeight);
+                break;
+            case TEMPERATURE:
+                bySortColumn = Comparator.comparingDouble(HealthRecord::getTemperature);
+                break;
+            case BLOOD_PRESSURE:
+                bySortColumn = Comparator.comparing(record -> orEmpty(record.getBloodPressure()));
+                break;
+            case NOTE:
+                bySortColumn = Comparator.comparing(record -> orEmpty(record.getNote()));
+                break;
+            default:
+                bySortColumn = Comparator.comparing(HealthRecord::getDate);
+                break;
+        }
+        Comparator<HealthRecord> order = bySortColumn.thenComparingInt(HealthRecord::getId);
+        return ascending ? order : order.reversed();
+    }
+
+    private static String orEmpty(String text) {
+        return text == null ? "" : text;
+    }
+}
@@ -0,0 +1,158 @@
+package database;
+
+import java.time.LocalDate;
+
+import model.HealthRecord;
+
+/**
+ * The current record of a streaming read. A single row object is refilled with every record, so
+ * callers that only look at each record once, such as the export and the analytics, go through any
+ * number of records without creating an object per record. The text values and dates it holds are
+ * shared instances from the read caches where possible.
+ *
+ * A row is only valid inside the {@link HealthRecordVisitor} call that received it.
+ */
+public final class HealthRecordRow {
+    private int id;
+    private int userId;
+    private float weight;
+    private float temperature;
+    private String bloodPressure;
+    private String note;
+    private LocalDate date;
+    private int version;
+
+    HealthRecordRow() {
+    }
+
+    void set(int id, int userId, float weight, float temperature, String bloodPressure, String note, LocalDate date, int version) {
+        this.id = id;
+        this.userId = userId;
+        this.weight = weight;
+        this.temperature = temperature;
+        this.bloodPressure = bloodPressure;
+        this.note = note;
+        this.date = date;
+        this.version = version;
+    }
+
+    void set(HealthRecord record) {
+        set(record.getId(), record.getUserId(), record.getWeight(), record.getTemperature(),
+                record.getBloodPressure(), record.getNote(), record.getDate(), record.getVersion());
+    }
+
+    /**
+     * Returns the ID of the record.
+     * @return the ID
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Returns the ID of the user the record belongs to.
+     * @return the user ID
+     */
+    public int getUserId() {
+        return userId;
+    }
+
+    /**
+     * Returns the recorded weight.
+     * @return the weight, or 0 if none was entered
+     */
+    public float getWeight() {
+        return weight;
+    }
+
+    /**
+     * Returns the recorded temperature.
+     * @return the temperature, or 0 if none was entered
+     */
+    public float getTemperature() {
+        return temperature;
+    }
+
+    /**
+     * Returns the recorded blood pressure.
+     * @return the blood pressure, may be null
+     */
+    public String getBloodPressure() {
+        return bloodPressure;
+    }
+
+    /**
+     * Returns the note of the record.
+     * @return the note, may be null
+     */
+    public String getNote() {
+        return note;
+    }
+
+    /**
+     * Returns the date of the record.
+     * @return the date
+     */
+    public LocalDate getDate() {
+        return date;
+    }
+
+    /**
+     * Returns the version of the record.
+     * @return the version
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Copies the current record into a HealthRecord that stays valid after the visit.
+     * @return a new health record with the row's values
+     */
+    public HealthRecord toHealthRecord() {
+        HealthRecord record = new HealthRecord(id, weight, temperature, bloodPressure, note, date, userId);
+        record.setVersion(version);
+        return record;
+    }
+
+    /**
+     * Appends the record in the format of {@link HealthRecord#toString()}, without creating
+     * intermediate strings.
+     *
+     * @param line the builder to append to
+     * @return the builder
+     */
+    public StringBuilder appendTo(StringBuilder line) {
+        line.append("HealthRecord {id=").append(id)
+                .append(", weight=").append(weight)
+                .append(", temperature=").append(temperature)
+                .append(", bloodPressure='").append(bloodPressure).append('\'')
+                .append(", note='").append(note).append('\'')
+                .append(", date=");
+        appendDate(line, date);
+        return line.append(", userId=").append(userId).append('}');
+    }
+
+    /**
+     * Appends a date as LocalDate.toString() would, without creating the string for years it
+     * writes as four plain digits.
+     */
+    private static void appendDate(StringBuilder line, LocalDate date) {
+        int year = date == null ? -1 : date.getYear();
+        if (year < 1000 || year > 9999) {
+            line.append(date);
+            return;
+        }
+        line.append(year).append(date.getMonthValue() < 10 ? "-0" : "-").append(date.getMonthValue())
+                .append(date.getDayOfMonth() < 10 ? "-0" : "-").append(date.getDayOfMonth());
+    }
+
+    /**
+     * Returns the record in the format of {@link HealthRecord#toString()}.
+     * @return a string representation of the record
+     */
+    @Override
+    public String toString() {
+        return appendTo(new StringBuilder(128)).toString();
+    }
+}
@@ -0,0 +1,19 @@
+package database;
+
+import java.io.IOException;
+
+/**
+ * Receives the health records of a streaming read one at a time, see
+ * {@link HealthRepository#forEachHealthRecord(int, HealthRecordVisitor)}.
+ */
+public interface HealthRecordVisitor {
+
+    /**
+     * Processes one record. The row is refilled for the next record once this returns, so it must
+     * not be kept; call {@link HealthRecordRow#toHealthRecord()} for a copy that can be.
+     *
+     * @param row the current record
+     * @throws IOException if writing the record somewhere fails, which ends the read
+     */
+    void visit(HealthRecordRow row) throws IOException;
+}
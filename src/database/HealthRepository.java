@@ -0,0 +1,226 @@
+package database;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Iterator;
+import java.util.List;
+
+import model.HealthRecord;
+import model.HealthRecordVersion;
+import model.PeriodSummary;
+import model.RollupPeriod;
+import model.User;
+
+/**
+ * Storage for users and their health records, as used by the controllers.
+ *
+ * {@link Database} implements it on top of SQLite and {@link InMemoryDatabase} keeps everything in
+ * memory, which lets tests and benchmarks run without a database file. Methods declare SQLException
+ * so that the SQLite implementation can pass its errors on; the in-memory engine never throws it.
+ */
+public interface HealthRepository {
+
+    /**
+     * Stores a new user. A user with an ID greater than zero is stored under that ID; otherwise
+     * a new ID is assigned and set on the user.
+     *
+     * @param user the user to add
+     * @throws SQLException if the user cannot be stored
+     */
+    void addUser(User user) throws SQLException;
+
+    /**
+     * Retrieves a user by ID.
+     *
+     * @param id the ID of the user
+     * @return the user, or null if there is none
+     * @throws SQLException if the user cannot be read
+     */
+    User getUser(int id) throws SQLException;
+
+    /**
+     * Retrieves a user by username.
+     *
+     * @param username the username to look up
+     * @return the user, or null if there is none
+     * @throws SQLException if the user cannot be read
+     */
+    User getUserByUsername(String username) throws SQLException;
+
+    /**
+     * Replaces the stored details of a user.
+     *
+     * @param user the user with the updated details
+     * @throws SQLException if the user cannot be updated
+     */
+    void updateUser(User user) throws SQLException;
+
+    /**
+     * Deletes a user.
+     *
+     * @param id the ID of the user to delete
+     * @throws SQLException if the user cannot be deleted
+     */
+    void deleteUser(int id) throws SQLException;
+
+    /**
+     * Retrieves all users.
+     *
+     * @return all users
+     * @throws SQLException if the users cannot be read
+     */
+    List<User> getAllUsers() throws SQLException;
+
+    /**
+     * Returns an ID that no user has yet.
+     *
+     * @return the next free user ID
+     * @throws SQLException if the IDs cannot be read
+     */
+    int getNextUserId() throws SQLException;
+
+    /**
+     * Stores a new health record. A record with an ID greater than zero is stored under that ID;
+     * otherwise a new ID is assigned and set on the record.
+     *
+     * @param record the health record to add
+     * @throws SQLException if the record cannot be stored
+     */
+    void addHealthRecord(HealthRecord record) throws SQLException;
+
+    /**
+     * Retrieves a health record by ID.
+     *
+     * @param id the ID of the health record
+     * @return the health record, or null if there is none
+     * @throws SQLException if the record cannot be read
+     */
+    HealthRecord getHealthRecord(int id) throws SQLException;
+
+    /**
+     * Replaces the stored values of a health record, keeping the previous values in its history,
+     * and sets the record's new version number on it.
+     *
+     * @param record the health record with the updated values
+     * @throws SQLException if the record cannot be updated
+     */
+    void updateHealthRecord(HealthRecord record) throws SQLException;
+
+    /**
+     * Deletes a health record, keeping its last values in its history so that it can be restored.
+     *
+     * @param id the ID of the health record to delete
+     * @throws SQLException if the record cannot be deleted
+     */
+    void deleteHealthRecord(int id) throws SQLException;
+
+    /**
+     * Retrieves all health records of a user.
+     *
+     * @param userId the ID of the user
+     * @return the user's health records
+     * @throws SQLException if the records cannot be read
+     */
+    List<HealthRecord> getAllHealthRecords(int userId) throws SQLException;
+
+    /**
+     * Passes all health records of a user to a visitor, one at a time, in the order of
+     * {@link #getAllHealthRecords(int)}. Unlike that method it keeps no list, and repositories that
+     * read from a database refill one row object instead of creating a record per row.
+     *
+     * @param userId the ID of the user
+     * @param visitor the visitor to pass each record to
+     * @return the number of records visited
+     * @throws SQLException if the records cannot be read
+     * @throws IOException if the visitor fails
+     */
+    default long forEachHealthRecord(int userId, HealthRecordVisitor visitor) throws SQLException, IOException {
+        HealthRecordRow row = new HealthRecordRow();
+        long count = 0;
+        for (HealthRecord record : getAllHealthRecords(userId)) {
+            row.set(record);
+            visitor.visit(row);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Retrieves one page of a user's health records that pass a query's filters, in the query's order.
+     *
+     * @param query the filters, sort order and page size
+     * @param after the last record of the previous page, or null for the first page
+     * @return up to query.getPageSize() records, fewer only on the last page
+     * @throws SQLException if the records cannot be read
+     */
+    List<HealthRecord> queryHealthRecords(HealthRecordQuery query, HealthRecord after) throws SQLException;
+
+    /**
+     * Retrieves every stored version of a health record, oldest first.
+     *
+     * @param recordId the ID of the health record
+     * @return the versions, ending with the current one unless the record is deleted
+     * @throws SQLException if the history cannot be read
+     */
+    List<HealthRecordVersion> getHealthRecordHistory(int recordId) throws SQLException;
+
+    /**
+     * Retrieves the deleted health records of a user that can still be restored.
+     *
+     * @param userId the ID of the user
+     * @return the last version of each deleted record
+     * @throws SQLException if the history cannot be read
+     */
+    List<HealthRecord> getDeletedHealthRecords(int userId) throws SQLException;
+
+    /**
+     * Restores a deleted health record as a new version.
+     *
+     * @param recordId the ID of the deleted health record
+     * @return the restored record, or null if it is not deleted
+     * @throws SQLException if the record cannot be restored
+     */
+    HealthRecord restoreHealthRecord(int recordId) throws SQLException;
+
+    /**
+     * Summarises a user's health records by day, week or month.
+     *
+     * @param userId the ID of the user
+     * @param period the length of the periods
+     * @param from the first date to cover
+     * @param to the last date to cover
+     * @return the summaries of the periods containing any date between from and to that have records, oldest first
+     * @throws SQLException if the summaries cannot be read
+     */
+    List<PeriodSummary> getPeriodSummaries(int userId, RollupPeriod period, LocalDate from, LocalDate to) throws SQLException;
+
+    /**
+     * Stores many users at once, faster than adding them one by one.
+     *
+     * @param users the users to store
+     * @param batchSize the number of users stored per transaction
+     * @return the number of users stored
+     * @throws SQLException if the users cannot be stored
+     */
+    long bulkLoadUsers(Iterator<User> users, int batchSize) throws SQLException;
+
+    /**
+     * Stores many health records at once, faster than adding them one by one.
+     *
+     * @param records the health records to store
+     * @param batchSize the number of records stored per transaction
+     * @return the number of records stored
+     * @throws SQLException if the records cannot be stored
+     */
+    long bulkLoadHealthRecords(Iterator<HealthRecord> records, int batchSize) throws SQLException;
+
+    /**
+     * Returns the repository that read-only queries which tolerate slightly stale data should use.
+     *
+     * @return the repository to read from; this repository unless it has read replicas
+     */
+    default HealthRepository getReadRepository() {
+        return this;
+    }
+}
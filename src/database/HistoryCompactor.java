@@ -0,0 +1,113 @@
+package database;
+
+import java.sql.SQLException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the health record history bounded by periodically removing versions that fall outside
+ * the retention policy.
+ *
+ * Compaction runs on a single background thread in small batches, each in its own short
+ * transaction, with a pause between batches. Interactive writes therefore never wait behind one
+ * long compaction transaction, and the work done per second is capped.
+ */
+public class HistoryCompactor {
+
+    private final Database database;
+    private final long retentionMillis;
+    private final int maxVersionsPerRecord;
+    private final int batchSize;
+    private final long pauseMillis;
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Creates a compactor.
+     *
+     * @param database the database whose history to compact
+     * @param retentionDays how many days superseded versions are kept in full
+     * @param maxVersionsPerRecord how many history versions per record are kept regardless of age
+     * @param batchSize the number of record IDs looked at, and the maximum number of versions removed, per transaction
+     * @param pauseMillis the pause between batches, in milliseconds
+     */
+    public HistoryCompactor(Database database, int retentionDays, int maxVersionsPerRecord, int batchSize, long pauseMillis) {
+        if (maxVersionsPerRecord < 1) {
+            throw new IllegalArgumentException("maxVersionsPerRecord must be at least 1");
+        }
+        this.database = database;
+        this.retentionMillis = TimeUnit.DAYS.toMillis(retentionDays);
+        this.maxVersionsPerRecord = maxVersionsPerRecord;
+        this.batchSize = batchSize;
+        this.pauseMillis = pauseMillis;
+    }
+
+    /**
+     * Creates a compactor with the default policy: versions are kept in full for a year and at most
+     * 20 history versions per record, removed 500 at a time with a 50 ms pause between batches.
+     *
+     * @param database the database whose history to compact
+     */
+    public HistoryCompactor(Database database) {
+        this(database, 365, 20, 500, 50);
+    }
+
+    /**
+     * Runs one full compaction pass over the history.
+     *
+     * @return the number of batches run
+     * @throws SQLException if an SQL error occurs
+     * @throws InterruptedException if interrupted while pausing between batches
+     */
+    public int compact() throws SQLException, InterruptedException {
+        long cutoff = System.currentTimeMillis() - retentionMillis;
+        int batches = 0;
+        int next = 0;
+        while (next >= 0) {
+            next = database.compactHistoryBatch(cutoff, maxVersionsPerRecord, next, batchSize);
+            batches++;
+            if (next >= 0) {
+                Thread.sleep(pauseMillis);
+            }
+        }
+        return batches;
+    }
+
+    /**
+     * Starts running a compaction pass at a fixed interval on a background thread.
+     *
+     * @param intervalMinutes the number of minutes between the starts of two passes
+     */
+    public synchronized void start(long intervalMinutes) {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "history-compactor");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                compact();
+            } catch (SQLException e) {
+                // Keep the schedule; the next pass tries again
+                e.printStackTrace();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, intervalMinutes, intervalMinutes, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Stops the background compaction. A batch that is running is allowed to commit.
+     */
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+}
@@ -0,0 +1,470 @@
+package database;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import model.HealthRecord;
+import model.HealthRecordVersion;
+import model.PeriodSummary;
+import model.RollupPeriod;
+import model.User;
+
+/**
+ * A {@link HealthRepository} that keeps all users and health records in memory, for tests and
+ * benchmarks that should not depend on disk speed. Nothing is persisted.
+ *
+ * Users, records, the per-user record lists and the record history are indexed by their int IDs in
+ * {@link IntObjectMap}s, so lookups do not box keys. A read/write lock lets any number of readers run
+ * in parallel while writes are exclusive. Objects are copied on the way in and out, so callers can
+ * modify what they pass or receive without affecting the stored state, just like with SQLite.
+ */
+public class InMemoryDatabase implements HealthRepository {
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Lock readLock = lock.readLock();
+    private final Lock writeLock = lock.writeLock();
+
+    private final IntObjectMap<User> users = new IntObjectMap<>();
+    private final Map<String, User> usersByUsername = new HashMap<>();
+    private final IntObjectMap<HealthRecord> records = new IntObjectMap<>();
+    private final IntObjectMap<IntList> recordsByUser = new IntObjectMap<>();
+    private final IntObjectMap<List<HealthRecordVersion>> history = new IntObjectMap<>();
+    private final IntObjectMap<IntList> deletedByUser = new IntObjectMap<>();
+
+    private int maxUserId;
+    private int maxRecordId;
+
+    @Override
+    public void addUser(User user) throws SQLException {
+        writeLock.lock();
+        try {
+            insertUser(user);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public User getUser(int id) {
+        readLock.lock();
+        try {
+            return copy(users.get(id));
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public User getUserByUsername(String username) {
+        readLock.lock();
+        try {
+            return copy(usersByUsername.get(username));
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public void updateUser(User user) {
+        writeLock.lock();
+        try {
+            User previous = users.get(user.getId());
+            if (previous == null) {
+                return;
+            }
+            usersByUsername.remove(previous.getUsername(), previous);
+            User stored = copy(user);
+            users.put(stored.getId(), stored);
+            usersByUsername.putIfAbsent(stored.getUsername(), stored);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void deleteUser(int id) {
+        writeLock.lock();
+        try {
+            User removed = users.remove(id);
+            if (removed != null) {
+                usersByUsername.remove(removed.getUsername(), removed);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public List<User> getAllUsers() {
+        List<User> all = new ArrayList<>();
+        readLock.lock();
+        try {
+            users.forEachValue(user -> all.add(copy(user)));
+        } finally {
+            readLock.unlock();
+        }
+        all.sort(Comparator.comparingInt(User::getId));
+        return all;
+    }
+
+    @Override
+    public int getNextUserId() {
+        readLock.lock();
+        try {
+            return maxUserId + 1;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public void addHealthRecord(HealthRecord record) throws SQLException {
+        writeLock.lock();
+        try {
+            insertRecord(record);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public HealthRecord getHealthRecord(int id) {
+        readLock.lock();
+        try {
+            return copy(records.get(id));
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public void updateHealthRecord(HealthRecord record) {
+        writeLock.lock();
+        try {
+            HealthRecord previous = records.get(record.getId());
+            if (previous == null) {
+                return;
+            }
+            archive(previous, false);
+
+            HealthRecord stored = copy(record);
+            stored.setVersion(previous.getVersion() + 1);
+            records.put(stored.getId(), stored);
+            if (previous.getUserId() != stored.getUserId()) {
+                recordsByUser.get(previous.getUserId()).remove(stored.getId());
+                listFor(recordsByUser, stored.getUserId()).add(stored.getId());
+            }
+            record.setVersion(stored.getVersion());
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void deleteHealthRecord(int id) {
+        writeLock.lock();
+        try {
+            HealthRecord removed = records.remove(id);
+            if (removed == null) {
+                return;
+            }
+            archive(removed, true);
+            recordsByUser.get(removed.getUserId()).remove(id);
+            listFor(deletedByUser, removed.getUserId()).add(id);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public List<HealthRecord> getAllHealthRecords(int userId) {
+        readLock.lock();
+        try {
+            IntList ids = recordsByUser.get(userId);
+            List<HealthRecord> result = new ArrayList<>(ids == null ? 0 : ids.size);
+            if (ids != null) {
+                for (int i = 0; i < ids.size; i++) {
+                    result.add(copy(records.get(ids.values[i])));
+                }
+            }
+            return result;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public List<HealthRecord> queryHealthRecords(HealthRecordQuery query, HealthRecord after) {
+        Comparator<HealthRecord> order = query.comparator();
+        int pageSize = query.getPageSize();
+
+        // Keep the first pageSize matches in a heap whose head is the last of them, instead of sorting every match
+        PriorityQueue<HealthRecord> page = new PriorityQueue<>(pageSize + 1, order.reversed());
+        readLock.lock();
+        try {
+            IntList ids = recordsByUser.get(query.getUserId());
+            if (ids != null) {
+                for (int i = 0; i < ids.size; i++) {
+                    HealthRecord record = records.get(ids.values[i]);
+                    if (!query.matches(record) || (after != null && order.compare(record, after) <= 0)) {
+                        continue;
+                    }
+                    if (page.size() < pageSize) {
+                        page.add(copy(record));
+                    } else if (order.compare(record, page.peek()) < 0) {
+                        page.poll();
+                        page.add(copy(record));
+                    }
+                }
+            }
+        } finally {
+            readLock.unlock();
+        }
+
+        List<HealthRecord> result = new ArrayList<>(page);
+        result.sort(order);
+        return result;
+    }
+
+    @Override
+    public List<HealthRecordVersion> getHealthRecordHistory(int recordId) {
+        readLock.lock();
+        try {
+            List<HealthRecordVersion> versions = new ArrayList<>();
+            List<HealthRecordVersion> archived = history.get(recordId);
+            if (archived != null) {
+                for (HealthRecordVersion version : archived) {
+                    versions.add(new HealthRecordVersion(copy(version.getRecord()), version.isDeleted(), version.getSupersededAt()));
+                }
+            }
+            HealthRecord current = records.get(recordId);
+            if (current != null) {
+                versions.add(new HealthRecordVersion(copy(current), false, 0));
+            }
+            return versions;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public List<HealthRecord> getDeletedHealthRecords(int userId) {
+        readLock.lock();
+        try {
+            List<HealthRecord> deleted = new ArrayList<>();
+            IntList ids = deletedByUser.get(userId);
+            if (ids != null) {
+                for (int i = 0; i < ids.size; i++) {
+                    List<HealthRecordVersion> versions = history.get(ids.values[i]);
+                    deleted.add(copy(versions.get(versions.size() - 1).getRecord()));
+                }
+            }
+            return deleted;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public HealthRecord restoreHealthRecord(int recordId) {
+        writeLock.lock();
+        try {
+            List<HealthRecordVersion> versions = history.get(recordId);
+            if (versions == null || records.get(recordId) != null) {
+                return null;
+            }
+            HealthRecordVersion last = versions.get(versions.size() - 1);
+            if (!last.isDeleted()) {
+                return null;
+            }
+
+            HealthRecord restored = copy(last.getRecord());
+            restored.setVersion(restored.getVersion() + 1);
+            records.put(recordId, restored);
+            listFor(recordsByUser, restored.getUserId()).add(recordId);
+            deletedByUser.get(restored.getUserId()).remove(recordId);
+            return copy(restored);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Summarises the user's records on every call; with everything in memory there is nothing to
+     * gain from keeping rollups.
+     */
+    @Override
+    public List<PeriodSummary> getPeriodSummaries(int userId, RollupPeriod period, LocalDate from, LocalDate to) {
+        readLock.lock();
+        try {
+            IntList ids = recordsByUser.get(userId);
+            List<HealthRecord> userRecords = new ArrayList<>(ids == null ? 0 : ids.size);
+            if (ids != null) {
+                for (int i = 0; i < ids.size; i++) {
+                    userRecords.add(records.get(ids.values[i]));
+                }
+            }
+            return RollupAccumulator.summarize(userRecords, userId, period, from, to);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Stores the users, taking the write lock once per batch.
+     */
+    @Override
+    public long bulkLoadUsers(Iterator<User> users, int batchSize) throws SQLException {
+        long count = 0;
+        while (users.hasNext()) {
+            writeLock.lock();
+            try {
+                for (int i = 0; i < batchSize && users.hasNext(); i++) {
+                    insertUser(users.next());
+                    count++;
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Stores the health records, taking the write lock once per batch.
+     */
+    @Override
+    public long bulkLoadHealthRecords(Iterator<HealthRecord> records, int batchSize) throws SQLException {
+        long count = 0;
+        while (records.hasNext()) {
+            writeLock.lock();
+            try {
+                for (int i = 0; i < batchSize && records.hasNext(); i++) {
+                    insertRecord(records.next());
+                    count++;
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Removes all users, records and history.
+     */
+    public void clear() {
+        writeLock.lock();
+        try {
+            users.clear();
+            usersByUsername.clear();
+            records.clear();
+            recordsByUser.clear();
+            history.clear();
+            deletedByUser.clear();
+            maxUserId = 0;
+            maxRecordId = 0;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Must be called with the write lock held
+    private void insertUser(User user) throws SQLException {
+        int id = user.getId() > 0 ? user.getId() : maxUserId + 1;
+        if (users.get(id) != null) {
+            throw new SQLException("A user with ID " + id + " already exists");
+        }
+        user.setId(id);
+        User stored = copy(user);
+        users.put(id, stored);
+        usersByUsername.putIfAbsent(stored.getUsername(), stored);
+        maxUserId = Math.max(maxUserId, id);
+    }
+
+    // Must be called with the write lock held
+    private void insertRecord(HealthRecord record) throws SQLException {
+        int id = record.getId() > 0 ? record.getId() : maxRecordId + 1;
+        if (records.get(id) != null) {
+            throw new SQLException("A health record with ID " + id + " already exists");
+        }
+        record.setId(id);
+        HealthRecord stored = copy(record);
+        stored.setVersion(1);
+        records.put(id, stored);
+        listFor(recordsByUser, stored.getUserId()).add(id);
+        maxRecordId = Math.max(maxRecordId, id);
+    }
+
+    // Must be called with the write lock held
+    private void archive(HealthRecord record, boolean deleted) {
+        List<HealthRecordVersion> versions = history.get(record.getId());
+        if (versions == null) {
+            versions = new ArrayList<>(2);
+            history.put(record.getId(), versions);
+        }
+        versions.add(new HealthRecordVersion(record, deleted, System.currentTimeMillis()));
+    }
+
+    private static IntList listFor(IntObjectMap<IntList> index, int key) {
+        IntList list = index.get(key);
+        if (list == null) {
+            list = new IntList();
+            index.put(key, list);
+        }
+        return list;
+    }
+
+    private static User copy(User user) {
+        if (user == null) {
+            return null;
+        }
+        return new User(user.getId(), user.getUsername(), user.getPassword(), user.getFirstName(), user.getLastName());
+    }
+
+    private static HealthRecord copy(HealthRecord record) {
+        if (record == null) {
+            return null;
+        }
+        HealthRecord copy = new HealthRecord(record.getId(), record.getWeight(), record.getTemperature(),
+                record.getBloodPressure(), record.getNote(), record.getDate(), record.getUserId());
+        copy.setVersion(record.getVersion());
+        return copy;
+    }
+
+    /**
+     * A growable list of unboxed ints, in insertion order.
+     */
+    private static class IntList {
+
+        private int[] values = new int[4];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        void remove(int value) {
+            for (int i = 0; i < size; i++) {
+                if (values[i] == value) {
+                    System.arraycopy(values, i + 1, values, i, size - i - 1);
+                    size--;
+                    return;
+                }
+            }
+        }
+    }
+}
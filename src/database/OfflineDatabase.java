@@ -0,0 +1,283 @@
+package database;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import model.HealthRecord;
+
+/**
+ * A local database file that keeps the application working while the primary database, such as a
+ * file on a network share, cannot be reached.
+ *
+ * Health record writes are stored here and acknowledged as soon as the local transaction commits.
+ * The same transaction appends the write to the sync_outbox table: an append-only journal holding
+ * the operation, the record as written and the version it was based on. A {@link SyncWorker} replays
+ * the journal against the primary in batches and removes the entries once the primary has them.
+ * Reads are always answered from this file.
+ *
+ * Each local file has a client ID, generated when the file is first opened, under which the primary
+ * keeps track of what it has already applied.
+ */
+public class OfflineDatabase extends Database {
+
+    /**
+     * The kinds of write kept in the outbox.
+     */
+    enum SyncOperation {
+        INSERT, UPDATE, DELETE, RESTORE
+    }
+
+    private String clientId;
+
+    // Held while an outbox entry is written or read, so the sync worker never reads an entry whose
+    // transaction has not committed yet
+    private final Object outboxLock = new Object();
+
+    /**
+     * Opens a local database file, creating the tables and the outbox if they do not already exist.
+     *
+     * @param url the JDBC URL of the local database, e.g. "jdbc:sqlite:myhealthtracker-local.db"
+     */
+    public OfflineDatabase(String url) {
+        this(url, ConnectionSettings.DEFAULTS);
+    }
+
+    /**
+     * Opens a local database file with the given engine settings, creating the tables and the outbox
+     * if they do not already exist.
+     *
+     * @param url the JDBC URL of the local database
+     * @param settings the engine settings applied to every connection the database opens
+     */
+    public OfflineDatabase(String url, ConnectionSettings settings) {
+        super(url, settings);
+        try {
+            createSyncTablesIfNotExist();
+            clientId = readClientId();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void createSyncTablesIfNotExist() throws SQLException {
+        SqlDialect dialect = getDialect();
+        String text = dialect.textType();
+
+        String createOutboxTable = "CREATE TABLE IF NOT EXISTS sync_outbox (" +
+                "seq " + dialect.sequenceColumn() + "," +
+                "operation " + text + " NOT NULL," +
+                "record_id INTEGER NOT NULL," +
+                "base_version INTEGER NOT NULL," +
+                "user_id INTEGER," +
+                "weight REAL," +
+                "temperature REAL," +
+                "bloodPressure " + text + "," +
+                "note " + text + "," +
+                "date " + dialect.dateType() + "," +
+                "queued_at " + dialect.millisType() + " NOT NULL" +
+                ")";
+
+        String createStateTable = "CREATE TABLE IF NOT EXISTS sync_state (" +
+                "id INTEGER PRIMARY KEY CHECK (id = 1)," +
+                "client_id " + text + " NOT NULL" +
+                ")";
+
+        try (Statement stmt = getConnection().createStatement()) {
+            stmt.execute(createOutboxTable);
+            stmt.execute(createStateTable);
+        }
+    }
+
+    private String readClientId() throws SQLException {
+        try (Statement stmt = getConnection().createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT client_id FROM sync_state WHERE id = 1")) {
+            if (rs.next()) {
+                return rs.getString(1);
+            }
+        }
+        String generated = UUID.randomUUID().toString();
+        try (PreparedStatement pstmt = getConnection().prepareStatement("INSERT INTO sync_state (id, client_id) VALUES (1, ?)")) {
+            pstmt.setString(1, generated);
+            pstmt.executeUpdate();
+        }
+        return generated;
+    }
+
+    /**
+     * Returns the ID under which the primary tracks the writes of this local file.
+     * @return the client ID
+     */
+    public String getClientId() {
+        return clientId;
+    }
+
+    @Override
+    public void addHealthRecord(HealthRecord record) throws SQLException {
+        synchronized (outboxLock) {
+            inTransaction(() -> {
+                super.addHealthRecord(record);
+                queue(SyncOperation.INSERT, record.getId(), 0, record);
+            });
+        }
+    }
+
+    @Override
+    public void updateHealthRecord(HealthRecord record) throws SQLException {
+        synchronized (outboxLock) {
+            inTransaction(() -> {
+                HealthRecord current = getHealthRecord(record.getId());
+                if (current == null) {
+                    return;
+                }
+                super.updateHealthRecord(record);
+                queue(SyncOperation.UPDATE, record.getId(), current.getVersion(), record);
+            });
+        }
+    }
+
+    @Override
+    public void deleteHealthRecord(int id) throws SQLException {
+        synchronized (outboxLock) {
+            inTransaction(() -> {
+                HealthRecord current = getHealthRecord(id);
+                if (current == null) {
+                    return;
+                }
+                super.deleteHealthRecord(id);
+                queue(SyncOperation.DELETE, id, current.getVersion(), null);
+            });
+        }
+    }
+
+    @Override
+    public HealthRecord restoreHealthRecord(int recordId) throws SQLException {
+        HealthRecord[] restored = new HealthRecord[1];
+        synchronized (outboxLock) {
+            inTransaction(() -> {
+                restored[0] = super.restoreHealthRecord(recordId);
+                if (restored[0] != null) {
+                    queue(SyncOperation.RESTORE, recordId, restored[0].getVersion() - 1, restored[0]);
+                }
+            });
+        }
+        return restored[0];
+    }
+
+    /**
+     * Returns the number of writes that have not reached the primary yet.
+     *
+     * @return the number of outbox entries
+     * @throws SQLException if an SQL error occurs
+     */
+    public long getPendingSyncCount() throws SQLException {
+        synchronized (outboxLock) {
+            try (Statement stmt = getConnection().createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM sync_outbox")) {
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        }
+    }
+
+    /**
+     * Appends a write to the outbox. Must be called inside the transaction making the write.
+     */
+    private void queue(SyncOperation operation, int recordId, int baseVersion, HealthRecord record) throws SQLException {
+        String sql = "INSERT INTO sync_outbox (operation, record_id, base_version, user_id, weight, temperature, " +
+                "bloodPressure, note, date, queued_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+        try (PreparedStatement pstmt = getConnection().prepareStatement(sql)) {
+            pstmt.setString(1, operation.name());
+            pstmt.setInt(2, recordId);
+            pstmt.setInt(3, baseVersion);
+            if (record != null) {
+                pstmt.setInt(4, record.getUserId());
+                pstmt.setFloat(5, record.getWeight());
+                pstmt.setFloat(6, record.getTemperature());
+                pstmt.setString(7, record.getBloodPressure());
+                pstmt.setString(8, record.getNote());
+                pstmt.setLong(9, toMillis(record.getDate()));
+            } else {
+                for (int i = 4; i <= 9; i++) {
+                    pstmt.setNull(i, Types.NULL);
+                }
+            }
+            pstmt.setLong(10, System.currentTimeMillis());
+            pstmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Returns the oldest outbox entries, in the order they were written.
+     */
+    List<OutboxEntry> readOutbox(int limit) throws SQLException {
+        String sql = "SELECT * FROM sync_outbox ORDER BY seq LIMIT ?";
+
+        List<OutboxEntry> entries = new ArrayList<>();
+        synchronized (outboxLock) {
+            try (PreparedStatement pstmt = getConnection().prepareStatement(sql)) {
+                pstmt.setInt(1, limit);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        SyncOperation operation = SyncOperation.valueOf(rs.getString("operation"));
+                        HealthRecord record = null;
+                        if (operation != SyncOperation.DELETE) {
+                            record = new HealthRecord(
+                                rs.getInt("record_id"),
+                                rs.getFloat("weight"),
+                                rs.getFloat("temperature"),
+                                rs.getString("bloodPressure"),
+                                rs.getString("note"),
+                                new java.sql.Date(rs.getLong("date")).toLocalDate(),
+                                rs.getInt("user_id")
+                            );
+                        }
+                        entries.add(new OutboxEntry(rs.getLong("seq"), operation, rs.getInt("record_id"),
+                                rs.getInt("base_version"), record));
+                    }
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Removes the outbox entries up to and including the given sequence number, once the primary has them.
+     */
+    void removeFromOutbox(long upToSeq) throws SQLException {
+        synchronized (outboxLock) {
+            inTransaction(() -> {
+                try (PreparedStatement pstmt = getConnection().prepareStatement("DELETE FROM sync_outbox WHERE seq <= ?")) {
+                    pstmt.setLong(1, upToSeq);
+                    pstmt.executeUpdate();
+                }
+            });
+        }
+    }
+
+    /**
+     * One write waiting in the outbox.
+     */
+    static class OutboxEntry {
+        final long seq;
+        final SyncOperation operation;
+        final int recordId;
+        // The local version the write was based on, or 0 for an insert
+        final int baseVersion;
+        // The record as written, or null for a delete
+        final HealthRecord record;
+
+        OutboxEntry(long seq, SyncOperation operation, int recordId, int baseVersion, HealthRecord record) {
+            this.seq = seq;
+            this.operation = operation;
+            this.recordId = recordId;
+            this.baseVersion = baseVersion;
+            this.record = record;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package database;
+
+/**
+ * A snapshot of how far one read replica of a {@link ReplicatedDatabase} is behind its primary.
+ */
+public class ReplicaStatus {
+
+    private final String url;
+    private final boolean running;
+    private final long appliedSeq;
+    private final long sequenceLag;
+    private final long stalenessMillis;
+    private final long appliedEvents;
+
+    /**
+     * Constructs a replica status.
+     *
+     * @param url the JDBC URL of the replica
+     * @param running whether the replica is still applying changes
+     * @param appliedSeq the sequence number of the last change applied to the replica
+     * @param sequenceLag the number of committed changes not yet applied
+     * @param stalenessMillis how far the replica's data lags behind the primary, in milliseconds
+     * @param appliedEvents the number of change events applied since the replica was opened
+     */
+    public ReplicaStatus(String url, boolean running, long appliedSeq, long sequenceLag, long stalenessMillis, long appliedEvents) {
+        this.url = url;
+        this.running = running;
+        this.appliedSeq = appliedSeq;
+        this.sequenceLag = sequenceLag;
+        this.stalenessMillis = stalenessMillis;
+        this.appliedEvents = appliedEvents;
+    }
+
+    /**
+     * Returns the JDBC URL of the replica.
+     * @return the URL
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * Returns whether the replica is still applying changes. A replica stops when applying fails,
+     * and is then no longer used for reads.
+     * @return true if the replica is running
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Returns the sequence number of the last change applied to the replica.
+     * @return the applied sequence number
+     */
+    public long getAppliedSeq() {
+        return appliedSeq;
+    }
+
+    /**
+     * Returns the number of committed changes the replica has not applied yet.
+     * @return the lag in change events
+     */
+    public long getSequenceLag() {
+        return sequenceLag;
+    }
+
+    /**
+     * Returns an upper bound on how old the replica's data is: every change committed more than
+     * this long ago has been applied. Zero means the replica is up to date.
+     * @return the staleness in milliseconds
+     */
+    public long getStalenessMillis() {
+        return stalenessMillis;
+    }
+
+    /**
+     * Returns the number of change events applied since the replica was opened.
+     * @return the applied event count
+     */
+    public long getAppliedEvents() {
+        return appliedEvents;
+    }
+
+    /**
+     * Returns a string representation of the replica status.
+     *
+     * @return a string representation of the replica status
+     */
+    @Override
+    public String toString() {
+        return "ReplicaStatus {" +
+                "url='" + url + '\'' +
+                ", running=" + running +
+                ", appliedSeq=" + appliedSeq +
+                ", sequenceLag=" + sequenceLag +
+                ", stalenessMillis=" + stalenessMillis +
+                ", appliedEvents=" + appliedEvents +
+                '}';
+    }
+}
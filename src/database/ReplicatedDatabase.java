@@ -0,0 +1,621 @@
+package database;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A primary database with one or more read replicas in other database files.
+ *
+ * All writes go to the primary, which is this object. Every replica subscribes to the primary's
+ * change log and applies committed changes asynchronously on its own connection, so reads served
+ * by a replica never wait behind the primary's writes. Because change events only carry row keys,
+ * a replica reads the primary's current rows for the keys of a batch of events once, with one query
+ * per table, and then replaces its own rows with them; applying an event twice is harmless. The last
+ * applied sequence number is stored in the replica in the same transaction as the rows, so a replica
+ * resumes where it stopped when the application restarts. A bulk load, and the first synchronization
+ * of a new replica, copy the whole table in chunks of keys with one transaction per chunk; the
+ * replica counts as behind until the copy is complete.
+ *
+ * {@link #getReadDatabase()} returns a replica whose staleness is within the configured bound, or the
+ * primary if none is. Replicas hold the users and health_records tables, the record archive and the
+ * dictionary of readings and notes; record history is only read from the primary.
+ */
+public class ReplicatedDatabase extends Database {
+
+    /**
+     * The default staleness bound for reads served by replicas, in milliseconds.
+     */
+    public static final long DEFAULT_MAX_STALENESS_MILLIS = 2000;
+
+    // Number of change events applied per replica transaction
+    private static final int APPLY_BATCH_SIZE = 500;
+
+    // Number of fetched batches that may wait for a replica before fetching pauses
+    private static final int MAX_PENDING_BATCHES = 4;
+
+    // Number of keys copied per replica transaction when a whole table is copied
+    private static final int RESYNC_CHUNK_SIZE = 500;
+
+    // Replicated tables, with their key column; both archive tables are keyed by block
+    private static final String[][] REPLICATED_TABLES = {
+        {ChangeEvent.USERS, "id"},
+        {ChangeEvent.HEALTH_RECORDS, "id"},
+        {ChangeEvent.HEALTH_RECORD_ARCHIVE, "block_id"},
+        {ChangeEvent.HEALTH_RECORD_ARCHIVE_INDEX, "block_id"},
+        {ChangeEvent.TEXT_VALUES, "id"},
+        {ChangeEvent.USER_KEYS, "user_id"}
+    };
+
+    private final List<Replica> replicas = new ArrayList<>();
+    private final ChangeLog changeLog;
+    private final AtomicInteger nextReplica = new AtomicInteger();
+
+    private volatile long maxStalenessMillis;
+
+    // The latest sequence number committed on the primary, refreshed after every commit
+    private volatile long primarySeq;
+    private final Object primarySeqLock = new Object();
+
+    /**
+     * Opens a primary database and starts replicating it to the given replica databases, with the
+     * default connection settings.
+     *
+     * @param primaryUrl the JDBC URL of the primary database
+     * @param replicaUrls the JDBC URLs of the replica databases
+     * @param maxStalenessMillis how old a replica's data may be for it to serve reads, in milliseconds
+     * @throws SQLException if a replica cannot be prepared
+     */
+    public ReplicatedDatabase(String primaryUrl, List<String> replicaUrls, long maxStalenessMillis) throws SQLException {
+        this(primaryUrl, ConnectionSettings.DEFAULTS, replicaUrls, maxStalenessMillis);
+    }
+
+    /**
+     * Opens a primary database and starts replicating it to the given replica databases.
+     * A replica file that has never been synchronized is first filled with a full copy.
+     *
+     * @param primaryUrl the JDBC URL of the primary database
+     * @param settings the connection settings of the primary and the replicas
+     * @param replicaUrls the JDBC URLs of the replica databases
+     * @param maxStalenessMillis how old a replica's data may be for it to serve reads, in milliseconds
+     * @throws SQLException if a replica cannot be prepared
+     */
+    public ReplicatedDatabase(String primaryUrl, ConnectionSettings settings, List<String> replicaUrls,
+                              long maxStalenessMillis) throws SQLException {
+        super(primaryUrl, settings);
+        this.maxStalenessMillis = maxStalenessMillis;
+        this.primarySeq = getLatestChangeSeq();
+        this.changeLog = new ChangeLog(this);
+
+        for (String replicaUrl : replicaUrls) {
+            Replica replica = new Replica(replicaUrl, settings);
+            replicas.add(replica);
+            replica.start();
+        }
+        addCommitListener(this::onPrimaryCommit);
+    }
+
+    /**
+     * Returns a replica that is within the staleness bound, taking turns between eligible replicas,
+     * or the primary if no replica is recent enough.
+     */
+    @Override
+    public Database getReadDatabase() {
+        int size = replicas.size();
+        int first = Math.floorMod(nextReplica.getAndIncrement(), Math.max(size, 1));
+        for (int i = 0; i < size; i++) {
+            Replica replica = replicas.get((first + i) % size);
+            if (replica.isRunning() && replica.getStalenessMillis() <= maxStalenessMillis) {
+                return replica.database;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Sets how old a replica's data may be for it to serve reads. Zero only allows replicas that
+     * have applied every change committed so far.
+     *
+     * @param maxStalenessMillis the staleness bound in milliseconds
+     */
+    public void setMaxStalenessMillis(long maxStalenessMillis) {
+        this.maxStalenessMillis = maxStalenessMillis;
+    }
+
+    /**
+     * Returns the staleness bound for reads served by replicas.
+     * @return the staleness bound in milliseconds
+     */
+    public long getMaxStalenessMillis() {
+        return maxStalenessMillis;
+    }
+
+    /**
+     * Returns the replicas' databases, for tools that read from a specific replica.
+     * @return the replica databases, in the order they were given
+     */
+    public List<Database> getReplicas() {
+        List<Database> databases = new ArrayList<>();
+        for (Replica replica : replicas) {
+            databases.add(replica.database);
+        }
+        return Collections.unmodifiableList(databases);
+    }
+
+    /**
+     * Returns the replication lag of every replica.
+     * @return one status per replica, in the order the replicas were given
+     */
+    public List<ReplicaStatus> getReplicationStatus() {
+        List<ReplicaStatus> statuses = new ArrayList<>();
+        for (Replica replica : replicas) {
+            statuses.add(replica.status());
+        }
+        return statuses;
+    }
+
+    /**
+     * Returns the lowest sequence number applied by any replica. Change events up to this number
+     * are no longer needed for replication and can be removed with {@link #truncateChangeLog(long)}.
+     *
+     * @return the lowest applied sequence number
+     */
+    public long getReplicatedSeq() {
+        long lowest = primarySeq;
+        for (Replica replica : replicas) {
+            lowest = Math.min(lowest, replica.getAppliedSeq());
+        }
+        return lowest;
+    }
+
+    /**
+     * Stops replicating. The replicas keep the changes applied so far and resume from there when
+     * the database is opened again.
+     */
+    public void stopReplication() {
+        for (Replica replica : replicas) {
+            replica.stop();
+        }
+        changeLog.close();
+    }
+
+    /**
+     * Stops replicating, then closes the replicas and the primary. The replicas resume from the
+     * changes applied so far when the database is opened again.
+     *
+     * @throws SQLException if a replica or the primary fails to close; the others are still closed
+     */
+    @Override
+    public void close() throws SQLException {
+        stopReplication();
+        SQLException failure = null;
+        for (Replica replica : replicas) {
+            try {
+                replica.close();
+            } catch (SQLException e) {
+                failure = e;
+            }
+        }
+        super.close();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void onPrimaryCommit() {
+        synchronized (primarySeqLock) {
+            long latest;
+            try {
+                latest = getLatestChangeSeq();
+            } catch (SQLException e) {
+                e.printStackTrace();
+                return;
+            }
+            if (latest > primarySeq) {
+                for (Replica replica : replicas) {
+                    replica.onPrimaryAdvanced(primarySeq);
+                }
+                primarySeq = latest;
+            }
+        }
+    }
+
+    /**
+     * One read replica: a database file plus the subscription that keeps it up to date.
+     */
+    private class Replica {
+
+        private final Database database;
+        private final Connection applyConnection;
+        // A connection to the primary from which the replica reads the rows it copies
+        private final Connection sourceConnection;
+        // Column names of each replicated table, in the replica's order
+        private final Map<String, List<String>> columnsByTable = new HashMap<>();
+        private ChangeLog.Subscription subscription;
+
+        // Guarded by this: the last applied sequence number, and the time up to which the replica
+        // is known to contain every committed change
+        private long appliedSeq;
+        private long asOfMillis;
+        private long appliedEvents;
+
+        Replica(String url, ConnectionSettings settings) throws SQLException {
+            this.database = new Database(url, settings);
+            this.applyConnection = DriverManager.getConnection(url);
+            this.sourceConnection = openReadConnection();
+
+            try (Statement stmt = applyConnection.createStatement()) {
+                stmt.execute("CREATE TABLE IF NOT EXISTS replication_state (" +
+                        "id INTEGER PRIMARY KEY CHECK (id = 1)," +
+                        "applied_seq BIGINT NOT NULL" +
+                        ")");
+            }
+
+            Long storedSeq = readAppliedSeq();
+            if (storedSeq == null) {
+                // Never synchronized: copy everything, then follow the log from the point copied
+                long seq = getLatestChangeSeq();
+                for (String[] table : REPLICATED_TABLES) {
+                    resyncTable(table);
+                }
+                applyInTransaction(() -> writeAppliedSeq(seq));
+                database.clearTextCache();
+                storedSeq = seq;
+            }
+            appliedSeq = storedSeq;
+            asOfMillis = System.currentTimeMillis();
+        }
+
+        void start() {
+            subscription = changeLog.subscribe(appliedSeq, APPLY_BATCH_SIZE, MAX_PENDING_BATCHES, this::apply);
+        }
+
+        void stop() {
+            subscription.close();
+        }
+
+        void close() throws SQLException {
+            try {
+                // Let the batch being applied commit first
+                subscription.awaitStopped();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            try {
+                sourceConnection.close();
+                applyConnection.close();
+            } finally {
+                database.close();
+            }
+        }
+
+        boolean isRunning() {
+            return subscription.isRunning();
+        }
+
+        synchronized long getAppliedSeq() {
+            return appliedSeq;
+        }
+
+        synchronized long getStalenessMillis() {
+            if (appliedSeq >= primarySeq) {
+                return 0;
+            }
+            return Math.max(0, System.currentTimeMillis() - asOfMillis);
+        }
+
+        synchronized ReplicaStatus status() {
+            return new ReplicaStatus(database.getUrl(), isRunning(), appliedSeq,
+                    Math.max(0, primarySeq - appliedSeq), getStalenessMillis(), appliedEvents);
+        }
+
+        /**
+         * Called when the primary commits past previousSeq. A replica that was up to date until now
+         * starts counting its staleness from this moment.
+         */
+        synchronized void onPrimaryAdvanced(long previousSeq) {
+            if (appliedSeq >= previousSeq) {
+                asOfMillis = System.currentTimeMillis();
+            }
+        }
+
+        /**
+         * Applies a batch of events: runs of row changes in one transaction each, and every bulk load
+         * as a copy of its whole table.
+         */
+        private void apply(List<ChangeEvent> batch) throws SQLException {
+            List<ChangeEvent> run = new ArrayList<>();
+            for (ChangeEvent event : batch) {
+                if (event.getOperation() != ChangeEvent.Operation.BULK_LOAD) {
+                    run.add(event);
+                    continue;
+                }
+                applyRun(run);
+                run.clear();
+
+                resyncTable(tableOf(event.getTable()));
+                applyInTransaction(() -> writeAppliedSeq(event.getSeq()));
+                if (event.getTable().equals(ChangeEvent.TEXT_VALUES)) {
+                    // The copied dictionary may give other IDs than the replica had cached
+                    database.clearTextCache();
+                }
+                advance(Collections.singletonList(event));
+            }
+            applyRun(run);
+        }
+
+        private void applyRun(List<ChangeEvent> run) throws SQLException {
+            if (run.isEmpty()) {
+                return;
+            }
+            // Read the primary's rows before the replica's transaction starts
+            RowImages images = new RowImages(run);
+            applyInTransaction(() -> {
+                for (ChangeEvent event : run) {
+                    applyEvent(event, images);
+                }
+                writeAppliedSeq(run.get(run.size() - 1).getSeq());
+            });
+            advance(run);
+        }
+
+        private void advance(List<ChangeEvent> applied) {
+            ChangeEvent last = applied.get(applied.size() - 1);
+            synchronized (this) {
+                appliedSeq = last.getSeq();
+                appliedEvents += applied.size();
+                // Every change committed before the last applied one is now in the replica
+                asOfMillis = appliedSeq >= primarySeq ? System.currentTimeMillis() : last.getChangedAt();
+            }
+        }
+
+        private void applyEvent(ChangeEvent event, RowImages images) throws SQLException {
+            String[] table = tableOf(event.getTable());
+            if (table == null) {
+                return;
+            }
+            // Replace the replica's row with the primary's current row, or drop it if the primary has none
+            execute("DELETE FROM " + table[0] + " WHERE " + table[1] + " = ?", event.getRowId());
+            insertRows(table[0], images.rowsOf(table[0], event.getRowId()));
+
+            if (event.getTable().equals(ChangeEvent.USERS) && event.getOperation() == ChangeEvent.Operation.DELETE) {
+                // Records removed together with their user are not logged one by one
+                execute("DELETE FROM health_records WHERE user_id = ?", event.getUserId());
+                insertRows("health_records", images.recordsOfDeletedUser(event.getUserId()));
+            }
+        }
+
+        /**
+         * Copies a whole table from the primary in chunks of keys, one replica transaction per chunk,
+         * so a large table does not hold the replica's write lock for the whole copy.
+         */
+        private void resyncTable(String[] table) throws SQLException {
+            if (table == null) {
+                return;
+            }
+            String select = "SELECT " + String.join(", ", columns(table[0])) + " FROM " + table[0] +
+                    " WHERE " + table[1] + " > ? AND " + table[1] + " <= ?";
+            long after = Long.MIN_VALUE;
+            while (true) {
+                Long last = lastKeyOfChunk(table, after);
+                if (last == null) {
+                    // Past the primary's last key: drop what the replica has beyond it
+                    long from = after;
+                    applyInTransaction(() -> executeRange("DELETE FROM " + table[0] + " WHERE " + table[1] + " > ?", from));
+                    return;
+                }
+                List<Object[]> rows = new ArrayList<>();
+                try (PreparedStatement pstmt = sourceConnection.prepareStatement(select)) {
+                    pstmt.setLong(1, after);
+                    pstmt.setLong(2, last);
+                    readRows(pstmt, rows);
+                }
+                long from = after;
+                applyInTransaction(() -> {
+                    executeRange("DELETE FROM " + table[0] + " WHERE " + table[1] + " > ? AND " + table[1] + " <= ?", from, last);
+                    insertRows(table[0], rows);
+                });
+                after = last;
+            }
+        }
+
+        // The highest key among the next chunk of keys after the given one, or null if there are none
+        private Long lastKeyOfChunk(String[] table, long after) throws SQLException {
+            try (PreparedStatement pstmt = sourceConnection.prepareStatement("SELECT MAX(chunk_key) FROM (SELECT DISTINCT " +
+                    table[1] + " AS chunk_key FROM " + table[0] + " WHERE " + table[1] + " > ? ORDER BY " + table[1] +
+                    " LIMIT " + RESYNC_CHUNK_SIZE + ") chunk")) {
+                pstmt.setLong(1, after);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    rs.next();
+                    long last = rs.getLong(1);
+                    return rs.wasNull() ? null : last;
+                }
+            }
+        }
+
+        private List<String> columns(String table) throws SQLException {
+            List<String> columns = columnsByTable.get(table);
+            if (columns == null) {
+                columns = database.getDialect().columnNames(applyConnection, table);
+                columnsByTable.put(table, columns);
+            }
+            return columns;
+        }
+
+        private void readRows(PreparedStatement pstmt, List<Object[]> rows) throws SQLException {
+            try (ResultSet rs = pstmt.executeQuery()) {
+                int count = rs.getMetaData().getColumnCount();
+                while (rs.next()) {
+                    Object[] row = new Object[count];
+                    for (int i = 0; i < count; i++) {
+                        row[i] = rs.getObject(i + 1);
+                    }
+                    rows.add(row);
+                }
+            }
+        }
+
+        private void insertRows(String table, List<Object[]> rows) throws SQLException {
+            if (rows.isEmpty()) {
+                return;
+            }
+            List<String> columns = columns(table);
+            String placeholders = String.join(", ", Collections.nCopies(columns.size(), "?"));
+            try (PreparedStatement pstmt = applyConnection.prepareStatement("INSERT INTO " + table + " (" +
+                    String.join(", ", columns) + ") VALUES (" + placeholders + ")")) {
+                for (Object[] row : rows) {
+                    for (int i = 0; i < row.length; i++) {
+                        pstmt.setObject(i + 1, row[i]);
+                    }
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+            }
+        }
+
+        private void execute(String sql, int id) throws SQLException {
+            try (PreparedStatement pstmt = applyConnection.prepareStatement(sql)) {
+                pstmt.setInt(1, id);
+                pstmt.executeUpdate();
+            }
+        }
+
+        private void executeRange(String sql, long... bounds) throws SQLException {
+            try (PreparedStatement pstmt = applyConnection.prepareStatement(sql)) {
+                for (int i = 0; i < bounds.length; i++) {
+                    pstmt.setLong(i + 1, bounds[i]);
+                }
+                pstmt.executeUpdate();
+            }
+        }
+
+        private Long readAppliedSeq() throws SQLException {
+            try (Statement stmt = applyConnection.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT applied_seq FROM replication_state WHERE id = 1")) {
+                return rs.next() ? rs.getLong(1) : null;
+            }
+        }
+
+        private void writeAppliedSeq(long seq) throws SQLException {
+            try (PreparedStatement update = applyConnection.prepareStatement("UPDATE replication_state SET applied_seq = ? WHERE id = 1")) {
+                update.setLong(1, seq);
+                if (update.executeUpdate() > 0) {
+                    return;
+                }
+            }
+            try (PreparedStatement insert = applyConnection.prepareStatement("INSERT INTO replication_state (id, applied_seq) VALUES (1, ?)")) {
+                insert.setLong(1, seq);
+                insert.executeUpdate();
+            }
+        }
+
+        private void applyInTransaction(ApplyWork work) throws SQLException {
+            applyConnection.setAutoCommit(false);
+            try {
+                work.run();
+                applyConnection.commit();
+            } catch (SQLException | RuntimeException e) {
+                applyConnection.rollback();
+                throw e;
+            } finally {
+                applyConnection.setAutoCommit(true);
+            }
+        }
+
+        /**
+         * The primary's current rows for the keys of a run of change events, read through the
+         * replica's connection to the primary. A key without rows was deleted on the primary.
+         */
+        private class RowImages {
+
+            // Rows by table and key
+            private final Map<String, Map<Integer, List<Object[]>>> rowsByTable = new HashMap<>();
+            // The primary's records of every user deleted in the run, by user ID
+            private final Map<Integer, List<Object[]>> recordsByDeletedUser;
+
+            RowImages(List<ChangeEvent> run) throws SQLException {
+                Map<String, Set<Integer>> keysByTable = new HashMap<>();
+                Set<Integer> deletedUsers = new LinkedHashSet<>();
+                for (ChangeEvent event : run) {
+                    String[] table = tableOf(event.getTable());
+                    if (table == null) {
+                        continue;
+                    }
+                    keysByTable.computeIfAbsent(table[0], t -> new LinkedHashSet<>()).add(event.getRowId());
+                    if (event.getTable().equals(ChangeEvent.USERS) && event.getOperation() == ChangeEvent.Operation.DELETE) {
+                        deletedUsers.add(event.getUserId());
+                    }
+                }
+                for (Map.Entry<String, Set<Integer>> entry : keysByTable.entrySet()) {
+                    rowsByTable.put(entry.getKey(), read(entry.getKey(), tableOf(entry.getKey())[1], entry.getValue()));
+                }
+                recordsByDeletedUser = read(ChangeEvent.HEALTH_RECORDS, "user_id", deletedUsers);
+            }
+
+            List<Object[]> rowsOf(String table, int key) {
+                return rowsByTable.getOrDefault(table, Collections.emptyMap()).getOrDefault(key, Collections.emptyList());
+            }
+
+            List<Object[]> recordsOfDeletedUser(int userId) {
+                return recordsByDeletedUser.getOrDefault(userId, Collections.emptyList());
+            }
+
+            // Reads the rows whose key column has one of the given values, grouped by that value
+            private Map<Integer, List<Object[]>> read(String table, String keyColumn, Set<Integer> keys) throws SQLException {
+                Map<Integer, List<Object[]>> rows = new HashMap<>();
+                if (keys.isEmpty()) {
+                    return rows;
+                }
+                List<String> columns = columns(table);
+                int keyIndex = -1;
+                for (int i = 0; i < columns.size(); i++) {
+                    if (columns.get(i).equalsIgnoreCase(keyColumn)) {
+                        keyIndex = i;
+                    }
+                }
+                String placeholders = String.join(", ", Collections.nCopies(keys.size(), "?"));
+                List<Object[]> found = new ArrayList<>();
+                try (PreparedStatement pstmt = sourceConnection.prepareStatement("SELECT " + String.join(", ", columns) +
+                        " FROM " + table + " WHERE " + keyColumn + " IN (" + placeholders + ")")) {
+                    int index = 1;
+                    for (int key : keys) {
+                        pstmt.setInt(index++, key);
+                    }
+                    readRows(pstmt, found);
+                }
+                for (Object[] row : found) {
+                    int key = ((Number) row[keyIndex]).intValue();
+                    rows.computeIfAbsent(key, k -> new ArrayList<>()).add(row);
+                }
+                return rows;
+            }
+        }
+    }
+
+    /**
+     * A unit of work run inside a replica transaction.
+     */
+    private interface ApplyWork {
+        void run() throws SQLException;
+    }
+
+    private static String[] tableOf(String name) {
+        for (String[] table : REPLICATED_TABLES) {
+            if (table[0].equals(name)) {
+                return table;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,72 @@
+package database;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import model.HealthRecord;
+import model.PeriodSummary;
+import model.RollupPeriod;
+
+/**
+ * Adds up the readings of one user over one period, as stored in a health_rollups row.
+ * Readings of zero were left empty and are not counted.
+ */
+class RollupAccumulator {
+    int recordCount;
+    int weightCount;
+    double weightSum;
+    float weightMin;
+    float weightMax;
+    int temperatureCount;
+    double temperatureSum;
+    float temperatureMin;
+    float temperatureMax;
+
+    void add(float weight, float temperature) {
+        recordCount++;
+        if (weight > 0) {
+            weightMin = weightCount == 0 ? weight : Math.min(weightMin, weight);
+            weightMax = weightCount == 0 ? weight : Math.max(weightMax, weight);
+            weightSum += weight;
+            weightCount++;
+        }
+        if (temperature > 0) {
+            temperatureMin = temperatureCount == 0 ? temperature : Math.min(temperatureMin, temperature);
+            temperatureMax = temperatureCount == 0 ? temperature : Math.max(temperatureMax, temperature);
+            temperatureSum += temperature;
+            temperatureCount++;
+        }
+    }
+
+    PeriodSummary toSummary(int userId, RollupPeriod period, LocalDate periodStart) {
+        return new PeriodSummary(userId, period, periodStart, recordCount,
+                weightCount, weightSum, weightMin, weightMax,
+                temperatureCount, temperatureSum, temperatureMin, temperatureMax);
+    }
+
+    /**
+     * Summarises records in memory, for repositories that have no rollup table. Returns the periods
+     * that contain any date between from and to, inclusive, and have at least one record, oldest first.
+     */
+    static List<PeriodSummary> summarize(Iterable<HealthRecord> records, int userId, RollupPeriod period,
+                                         LocalDate from, LocalDate to) {
+        LocalDate first = period.startOf(from);
+        Map<LocalDate, RollupAccumulator> byStart = new TreeMap<>();
+        for (HealthRecord record : records) {
+            LocalDate start = period.startOf(record.getDate());
+            if (start.isBefore(first) || start.isAfter(to)) {
+                continue;
+            }
+            byStart.computeIfAbsent(start, key -> new RollupAccumulator()).add(record.getWeight(), record.getTemperature());
+        }
+
+        List<PeriodSummary> summaries = new ArrayList<>(byStart.size());
+        for (Map.Entry<LocalDate, RollupAccumulator> entry : byStart.entrySet()) {
+            summaries.add(entry.getValue().toSummary(userId, period, entry.getKey()));
+        }
+        return summaries;
+    }
+}
@@ -0,0 +1,1017 @@
+package database;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import model.HealthRecord;
+import model.HealthRecordVersion;
+import model.PeriodSummary;
+import model.RollupPeriod;
+import model.User;
+
+/**
+ * A database that spreads users and their health records over several SQLite files (shards),
+ * so that writes for different users do not queue behind a single SQLite write lock.
+ *
+ * A new user is placed on the shard chosen by a hash of their user ID. A small directory database
+ * maps every user ID and username to the shard that currently holds the user; it is authoritative,
+ * so users can be moved between shards (see {@link #moveUser(int, int)} and tools.ShardRebalancer)
+ * while the application keeps running. Operations on one user take a per-user lock that a move
+ * takes exclusively, so no operation ever sees a half-moved user.
+ *
+ * User IDs and health record IDs are handed out by the directory, so they stay unique across
+ * shards and do not change when a user moves. Queries over all users fan out to every shard in
+ * parallel. Operations that only know a record ID fan out too, which is cheap for a handful of shards.
+ *
+ * The directory database is this object's own connection, and holds only the directory; the
+ * application's tables are in the shards. Each shard keeps its own change log, so change subscribers
+ * should subscribe to every shard returned by {@link #getShards()}.
+ */
+public class ShardedDatabase extends Database {
+
+    // Number of record IDs the directory hands out at a time
+    private static final int ID_BLOCK_SIZE = 1000;
+
+    // Number of lock stripes used for the per-user locks
+    private static final int LOCK_STRIPES = 256;
+
+    // Per-user tables copied when a user moves, with the column that holds the user ID
+    private static final String[][] USER_TABLES = {
+        {"users", "id"},
+        {"health_records", "user_id"},
+        {"health_record_history", "user_id"},
+        {"health_rollups", "user_id"},
+        {"health_record_archive", "user_id"},
+        {"health_record_archive_index", "user_id"}
+    };
+
+    // Copied tables whose text ID columns refer to the shard's own text_values dictionary
+    private static final String[] TEXT_ID_TABLES = {"health_records", "health_record_history"};
+    private static final String[] TEXT_ID_COLUMNS = {"bp_id", "note_id"};
+
+    private final List<Database> shards;
+
+    // Number of shards that new users are placed on
+    private final int placementShards;
+
+    private final Map<Integer, Integer> shardByUser = new ConcurrentHashMap<>();
+    private final ReentrantReadWriteLock[] userLocks = new ReentrantReadWriteLock[LOCK_STRIPES];
+    private final ExecutorService fanOutPool;
+
+    // Serializes multi-statement writes to the directory
+    private final Object directoryLock = new Object();
+
+    // The current block of record IDs
+    private int nextRecordId;
+    private int recordIdLimit;
+
+    /**
+     * Opens or creates a sharded database in the given folder, with files named directory.db
+     * and shard-0.db up to shard-(shardCount - 1).db.
+     *
+     * Opening an existing folder with more shards than before adds empty shards; new users are
+     * then spread over all of them, and the rebalancer can move existing users to their new place.
+     *
+     * @param folder the folder holding the database files
+     * @param shardCount the number of shards new users are spread over
+     * @throws SQLException if the directory cannot be prepared
+     */
+    public ShardedDatabase(String folder, int shardCount) throws SQLException {
+        super("jdbc:sqlite:" + new File(prepareFolder(folder), "directory.db").getPath(), ConnectionSettings.DEFAULTS, false);
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("shardCount must be at least 1");
+        }
+
+        createDirectoryTables();
+
+        // Keep any shards beyond the requested count that still hold users from an earlier layout
+        int existingShards = getHighestUsedShard() + 1;
+        List<Database> opened = new ArrayList<>();
+        for (int i = 0; i < Math.max(shardCount, existingShards); i++) {
+            opened.add(new Database("jdbc:sqlite:" + new File(folder, "shard-" + i + ".db").getPath()));
+        }
+        this.shards = Collections.unmodifiableList(opened);
+        this.placementShards = shardCount;
+        this.fanOutPool = Executors.newFixedThreadPool(shards.size(), runnable -> {
+            Thread thread = new Thread(runnable, "shard-fan-out");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            userLocks[i] = new ReentrantReadWriteLock();
+        }
+        finishInterruptedMoves();
+    }
+
+    private static String prepareFolder(String folder) {
+        new File(folder).mkdirs();
+        return folder;
+    }
+
+    private void createDirectoryTables() throws SQLException {
+        // moving_to is set while a move of the user to that shard is under way, see moveUser
+        String createDirectory = "CREATE TABLE IF NOT EXISTS user_directory (" +
+                "user_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "username TEXT NOT NULL UNIQUE," +
+                "shard INTEGER NOT NULL," +
+                "moving_to INTEGER" +
+                ")";
+        String createSequences = "CREATE TABLE IF NOT EXISTS id_sequences (" +
+                "name TEXT PRIMARY KEY," +
+                "next_id INTEGER NOT NULL" +
+                ")";
+
+        try (Statement stmt = getConnection().createStatement()) {
+            stmt.execute(createDirectory);
+            if (!getDialect().hasColumn(getConnection(), "user_directory", "moving_to")) {
+                stmt.execute("ALTER TABLE user_directory ADD COLUMN moving_to INTEGER");
+            }
+            stmt.execute(createSequences);
+            stmt.execute("INSERT INTO id_sequences (name, next_id) SELECT 'health_records', 1 " +
+                    "WHERE NOT EXISTS (SELECT 1 FROM id_sequences WHERE name = 'health_records')");
+        }
+    }
+
+    private int getHighestUsedShard() throws SQLException {
+        try (Statement stmt = getConnection().createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(shard), -1), COALESCE(MAX(moving_to), -1) FROM user_directory")) {
+            rs.next();
+            return Math.max(rs.getInt(1), rs.getInt(2));
+        }
+    }
+
+    /**
+     * Returns the shard a user ID is placed on when it is first created, for the given number of shards.
+     *
+     * @param userId the user ID
+     * @param shardCount the number of shards
+     * @return the shard index
+     */
+    public static int placement(int userId, int shardCount) {
+        // Mix the bits (MurmurHash3 finalizer) so that sequential IDs spread evenly
+        int h = userId;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return Math.floorMod(h, shardCount);
+    }
+
+    /**
+     * Returns every shard, including ones beyond the placement count that still hold users.
+     *
+     * @return the shards, in index order
+     */
+    @Override
+    public List<Database> getShards() {
+        return shards;
+    }
+
+    /**
+     * Returns the number of shards that new users are placed on.
+     * @return the placement shard count
+     */
+    public int getPlacementShardCount() {
+        return placementShards;
+    }
+
+    /**
+     * Returns the index of the shard currently holding the given user.
+     *
+     * @param userId the user ID
+     * @return the shard index, or -1 if the user is not in the directory
+     * @throws SQLException if an SQL error occurs
+     */
+    public int getShardOf(int userId) throws SQLException {
+        Integer cached = shardByUser.get(userId);
+        if (cached != null) {
+            return cached;
+        }
+        int shard;
+        Integer movingTo;
+        try (PreparedStatement pstmt = getConnection().prepareStatement("SELECT shard, moving_to FROM user_directory WHERE user_id = ?")) {
+            pstmt.setInt(1, userId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next()) {
+                    return -1;
+                }
+                shard = rs.getInt(1);
+                movingTo = (Integer) rs.getObject(2);
+            }
+        }
+        if (movingTo != null) {
+            shard = finishMove(userId, shard, movingTo);
+        }
+        shardByUser.put(userId, shard);
+        return shard;
+    }
+
+    // ---- Users ----
+
+    @Override
+    public void addUser(User user) throws SQLException {
+        int shard;
+        synchronized (directoryLock) {
+            Connection directory = getConnection();
+            String sql = "INSERT INTO user_directory (user_id, username, shard) VALUES (?, ?, -1)";
+            try (PreparedStatement pstmt = directory.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                if (user.getId() > 0) {
+                    pstmt.setInt(1, user.getId());
+                } else {
+                    pstmt.setNull(1, java.sql.Types.INTEGER);
+                }
+                pstmt.setString(2, user.getUsername());
+                pstmt.executeUpdate();
+                try (ResultSet keys = pstmt.getGeneratedKeys()) {
+                    keys.next();
+                    user.setId(keys.getInt(1));
+                }
+            }
+            shard = placement(user.getId(), placementShards);
+            setDirectoryShard(user.getId(), shard);
+        }
+
+        try {
+            shards.get(shard).addUser(user);
+        } catch (SQLException e) {
+            // Undo the directory entry so the username can be used again
+            removeFromDirectory(user.getId());
+            throw e;
+        }
+    }
+
+    @Override
+    public User getUser(int id) throws SQLException {
+        Lock lock = readLock(id);
+        lock.lock();
+        try {
+            Database shard = shardFor(id);
+            return shard == null ? null : shard.getUser(id);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public User getUserByUsername(String username) throws SQLException {
+        int userId;
+        try (PreparedStatement pstmt = getConnection().prepareStatement("SELECT user_id FROM user_directory WHERE username = ?")) {
+            pstmt.setString(1, username);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                userId = rs.getInt(1);
+            }
+        }
+        return getUser(userId);
+    }
+
+    @Override
+    public void updateUser(User user) throws SQLException {
+        Lock lock = readLock(user.getId());
+        lock.lock();
+        try {
+            Database shard = shardFor(user.getId());
+            if (shard == null) {
+                return;
+            }
+            synchronized (directoryLock) {
+                try (PreparedStatement pstmt = getConnection().prepareStatement("UPDATE user_directory SET username = ? WHERE user_id = ?")) {
+                    pstmt.setString(1, user.getUsername());
+                    pstmt.setInt(2, user.getId());
+                    pstmt.executeUpdate();
+                }
+            }
+            shard.updateUser(user);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void deleteUser(int id) throws SQLException {
+        Lock lock = readLock(id);
+        lock.lock();
+        try {
+            Database shard = shardFor(id);
+            if (shard == null) {
+                return;
+            }
+            shard.deleteUser(id);
+            removeFromDirectory(id);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<User> getAllUsers() throws SQLException {
+        List<User> users = new ArrayList<>();
+        for (List<User> shardUsers : fanOut(Database::getAllUsers)) {
+            users.addAll(shardUsers);
+        }
+        users.sort(Comparator.comparingInt(User::getId));
+        return users;
+    }
+
+    @Override
+    public int getNextUserId() throws SQLException {
+        try (Statement stmt = getConnection().createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(user_id), 0) + 1 FROM user_directory")) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    // ---- Health records ----
+
+    @Override
+    public void addHealthRecord(HealthRecord record) throws SQLException {
+        if (record.getId() <= 0) {
+            record.setId(allocateRecordId());
+        }
+        Lock lock = readLock(record.getUserId());
+        lock.lock();
+        try {
+            requireShardFor(record.getUserId()).addHealthRecord(record);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public HealthRecord getHealthRecord(int id) throws SQLException {
+        for (HealthRecord record : fanOut(shard -> shard.getHealthRecord(id))) {
+            if (record != null) {
+                return record;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void updateHealthRecord(HealthRecord record) throws SQLException {
+        Lock lock = readLock(record.getUserId());
+        lock.lock();
+        try {
+            requireShardFor(record.getUserId()).updateHealthRecord(record);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void deleteHealthRecord(int id) throws SQLException {
+        HealthRecord record = getHealthRecord(id);
+        if (record == null) {
+            return;
+        }
+        Lock lock = readLock(record.getUserId());
+        lock.lock();
+        try {
+            // Resolve the shard again under the lock, in case the user moved in the meantime
+            requireShardFor(record.getUserId()).deleteHealthRecord(id);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<HealthRecord> getAllHealthRecords(int userId) throws SQLException {
+        Lock lock = readLock(userId);
+        lock.lock();
+        try {
+            Database shard = shardFor(userId);
+            return shard == null ? new ArrayList<>() : shard.getAllHealthRecords(userId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long forEachHealthRecord(int userId, HealthRecordVisitor visitor) throws SQLException, IOException {
+        Lock lock = readLock(userId);
+        lock.lock();
+        try {
+            Database shard = shardFor(userId);
+            return shard == null ? 0 : shard.forEachHealthRecord(userId, visitor);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<HealthRecord> queryHealthRecords(HealthRecordQuery query, HealthRecord after) throws SQLException {
+        Lock lock = readLock(query.getUserId());
+        lock.lock();
+        try {
+            Database shard = shardFor(query.getUserId());
+            return shard == null ? new ArrayList<>() : shard.queryHealthRecords(query, after);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<PeriodSummary> getPeriodSummaries(int userId, RollupPeriod period, LocalDate from, LocalDate to) throws SQLException {
+        Lock lock = readLock(userId);
+        lock.lock();
+        try {
+            Database shard = shardFor(userId);
+            return shard == null ? new ArrayList<>() : shard.getPeriodSummaries(userId, period, from, to);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<HealthRecordVersion> getHealthRecordHistory(int recordId) throws SQLException {
+        for (List<HealthRecordVersion> history : fanOut(shard -> shard.getHealthRecordHistory(recordId))) {
+            if (!history.isEmpty()) {
+                return history;
+            }
+        }
+        return new ArrayList<>();
+    }
+
+    @Override
+    public List<HealthRecord> getDeletedHealthRecords(int userId) throws SQLException {
+        Lock lock = readLock(userId);
+        lock.lock();
+        try {
+            Database shard = shardFor(userId);
+            return shard == null ? new ArrayList<>() : shard.getDeletedHealthRecords(userId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public HealthRecord restoreHealthRecord(int recordId) throws SQLException {
+        for (HealthRecord record : fanOut(shard -> shard.restoreHealthRecord(recordId))) {
+            if (record != null) {
+                return record;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Runs a compaction batch on every shard and resumes from the smallest position any shard
+     * stopped at, so no shard skips records it has not yet visited.
+     */
+    @Override
+    public int compactHistoryBatch(long cutoffMillis, int maxVersions, int fromRecordId, int batchSize) throws SQLException {
+        int next = -1;
+        for (Integer shardNext : fanOut(shard -> shard.compactHistoryBatch(cutoffMillis, maxVersions, fromRecordId, batchSize))) {
+            if (shardNext >= 0 && (next < 0 || shardNext < next)) {
+                next = shardNext;
+            }
+        }
+        return next;
+    }
+
+    @Override
+    public long rebuildRollups() throws SQLException {
+        long rows = 0;
+        for (long shardRows : fanOut(Database::rebuildRollups)) {
+            rows += shardRows;
+        }
+        return rows;
+    }
+
+    @Override
+    public long archiveRecords(LocalDate cutoff) throws SQLException {
+        long archived = 0;
+        for (long shardArchived : fanOut(shard -> shard.archiveRecords(cutoff))) {
+            archived += shardArchived;
+        }
+        return archived;
+    }
+
+    @Override
+    public List<String> checkQueryPlans() throws SQLException {
+        List<String> scans = new ArrayList<>();
+        for (List<String> shardScans : fanOut(Database::checkQueryPlans)) {
+            scans.addAll(shardScans);
+        }
+        return scans;
+    }
+
+    // ---- Change log ----
+
+    /**
+     * Not available: the change log is kept per shard.
+     *
+     * @throws SQLException always; read the change log of each of {@link #getShards()} instead
+     */
+    @Override
+    public List<ChangeEvent> getChanges(Connection readConnection, long afterSeq, int limit) throws SQLException {
+        throw perShardChangeLog();
+    }
+
+    /**
+     * Not available: the change log is kept per shard.
+     *
+     * @throws SQLException always; read the change log of each of {@link #getShards()} instead
+     */
+    @Override
+    public List<ChangeEvent> getChanges(long afterSeq, int limit) throws SQLException {
+        throw perShardChangeLog();
+    }
+
+    /**
+     * Not available: the change log is kept per shard.
+     *
+     * @throws SQLException always; read the change log of each of {@link #getShards()} instead
+     */
+    @Override
+    public long getLatestChangeSeq() throws SQLException {
+        throw perShardChangeLog();
+    }
+
+    /**
+     * Not available: the change log is kept per shard.
+     *
+     * @throws SQLException always; truncate the change log of each of {@link #getShards()} instead
+     */
+    @Override
+    public int truncateChangeLog(long upToSeq) throws SQLException {
+        throw perShardChangeLog();
+    }
+
+    private static SQLException perShardChangeLog() {
+        return new SQLException("A sharded database keeps one change log per shard; use getShards()");
+    }
+
+    // ---- Bulk loading ----
+
+    @Override
+    public long bulkLoadUsers(Iterator<User> users, int batchSize) throws SQLException {
+        long count = 0;
+        List<User> chunk = new ArrayList<>(batchSize);
+        while (users.hasNext()) {
+            chunk.add(users.next());
+            if (chunk.size() == batchSize || !users.hasNext()) {
+                registerInDirectory(chunk);
+                for (Map.Entry<Integer, List<User>> entry : groupUsersByShard(chunk).entrySet()) {
+                    count += shards.get(entry.getKey()).bulkLoadUsers(entry.getValue().iterator(), batchSize);
+                }
+                chunk.clear();
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public long bulkLoadHealthRecords(Iterator<HealthRecord> records, int batchSize) throws SQLException {
+        long count = 0;
+        List<HealthRecord> chunk = new ArrayList<>(batchSize);
+        while (records.hasNext()) {
+            HealthRecord record = records.next();
+            if (record.getId() <= 0) {
+                record.setId(allocateRecordId());
+            }
+            chunk.add(record);
+            if (chunk.size() == batchSize || !records.hasNext()) {
+                Map<Integer, List<HealthRecord>> byShard = new HashMap<>();
+                for (HealthRecord item : chunk) {
+                    int shard = getShardOf(item.getUserId());
+                    if (shard < 0) {
+                        throw new SQLException("No shard for user " + item.getUserId());
+                    }
+                    byShard.computeIfAbsent(shard, key -> new ArrayList<>()).add(item);
+                }
+                for (Map.Entry<Integer, List<HealthRecord>> entry : byShard.entrySet()) {
+                    count += shards.get(entry.getKey()).bulkLoadHealthRecords(entry.getValue().iterator(), batchSize);
+                }
+                chunk.clear();
+            }
+        }
+        return count;
+    }
+
+    // ---- Rebalancing ----
+
+    /**
+     * Returns up to limit users whose current shard differs from their placement for the current
+     * shard count, i.e. the users the rebalancer still has to move.
+     *
+     * @param limit the maximum number of user IDs to return
+     * @return the IDs of misplaced users, in ascending order
+     * @throws SQLException if an SQL error occurs
+     */
+    public List<Integer> getMisplacedUsers(int limit) throws SQLException {
+        List<Integer> misplaced = new ArrayList<>();
+        int afterId = 0;
+        String sql = "SELECT user_id, shard FROM user_directory WHERE user_id > ? ORDER BY user_id LIMIT 1000";
+        while (misplaced.size() < limit) {
+            int seen = 0;
+            try (PreparedStatement pstmt = getConnection().prepareStatement(sql)) {
+                pstmt.setInt(1, afterId);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next() && misplaced.size() < limit) {
+                        seen++;
+                        afterId = rs.getInt(1);
+                        if (rs.getInt(2) != placement(afterId, placementShards)) {
+                            misplaced.add(afterId);
+                        }
+                    }
+                }
+            }
+            if (seen == 0) {
+                break;
+            }
+        }
+        return misplaced;
+    }
+
+    /**
+     * Moves a user, with their health records and record history, to another shard.
+     *
+     * The copy and the removal from the old shard run in one SQLite transaction spanning both
+     * files, and the user's lock is held exclusively for the duration, so other users are not
+     * affected and this user's operations simply wait for the move to finish.
+     *
+     * The directory is a third file, so it is updated in two steps around that transaction: the
+     * target shard is recorded as moving_to before the rows move, and becomes the user's shard once
+     * they have. If the process stops or the directory update fails in between, the next lookup of
+     * the user, or the next open, finds the rows on whichever of the two shards holds them and
+     * completes the directory. The transaction across the shards is only atomic with a rollback
+     * journal, which is what the shards are opened with.
+     *
+     * @param userId the user to move
+     * @param targetShard the index of the shard to move the user to
+     * @return true if the user was moved, false if they were already there or do not exist
+     * @throws SQLException if an SQL error occurs; the user then stays on the old shard, unless the
+     *                      rows had already moved and only the directory update failed
+     */
+    public boolean moveUser(int userId, int targetShard) throws SQLException {
+        Lock lock = userLocks[stripe(userId)].writeLock();
+        lock.lock();
+        try {
+            int sourceShard = getShardOf(userId);
+            if (sourceShard < 0 || sourceShard == targetShard) {
+                return false;
+            }
+            Database source = shards.get(sourceShard);
+            Database target = shards.get(targetShard);
+
+            setDirectoryMove(userId, targetShard);
+            try (Connection connection = DriverManager.getConnection(target.getUrl());
+                 Statement stmt = connection.createStatement()) {
+                String sourcePath = source.getUrl().substring("jdbc:sqlite:".length()).replace("'", "''");
+                stmt.execute("ATTACH DATABASE '" + sourcePath + "' AS src");
+                try {
+                    connection.setAutoCommit(false);
+                    try {
+                        copyUser(connection, userId);
+                        connection.commit();
+                    } catch (SQLException e) {
+                        connection.rollback();
+                        throw e;
+                    } finally {
+                        connection.setAutoCommit(true);
+                    }
+                } finally {
+                    stmt.execute("DETACH DATABASE src");
+                }
+            } catch (SQLException e) {
+                setDirectoryMove(userId, null);
+                throw e;
+            }
+
+            try {
+                setDirectoryShard(userId, targetShard);
+            } catch (SQLException e) {
+                // The rows are on the target now; the next lookup completes the directory
+                shardByUser.remove(userId);
+                throw e;
+            } finally {
+                source.fireCommitted();
+                target.fireCommitted();
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Completes the directory entries of moves that were interrupted before the last open.
+     */
+    private void finishInterruptedMoves() throws SQLException {
+        Map<Integer, int[]> interrupted = new HashMap<>();
+        try (Statement stmt = getConnection().createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT user_id, shard, moving_to FROM user_directory WHERE moving_to IS NOT NULL")) {
+            while (rs.next()) {
+                interrupted.put(rs.getInt(1), new int[] {rs.getInt(2), rs.getInt(3)});
+            }
+        }
+        for (Map.Entry<Integer, int[]> move : interrupted.entrySet()) {
+            finishMove(move.getKey(), move.getValue()[0], move.getValue()[1]);
+        }
+    }
+
+    /**
+     * Settles the directory entry of a user whose move did not complete: the user stays on the source
+     * shard if it still holds them, since the copy and removal commit together, and is on the target
+     * otherwise.
+     *
+     * @return the shard holding the user
+     */
+    private int finishMove(int userId, int sourceShard, int targetShard) throws SQLException {
+        if (shards.get(sourceShard).getUser(userId) != null) {
+            setDirectoryMove(userId, null);
+            return sourceShard;
+        }
+        setDirectoryShard(userId, targetShard);
+        return targetShard;
+    }
+
+    /**
+     * Copies all rows of one user from the attached source shard into the target and deletes them
+     * from the source, logging the moves in both change logs.
+     */
+    private void copyUser(Connection connection, int userId) throws SQLException {
+        long now = System.currentTimeMillis();
+
+        // Record the change events before the rows move, while the source still has them
+        String logTarget = "INSERT INTO main.change_log (table_name, operation, row_id, user_id, changed_at) ";
+        String logSource = "INSERT INTO src.change_log (table_name, operation, row_id, user_id, changed_at) ";
+        String userEvent = "SELECT 'users', '%s', id, id, " + now + " FROM src.users WHERE id = ?";
+        String recordEvent = "SELECT 'health_records', '%s', id, user_id, " + now + " FROM src.health_records WHERE user_id = ?";
+        // The target's dictionary gains the user's readings and notes, logged ahead of the records using them
+        try (Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate(logTarget + "VALUES ('text_values', 'BULK_LOAD', 0, 0, " + now + ")");
+        }
+        executeForUser(connection, logTarget + String.format(userEvent, "INSERT"), userId);
+        executeForUser(connection, logTarget + String.format(recordEvent, "INSERT"), userId);
+        executeForUser(connection, logSource + String.format(recordEvent, "DELETE"), userId);
+        executeForUser(connection, logSource + String.format(userEvent, "DELETE"), userId);
+
+        for (String[] table : USER_TABLES) {
+            String columns = String.join(", ", getDialect().columnNames(connection, table[0]));
+            executeForUser(connection, "INSERT INTO main." + table[0] + " (" + columns + ") SELECT " + columns +
+                    " FROM src." + table[0] + " WHERE " + table[1] + " = ?", userId);
+        }
+        for (String table : TEXT_ID_TABLES) {
+            for (String column : TEXT_ID_COLUMNS) {
+                remapTextIds(connection, table, column, userId);
+            }
+        }
+        for (int i = USER_TABLES.length - 1; i >= 0; i--) {
+            executeForUser(connection, "DELETE FROM src." + USER_TABLES[i][0] + " WHERE " + USER_TABLES[i][1] + " = ?", userId);
+        }
+    }
+
+    /**
+     * Points the copied rows of a user at the target's dictionary entries, which have other IDs than
+     * the source's. Values the target does not have yet are added first.
+     */
+    private static void remapTextIds(Connection connection, String table, String column, int userId) throws SQLException {
+        executeForUser(connection, "INSERT INTO main.text_values (text_value) SELECT s.text_value FROM src.text_values s " +
+                "WHERE s.id IN (SELECT " + column + " FROM src." + table + " WHERE user_id = ?) " +
+                "AND s.text_value NOT IN (SELECT text_value FROM main.text_values)", userId);
+        executeForUser(connection, "UPDATE main." + table + " SET " + column + " = (SELECT m.id FROM main.text_values m " +
+                "JOIN src.text_values s ON s.text_value = m.text_value WHERE s.id = main." + table + "." + column + ") " +
+                "WHERE user_id = ? AND " + column + " IS NOT NULL", userId);
+    }
+
+    private static void executeForUser(Connection connection, String sql, int userId) throws SQLException {
+        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
+            pstmt.setInt(1, userId);
+            pstmt.executeUpdate();
+        }
+    }
+
+
+    /**
+     * Stops the fan-out threads. The shard connections are left open.
+     */
+    public void shutdown() {
+        fanOutPool.shutdown();
+    }
+
+    /**
+     * Stops the fan-out threads, then closes every shard and the directory.
+     *
+     * @throws SQLException if a shard or the directory fails to close; the others are still closed
+     */
+    @Override
+    public void close() throws SQLException {
+        shutdown();
+        SQLException failure = null;
+        for (Database shard : shards) {
+            try {
+                shard.close();
+            } catch (SQLException e) {
+                failure = e;
+            }
+        }
+        super.close();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    // ---- Helpers ----
+
+    /**
+     * A query run against one shard during a fan-out.
+     */
+    private interface ShardQuery<T> {
+        T run(Database shard) throws SQLException;
+    }
+
+    /**
+     * Runs the query on every shard in parallel and returns the results in shard order.
+     */
+    private <T> List<T> fanOut(ShardQuery<T> query) throws SQLException {
+        List<Future<T>> futures = new ArrayList<>();
+        for (Database shard : shards) {
+            futures.add(fanOutPool.submit(() -> query.run(shard)));
+        }
+
+        List<T> results = new ArrayList<>();
+        for (Future<T> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof SQLException) {
+                    throw (SQLException) e.getCause();
+                }
+                throw new SQLException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted during fan-out query", e);
+            }
+        }
+        return results;
+    }
+
+    private Database shardFor(int userId) throws SQLException {
+        int shard = getShardOf(userId);
+        return shard < 0 ? null : shards.get(shard);
+    }
+
+    private Database requireShardFor(int userId) throws SQLException {
+        Database shard = shardFor(userId);
+        if (shard == null) {
+            throw new SQLException("No shard for user " + userId);
+        }
+        return shard;
+    }
+
+    private int stripe(int userId) {
+        return Math.floorMod(userId, LOCK_STRIPES);
+    }
+
+    private Lock readLock(int userId) {
+        return userLocks[stripe(userId)].readLock();
+    }
+
+    private void setDirectoryShard(int userId, int shard) throws SQLException {
+        synchronized (directoryLock) {
+            try (PreparedStatement pstmt = getConnection().prepareStatement(
+                    "UPDATE user_directory SET shard = ?, moving_to = NULL WHERE user_id = ?")) {
+                pstmt.setInt(1, shard);
+                pstmt.setInt(2, userId);
+                pstmt.executeUpdate();
+            }
+        }
+        shardByUser.put(userId, shard);
+    }
+
+    private void setDirectoryMove(int userId, Integer targetShard) throws SQLException {
+        synchronized (directoryLock) {
+            try (PreparedStatement pstmt = getConnection().prepareStatement("UPDATE user_directory SET moving_to = ? WHERE user_id = ?")) {
+                pstmt.setObject(1, targetShard);
+                pstmt.setInt(2, userId);
+                pstmt.executeUpdate();
+            }
+        }
+    }
+
+    private void removeFromDirectory(int userId) throws SQLException {
+        synchronized (directoryLock) {
+            try (PreparedStatement pstmt = getConnection().prepareStatement("DELETE FROM user_directory WHERE user_id = ?")) {
+                pstmt.setInt(1, userId);
+                pstmt.executeUpdate();
+            }
+        }
+        shardByUser.remove(userId);
+    }
+
+    /**
+     * Adds a chunk of users to the directory in one transaction, assigning IDs where needed.
+     */
+    private void registerInDirectory(List<User> users) throws SQLException {
+        synchronized (directoryLock) {
+            Connection directory = getConnection();
+            directory.setAutoCommit(false);
+            try {
+                String sql = "INSERT INTO user_directory (user_id, username, shard) VALUES (?, ?, -1)";
+                try (PreparedStatement pstmt = directory.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                    for (User user : users) {
+                        if (user.getId() > 0) {
+                            pstmt.setInt(1, user.getId());
+                        } else {
+                            pstmt.setNull(1, java.sql.Types.INTEGER);
+                        }
+                        pstmt.setString(2, user.getUsername());
+                        pstmt.executeUpdate();
+                        try (ResultSet keys = pstmt.getGeneratedKeys()) {
+                            keys.next();
+                            user.setId(keys.getInt(1));
+                        }
+                    }
+                }
+                try (PreparedStatement pstmt = directory.prepareStatement("UPDATE user_directory SET shard = ? WHERE user_id = ?")) {
+                    for (User user : users) {
+                        int shard = placement(user.getId(), placementShards);
+                        pstmt.setInt(1, shard);
+                        pstmt.setInt(2, user.getId());
+                        pstmt.addBatch();
+                        shardByUser.put(user.getId(), shard);
+                    }
+                    pstmt.executeBatch();
+                }
+                directory.commit();
+            } catch (SQLException e) {
+                directory.rollback();
+                for (User user : users) {
+                    shardByUser.remove(user.getId());
+                }
+                throw e;
+            } finally {
+                directory.setAutoCommit(true);
+            }
+        }
+    }
+
+    private Map<Integer, List<User>> groupUsersByShard(List<User> users) {
+        Map<Integer, List<User>> byShard = new HashMap<>();
+        for (User user : users) {
+            byShard.computeIfAbsent(shardByUser.get(user.getId()), key -> new ArrayList<>()).add(user);
+        }
+        return byShard;
+    }
+
+    /**
+     * Returns the next globally unique record ID, leasing a new block from the directory when needed.
+     */
+    private synchronized int allocateRecordId() throws SQLException {
+        if (nextRecordId == 0 || nextRecordId >= recordIdLimit) {
+            synchronized (directoryLock) {
+                Connection directory = getConnection();
+                directory.setAutoCommit(false);
+                try {
+                    int start;
+                    try (Statement stmt = directory.createStatement();
+                         ResultSet rs = stmt.executeQuery("SELECT next_id FROM id_sequences WHERE name = 'health_records'")) {
+                        rs.next();
+                        start = rs.getInt(1);
+                    }
+                    try (PreparedStatement pstmt = directory.prepareStatement("UPDATE id_sequences SET next_id = ? WHERE name = 'health_records'")) {
+                        pstmt.setInt(1, start + ID_BLOCK_SIZE);
+                        pstmt.executeUpdate();
+                    }
+                    directory.commit();
+                    nextRecordId = start;
+                    recordIdLimit = start + ID_BLOCK_SIZE;
+                } catch (SQLException e) {
+                    directory.rollback();
+                    throw e;
+                } finally {
+                    directory.setAutoCommit(true);
+                }
+            }
+        }
+        return nextRecordId++;
+    }
+}
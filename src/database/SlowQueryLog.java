@@ -0,0 +1,333 @@
+package database;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An opt-in log of the statements that take longer than a threshold. A database given a log with
+ * {@link Database#setSlowQueryLog(SlowQueryLog)} hands every statement it runs through it, so the log
+ * covers all of the database's reads and writes, and with them those of the controllers on top.
+ *
+ * Each entry is one line with the time, the elapsed milliseconds, the number of rows read or
+ * changed, the code that ran the statement, the SQL and the types of its parameters:
+ * <pre>
+ * 2024-03-01T09:12:44.120 152.4 ms rows=365 UserController.login &gt; Database.getUserByUsername
+ *     SELECT id, username, ... FROM users WHERE username = ? [text(8)]
+ * </pre>
+ * (on one line). Parameter values are never written, since they are passwords, names and readings;
+ * only their type, and the length of text, which is usually what explains a slow statement.
+ *
+ * A query is timed from its execution until its result set is closed, so the time includes reading
+ * the rows, which is where SQLite does most of the work. Connections are wrapped in dynamic proxies,
+ * which adds a small cost to every JDBC call; that is why the log is off unless configured.
+ */
+public final class SlowQueryLog implements Closeable {
+
+    private final Writer out;
+    private volatile long thresholdNanos;
+    private long entries;
+
+    /**
+     * Creates a log that appends to a file, creating it if needed.
+     *
+     * @param file the log file
+     * @param thresholdMillis the elapsed time from which a statement is logged
+     * @throws IOException if the file cannot be opened
+     */
+    public SlowQueryLog(Path file, long thresholdMillis) throws IOException {
+        this(Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND),
+                thresholdMillis);
+    }
+
+    /**
+     * Creates a log that writes to the given writer.
+     *
+     * @param out where the entries are written
+     * @param thresholdMillis the elapsed time from which a statement is logged
+     */
+    public SlowQueryLog(Writer out, long thresholdMillis) {
+        this.out = out;
+        setThresholdMillis(thresholdMillis);
+    }
+
+    /**
+     * Changes the elapsed time from which a statement is logged. Applies to statements finishing from now on.
+     *
+     * @param thresholdMillis the threshold in milliseconds, 0 to log every statement
+     */
+    public void setThresholdMillis(long thresholdMillis) {
+        if (thresholdMillis < 0) {
+            throw new IllegalArgumentException("The threshold must not be negative: " + thresholdMillis);
+        }
+        this.thresholdNanos = thresholdMillis * 1_000_000;
+    }
+
+    /**
+     * Returns the elapsed time from which a statement is logged.
+     * @return the threshold in milliseconds
+     */
+    public long getThresholdMillis() {
+        return thresholdNanos / 1_000_000;
+    }
+
+    /**
+     * Returns the number of statements logged so far.
+     * @return the number of slow statements
+     */
+    public synchronized long getEntries() {
+        return entries;
+    }
+
+    /**
+     * Writes a line that is not about a single statement, such as a warning about a query plan.
+     *
+     * @param message the line to write
+     */
+    public synchronized void note(String message) {
+        write(LocalDateTime.now() + " " + message);
+    }
+
+    /**
+     * Returns a connection that runs everything on the given one and logs its slow statements.
+     *
+     * @param connection the connection to watch
+     * @return the watching connection; closing it closes the given one
+     */
+    public Connection wrap(Connection connection) {
+        return proxy(Connection.class, connection, (proxy, method, args) -> {
+            Object result = invoke(connection, method, args);
+            if (method.getName().equals("prepareStatement")) {
+                return watch(PreparedStatement.class, (Statement) result, (String) args[0]);
+            }
+            if (method.getName().equals("createStatement")) {
+                return watch(Statement.class, (Statement) result, null);
+            }
+            return result;
+        });
+    }
+
+    /**
+     * Closes the log file.
+     *
+     * @throws IOException if the file cannot be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+
+    /**
+     * Returns a statement that times its executions. For a prepared statement the SQL is known up
+     * front; a plain statement gets it with each execution.
+     */
+    private <T extends Statement> T watch(Class<T> type, Statement statement, String preparedSql) {
+        StatementState state = new StatementState();
+        return proxy(type, statement, (proxy, method, args) -> {
+            String name = method.getName();
+            if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer
+                    && method.getDeclaringClass() == PreparedStatement.class) {
+                state.bind((Integer) args[0], name.equals("setNull") ? null : args[1]);
+                return invoke(statement, method, args);
+            }
+            if (name.equals("clearParameters")) {
+                state.parameters.clear();
+                return invoke(statement, method, args);
+            }
+            if (name.equals("addBatch")) {
+                state.batchSize++;
+                if (args != null) {
+                    state.batchSql = (String) args[0];
+                }
+                return invoke(statement, method, args);
+            }
+            if (name.equals("close")) {
+                state.finishQuery();
+                return invoke(statement, method, args);
+            }
+            if (!name.startsWith("execute")) {
+                return invoke(statement, method, args);
+            }
+
+            state.finishQuery();
+            String sql = preparedSql != null ? preparedSql : args != null ? (String) args[0] : state.batchSql;
+            long start = System.nanoTime();
+            Object result = invoke(statement, method, args);
+            if (result instanceof ResultSet) {
+                // Timed until the rows have been read
+                return state.startQuery(sql, (ResultSet) result, start);
+            }
+            long rows = -1;
+            if (result instanceof Integer || result instanceof Long) {
+                rows = ((Number) result).longValue();
+            } else if (result instanceof int[]) {
+                rows = 0;
+                for (int count : (int[]) result) {
+                    rows += Math.max(count, 0);
+                }
+            }
+            finish(sql, state.describeParameters(), rows, System.nanoTime() - start);
+            state.batchSize = 0;
+            return result;
+        });
+    }
+
+    /**
+     * The parameters bound to a statement and its result set being read.
+     */
+    private final class StatementState {
+        final List<String> parameters = new ArrayList<>();
+        int batchSize;
+
+        // The last statement added to the batch of a plain statement
+        String batchSql;
+
+        // The result set of the query being read, with its SQL, start time and rows read so far
+        ResultSet openQuery;
+        String querySql;
+        String queryParameters;
+        long queryStart;
+        long queryRows;
+
+        void bind(int index, Object value) {
+            while (parameters.size() < index) {
+                parameters.add("?");
+            }
+            parameters.set(index - 1, redact(value));
+        }
+
+        String describeParameters() {
+            String described = parameters.toString();
+            return batchSize > 0 ? described + " x" + batchSize : described;
+        }
+
+        ResultSet startQuery(String sql, ResultSet resultSet, long start) {
+            querySql = sql;
+            queryParameters = describeParameters();
+            queryStart = start;
+            queryRows = 0;
+            openQuery = proxy(ResultSet.class, resultSet, (proxy, method, args) -> {
+                Object result = invoke(resultSet, method, args);
+                if (method.getName().equals("next") && Boolean.TRUE.equals(result)) {
+                    queryRows++;
+                } else if (method.getName().equals("close")) {
+                    finishQuery();
+                }
+                return result;
+            });
+            return openQuery;
+        }
+
+        // Logs the query being read, if any; called when its result set or statement is closed,
+        // or the statement runs again
+        void finishQuery() {
+            if (openQuery != null) {
+                openQuery = null;
+                finish(querySql, queryParameters, queryRows, System.nanoTime() - queryStart);
+            }
+        }
+    }
+
+    private void finish(String sql, String parameters, long rows, long nanos) {
+        if (nanos < thresholdNanos) {
+            return;
+        }
+        String line = String.format("%s %.1f ms rows=%s %s %s %s", LocalDateTime.now(), nanos / 1e6,
+                rows < 0 ? "-" : Long.toString(rows), caller(), sql.replaceAll("\\s+", " ").trim(), parameters);
+        synchronized (this) {
+            entries++;
+            write(line);
+        }
+    }
+
+    private void write(String line) {
+        try {
+            out.write(line);
+            out.write(System.lineSeparator());
+            out.flush();
+        } catch (IOException e) {
+            // The log must never fail the statement it describes
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Describes a bound value without revealing it.
+     *
+     * @param value the bound value, may be null
+     * @return the type of the value, with the length of text and bytes
+     */
+    public static String redact(Object value) {
+        if (value == null) {
+            return "null";
+        }
+        if (value instanceof CharSequence) {
+            return "text(" + ((CharSequence) value).length() + ")";
+        }
+        if (value instanceof byte[]) {
+            return "bytes(" + ((byte[]) value).length + ")";
+        }
+        if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            return "int";
+        }
+        if (value instanceof Float || value instanceof Double || value instanceof BigDecimal) {
+            return "real";
+        }
+        return value.getClass().getSimpleName();
+    }
+
+    /**
+     * Names the application code that ran the statement: the first method outside the database
+     * package, followed by the last database method before the JDBC call.
+     */
+    private static String caller() {
+        return StackWalker.getInstance().walk(frames -> {
+            String databaseMethod = null;
+            for (StackWalker.StackFrame frame : (Iterable<StackWalker.StackFrame>) frames::iterator) {
+                String className = frame.getClassName();
+                if (className.equals(SlowQueryLog.class.getName()) || className.startsWith(SlowQueryLog.class.getName() + "$")
+                        || className.startsWith("com.sun.proxy.") || className.startsWith("jdk.proxy")
+                        || className.startsWith("java.") || className.startsWith("jdk.")) {
+                    continue;
+                }
+                String method = className.substring(className.lastIndexOf('.') + 1).replaceAll("\\$.*", "") + "." + frame.getMethodName();
+                if (!className.startsWith("database.")) {
+                    return databaseMethod == null ? method : method + " > " + databaseMethod;
+                }
+                if (!frame.getMethodName().startsWith("lambda$")) {
+                    databaseMethod = method;
+                }
+            }
+            return databaseMethod != null ? databaseMethod : "?";
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, Object target, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(SlowQueryLog.class.getClassLoader(), new Class<?>[] {type}, handler);
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
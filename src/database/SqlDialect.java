@@ -0,0 +1,191 @@
+package database;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The parts of SQL that differ between the database engines {@link Database} can run on: column
+ * types, key generation, connection settings and bulk-load tuning.
+ *
+ * The engine is chosen by the JDBC URL. SQLite allows one writer at a time for the whole file.
+ * H2 keeps row-level locks and lets several connections write at once, which suits running a bulk
+ * import next to interactive use. Its driver is loaded at runtime, so it only has to be on the
+ * classpath when an H2 URL is used.
+ */
+public abstract class SqlDialect {
+
+    /**
+     * The dialect for SQLite database files ("jdbc:sqlite:...").
+     */
+    public static final SqlDialect SQLITE = new SqliteDialect();
+
+    /**
+     * The dialect for embedded H2 databases ("jdbc:h2:...").
+     */
+    public static final SqlDialect H2 = new H2Dialect();
+
+    /**
+     * Returns the dialect for a JDBC URL.
+     *
+     * @param url the JDBC URL
+     * @return the matching dialect
+     * @throws IllegalArgumentException if the URL is for an unsupported engine
+     */
+    public static SqlDialect forUrl(String url) {
+        if (url.startsWith("jdbc:sqlite:")) {
+            return SQLITE;
+        }
+        if (url.startsWith("jdbc:h2:")) {
+            return H2;
+        }
+        throw new IllegalArgumentException("Unsupported database URL: " + url);
+    }
+
+    /**
+     * Returns the name of the engine, for reports.
+     * @return the engine name
+     */
+    public abstract String getName();
+
+    /**
+     * Returns the column definition of an integer primary key that the database fills in
+     * when NULL is inserted.
+     * @return the column definition
+     */
+    public abstract String generatedIdColumn();
+
+    /**
+     * Returns the column definition of a 64-bit primary key that is never reused, for log sequence numbers.
+     * @return the column definition
+     */
+    public abstract String sequenceColumn();
+
+    /**
+     * Returns the type of text columns.
+     * @return the type name
+     */
+    public abstract String textType();
+
+    /**
+     * Returns the type of columns holding epoch milliseconds, including record dates.
+     * @return the type name
+     */
+    public abstract String millisType();
+
+    /**
+     * Returns the type of record date columns. Dates are stored as epoch milliseconds.
+     * @return the type name
+     */
+    public String dateType() {
+        return millisType();
+    }
+
+    /**
+     * Returns whether several connections can write at the same time without waiting for each other.
+     * @return true if concurrent writers are supported
+     */
+    public abstract boolean supportsConcurrentWriters();
+
+    /**
+     * Applies per-connection settings to a newly opened connection.
+     *
+     * @param connection the new connection
+     * @throws SQLException if a setting cannot be applied
+     */
+    public void configureConnection(Connection connection) throws SQLException {
+    }
+
+    /**
+     * Applies the engine settings of a {@link ConnectionSettings} to a connection. Does nothing by
+     * default, for engines without such settings.
+     *
+     * @param stmt a statement on the connection
+     * @param settings the settings; null values are left as they are
+     * @param opening true for a newly opened connection; the page size and journal mode are only set
+     *                then, since changing them needs the database to be otherwise unused
+     * @throws SQLException if a setting cannot be applied
+     */
+    public void applySettings(Statement stmt, ConnectionSettings settings, boolean opening) throws SQLException {
+    }
+
+    /**
+     * Returns how the engine would run a statement, one step per entry, without running it.
+     * Returns no steps by default, for engines whose plans are not inspected.
+     *
+     * @param connection the connection to plan on
+     * @param sql the statement
+     * @param parameters the values of its parameters, in order
+     * @return the steps of the plan
+     * @throws SQLException if the plan cannot be read
+     */
+    public List<String> queryPlan(Connection connection, String sql, List<Object> parameters) throws SQLException {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Returns the names of the columns of a table, in the order they were defined.
+     *
+     * @param connection the connection to look through
+     * @param table the table name
+     * @return the column names, empty if there is no such table
+     * @throws SQLException if the schema cannot be read
+     */
+    public abstract List<String> columnNames(Connection connection, String table) throws SQLException;
+
+    /**
+     * Returns whether a table has a column with the given name.
+     *
+     * @param connection the connection to look through
+     * @param table the table name
+     * @param column the column name
+     * @return true if the column exists
+     * @throws SQLException if the schema cannot be read
+     */
+    public abstract boolean hasColumn(Connection connection, String table, String column) throws SQLException;
+
+    /**
+     * Relaxes durability for the duration of a bulk load.
+     *
+     * @param stmt a statement on the loading connection
+     * @return the previous setting, to pass to {@link #endBulkLoad(Statement, String)}
+     * @throws SQLException if the setting cannot be changed
+     */
+    public String beginBulkLoad(Statement stmt) throws SQLException {
+        return null;
+    }
+
+    /**
+     * Restores the durability setting changed by {@link #beginBulkLoad(Statement)}.
+     *
+     * @param stmt a statement on the loading connection
+     * @param previous the value returned by beginBulkLoad
+     * @throws SQLException if the setting cannot be changed
+     */
+    public void endBulkLoad(Statement stmt, String previous) throws SQLException {
+    }
+
+    /**
+     * Makes sure that keys generated for a table continue after the highest key stored so far.
+     * Called after rows were inserted with explicit keys, outside of any transaction.
+     *
+     * @param connection the connection to use
+     * @param table the table name
+     * @param column the generated key column
+     * @throws SQLException if the key generator cannot be adjusted
+     */
+    public void syncGeneratedKeys(Connection connection, String table, String column) throws SQLException {
+    }
+
+    /**
+     * Writes everything the engine still holds in its log into the database file, so that closing
+     * leaves a file that opens without recovery. Does nothing by default.
+     *
+     * @param stmt a statement on the connection about to be closed
+     * @throws SQLException if the checkpoint fails
+     */
+    public void checkpoint(Statement stmt) throws SQLException {
+    }
+}
@@ -0,0 +1,137 @@
+package database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * SQLite: one writer at a time per file. The column types are the ones the application has always
+ * used, so existing database files keep their schema.
+ */
+class SqliteDialect extends SqlDialect {
+
+    @Override
+    public String getName() {
+        return "SQLite";
+    }
+
+    @Override
+    public String generatedIdColumn() {
+        return "INTEGER PRIMARY KEY";
+    }
+
+    @Override
+    public String sequenceColumn() {
+        return "INTEGER PRIMARY KEY AUTOINCREMENT";
+    }
+
+    @Override
+    public String textType() {
+        return "TEXT";
+    }
+
+    @Override
+    public String millisType() {
+        return "INTEGER";
+    }
+
+    @Override
+    public String dateType() {
+        // Declared TEXT by the first version of the schema; SQLite reads the stored milliseconds back either way
+        return "TEXT";
+    }
+
+    @Override
+    public boolean supportsConcurrentWriters() {
+        return false;
+    }
+
+    @Override
+    public void applySettings(Statement stmt, ConnectionSettings settings, boolean opening) throws SQLException {
+        if (opening && settings.getPageSize() != null) {
+            // Before the journal mode, since a file in WAL mode cannot change its page size
+            stmt.execute("PRAGMA page_size = " + settings.getPageSize());
+        }
+        if (opening && settings.getJournalMode() != null) {
+            stmt.execute("PRAGMA journal_mode = " + settings.getJournalMode());
+        }
+        if (settings.getCacheSize() != null) {
+            stmt.execute("PRAGMA cache_size = " + settings.getCacheSize());
+        }
+        if (settings.getMmapSize() != null) {
+            stmt.execute("PRAGMA mmap_size = " + settings.getMmapSize());
+        }
+        if (settings.getSynchronous() != null) {
+            stmt.execute("PRAGMA synchronous = " + settings.getSynchronous());
+        }
+        if (settings.getTempStore() != null) {
+            stmt.execute("PRAGMA temp_store = " + settings.getTempStore());
+        }
+    }
+
+    @Override
+    public List<String> queryPlan(Connection connection, String sql, List<Object> parameters) throws SQLException {
+        List<String> steps = new ArrayList<>();
+        try (PreparedStatement pstmt = connection.prepareStatement("EXPLAIN QUERY PLAN " + sql)) {
+            for (int i = 0; i < parameters.size(); i++) {
+                pstmt.setObject(i + 1, parameters.get(i));
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    steps.add(rs.getString("detail"));
+                }
+            }
+        }
+        return steps;
+    }
+
+    @Override
+    public List<String> columnNames(Connection connection, String table) throws SQLException {
+        List<String> columns = new ArrayList<>();
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA main.table_info(" + table + ")")) {
+            while (rs.next()) {
+                columns.add(rs.getString("name"));
+            }
+        }
+        return columns;
+    }
+
+    @Override
+    public boolean hasColumn(Connection connection, String table, String column) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (rs.next()) {
+                if (column.equalsIgnoreCase(rs.getString("name"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void checkpoint(Statement stmt) throws SQLException {
+        // Copies the write-ahead log into the file and empties it; a file not in WAL mode has no log
+        stmt.execute("PRAGMA wal_checkpoint(TRUNCATE)");
+    }
+
+    @Override
+    public String beginBulkLoad(Statement stmt) throws SQLException {
+        String synchronous;
+        try (ResultSet rs = stmt.executeQuery("PRAGMA synchronous")) {
+            synchronous = rs.next() ? rs.getString(1) : "2";
+        }
+        stmt.execute("PRAGMA synchronous = OFF");
+        return synchronous;
+    }
+
+    @Override
+    public void endBulkLoad(Statement stmt, String previous) throws SQLException {
+        stmt.execute("PRAGMA synchronous = " + previous);
+    }
+}
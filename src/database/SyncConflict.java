@@ -0,0 +1,106 @@
+package database;
+
+/**
+ * A write made in an {@link OfflineDatabase} that the {@link SyncWorker} did not apply to the primary,
+ * because the record had been changed or deleted there since the local copy was taken. The primary's
+ * version of the record is kept.
+ */
+public class SyncConflict {
+
+    private final long seq;
+    private final String operation;
+    private final int localRecordId;
+    private final int primaryRecordId;
+    private final int expectedVersion;
+    private final int primaryVersion;
+    private final String reason;
+    private final long detectedAt;
+
+    /**
+     * Constructs a sync conflict.
+     *
+     * @param seq the outbox sequence number of the write
+     * @param operation the kind of write: INSERT, UPDATE, DELETE or RESTORE
+     * @param localRecordId the record ID in the local database
+     * @param primaryRecordId the record ID in the primary database
+     * @param expectedVersion the version the write was based on
+     * @param primaryVersion the version found in the primary, or 0 if the record is not there
+     * @param reason a short description of the conflict
+     * @param detectedAt when the conflict was found, in milliseconds since the epoch
+     */
+    public SyncConflict(long seq, String operation, int localRecordId, int primaryRecordId, int expectedVersion,
+                        int primaryVersion, String reason, long detectedAt) {
+        this.seq = seq;
+        this.operation = operation;
+        this.localRecordId = localRecordId;
+        this.primaryRecordId = primaryRecordId;
+        this.expectedVersion = expectedVersion;
+        this.primaryVersion = primaryVersion;
+        this.reason = reason;
+        this.detectedAt = detectedAt;
+    }
+
+    /**
+     * Returns the outbox sequence number of the write.
+     * @return the sequence number
+     */
+    public long getSeq() {
+        return seq;
+    }
+
+    /**
+     * Returns the kind of write: INSERT, UPDATE, DELETE or RESTORE.
+     * @return the operation
+     */
+    public String getOperation() {
+        return operation;
+    }
+
+    /**
+     * Returns the record ID in the local database.
+     * @return the local record ID
+     */
+    public int getLocalRecordId() {
+        return localRecordId;
+    }
+
+    /**
+     * Returns the record ID in the primary database.
+     * @return the primary record ID
+     */
+    public int getPrimaryRecordId() {
+        return primaryRecordId;
+    }
+
+    /**
+     * Returns the version of the record the write was based on.
+     * @return the expected version
+     */
+    public int getExpectedVersion() {
+        return expectedVersion;
+    }
+
+    /**
+     * Returns the version of the record found in the primary.
+     * @return the primary's version, or 0 if the record is not there
+     */
+    public int getPrimaryVersion() {
+        return primaryVersion;
+    }
+
+    /**
+     * Returns a short description of the conflict.
+     * @return the reason
+     */
+    public String getReason() {
+        return reason;
+    }
+
+    /**
+     * Returns when the conflict was found.
+     * @return the time in milliseconds since the epoch
+     */
+    public long getDetectedAt() {
+        return detectedAt;
+    }
+}
@@ -0,0 +1,467 @@
+package database;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import model.HealthRecord;
+
+/**
+ * Copies the health record writes made in an {@link OfflineDatabase} to the primary database in the
+ * background, whenever the primary can be reached.
+ *
+ * The worker takes the oldest outbox entries in batches and applies each batch to the primary in a
+ * single transaction. Updates, deletes and restores carry the version of the record they were based
+ * on; if the primary's record has moved on since then, or is gone, the write is skipped and recorded
+ * as a {@link SyncConflict}, and the primary's version is kept. Records created offline get a new ID
+ * in the primary, and later writes to them are translated to that ID.
+ *
+ * The primary's sync tables are updated in the same transaction as the records: the last outbox
+ * sequence number applied for each client, the IDs given to records created offline, and the
+ * conflicts. So a batch whose transaction committed but whose outbox entries were not yet removed,
+ * because the connection dropped or the application closed, is skipped rather than applied twice.
+ *
+ * While the primary cannot be reached, the worker retries with a growing pause. Only health record
+ * writes are synchronized; users are managed on the primary, and changes made on the primary are
+ * not copied back to the local file.
+ */
+public class SyncWorker implements AutoCloseable {
+
+    /**
+     * The system property that, when set to a JDBC URL, makes the application work on a local database
+     * file and synchronize it to the database at that URL, e.g.
+     * -Dmyhealthtracker.primary.url=jdbc:sqlite:S:/clinic/myhealthtracker.db
+     */
+    public static final String PRIMARY_URL_PROPERTY = "myhealthtracker.primary.url";
+
+    /**
+     * The number of outbox entries applied per primary transaction, unless set otherwise.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 200;
+
+    /**
+     * How often the worker looks for writes to synchronize, in milliseconds, unless set otherwise.
+     */
+    public static final long DEFAULT_INTERVAL_MILLIS = 5000;
+
+    // The longest pause between attempts to reach an unreachable primary, in milliseconds
+    private static final long MAX_RETRY_MILLIS = 60_000;
+
+    private final OfflineDatabase local;
+    private final String primaryUrl;
+    private final int batchSize;
+    private final long intervalMillis;
+
+    // Guarded by syncLock: the open primary database, or null until it is reached
+    private final Object syncLock = new Object();
+    private Database primary;
+
+    // Set when the local database commits, so new writes are sent without waiting for the interval
+    private final Object wakeMonitor = new Object();
+    private boolean wakeRequested;
+    private final Runnable commitListener = this::wake;
+
+    private volatile boolean running;
+    private volatile boolean primaryReachable;
+    private Thread thread;
+
+    /**
+     * Creates a sync worker. It does nothing until started, apart from {@link #syncOnce()}.
+     *
+     * @param local the local database whose writes are synchronized
+     * @param primaryUrl the JDBC URL of the primary database
+     * @param batchSize the maximum number of writes applied per primary transaction
+     * @param intervalMillis how often to look for writes to synchronize, in milliseconds
+     */
+    public SyncWorker(OfflineDatabase local, String primaryUrl, int batchSize, long intervalMillis) {
+        this.local = local;
+        this.primaryUrl = primaryUrl;
+        this.batchSize = batchSize;
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * Starts synchronizing on a background thread.
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        local.addCommitListener(commitListener);
+        thread = new Thread(this::run, "offline-sync");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Applies one batch of outbox entries to the primary.
+     *
+     * @return the number of outbox entries handled, applied or recorded as conflicts; 0 if the outbox
+     *         is empty or the primary cannot be reached
+     * @throws SQLException if the batch could not be applied; it is then retried by the next call
+     */
+    public int syncOnce() throws SQLException {
+        synchronized (syncLock) {
+            List<OfflineDatabase.OutboxEntry> batch = local.readOutbox(batchSize);
+            if (batch.isEmpty()) {
+                return 0;
+            }
+            Database target = connectPrimary();
+            if (target == null) {
+                return 0;
+            }
+
+            long lastSeq = batch.get(batch.size() - 1).seq;
+            try {
+                target.inTransaction(() -> {
+                    long appliedSeq = readAppliedSeq(target);
+                    for (OfflineDatabase.OutboxEntry entry : batch) {
+                        // Entries up to appliedSeq were committed by an earlier attempt
+                        if (entry.seq > appliedSeq) {
+                            apply(target, entry);
+                        }
+                    }
+                    writeAppliedSeq(target, lastSeq);
+                });
+            } catch (SQLException e) {
+                // Most likely the primary went away; open it afresh next time
+                disconnect();
+                throw e;
+            }
+            local.removeFromOutbox(lastSeq);
+            return batch.size();
+        }
+    }
+
+    /**
+     * Returns whether the last attempt to reach the primary succeeded.
+     * @return true if the primary was reachable
+     */
+    public boolean isPrimaryReachable() {
+        return primaryReachable;
+    }
+
+    /**
+     * Returns the writes of this client that the primary rejected, oldest first.
+     *
+     * @return the conflicts
+     * @throws SQLException if the primary cannot be reached or read
+     */
+    public List<SyncConflict> getConflicts() throws SQLException {
+        String sql = "SELECT * FROM sync_conflicts WHERE client_id = ? ORDER BY seq";
+
+        synchronized (syncLock) {
+            Database target = connectPrimary();
+            if (target == null) {
+                throw new SQLException("The primary database cannot be reached: " + primaryUrl);
+            }
+            List<SyncConflict> conflicts = new ArrayList<>();
+            try (PreparedStatement pstmt = target.getConnection().prepareStatement(sql)) {
+                pstmt.setString(1, local.getClientId());
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        conflicts.add(new SyncConflict(rs.getLong("seq"), rs.getString("operation"),
+                                rs.getInt("local_record_id"), rs.getInt("primary_record_id"),
+                                rs.getInt("expected_version"), rs.getInt("primary_version"),
+                                rs.getString("reason"), rs.getLong("detected_at")));
+                    }
+                }
+            }
+            return conflicts;
+        }
+    }
+
+    /**
+     * Stops the background thread and closes the connection to the primary. Writes still in the
+     * outbox are sent the next time a worker runs.
+     */
+    @Override
+    public void close() {
+        Thread stopping;
+        synchronized (this) {
+            running = false;
+            stopping = thread;
+            thread = null;
+        }
+        local.removeCommitListener(commitListener);
+        if (stopping != null) {
+            stopping.interrupt();
+            try {
+                stopping.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (syncLock) {
+            disconnect();
+        }
+    }
+
+    private void run() {
+        long pause = intervalMillis;
+        while (running) {
+            try {
+                // Keep going while full batches come back, so a long offline period drains quickly
+                int handled;
+                do {
+                    handled = syncOnce();
+                } while (running && handled == batchSize);
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+            // Back off while the primary is out of reach, and ignore local commits meanwhile
+            pause = primaryReachable ? intervalMillis : Math.min(pause * 2, MAX_RETRY_MILLIS);
+            if (!waitForWork(pause, primaryReachable)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Waits for the pause to pass or, if wakeable, for a local commit.
+     * Returns false if the thread was interrupted.
+     */
+    private boolean waitForWork(long pauseMillis, boolean wakeable) {
+        long deadline = System.currentTimeMillis() + pauseMillis;
+        synchronized (wakeMonitor) {
+            try {
+                long remaining;
+                while (running && !(wakeable && wakeRequested) && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                    wakeMonitor.wait(remaining);
+                }
+            } catch (InterruptedException e) {
+                return false;
+            }
+            wakeRequested = false;
+        }
+        return true;
+    }
+
+    private void wake() {
+        synchronized (wakeMonitor) {
+            wakeRequested = true;
+            wakeMonitor.notifyAll();
+        }
+    }
+
+    /**
+     * Returns the primary database, opening it if needed, or null if it cannot be reached.
+     */
+    private Database connectPrimary() throws SQLException {
+        if (primary != null) {
+            primaryReachable = true;
+            return primary;
+        }
+        // SQLite creates a missing file, which would leave a new empty primary on an unmounted share
+        if (primaryUrl.startsWith("jdbc:sqlite:") && !Files.exists(Paths.get(sqlitePath(primaryUrl)))) {
+            primaryReachable = false;
+            return null;
+        }
+        Database opened = new Database(primaryUrl);
+        if (opened.getConnection() == null) {
+            primaryReachable = false;
+            return null;
+        }
+        primary = opened;
+        try {
+            createSyncTablesIfNotExist(opened);
+        } catch (SQLException e) {
+            disconnect();
+            throw e;
+        }
+        primaryReachable = true;
+        return primary;
+    }
+
+    private void disconnect() {
+        primaryReachable = false;
+        if (primary == null) {
+            return;
+        }
+        try {
+            primary.getConnection().close();
+        } catch (SQLException e) {
+            // The connection is being abandoned anyway
+        }
+        primary = null;
+    }
+
+    private static String sqlitePath(String url) {
+        String path = url.substring("jdbc:sqlite:".length());
+        int query = path.indexOf('?');
+        return query >= 0 ? path.substring(0, query) : path;
+    }
+
+    /**
+     * Creates the primary's sync tables if they do not already exist.
+     */
+    private static void createSyncTablesIfNotExist(Database target) throws SQLException {
+        SqlDialect dialect = target.getDialect();
+        String text = dialect.textType();
+
+        // The last outbox sequence number applied for each client
+        String createClientsTable = "CREATE TABLE IF NOT EXISTS sync_clients (" +
+                "client_id " + text + " PRIMARY KEY," +
+                "applied_seq BIGINT NOT NULL" +
+                ")";
+
+        // The primary IDs of records created offline
+        String createIdMapTable = "CREATE TABLE IF NOT EXISTS sync_id_map (" +
+                "client_id " + text + " NOT NULL," +
+                "local_id INTEGER NOT NULL," +
+                "primary_id INTEGER NOT NULL," +
+                "PRIMARY KEY (client_id, local_id)" +
+                ")";
+
+        String createConflictsTable = "CREATE TABLE IF NOT EXISTS sync_conflicts (" +
+                "client_id " + text + " NOT NULL," +
+                "seq BIGINT NOT NULL," +
+                "operation " + text + " NOT NULL," +
+                "local_record_id INTEGER NOT NULL," +
+                "primary_record_id INTEGER NOT NULL," +
+                "expected_version INTEGER NOT NULL," +
+                "primary_version INTEGER NOT NULL," +
+                "reason " + text + " NOT NULL," +
+                "detected_at " + dialect.millisType() + " NOT NULL," +
+                "PRIMARY KEY (client_id, seq)" +
+                ")";
+
+        try (Statement stmt = target.getConnection().createStatement()) {
+            stmt.execute(createClientsTable);
+            stmt.execute(createIdMapTable);
+            stmt.execute(createConflictsTable);
+        }
+    }
+
+    /**
+     * Applies one outbox entry to the primary, or records why it was not applied.
+     * Must be called inside the primary transaction.
+     */
+    private void apply(Database target, OfflineDatabase.OutboxEntry entry) throws SQLException {
+        int primaryId = primaryIdOf(target, entry.recordId);
+
+        switch (entry.operation) {
+            case INSERT: {
+                HealthRecord record = entry.record;
+                record.setId(0);
+                target.addHealthRecord(record);
+                mapId(target, entry.recordId, record.getId());
+                break;
+            }
+            case UPDATE: {
+                HealthRecord current = target.getHealthRecord(primaryId);
+                if (current == null) {
+                    recordConflict(target, entry, primaryId, 0, "deleted on the primary");
+                } else if (current.getVersion() != entry.baseVersion) {
+                    recordConflict(target, entry, primaryId, current.getVersion(), "changed on the primary");
+                } else {
+                    entry.record.setId(primaryId);
+                    target.updateHealthRecord(entry.record);
+                }
+                break;
+            }
+            case DELETE: {
+                HealthRecord current = target.getHealthRecord(primaryId);
+                if (current == null) {
+                    // Already deleted on the primary, which is the outcome the write asked for
+                    break;
+                }
+                if (current.getVersion() != entry.baseVersion) {
+                    recordConflict(target, entry, primaryId, current.getVersion(), "changed on the primary");
+                } else {
+                    target.deleteHealthRecord(primaryId);
+                }
+                break;
+            }
+            case RESTORE: {
+                if (target.restoreHealthRecord(primaryId) == null) {
+                    HealthRecord current = target.getHealthRecord(primaryId);
+                    recordConflict(target, entry, primaryId, current == null ? 0 : current.getVersion(),
+                            current == null ? "not in the primary's deleted records" : "not deleted on the primary");
+                }
+                break;
+            }
+        }
+    }
+
+    /**
+     * Returns the primary ID of a local record: the ID it was given if it was created offline,
+     * otherwise the same ID.
+     */
+    private int primaryIdOf(Database target, int localId) throws SQLException {
+        String sql = "SELECT primary_id FROM sync_id_map WHERE client_id = ? AND local_id = ?";
+
+        try (PreparedStatement pstmt = target.getConnection().prepareStatement(sql)) {
+            pstmt.setString(1, local.getClientId());
+            pstmt.setInt(2, localId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : localId;
+            }
+        }
+    }
+
+    private void mapId(Database target, int localId, int primaryId) throws SQLException {
+        String sql = "INSERT INTO sync_id_map (client_id, local_id, primary_id) VALUES (?, ?, ?)";
+
+        try (PreparedStatement pstmt = target.getConnection().prepareStatement(sql)) {
+            pstmt.setString(1, local.getClientId());
+            pstmt.setInt(2, localId);
+            pstmt.setInt(3, primaryId);
+            pstmt.executeUpdate();
+        }
+    }
+
+    private void recordConflict(Database target, OfflineDatabase.OutboxEntry entry, int primaryId, int primaryVersion,
+                                String reason) throws SQLException {
+        String sql = "INSERT INTO sync_conflicts (client_id, seq, operation, local_record_id, primary_record_id, " +
+                "expected_version, primary_version, reason, detected_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+        try (PreparedStatement pstmt = target.getConnection().prepareStatement(sql)) {
+            pstmt.setString(1, local.getClientId());
+            pstmt.setLong(2, entry.seq);
+            pstmt.setString(3, entry.operation.name());
+            pstmt.setInt(4, entry.recordId);
+            pstmt.setInt(5, primaryId);
+            pstmt.setInt(6, entry.baseVersion);
+            pstmt.setInt(7, primaryVersion);
+            pstmt.setString(8, reason);
+            pstmt.setLong(9, System.currentTimeMillis());
+            pstmt.executeUpdate();
+        }
+    }
+
+    private long readAppliedSeq(Database target) throws SQLException {
+        try (PreparedStatement pstmt = target.getConnection().prepareStatement(
+                "SELECT applied_seq FROM sync_clients WHERE client_id = ?")) {
+            pstmt.setString(1, local.getClientId());
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        }
+    }
+
+    private void writeAppliedSeq(Database target, long seq) throws SQLException {
+        Connection connection = target.getConnection();
+        try (PreparedStatement update = connection.prepareStatement(
+                "UPDATE sync_clients SET applied_seq = ? WHERE client_id = ?")) {
+            update.setLong(1, seq);
+            update.setString(2, local.getClientId());
+            if (update.executeUpdate() > 0) {
+                return;
+            }
+        }
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO sync_clients (client_id, applied_seq) VALUES (?, ?)")) {
+            insert.setString(1, local.getClientId());
+            insert.setLong(2, seq);
+            insert.executeUpdate();
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The text_values table, which stores each distinct short blood pressure reading and note once so that
+ * health records refer to it by ID, together with bounded caches of the values in both directions.
+ *
+ * Notes and readings repeat a lot ("fine", "after run", "120/80"), so a record row holding a small
+ * integer instead of the text is smaller, and reading records hands out the one cached String per
+ * value instead of a new copy per row. Values longer than {@link #MAX_LENGTH} characters are rarely
+ * repeated, and are stored in the record row as before; so are values written before the table
+ * existed, until they are encoded.
+ *
+ * The mapping of an ID to its value never changes, so cached entries stay valid, except when a
+ * transaction that added values rolls back, or when a replica copies the whole table from its
+ * primary. The owner clears the caches in both cases.
+ */
+class TextDictionary {
+
+    /**
+     * The longest value stored in the dictionary, in characters.
+     */
+    static final int MAX_LENGTH = 32;
+
+    private final Map<Integer, String> values;
+    private final Map<String, Integer> ids;
+    private int maxEntries;
+    private long hits;
+    private long misses;
+
+    /**
+     * Creates a dictionary with empty caches.
+     *
+     * @param maxEntries the number of values kept in each cache
+     */
+    TextDictionary(int maxEntries) {
+        this.maxEntries = maxEntries;
+        // Evicted while holding the dictionary's lock, so maxEntries is read consistently
+        this.values = new LinkedHashMap<Integer, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, String> eldest) {
+                return size() > TextDictionary.this.maxEntries;
+            }
+        };
+        this.ids = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+                return size() > TextDictionary.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Changes the number of values kept in each cache, dropping the least recently used ones
+     * if the caches are now over the limit.
+     *
+     * @param maxEntries the number of values kept in each cache
+     */
+    synchronized void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+        trim(values);
+        trim(ids);
+    }
+
+    private void trim(Map<?, ?> cache) {
+        Iterator<?> eldest = cache.keySet().iterator();
+        while (cache.size() > maxEntries) {
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Returns whether a value is stored in the dictionary rather than in the record row.
+     *
+     * @param value the value, may be null
+     * @return true if the value goes into the dictionary
+     */
+    static boolean isDictionaryValue(String value) {
+        return value != null && value.length() <= MAX_LENGTH;
+    }
+
+    /**
+     * Returns the value with the given ID.
+     *
+     * @param connection the connection to read the table through on a cache miss
+     * @param id the ID of the value
+     * @return the value, the same String instance for every call while it stays cached
+     * @throws SQLException if the value cannot be read or does not exist
+     */
+    String valueOf(Connection connection, int id) throws SQLException {
+        synchronized (this) {
+            String value = values.get(id);
+            if (value != null) {
+                hits++;
+                return value;
+            }
+            misses++;
+        }
+
+        String value;
+        try (PreparedStatement pstmt = connection.prepareStatement("SELECT text_value FROM text_values WHERE id = ?")) {
+            pstmt.setInt(1, id);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next()) {
+                    throw new SQLException("Missing text value " + id);
+                }
+                value = rs.getString(1);
+            }
+        }
+        synchronized (this) {
+            // Another thread may have cached it meanwhile; keep that instance
+            String cached = values.putIfAbsent(id, value);
+            return cached != null ? cached : value;
+        }
+    }
+
+    /**
+     * Returns the ID of a value, adding the value to the table if it is new. Must be called inside
+     * the transaction that writes the record referring to it.
+     *
+     * @param connection the connection of the transaction
+     * @param value the value, which must be a dictionary value
+     * @return the ID of the value, or null if it could not be added and must be stored in the record row
+     * @throws SQLException if the table cannot be read, or the new value cannot be logged
+     */
+    Integer idOf(Connection connection, String value) throws SQLException {
+        synchronized (this) {
+            Integer id = ids.get(value);
+            if (id != null) {
+                return id;
+            }
+        }
+
+        Integer id = find(connection, value);
+        if (id == null) {
+            try (PreparedStatement pstmt = connection.prepareStatement("INSERT INTO text_values (text_value) VALUES (?)",
+                    Statement.RETURN_GENERATED_KEYS)) {
+                pstmt.setString(1, value);
+                pstmt.executeUpdate();
+                try (ResultSet keys = pstmt.getGeneratedKeys()) {
+                    id = keys.next() ? keys.getInt(1) : null;
+                }
+            } catch (SQLException e) {
+                // Another connection added the same value and has not committed yet
+                return null;
+            }
+            if (id != null) {
+                // Replicas copy the new value before the record that refers to it
+                Database.logChange(connection, ChangeEvent.TEXT_VALUES, ChangeEvent.Operation.INSERT, id, 0);
+            }
+        }
+        if (id != null) {
+            synchronized (this) {
+                ids.put(value, id);
+                values.putIfAbsent(id, value);
+            }
+        }
+        return id;
+    }
+
+    private static Integer find(Connection connection, String value) throws SQLException {
+        try (PreparedStatement pstmt = connection.prepareStatement("SELECT id FROM text_values WHERE text_value = ?")) {
+            pstmt.setString(1, value);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : null;
+            }
+        }
+    }
+
+    /**
+     * Empties both caches.
+     */
+    synchronized void clear() {
+        values.clear();
+        ids.clear();
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+}
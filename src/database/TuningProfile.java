@@ -0,0 +1,83 @@
+package database;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Named sets of SQLite {@link ConnectionSettings} for the ways the application database is used.
+ * A profile is chosen with the myhealthtracker.db.profile setting, and single settings can still be
+ * changed on top of it. The TuningProfileBenchmark measures the profiles on a host and recommends one.
+ */
+public enum TuningProfile {
+
+    /**
+     * For the desktop application on a file that may be on a network share: a rollback journal,
+     * since WAL needs all connections on one host, and a sync at every commit, so a power cut never
+     * loses a saved record. 8 MiB of page cache and no memory mapping keep the footprint small.
+     */
+    DESKTOP_SAFE("desktop-safe", new ConnectionSettings(-8_000, 0L, "FULL", "DEFAULT", 4096, "DELETE")),
+
+    /**
+     * For a database on a local disk of a machine serving many users: WAL, so readers never wait
+     * for the writer, with a sync at checkpoints only. A power cut can lose the last commits, but
+     * never corrupts the file. 64 MiB of page cache, 256 MiB memory-mapped, temporary tables in memory.
+     */
+    SERVER_THROUGHPUT("server-throughput", new ConnectionSettings(-64_000, 268_435_456L, "NORMAL", "MEMORY", 8192, "WAL")),
+
+    /**
+     * For importing into a database that can be rebuilt from its source if the machine fails during
+     * the import: no syncs at all, 256 MiB of page cache. Switch back to another profile afterwards.
+     */
+    BULK_LOAD("bulk-load", new ConnectionSettings(-256_000, 268_435_456L, "OFF", "MEMORY", 8192, "WAL"));
+
+    private final String name;
+    private final ConnectionSettings settings;
+
+    TuningProfile(String name, ConnectionSettings settings) {
+        this.name = name;
+        this.settings = settings;
+    }
+
+    /**
+     * Returns the name of the profile, as used in the configuration.
+     * @return the name, e.g. "desktop-safe"
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the connection settings of the profile.
+     * @return the settings
+     */
+    public ConnectionSettings getSettings() {
+        return settings;
+    }
+
+    /**
+     * Returns the profile with the given name.
+     *
+     * @param name the name of the profile, e.g. "server-throughput"
+     * @return the profile
+     * @throws IllegalArgumentException if there is no profile with that name
+     */
+    public static TuningProfile forName(String name) {
+        List<String> names = new ArrayList<>();
+        for (TuningProfile profile : values()) {
+            if (profile.name.equalsIgnoreCase(name.trim())) {
+                return profile;
+            }
+            names.add(profile.name);
+        }
+        throw new IllegalArgumentException("Unknown tuning profile '" + name + "', expected one of " + names);
+    }
+
+    /**
+     * Returns the name of the profile.
+     * @return the name, e.g. "desktop-safe"
+     */
+    @Override
+    public String toString() {
+        return name;
+    }
+}
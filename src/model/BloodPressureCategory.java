@@ -0,0 +1,89 @@
+package model;
+
+/**
+ * The blood pressure categories used when summarising readings. A reading is stored as free text
+ * such as "120/80", so this enum also knows how to classify such a string.
+ */
+public enum BloodPressureCategory {
+    NORMAL,
+    ELEVATED,
+    HYPERTENSION_STAGE_1,
+    HYPERTENSION_STAGE_2,
+    HYPERTENSIVE_CRISIS,
+    UNKNOWN;
+
+    /**
+     * Classifies a blood pressure reading of the form "systolic/diastolic".
+     *
+     * The larger of the two numbers is treated as the systolic value, so readings entered
+     * the other way around ("80/120") are classified the same way.
+     *
+     * @param bloodPressure the reading to classify, may be null or empty
+     * @return the category of the reading, or UNKNOWN if it cannot be parsed
+     */
+    public static BloodPressureCategory classify(String bloodPressure) {
+        if (bloodPressure == null) {
+            return UNKNOWN;
+        }
+        int slash = bloodPressure.indexOf('/');
+        if (slash < 0) {
+            return UNKNOWN;
+        }
+        int first = parseReading(bloodPressure, 0, slash);
+        int second = parseReading(bloodPressure, slash + 1, bloodPressure.length());
+        if (first <= 0 || second <= 0) {
+            return UNKNOWN;
+        }
+        return classify(Math.max(first, second), Math.min(first, second));
+    }
+
+    /**
+     * Classifies a blood pressure reading from its systolic and diastolic values.
+     *
+     * @param systolic the systolic pressure in mmHg
+     * @param diastolic the diastolic pressure in mmHg
+     * @return the category of the reading
+     */
+    public static BloodPressureCategory classify(int systolic, int diastolic) {
+        if (systolic > 180 || diastolic > 120) {
+            return HYPERTENSIVE_CRISIS;
+        }
+        if (systolic >= 140 || diastolic >= 90) {
+            return HYPERTENSION_STAGE_2;
+        }
+        if (systolic >= 130 || diastolic >= 80) {
+            return HYPERTENSION_STAGE_1;
+        }
+        if (systolic >= 120) {
+            return ELEVATED;
+        }
+        return NORMAL;
+    }
+
+    /**
+     * Parses the digits between start and end, ignoring surrounding whitespace.
+     * Parsing by hand avoids allocating substrings when classifying millions of rows.
+     *
+     * @return the parsed value, or -1 if the range does not hold a number
+     */
+    private static int parseReading(String text, int start, int end) {
+        while (start < end && Character.isWhitespace(text.charAt(start))) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(text.charAt(end - 1))) {
+            end--;
+        }
+        if (start == end || end - start > 4) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+}
@@ -14,6 +14,7 @@ public class HealthRecord {
     private String note;
     private LocalDate date;
     private int userId;
+    private int version = 1;
 
     /**
      * Constructs a new HealthRecord instance with the provided parameters.
@@ -158,6 +159,23 @@ public class HealthRecord {
         this.id = id;
     }
 
+    /**
+     * Gets the version of this health record. A new record starts at version 1 and every
+     * update increments it.
+     * @return The version as an int.
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Sets the version of this health record.
+     * @param version The new version.
+     */
+    public void setVersion(int version) {
+        this.version = version;
+    }
+
     /**
      * Returns a string representation of the health record.
      *
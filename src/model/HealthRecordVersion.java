@@ -0,0 +1,76 @@
+package model;
+
+/**
+ * One version of a health record, as kept in the record's history.
+ * A version is either the current state of the record, an earlier state that was replaced
+ * by an update, or the final state of a record that was deleted.
+ */
+public class HealthRecordVersion {
+    private final HealthRecord record;
+    private final boolean deleted;
+    private final long supersededAt;
+
+    /**
+     * Constructs a new HealthRecordVersion instance with the provided parameters.
+     *
+     * @param record       the state of the health record in this version
+     * @param deleted      whether this version is the final state of a deleted record
+     * @param supersededAt when this version was replaced or deleted (epoch milliseconds), or 0 if it is current
+     */
+    public HealthRecordVersion(HealthRecord record, boolean deleted, long supersededAt) {
+        this.record = record;
+        this.deleted = deleted;
+        this.supersededAt = supersededAt;
+    }
+
+    /**
+     * Returns the state of the health record in this version.
+     *
+     * @return the health record
+     */
+    public HealthRecord getRecord() {
+        return record;
+    }
+
+    /**
+     * Returns whether this version is the final state of a deleted record.
+     *
+     * @return true if the record was deleted in this version
+     */
+    public boolean isDeleted() {
+        return deleted;
+    }
+
+    /**
+     * Returns whether this version is the current state of the record.
+     *
+     * @return true if the version has not been replaced or deleted
+     */
+    public boolean isCurrent() {
+        return supersededAt == 0;
+    }
+
+    /**
+     * Returns when this version was replaced or deleted.
+     *
+     * @return the time in epoch milliseconds, or 0 if the version is current
+     */
+    public long getSupersededAt() {
+        return supersededAt;
+    }
+
+    /**
+     * Returns a string representation of the health record version.
+     *
+     * @return a string representation of the health record version
+     */
+    @Override
+    public String toString() {
+        return "HealthRecordVersion {" +
+                "record=" + record +
+                ", version=" + record.getVersion() +
+                ", deleted=" + deleted +
+                ", supersededAt=" + supersededAt +
+                '}';
+    }
+}
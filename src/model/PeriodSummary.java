@@ -0,0 +1,185 @@
+package model;
+
+import java.time.LocalDate;
+
+/**
+ * A summary of one user's health records over one day, week or month: how many records there are,
+ * and the count, sum, minimum and maximum of the weights and temperatures entered. Readings left
+ * empty (zero) are not counted.
+ */
+public class PeriodSummary {
+    private final int userId;
+    private final RollupPeriod period;
+    private final LocalDate periodStart;
+    private final int recordCount;
+    private final int weightCount;
+    private final double weightSum;
+    private final float weightMin;
+    private final float weightMax;
+    private final int temperatureCount;
+    private final double temperatureSum;
+    private final float temperatureMin;
+    private final float temperatureMax;
+
+    /**
+     * Constructs a new PeriodSummary instance with the provided parameters.
+     *
+     * @param userId           the ID of the user
+     * @param period           the length of the period
+     * @param periodStart      the first day of the period
+     * @param recordCount      the number of records in the period
+     * @param weightCount      the number of weights entered
+     * @param weightSum        the sum of the weights
+     * @param weightMin        the lowest weight, ignored if there are none
+     * @param weightMax        the highest weight, ignored if there are none
+     * @param temperatureCount the number of temperatures entered
+     * @param temperatureSum   the sum of the temperatures
+     * @param temperatureMin   the lowest temperature, ignored if there are none
+     * @param temperatureMax   the highest temperature, ignored if there are none
+     */
+    public PeriodSummary(int userId, RollupPeriod period, LocalDate periodStart, int recordCount,
+                         int weightCount, double weightSum, float weightMin, float weightMax,
+                         int temperatureCount, double temperatureSum, float temperatureMin, float temperatureMax) {
+        this.userId = userId;
+        this.period = period;
+        this.periodStart = periodStart;
+        this.recordCount = recordCount;
+        this.weightCount = weightCount;
+        this.weightSum = weightSum;
+        this.weightMin = weightMin;
+        this.weightMax = weightMax;
+        this.temperatureCount = temperatureCount;
+        this.temperatureSum = temperatureSum;
+        this.temperatureMin = temperatureMin;
+        this.temperatureMax = temperatureMax;
+    }
+
+    /**
+     * Returns the ID of the user.
+     * @return the user ID
+     */
+    public int getUserId() {
+        return userId;
+    }
+
+    /**
+     * Returns the length of the period.
+     * @return the period
+     */
+    public RollupPeriod getPeriod() {
+        return period;
+    }
+
+    /**
+     * Returns the first day of the period.
+     * @return the period start
+     */
+    public LocalDate getPeriodStart() {
+        return periodStart;
+    }
+
+    /**
+     * Returns the number of records in the period.
+     * @return the record count
+     */
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Returns the number of weights entered in the period.
+     * @return the weight count
+     */
+    public int getWeightCount() {
+        return weightCount;
+    }
+
+    /**
+     * Returns the sum of the weights entered in the period.
+     * @return the weight sum
+     */
+    public double getWeightSum() {
+        return weightSum;
+    }
+
+    /**
+     * Returns the average weight in the period.
+     * @return the average weight, or null if no weight was entered
+     */
+    public Float getAverageWeight() {
+        return weightCount == 0 ? null : (float) (weightSum / weightCount);
+    }
+
+    /**
+     * Returns the lowest weight in the period.
+     * @return the lowest weight, or null if no weight was entered
+     */
+    public Float getMinWeight() {
+        return weightCount == 0 ? null : weightMin;
+    }
+
+    /**
+     * Returns the highest weight in the period.
+     * @return the highest weight, or null if no weight was entered
+     */
+    public Float getMaxWeight() {
+        return weightCount == 0 ? null : weightMax;
+    }
+
+    /**
+     * Returns the number of temperatures entered in the period.
+     * @return the temperature count
+     */
+    public int getTemperatureCount() {
+        return temperatureCount;
+    }
+
+    /**
+     * Returns the sum of the temperatures entered in the period.
+     * @return the temperature sum
+     */
+    public double getTemperatureSum() {
+        return temperatureSum;
+    }
+
+    /**
+     * Returns the average temperature in the period.
+     * @return the average temperature, or null if no temperature was entered
+     */
+    public Float getAverageTemperature() {
+        return temperatureCount == 0 ? null : (float) (temperatureSum / temperatureCount);
+    }
+
+    /**
+     * Returns the lowest temperature in the period.
+     * @return the lowest temperature, or null if no temperature was entered
+     */
+    public Float getMinTemperature() {
+        return temperatureCount == 0 ? null : temperatureMin;
+    }
+
+    /**
+     * Returns the highest temperature in the period.
+     * @return the highest temperature, or null if no temperature was entered
+     */
+    public Float getMaxTemperature() {
+        return temperatureCount == 0 ? null : temperatureMax;
+    }
+
+    /**
+     * Returns a string representation of the period summary.
+     *
+     * @return a string representation of the period summary
+     */
+    @Override
+    public String toString() {
+        return "PeriodSummary {" +
+                "userId=" + userId +
+                ", period=" + period +
+                ", periodStart=" + periodStart +
+                ", records=" + recordCount +
+                ", averageWeight=" + getAverageWeight() +
+                ", maxTemperature=" + getMaxTemperature() +
+                '}';
+    }
+}
@@ -0,0 +1,99 @@
+package model;
+
+/**
+ * The unsaved content of the record form: what the user has typed so far for a new health record,
+ * or for changes to an existing one. The fields hold the text as typed, which need not be valid yet.
+ */
+public class RecordDraft {
+    private final int userId;
+    private final int recordId;
+    private final String weight;
+    private final String temperature;
+    private final String bloodPressure;
+    private final String note;
+    private final long savedAt;
+
+    /**
+     * Constructs a new RecordDraft instance with the provided parameters.
+     *
+     * @param userId        the ID of the user editing the record
+     * @param recordId      the ID of the record being edited, or 0 for a new record
+     * @param weight        the text of the weight field
+     * @param temperature   the text of the temperature field
+     * @param bloodPressure the text of the blood pressure field
+     * @param note          the text of the note field
+     * @param savedAt       when the draft was taken, in milliseconds since the epoch
+     */
+    public RecordDraft(int userId, int recordId, String weight, String temperature, String bloodPressure, String note, long savedAt) {
+        this.userId = userId;
+        this.recordId = recordId;
+        this.weight = weight;
+        this.temperature = temperature;
+        this.bloodPressure = bloodPressure;
+        this.note = note;
+        this.savedAt = savedAt;
+    }
+
+    /**
+     * Returns the ID of the user editing the record.
+     *
+     * @return the user ID
+     */
+    public int getUserId() {
+        return userId;
+    }
+
+    /**
+     * Returns the ID of the record being edited.
+     *
+     * @return the record ID, or 0 if the draft is for a new record
+     */
+    public int getRecordId() {
+        return recordId;
+    }
+
+    /**
+     * Returns the text of the weight field.
+     *
+     * @return the weight text
+     */
+    public String getWeight() {
+        return weight;
+    }
+
+    /**
+     * Returns the text of the temperature field.
+     *
+     * @return the temperature text
+     */
+    public String getTemperature() {
+        return temperature;
+    }
+
+    /**
+     * Returns the text of the blood pressure field.
+     *
+     * @return the blood pressure text
+     */
+    public String getBloodPressure() {
+        return bloodPressure;
+    }
+
+    /**
+     * Returns the text of the note field.
+     *
+     * @return the note text
+     */
+    public String getNote() {
+        return note;
+    }
+
+    /**
+     * Returns when the draft was taken.
+     *
+     * @return the time in milliseconds since the epoch
+     */
+    public long getSavedAt() {
+        return savedAt;
+    }
+}
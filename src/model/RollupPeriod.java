@@ -0,0 +1,49 @@
+package model;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.TemporalAdjusters;
+
+/**
+ * The lengths of period that health records are summarised over. Each period is identified by the
+ * date it starts on: any day, the Monday of an ISO week, or the first day of a month.
+ */
+public enum RollupPeriod {
+    DAY,
+    WEEK,
+    MONTH;
+
+    /**
+     * Returns the first day of the period that contains a date.
+     *
+     * @param date the date
+     * @return the start of the period containing the date
+     */
+    public LocalDate startOf(LocalDate date) {
+        switch (this) {
+            case WEEK:
+                return date.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+            case MONTH:
+                return date.withDayOfMonth(1);
+            default:
+                return date;
+        }
+    }
+
+    /**
+     * Returns the first day of the period after the one starting on a date.
+     *
+     * @param start the start of a period
+     * @return the start of the following period
+     */
+    public LocalDate next(LocalDate start) {
+        switch (this) {
+            case WEEK:
+                return start.plusWeeks(1);
+            case MONTH:
+                return start.plusMonths(1);
+            default:
+                return start.plusDays(1);
+        }
+    }
+}
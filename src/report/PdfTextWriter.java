@@ -0,0 +1,163 @@
+package report;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes plain text as a PDF document of A4 pages in a monospaced font, without any library.
+ *
+ * Text is laid out line by line; lines too long for the page are wrapped. Each page is written to the
+ * output as soon as it is full, so only the current page is held in memory however long the document
+ * is. Characters outside Latin-1 are printed as '?', which the standard PDF fonts cannot show anyway.
+ * Closing the writer finishes the document; the output is flushed but left open.
+ */
+class PdfTextWriter extends Writer {
+
+    // A4 in points, with the text area inside the margins
+    private static final int PAGE_WIDTH = 595;
+    private static final int PAGE_HEIGHT = 842;
+    private static final int MARGIN = 40;
+    private static final int FONT_SIZE = 9;
+    private static final int LEADING = 11;
+
+    // Courier is 0.6 em wide per character
+    private static final int CHARS_PER_LINE = (int) ((PAGE_WIDTH - 2 * MARGIN) / (0.6 * FONT_SIZE));
+    private static final int LINES_PER_PAGE = (PAGE_HEIGHT - 2 * MARGIN) / LEADING;
+
+    // Objects whose numbers are fixed because the pages refer to them before they are written
+    private static final int CATALOG = 1;
+    private static final int PAGES = 2;
+    private static final int FONT = 3;
+
+    private final OutputStream out;
+    private long offset;
+
+    // Byte offset of every object written, by object number
+    private final List<Long> objectOffsets = new ArrayList<>();
+    private final List<Integer> pageObjects = new ArrayList<>();
+
+    private final StringBuilder line = new StringBuilder(CHARS_PER_LINE);
+    private final StringBuilder content = new StringBuilder();
+    private int linesOnPage;
+    private boolean closed;
+
+    /**
+     * Starts a PDF document.
+     *
+     * @param out the stream to write the document to; buffering it is up to the caller
+     * @throws IOException if writing the header fails
+     */
+    PdfTextWriter(OutputStream out) throws IOException {
+        this.out = out;
+        for (int i = 0; i <= FONT; i++) {
+            objectOffsets.add(0L);
+        }
+        // The binary comment marks the file as binary for transfer tools
+        emit("%PDF-1.4\n%\u00e2\u00e3\u00cf\u00d3\n");
+    }
+
+    @Override
+    public void write(char[] buffer, int start, int length) throws IOException {
+        for (int i = start; i < start + length; i++) {
+            char c = buffer[i];
+            if (c == '\n') {
+                endLine();
+            } else if (c != '\r') {
+                if (line.length() == CHARS_PER_LINE) {
+                    endLine();
+                }
+                line.append(c < 32 || c > 255 ? '?' : c);
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Writes the last page and the document structure, and flushes the output.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (line.length() > 0) {
+            endLine();
+        }
+        if (linesOnPage > 0 || pageObjects.isEmpty()) {
+            endPage();
+        }
+
+        StringBuilder kids = new StringBuilder();
+        for (int page : pageObjects) {
+            kids.append(page).append(" 0 R ");
+        }
+        writeObject(PAGES, "<< /Type /Pages /Kids [" + kids + "] /Count " + pageObjects.size() + " >>");
+        writeObject(FONT, "<< /Type /Font /Subtype /Type1 /BaseFont /Courier /Encoding /WinAnsiEncoding >>");
+        writeObject(CATALOG, "<< /Type /Catalog /Pages " + PAGES + " 0 R >>");
+
+        long xref = offset;
+        StringBuilder table = new StringBuilder("xref\n0 " + objectOffsets.size() + "\n0000000000 65535 f \n");
+        for (int i = 1; i < objectOffsets.size(); i++) {
+            table.append(String.format("%010d 00000 n \n", objectOffsets.get(i)));
+        }
+        table.append("trailer\n<< /Size ").append(objectOffsets.size()).append(" /Root ").append(CATALOG).append(" 0 R >>\n")
+                .append("startxref\n").append(xref).append("\n%%EOF\n");
+        emit(table.toString());
+        out.flush();
+    }
+
+    private void endLine() throws IOException {
+        if (linesOnPage == LINES_PER_PAGE) {
+            endPage();
+        }
+        content.append(linesOnPage == 0 ? "(" : "T* (");
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '(' || c == ')' || c == '\\') {
+                content.append('\\');
+            }
+            content.append(c);
+        }
+        content.append(") Tj\n");
+        line.setLength(0);
+        linesOnPage++;
+    }
+
+    private void endPage() throws IOException {
+        String stream = "BT /F1 " + FONT_SIZE + " Tf " + LEADING + " TL " + MARGIN + " " + (PAGE_HEIGHT - MARGIN - FONT_SIZE) + " Td\n" +
+                content + "ET\n";
+        int contentObject = nextObject();
+        writeObject(contentObject, "<< /Length " + stream.getBytes(StandardCharsets.ISO_8859_1).length + " >>\nstream\n" + stream + "endstream");
+        int pageObject = nextObject();
+        writeObject(pageObject, "<< /Type /Page /Parent " + PAGES + " 0 R /MediaBox [0 0 " + PAGE_WIDTH + " " + PAGE_HEIGHT + "] " +
+                "/Resources << /Font << /F1 " + FONT + " 0 R >> >> /Contents " + contentObject + " 0 R >>");
+        pageObjects.add(pageObject);
+        content.setLength(0);
+        linesOnPage = 0;
+    }
+
+    private int nextObject() {
+        objectOffsets.add(0L);
+        return objectOffsets.size() - 1;
+    }
+
+    private void writeObject(int number, String body) throws IOException {
+        objectOffsets.set(number, offset);
+        emit(number + " 0 obj\n" + body + "\nendobj\n");
+    }
+
+    private void emit(String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.ISO_8859_1);
+        out.write(bytes);
+        offset += bytes.length;
+    }
+}
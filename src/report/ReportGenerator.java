@@ -0,0 +1,304 @@
+package report;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import application.AppConfig;
+import benchmark.LatencyHistogram;
+import database.DataKeyStore;
+import database.Database;
+import database.EncryptedRepository;
+import database.HealthRecordQuery;
+import database.HealthRepository;
+import model.HealthRecord;
+import model.PeriodSummary;
+import model.RollupPeriod;
+import model.User;
+
+/**
+ * Writes a health summary report for every user, as HTML or PDF files filled in from a
+ * {@link ReportTemplate}, for example the monthly summaries that clinics print for their patients.
+ *
+ * The users are shared out over a fixed pool of worker threads, each taking the next user as soon
+ * as it has finished a report. A report never holds a user's records in memory: the figures come
+ * from the period rollups the database keeps, and the records are read page by page while the
+ * template is filled in, straight into a buffered file. Memory use therefore depends on the page
+ * size and the number of workers, not on the number of records. On SQLite the reads of all workers
+ * share one connection, so extra workers mainly overlap rendering and file writes with the reads.
+ *
+ * Every report is timed from its first read to the closing of its file, and the batch reports its
+ * throughput and latency percentiles in a {@link ReportRun}. A report that fails is counted and
+ * skipped, so one bad record does not stop the batch.
+ *
+ * Usage: java report.ReportGenerator [--db url] [--out folder] [--format html|pdf] [--from date]
+ * [--to date] [--period day|week|month] [--template file] [--threads n]
+ * The database, the encryption keys and the default number of threads are taken from the
+ * application's {@link AppConfig}.
+ */
+public class ReportGenerator {
+
+    /**
+     * The file formats reports can be written in.
+     */
+    public enum Format {
+        HTML(".html"),
+        PDF(".pdf");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        /**
+         * Returns the file name extension of the format, including the dot.
+         * @return the extension
+         */
+        public String getExtension() {
+            return extension;
+        }
+    }
+
+    // Records read per query while a report is filled in
+    private static final int PAGE_SIZE = 500;
+
+    private final HealthRepository repository;
+    private final ReportTemplate template;
+    private final Format format;
+    private final RollupPeriod period;
+    private final int parallelism;
+
+    /**
+     * Creates a report generator.
+     *
+     * @param repository the repository to read users and records from
+     * @param template the layout of the reports; escaped for HTML if the format is HTML
+     * @param format the file format of the reports
+     * @param period the length of the periods listed in the periods section
+     * @param parallelism the number of reports written at the same time
+     */
+    public ReportGenerator(HealthRepository repository, ReportTemplate template, Format format, RollupPeriod period, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        }
+        this.repository = repository;
+        this.template = template;
+        this.format = format;
+        this.period = period;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Writes a report for every user into a folder, as report-userId.html or report-userId.pdf.
+     *
+     * @param from the first day covered by the reports
+     * @param to the last day covered by the reports
+     * @param folder the folder to write to; created if missing
+     * @return the number of reports written and failed, and how long they took
+     * @throws SQLException if the users cannot be read
+     * @throws IOException if the folder cannot be created
+     * @throws InterruptedException if interrupted while waiting for the workers
+     */
+    public ReportRun generateAll(LocalDate from, LocalDate to, Path folder) throws SQLException, IOException, InterruptedException {
+        Files.createDirectories(folder);
+        List<User> users = repository.getReadRepository().getAllUsers();
+
+        AtomicInteger nextUser = new AtomicInteger();
+        AtomicInteger written = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        LatencyHistogram latencies = new LatencyHistogram();
+
+        Callable<Void> worker = () -> {
+            for (int i = nextUser.getAndIncrement(); i < users.size(); i = nextUser.getAndIncrement()) {
+                User user = users.get(i);
+                long start = System.nanoTime();
+                Path file = folder.resolve("report-" + user.getId() + format.getExtension());
+                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024)) {
+                    generate(user, from, to, out);
+                    written.incrementAndGet();
+                } catch (IOException | SQLException | RuntimeException e) {
+                    // Report the failure and carry on with the next user
+                    e.printStackTrace();
+                    failed.incrementAndGet();
+                    continue;
+                }
+                latencies.record(System.nanoTime() - start);
+            }
+            return null;
+        };
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism, task -> {
+            Thread thread = new Thread(task, "report-worker-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        long start = System.nanoTime();
+        try {
+            pool.invokeAll(Collections.nCopies(parallelism, worker));
+        } finally {
+            pool.shutdown();
+        }
+        return new ReportRun(written.get(), failed.get(), System.nanoTime() - start, latencies);
+    }
+
+    /**
+     * Writes the report of one user.
+     *
+     * @param user the user to report on
+     * @param from the first day covered by the report
+     * @param to the last day covered by the report
+     * @param out the stream to write the report to; it is flushed but not closed
+     * @throws IOException if writing fails
+     * @throws SQLException if the user's data cannot be read
+     */
+    public void generate(User user, LocalDate from, LocalDate to, OutputStream out) throws IOException, SQLException {
+        // Day rollups add up exactly to the report period; longer periods may reach beyond it
+        PeriodSummary totals = total(user.getId(), from, repository.getPeriodSummaries(user.getId(), RollupPeriod.DAY, from, to));
+        List<PeriodSummary> periods = repository.getPeriodSummaries(user.getId(), period, from, to);
+        ReportTemplate.RecordPages records = new QueryPages(repository.getReadRepository(), user.getId(), from, to);
+
+        Writer writer = format == Format.PDF
+                ? new PdfTextWriter(out)
+                : new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        template.render(user, from, to, totals, periods, records, writer);
+        if (format == Format.PDF) {
+            // Finishes the document structure
+            writer.close();
+        } else {
+            writer.flush();
+        }
+    }
+
+    /**
+     * Adds up period summaries into one summary starting on the given date.
+     */
+    private static PeriodSummary total(int userId, LocalDate from, List<PeriodSummary> summaries) {
+        int recordCount = 0;
+        int weightCount = 0;
+        double weightSum = 0;
+        float weightMin = Float.MAX_VALUE;
+        float weightMax = -Float.MAX_VALUE;
+        int temperatureCount = 0;
+        double temperatureSum = 0;
+        float temperatureMin = Float.MAX_VALUE;
+        float temperatureMax = -Float.MAX_VALUE;
+
+        for (PeriodSummary summary : summaries) {
+            recordCount += summary.getRecordCount();
+            if (summary.getWeightCount() > 0) {
+                weightCount += summary.getWeightCount();
+                weightSum += summary.getWeightSum();
+                weightMin = Math.min(weightMin, summary.getMinWeight());
+                weightMax = Math.max(weightMax, summary.getMaxWeight());
+            }
+            if (summary.getTemperatureCount() > 0) {
+                temperatureCount += summary.getTemperatureCount();
+                temperatureSum += summary.getTemperatureSum();
+                temperatureMin = Math.min(temperatureMin, summary.getMinTemperature());
+                temperatureMax = Math.max(temperatureMax, summary.getMaxTemperature());
+            }
+        }
+        return new PeriodSummary(userId, null, from, recordCount, weightCount, weightSum, weightMin, weightMax,
+                temperatureCount, temperatureSum, temperatureMin, temperatureMax);
+    }
+
+    /**
+     * Reads a user's records in the report period a page at a time, in date order.
+     */
+    private static class QueryPages implements ReportTemplate.RecordPages {
+        private final HealthRepository repository;
+        private final HealthRecordQuery query;
+        private HealthRecord last;
+        private boolean done;
+
+        QueryPages(HealthRepository repository, int userId, LocalDate from, LocalDate to) {
+            this.repository = repository;
+            this.query = new HealthRecordQuery(userId);
+            query.setDateRange(from, to);
+            query.setPageSize(PAGE_SIZE);
+        }
+
+        @Override
+        public List<HealthRecord> next() throws SQLException {
+            if (done) {
+                return new ArrayList<>();
+            }
+            List<HealthRecord> page = repository.queryHealthRecords(query, last);
+            // A short page is the last one, which saves a query that would come back empty
+            done = page.size() < PAGE_SIZE;
+            if (!page.isEmpty()) {
+                last = page.get(page.size() - 1);
+            }
+            return page;
+        }
+    }
+
+    /**
+     * Writes the reports of every user from the command line, reading the database and keys the
+     * application's configuration names unless --db names another database.
+     *
+     * @param args options as described in the class documentation
+     * @throws Exception if the configuration, template or master key cannot be read, the database
+     *                   cannot be opened or a report cannot be written
+     */
+    public static void main(String[] args) throws Exception {
+        // The application's configuration, so the reports read the same database with the same keys
+        AppConfig config = AppConfig.load();
+        String url = config.get(AppConfig.DB_URL);
+        Path folder = Paths.get("reports");
+        Format format = Format.HTML;
+        LocalDate from = LocalDate.now().minusMonths(1).withDayOfMonth(1);
+        LocalDate to = null;
+        RollupPeriod period = RollupPeriod.WEEK;
+        Path templateFile = null;
+        int threads = config.get(AppConfig.REPORT_THREADS);
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--db": url = args[i + 1]; break;
+                case "--out": folder = Paths.get(args[i + 1]); break;
+                case "--format": format = Format.valueOf(args[i + 1].toUpperCase()); break;
+                case "--from": from = LocalDate.parse(args[i + 1]); break;
+                case "--to": to = LocalDate.parse(args[i + 1]); break;
+                case "--period": period = RollupPeriod.valueOf(args[i + 1].toUpperCase()); break;
+                case "--template": templateFile = Paths.get(args[i + 1]); break;
+                case "--threads": threads = Integer.parseInt(args[i + 1]); break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        if (to == null) {
+            // By default a whole calendar month, the previous one
+            to = from.plusMonths(1).withDayOfMonth(1).minusDays(1);
+        }
+        ReportTemplate template = templateFile != null ? ReportTemplate.load(templateFile)
+                : new ReportTemplate(format == Format.HTML ? ReportTemplate.DEFAULT_HTML : ReportTemplate.DEFAULT_TEXT, format == Format.HTML);
+
+        Database database = new Database(url, config.getConnectionSettings());
+        HealthRepository repository = database;
+        if (config.get(AppConfig.ENCRYPT)) {
+            // Same key setup as the application, so encrypted readings appear in the reports
+            DataKeyStore keyStore = new DataKeyStore(DataKeyStore.loadMasterKey(Paths.get(config.get(AppConfig.KEY_FILE))), database);
+            repository = new EncryptedRepository(database, keyStore, config.get(AppConfig.RECORD_CACHE_SIZE));
+        }
+
+        ReportRun run = new ReportGenerator(repository, template, format, period, threads).generateAll(from, to, folder);
+        System.out.printf("Wrote %s reports for %s to %s into %s: %s%n", format, from, to, folder, run);
+    }
+}
@@ -0,0 +1,76 @@
+package report;
+
+import benchmark.LatencyHistogram;
+
+/**
+ * The outcome of one batch of reports: how many were written, how many failed, how long the batch
+ * took and how long each report took.
+ */
+public class ReportRun {
+    private final int written;
+    private final int failed;
+    private final long elapsedNanos;
+    private final LatencyHistogram latencies;
+
+    /**
+     * Constructs a new ReportRun instance with the provided parameters.
+     *
+     * @param written      the number of reports written
+     * @param failed       the number of reports that could not be written
+     * @param elapsedNanos the time the batch took, in nanoseconds
+     * @param latencies    the time each written report took, in nanoseconds
+     */
+    public ReportRun(int written, int failed, long elapsedNanos, LatencyHistogram latencies) {
+        this.written = written;
+        this.failed = failed;
+        this.elapsedNanos = elapsedNanos;
+        this.latencies = latencies;
+    }
+
+    /**
+     * Returns the number of reports written.
+     * @return the number of reports
+     */
+    public int getWritten() {
+        return written;
+    }
+
+    /**
+     * Returns the number of reports that could not be written.
+     * @return the number of failures
+     */
+    public int getFailed() {
+        return failed;
+    }
+
+    /**
+     * Returns the time the batch took.
+     * @return the elapsed time in nanoseconds
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Returns the number of reports written per second over the whole batch.
+     * @return the throughput
+     */
+    public double getReportsPerSecond() {
+        return elapsedNanos == 0 ? 0 : written / (elapsedNanos / 1e9);
+    }
+
+    /**
+     * Returns the time each written report took, from reading its data to closing its file.
+     * @return the latency histogram
+     */
+    public LatencyHistogram getLatencies() {
+        return latencies;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d reports (%d failed) in %.1f s, %.1f reports/s, p50 %.1f ms, p99 %.1f ms, max %.1f ms",
+                written, failed, elapsedNanos / 1e9, getReportsPerSecond(),
+                latencies.getPercentile(50) / 1e6, latencies.getPercentile(99) / 1e6, latencies.getMax() / 1e6);
+    }
+}
@@ -0,0 +1,377 @@
+package report;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import model.BloodPressureCategory;
+import model.HealthRecord;
+import model.PeriodSummary;
+import model.User;
+
+/**
+ * A report layout with placeholders, filled in once per user by the {@link ReportGenerator}.
+ *
+ * A placeholder is a field name in double braces, such as {{firstName}}. The user's records are
+ * repeated with a {{#records}}...{{/records}} section and the period summaries with a
+ * {{#periods}}...{{/periods}} section. The fields are:
+ *
+ * - anywhere: userId, username, firstName, lastName, from, to, generatedOn
+ * - anywhere: recordCount, averageWeight, minWeight, maxWeight, averageTemperature,
+ *   minTemperature, maxTemperature; inside a periods section they describe that period, elsewhere
+ *   the whole report
+ * - inside a periods section: periodStart
+ * - inside the records section: date, weight, temperature, bloodPressure, category, note
+ *
+ * The text is parsed once, so a misspelt field is reported when the template is created rather
+ * than halfway through a batch, and filling it in is a walk over the parsed parts. The records
+ * section is filled page by page as the records are read, so it may appear only once.
+ */
+public class ReportTemplate {
+
+    /**
+     * Supplies a user's records one page at a time while the records section is filled in.
+     */
+    public interface RecordPages {
+
+        /**
+         * Returns the next page of records.
+         *
+         * @return the records, or an empty list once all have been returned
+         * @throws SQLException if the records cannot be read
+         */
+        List<HealthRecord> next() throws SQLException;
+    }
+
+    /**
+     * The built-in HTML layout: the monthly figures, a table per period and a table of all readings.
+     */
+    public static final String DEFAULT_HTML = "<!DOCTYPE html>\n" +
+            "<html><head><meta charset=\"UTF-8\"><title>Health summary for {{firstName}} {{lastName}}</title>\n" +
+            "<style>body{font-family:sans-serif}table{border-collapse:collapse}td,th{border:1px solid #999;padding:2px 6px}</style>\n" +
+            "</head><body>\n" +
+            "<h1>Health summary for {{firstName}} {{lastName}}</h1>\n" +
+            "<p>{{from}} to {{to}}, generated on {{generatedOn}}</p>\n" +
+            "<p>{{recordCount}} records. Weight: average {{averageWeight}}, lowest {{minWeight}}, highest {{maxWeight}}. " +
+            "Temperature: average {{averageTemperature}}, highest {{maxTemperature}}.</p>\n" +
+            "<h2>By period</h2>\n" +
+            "<table><tr><th>From</th><th>Records</th><th>Average weight</th><th>Highest temperature</th></tr>\n" +
+            "{{#periods}}<tr><td>{{periodStart}}</td><td>{{recordCount}}</td><td>{{averageWeight}}</td><td>{{maxTemperature}}</td></tr>\n" +
+            "{{/periods}}</table>\n" +
+            "<h2>Readings</h2>\n" +
+            "<table><tr><th>Date</th><th>Weight</th><th>Temperature</th><th>Blood pressure</th><th>Note</th></tr>\n" +
+            "{{#records}}<tr><td>{{date}}</td><td>{{weight}}</td><td>{{temperature}}</td><td>{{bloodPressure}}</td><td>{{note}}</td></tr>\n" +
+            "{{/records}}</table>\n" +
+            "</body></html>\n";
+
+    /**
+     * The built-in plain text layout, used for PDF reports.
+     */
+    public static final String DEFAULT_TEXT = "HEALTH SUMMARY FOR {{firstName}} {{lastName}} ({{username}})\n" +
+            "{{from}} to {{to}}, generated on {{generatedOn}}\n" +
+            "\n" +
+            "{{recordCount}} records\n" +
+            "Weight:      average {{averageWeight}}, lowest {{minWeight}}, highest {{maxWeight}}\n" +
+            "Temperature: average {{averageTemperature}}, lowest {{minTemperature}}, highest {{maxTemperature}}\n" +
+            "\n" +
+            "BY PERIOD\n" +
+            "{{#periods}}{{periodStart}}  {{recordCount}} records, average weight {{averageWeight}}, highest temperature {{maxTemperature}}\n" +
+            "{{/periods}}" +
+            "\n" +
+            "READINGS\n" +
+            "{{#records}}{{date}}  weight {{weight}}  temperature {{temperature}}  blood pressure {{bloodPressure}}  {{note}}\n" +
+            "{{/records}}";
+
+    // Where a field can be used
+    private enum Scope {
+        REPORT, SUMMARY, PERIOD, RECORD
+    }
+
+    private enum Field {
+        USER_ID("userId", Scope.REPORT),
+        USERNAME("username", Scope.REPORT),
+        FIRST_NAME("firstName", Scope.REPORT),
+        LAST_NAME("lastName", Scope.REPORT),
+        FROM("from", Scope.REPORT),
+        TO("to", Scope.REPORT),
+        GENERATED_ON("generatedOn", Scope.REPORT),
+        RECORD_COUNT("recordCount", Scope.SUMMARY),
+        AVERAGE_WEIGHT("averageWeight", Scope.SUMMARY),
+        MIN_WEIGHT("minWeight", Scope.SUMMARY),
+        MAX_WEIGHT("maxWeight", Scope.SUMMARY),
+        AVERAGE_TEMPERATURE("averageTemperature", Scope.SUMMARY),
+        MIN_TEMPERATURE("minTemperature", Scope.SUMMARY),
+        MAX_TEMPERATURE("maxTemperature", Scope.SUMMARY),
+        PERIOD_START("periodStart", Scope.PERIOD),
+        DATE("date", Scope.RECORD),
+        WEIGHT("weight", Scope.RECORD),
+        TEMPERATURE("temperature", Scope.RECORD),
+        BLOOD_PRESSURE("bloodPressure", Scope.RECORD),
+        CATEGORY("category", Scope.RECORD),
+        NOTE("note", Scope.RECORD);
+
+        final String name;
+        final Scope scope;
+
+        Field(String name, Scope scope) {
+            this.name = name;
+            this.scope = scope;
+        }
+    }
+
+    /**
+     * A parsed piece of the template: literal text, a field, or a repeated section.
+     */
+    private static class Part {
+        final String text;
+        final Field field;
+        final Scope section;
+        final List<Part> body;
+
+        Part(String text, Field field, Scope section, List<Part> body) {
+            this.text = text;
+            this.field = field;
+            this.section = section;
+            this.body = body;
+        }
+    }
+
+    /**
+     * The values a report is filled in with.
+     */
+    private static class Values {
+        User user;
+        LocalDate from;
+        LocalDate to;
+        LocalDate generatedOn;
+        PeriodSummary totals;
+        List<PeriodSummary> periods;
+        RecordPages records;
+    }
+
+    private final List<Part> parts;
+    private final boolean escapeHtml;
+
+    /**
+     * Parses a template.
+     *
+     * @param text the template text
+     * @param escapeHtml whether values are escaped for HTML; leave off for plain text
+     * @throws IllegalArgumentException if the template uses an unknown field, uses a field outside
+     *                                  its section, or its sections do not match up
+     */
+    public ReportTemplate(String text, boolean escapeHtml) {
+        this.escapeHtml = escapeHtml;
+        int[] position = {0};
+        this.parts = parse(text, position, null);
+        if (countSections(parts, Scope.RECORD) > 1) {
+            throw new IllegalArgumentException("The records section may appear only once");
+        }
+    }
+
+    /**
+     * Reads a template from a UTF-8 file. Files ending in .htm or .html are escaped for HTML.
+     *
+     * @param file the template file
+     * @return the parsed template
+     * @throws IOException if the file cannot be read
+     */
+    public static ReportTemplate load(Path file) throws IOException {
+        String name = file.getFileName().toString().toLowerCase();
+        String text = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        return new ReportTemplate(text, name.endsWith(".html") || name.endsWith(".htm"));
+    }
+
+    /**
+     * Fills in the template for one user.
+     *
+     * @param user the user the report is for
+     * @param from the first day covered by the report
+     * @param to the last day covered by the report
+     * @param totals the summary of the whole report period
+     * @param periods the summaries of the periods, oldest first
+     * @param records the user's records in the report period, in date order
+     * @param out where to write the report
+     * @throws IOException if writing fails
+     * @throws SQLException if the records cannot be read
+     */
+    public void render(User user, LocalDate from, LocalDate to, PeriodSummary totals, List<PeriodSummary> periods,
+                       RecordPages records, Appendable out) throws IOException, SQLException {
+        Values values = new Values();
+        values.user = user;
+        values.from = from;
+        values.to = to;
+        values.generatedOn = LocalDate.now();
+        values.totals = totals;
+        values.periods = periods;
+        values.records = records;
+        render(parts, values, values.totals, null, out);
+    }
+
+    private void render(List<Part> parts, Values values, PeriodSummary summary, HealthRecord record,
+                        Appendable out) throws IOException, SQLException {
+        for (Part part : parts) {
+            if (part.text != null) {
+                out.append(part.text);
+            } else if (part.field != null) {
+                append(value(part.field, values, summary, record), out);
+            } else if (part.section == Scope.PERIOD) {
+                for (PeriodSummary period : values.periods) {
+                    render(part.body, values, period, record, out);
+                }
+            } else {
+                for (List<HealthRecord> page = values.records.next(); !page.isEmpty(); page = values.records.next()) {
+                    for (HealthRecord each : page) {
+                        render(part.body, values, summary, each, out);
+                    }
+                }
+            }
+        }
+    }
+
+    private static String value(Field field, Values values, PeriodSummary summary, HealthRecord record) {
+        switch (field) {
+            case USER_ID: return Integer.toString(values.user.getId());
+            case USERNAME: return values.user.getUsername();
+            case FIRST_NAME: return values.user.getFirstName();
+            case LAST_NAME: return values.user.getLastName();
+            case FROM: return values.from.toString();
+            case TO: return values.to.toString();
+            case GENERATED_ON: return values.generatedOn.toString();
+            case RECORD_COUNT: return Integer.toString(summary.getRecordCount());
+            case AVERAGE_WEIGHT: return format(summary.getAverageWeight());
+            case MIN_WEIGHT: return format(summary.getMinWeight());
+            case MAX_WEIGHT: return format(summary.getMaxWeight());
+            case AVERAGE_TEMPERATURE: return format(summary.getAverageTemperature());
+            case MIN_TEMPERATURE: return format(summary.getMinTemperature());
+            case MAX_TEMPERATURE: return format(summary.getMaxTemperature());
+            case PERIOD_START: return summary.getPeriodStart().toString();
+            case DATE: return record.getDate().toString();
+            // Readings of zero were left empty
+            case WEIGHT: return record.getWeight() > 0 ? format(record.getWeight()) : "";
+            case TEMPERATURE: return record.getTemperature() > 0 ? format(record.getTemperature()) : "";
+            case BLOOD_PRESSURE: return record.getBloodPressure();
+            case CATEGORY: return BloodPressureCategory.classify(record.getBloodPressure()).name();
+            case NOTE: return record.getNote();
+            default: throw new IllegalStateException("Unknown field: " + field);
+        }
+    }
+
+    /**
+     * Formats a reading to one decimal place, or as nothing if there is none. Cheaper than
+     * String.format, which would dominate rendering time for large reports.
+     */
+    private static String format(Float value) {
+        if (value == null) {
+            return "";
+        }
+        long tenths = Math.round(value * 10.0);
+        String sign = tenths < 0 ? "-" : "";
+        tenths = Math.abs(tenths);
+        return sign + (tenths / 10) + "." + (tenths % 10);
+    }
+
+    private void append(String value, Appendable out) throws IOException {
+        if (value == null) {
+            return;
+        }
+        if (!escapeHtml) {
+            out.append(value);
+            return;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '&': out.append("&amp;"); break;
+                case '<': out.append("&lt;"); break;
+                case '>': out.append("&gt;"); break;
+                case '"': out.append("&quot;"); break;
+                case '\'': out.append("&#39;"); break;
+                default: out.append(c);
+            }
+        }
+    }
+
+    /**
+     * Parses parts up to the end of the text or the end of the enclosing section.
+     */
+    private static List<Part> parse(String text, int[] position, Scope section) {
+        List<Part> parts = new ArrayList<>();
+        while (position[0] < text.length()) {
+            int open = text.indexOf("{{", position[0]);
+            if (open < 0) {
+                parts.add(new Part(text.substring(position[0]), null, null, null));
+                position[0] = text.length();
+                break;
+            }
+            if (open > position[0]) {
+                parts.add(new Part(text.substring(position[0], open), null, null, null));
+            }
+            int close = text.indexOf("}}", open);
+            if (close < 0) {
+                throw new IllegalArgumentException("Unclosed placeholder at character " + open);
+            }
+            String tag = text.substring(open + 2, close).trim();
+            position[0] = close + 2;
+
+            if (tag.startsWith("/")) {
+                if (section == null || sectionOf(tag.substring(1)) != section) {
+                    throw new IllegalArgumentException("Unexpected {{" + tag + "}} at character " + open);
+                }
+                return parts;
+            } else if (tag.startsWith("#")) {
+                Scope inner = sectionOf(tag.substring(1));
+                if (inner == null || section != null) {
+                    throw new IllegalArgumentException("Unknown or nested section {{" + tag + "}} at character " + open);
+                }
+                List<Part> body = parse(text, position, inner);
+                parts.add(new Part(null, null, inner, body));
+            } else {
+                Field field = fieldOf(tag);
+                if (field == null) {
+                    throw new IllegalArgumentException("Unknown field {{" + tag + "}} at character " + open);
+                }
+                if ((field.scope == Scope.PERIOD || field.scope == Scope.RECORD) && field.scope != section) {
+                    throw new IllegalArgumentException("{{" + tag + "}} at character " + open + " is only allowed inside its section");
+                }
+                parts.add(new Part(null, field, null, null));
+            }
+        }
+        if (section != null) {
+            throw new IllegalArgumentException("Section " + section.name().toLowerCase() + " is not closed");
+        }
+        return parts;
+    }
+
+    private static Scope sectionOf(String name) {
+        switch (name) {
+            case "periods": return Scope.PERIOD;
+            case "records": return Scope.RECORD;
+            default: return null;
+        }
+    }
+
+    private static Field fieldOf(String name) {
+        for (Field field : Field.values()) {
+            if (field.name.equals(name)) {
+                return field;
+            }
+        }
+        return null;
+    }
+
+    private static int countSections(List<Part> parts, Scope section) {
+        int count = 0;
+        for (Part part : parts) {
+            if (part.section == section) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
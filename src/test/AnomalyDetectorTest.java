@@ -0,0 +1,109 @@
+package test;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import analytics.AnomalyDetector;
+import analytics.HealthAlert;
+import model.HealthRecord;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the AnomalyDetector.
+ */
+public class AnomalyDetectorTest {
+    private static final LocalDate START = LocalDate.of(2023, 3, 1);
+
+    private AnomalyDetector detector;
+    private List<HealthAlert> alerts;
+
+    /**
+     * This method is executed before each test. It creates a detector with the default settings and
+     * a listener that collects the alerts.
+     */
+    @Before
+    public void setUp() {
+        detector = new AnomalyDetector();
+        alerts = new CopyOnWriteArrayList<>();
+        detector.addAlertListener(alerts::add);
+    }
+
+    /**
+     * Test to verify that a fever is flagged from the first reading, and normal readings are not.
+     */
+    @Test
+    public void testFeverIsFlagged() {
+        assertEquals(0, detector.observe(record(1, 0, 70f, 36.7f, "118/76")));
+        assertEquals(1, detector.observe(record(1, 1, 70f, 38.6f, "118/76")));
+        detector.close();
+
+        assertEquals(1, alerts.size());
+        assertEquals(HealthAlert.Type.FEVER, alerts.get(0).getType());
+        assertEquals(38.6f, alerts.get(0).getValue(), 0.001);
+    }
+
+    /**
+     * Test to verify that a sudden weight change is flagged once the user has enough readings,
+     * while the usual day-to-day variation is not.
+     */
+    @Test
+    public void testWeightJumpIsFlagged() {
+        float[] weights = {70.0f, 70.4f, 69.8f, 70.1f, 70.3f, 69.9f, 70.2f, 70.0f};
+        for (int day = 0; day < weights.length; day++) {
+            assertEquals(0, detector.observe(record(2, day, weights[day], 36.6f, "")));
+        }
+        assertEquals(1, detector.observe(record(2, weights.length, 75.5f, 36.6f, "")));
+        detector.close();
+
+        assertEquals(HealthAlert.Type.WEIGHT_JUMP, alerts.get(0).getType());
+        assertEquals(70.1f, alerts.get(0).getExpected(), 0.2);
+    }
+
+    /**
+     * Test to verify that users are tracked separately, and that a record dated before the user's
+     * latest reading is not compared with the baseline.
+     */
+    @Test
+    public void testUsersAreSeparateAndBackdatedRecordsIgnored() {
+        for (int day = 0; day < 10; day++) {
+            detector.observe(record(3, day, 60f, 36.6f, ""));
+            detector.observe(record(4, day, 90f, 36.6f, ""));
+        }
+        assertEquals(0, detector.observe(record(4, 10, 90.5f, 36.6f, "")));
+        assertEquals(0, detector.observe(record(3, 5, 40f, 36.6f, "")));
+        assertEquals(1, detector.observe(record(3, 11, 60f, 36.6f, "190/125")));
+        detector.close();
+
+        assertEquals(1, alerts.size());
+        assertEquals(HealthAlert.Type.BLOOD_PRESSURE_CRISIS, alerts.get(0).getType());
+    }
+
+    /**
+     * Test to verify that a backdated record still raises the alerts that need no baseline, a fever
+     * and a crisis reading, but not the ones that compare it with the baseline.
+     */
+    @Test
+    public void testBackdatedFeverIsFlagged() {
+        for (int day = 0; day < 10; day++) {
+            detector.observe(record(5, day, 70f, 36.6f, ""));
+        }
+        // The weight would be a jump if it were compared
+        assertEquals(1, detector.observe(record(5, 3, 90f, 40f, "")));
+        assertEquals(1, detector.observe(record(5, 4, 90f, 36.6f, "190/125")));
+        assertEquals(0, detector.observe(record(5, 10, 70f, 36.6f, "")));
+        detector.close();
+
+        assertEquals(2, alerts.size());
+        assertEquals(HealthAlert.Type.FEVER, alerts.get(0).getType());
+        assertEquals(LocalDate.of(2023, 3, 4), alerts.get(0).getRecord().getDate());
+        assertEquals(HealthAlert.Type.BLOOD_PRESSURE_CRISIS, alerts.get(1).getType());
+    }
+
+    private static HealthRecord record(int userId, int day, float weight, float temperature, String bloodPressure) {
+        return new HealthRecord(0, weight, temperature, bloodPressure, "", START.plusDays(day), userId);
+    }
+}
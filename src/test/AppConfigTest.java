@@ -0,0 +1,139 @@
+package test;
+
+import application.AppConfig;
+import database.ConnectionSettings;
+import database.Database;
+import database.TuningProfile;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test class for the AppConfig settings.
+ */
+public class AppConfigTest {
+
+    /**
+     * Test to verify that unset settings take their defaults.
+     */
+    @Test
+    public void testDefaults() {
+        AppConfig config = AppConfig.of(new Properties(), Collections.emptyMap(), new Properties());
+
+        assertEquals(Database.DEFAULT_URL, config.get(AppConfig.DB_URL));
+        assertEquals("default", config.getSource(AppConfig.DB_URL));
+        assertFalse(config.get(AppConfig.ENCRYPT));
+        assertNull(config.get(AppConfig.PRIMARY_URL));
+        assertEquals(ConnectionSettings.DEFAULTS, config.getConnectionSettings());
+    }
+
+    /**
+     * Test to verify that the environment overrides the file and system properties override both.
+     */
+    @Test
+    public void testSourcePrecedence() {
+        Properties file = new Properties();
+        file.setProperty("myhealthtracker.db.url", "jdbc:sqlite:file.db");
+        file.setProperty("myhealthtracker.db.cache_size", "-8000");
+        file.setProperty("myhealthtracker.page.size", "50");
+        Map<String, String> environment = new HashMap<>();
+        environment.put("MYHEALTHTRACKER_DB_URL", "jdbc:sqlite:environment.db");
+        environment.put("MYHEALTHTRACKER_PAGE_SIZE", "75");
+        Properties system = new Properties();
+        system.setProperty("myhealthtracker.db.url", "jdbc:sqlite:property.db");
+
+        AppConfig config = AppConfig.of(file, environment, system);
+
+        assertEquals("jdbc:sqlite:property.db", config.get(AppConfig.DB_URL));
+        assertEquals("system property", config.getSource(AppConfig.DB_URL));
+        assertEquals(Integer.valueOf(75), config.get(AppConfig.PAGE_SIZE));
+        assertEquals("environment", config.getSource(AppConfig.PAGE_SIZE));
+        assertEquals(Integer.valueOf(-8000), config.getConnectionSettings().getCacheSize());
+        assertEquals("file", config.getSource(AppConfig.DB_CACHE_SIZE));
+    }
+
+    /**
+     * Test to verify that enumerated settings are normalized and invalid values are rejected with the setting's name.
+     */
+    @Test
+    public void testInvalidValues() {
+        Properties system = new Properties();
+        system.setProperty("myhealthtracker.db.synchronous", "normal");
+        assertEquals("NORMAL", AppConfig.of(new Properties(), Collections.emptyMap(), system).get(AppConfig.DB_SYNCHRONOUS));
+
+        assertRejected("myhealthtracker.db.synchronous", "sometimes");
+        assertRejected("myhealthtracker.page.size", "0");
+        assertRejected("myhealthtracker.db.mmap_size", "lots");
+        assertRejected("myhealthtracker.encrypt", "yes");
+    }
+
+    /**
+     * Test to verify that a misspelt setting in the configuration file is reported.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownFileSetting() {
+        Properties file = new Properties();
+        file.setProperty("myhealthtracker.db.cache", "2000");
+        AppConfig.of(file, Collections.emptyMap(), new Properties());
+    }
+
+    /**
+     * Test to verify that a tuning profile supplies the connection settings and single settings override it.
+     */
+    @Test
+    public void testTuningProfile() {
+        Properties file = new Properties();
+        file.setProperty("myhealthtracker.db.profile", "server-throughput");
+        file.setProperty("myhealthtracker.db.synchronous", "FULL");
+
+        ConnectionSettings settings = AppConfig.of(file, Collections.emptyMap(), new Properties()).getConnectionSettings();
+
+        assertEquals(TuningProfile.SERVER_THROUGHPUT.getSettings().getCacheSize(), settings.getCacheSize());
+        assertEquals("WAL", settings.getJournalMode());
+        assertEquals("FULL", settings.getSynchronous());
+        assertRejected("myhealthtracker.db.profile", "fastest");
+        assertRejected("myhealthtracker.db.page_size", "3000");
+    }
+
+    /**
+     * Test to verify that a reload takes the reloadable settings and keeps the others until restart.
+     */
+    @Test
+    public void testWithReloadable() {
+        AppConfig current = AppConfig.of(new Properties(), Collections.emptyMap(), new Properties());
+        Properties file = new Properties();
+        file.setProperty("myhealthtracker.db.synchronous", "NORMAL");
+        file.setProperty("myhealthtracker.db.url", "jdbc:sqlite:other.db");
+        AppConfig newer = AppConfig.of(file, Collections.emptyMap(), new Properties());
+
+        List<AppConfig.Key<?>> changed = current.changedKeys(newer);
+        assertEquals(2, changed.size());
+        assertTrue(changed.contains(AppConfig.DB_SYNCHRONOUS));
+        assertTrue(changed.contains(AppConfig.DB_URL));
+
+        AppConfig applied = current.withReloadable(newer);
+        assertEquals("NORMAL", applied.get(AppConfig.DB_SYNCHRONOUS));
+        assertEquals(Database.DEFAULT_URL, applied.get(AppConfig.DB_URL));
+    }
+
+    private static void assertRejected(String name, String value) {
+        Properties system = new Properties();
+        system.setProperty(name, value);
+        try {
+            AppConfig.of(new Properties(), Collections.emptyMap(), system);
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(name));
+            return;
+        }
+        throw new AssertionError(name + "=" + value + " was accepted");
+    }
+}
@@ -0,0 +1,154 @@
+package test;
+
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import application.AppConfig;
+import application.AppContext;
+import application.StartupTimer;
+import database.Database;
+import database.DraftJournal;
+import database.EncryptedRepository;
+import database.SyncWorker;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the AppContext: opening the storage on a plain SQLite database, rejecting
+ * settings that do not work together, and shutting the parts down in order, also when a phase fails
+ * or the storage is still being opened. Skipped when the SQLite driver is not on the classpath.
+ */
+public class AppContextTest {
+    // Folder for the database and the draft journal, deleted after each test
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private AppConfig config;
+
+    /**
+     * This method is executed before each test. It creates a configuration with the database and
+     * the draft journal in the temporary folder.
+     */
+    @Before
+    public void setUp() {
+        try {
+            Class.forName("org.sqlite.JDBC");
+        } catch (ClassNotFoundException e) {
+            Assume.assumeNoException(e);
+        }
+        Properties settings = new Properties();
+        settings.setProperty(Database.URL_PROPERTY, "jdbc:sqlite:" + folder.getRoot().toPath().resolve("context.db"));
+        settings.setProperty(DraftJournal.PATH_PROPERTY, folder.getRoot().toPath().resolve("drafts.journal").toString());
+        config = AppConfig.of(settings, Collections.emptyMap(), new Properties());
+    }
+
+    /**
+     * Test to verify that closing an open context runs every shutdown phase once, in order, and
+     * closes the database.
+     */
+    @Test
+    public void testShutdownOrder() throws SQLException {
+        AppContext context = new AppContext(config, new StartupTimer());
+        context.open(Runnable::run).join();
+        assertNotNull(context.getHealthRecordController());
+
+        context.close();
+        context.close();
+
+        assertPhasesInOrder(context.getShutdownReport());
+        assertTrue(context.getDatabase().getConnection().isClosed());
+    }
+
+    /**
+     * Test to verify that a phase that fails does not keep the later phases from running.
+     */
+    @Test
+    public void testFailingPhaseDoesNotStopLaterPhases() throws SQLException {
+        AppContext context = new AppContext(config, new StartupTimer());
+        context.open(Runnable::run).join();
+        // The autosaver no longer takes work, so writing the drafts on shutdown fails
+        context.getDraftAutosaver().close();
+
+        context.close();
+
+        assertPhasesInOrder(context.getShutdownReport());
+        assertTrue(context.getDatabase().getConnection().isClosed());
+    }
+
+    /**
+     * Test to verify that closing while the storage is being opened waits for it, and then closes
+     * the database that was opened.
+     */
+    @Test
+    public void testCloseWhileOpening() throws Exception {
+        AppContext context = new AppContext(config, new StartupTimer());
+        CountDownLatch startOpening = new CountDownLatch(1);
+        context.open(task -> new Thread(() -> {
+            try {
+                startOpening.await();
+            } catch (InterruptedException e) {
+                return;
+            }
+            task.run();
+        }, "opening").start());
+
+        Thread closing = new Thread(context::close, "closing");
+        closing.start();
+        closing.join(200);
+        assertTrue("close() should wait for the opening", closing.isAlive());
+        assertNull(context.getDatabase());
+
+        startOpening.countDown();
+        closing.join(TimeUnit.SECONDS.toMillis(10));
+        assertFalse(closing.isAlive());
+        assertPhasesInOrder(context.getShutdownReport());
+        assertTrue(context.getDatabase().getConnection().isClosed());
+    }
+
+    /**
+     * Test to verify that encryption together with a primary database is rejected when opening,
+     * since the primary would get records without the keys to read them.
+     */
+    @Test
+    public void testEncryptionWithPrimaryIsRejected() {
+        Properties settings = new Properties();
+        settings.setProperty(Database.URL_PROPERTY, "jdbc:sqlite:" + folder.getRoot().toPath().resolve("local.db"));
+        settings.setProperty(DraftJournal.PATH_PROPERTY, folder.getRoot().toPath().resolve("drafts.journal").toString());
+        settings.setProperty(SyncWorker.PRIMARY_URL_PROPERTY, "jdbc:sqlite:" + folder.getRoot().toPath().resolve("primary.db"));
+        settings.setProperty(EncryptedRepository.ENCRYPT_PROPERTY, "true");
+        AppContext context = new AppContext(AppConfig.of(settings, Collections.emptyMap(), new Properties()), new StartupTimer());
+
+        try {
+            context.open(Runnable::run).join();
+            fail("Opening should have failed");
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+            assertTrue(e.getCause().getMessage().contains(SyncWorker.PRIMARY_URL_PROPERTY));
+        } finally {
+            context.close();
+        }
+        assertNull(context.getDatabase());
+    }
+
+    // Checks that the report lists every shutdown phase once, in the order they should run
+    private static void assertPhasesInOrder(String report) {
+        String[] phases = {"stop config reload", "write drafts", "deliver alerts", "stop sync worker", "empty caches",
+                "close database", "total"};
+        int previous = -1;
+        for (String phase : phases) {
+            int index = report.indexOf(phase);
+            assertTrue(report, index > previous);
+            assertEquals(report, index, report.lastIndexOf(phase));
+            previous = index;
+        }
+    }
+}
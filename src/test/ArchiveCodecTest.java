@@ -0,0 +1,97 @@
+package test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import database.ArchiveCodec;
+import model.HealthRecord;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the ArchiveCodec block format.
+ */
+public class ArchiveCodecTest {
+
+    /**
+     * Test to verify that a year of daily records comes back unchanged, in date order, and takes
+     * far less space than the same values stored as fixed-width fields.
+     */
+    @Test
+    public void testDailyRecordsRoundTrip() {
+        List<HealthRecord> records = new ArrayList<>();
+        LocalDate start = LocalDate.of(2022, 1, 1);
+        float weight = 72.4f;
+        for (int day = 0; day < 365; day++) {
+            // Weight drifts a little, temperature mostly stays the same, ids interleave with other users
+            weight += (day % 7 - 3) * 0.1f;
+            float temperature = day % 50 == 0 ? 38.4f : 36.6f;
+            String note = day % 3 == 0 ? "after run" : "fine";
+            records.add(new HealthRecord(1000 + day * 17, weight, temperature, "120/80", note, start.plusDays(day), 5));
+        }
+        // Stored out of order, as they may come from the table
+        List<HealthRecord> shuffled = new ArrayList<>(records);
+        Collections.reverse(shuffled);
+
+        byte[] block = ArchiveCodec.encode(shuffled);
+        List<HealthRecord> decoded = ArchiveCodec.decode(block, 5);
+
+        assertEquals(records.size(), decoded.size());
+        for (int i = 0; i < records.size(); i++) {
+            assertSameRecord(records.get(i), decoded.get(i));
+        }
+        // Fixed-width id, date, two floats and two string references would take about 20 bytes
+        assertTrue("block is " + block.length + " bytes", block.length < records.size() * 6);
+    }
+
+    /**
+     * Test to verify that unusual values survive: missing and empty text, text outside ASCII, zero
+     * readings, several records on one day, large gaps between dates and later versions.
+     */
+    @Test
+    public void testUnusualValuesRoundTrip() {
+        HealthRecord edited = new HealthRecord(42, 0f, 0f, null, null, LocalDate.of(1999, 12, 31), 9);
+        edited.setVersion(7);
+        List<HealthRecord> records = Arrays.asList(
+                edited,
+                new HealthRecord(43, 65.25f, 37.1f, "", "", LocalDate.of(2000, 1, 1), 9),
+                new HealthRecord(44, 65.25f, 37.1f, "118/79", "m\u00fcde \u2013 Kopfschmerzen", LocalDate.of(2000, 1, 1), 9),
+                new HealthRecord(20, -1f, Float.MAX_VALUE, "118/79", "m\u00fcde \u2013 Kopfschmerzen", LocalDate.of(2000, 1, 3), 9),
+                new HealthRecord(100000, 1e-3f, 41.9f, "140/95", "back after a long break", LocalDate.of(2031, 6, 15), 9),
+                new HealthRecord(7, 80f, 36.6f, "120/80", "fine", LocalDate.of(1970, 1, 1), 9));
+
+        List<HealthRecord> decoded = ArchiveCodec.decode(ArchiveCodec.encode(records), 9);
+
+        List<HealthRecord> expected = new ArrayList<>(records);
+        expected.sort((a, b) -> a.getDate().equals(b.getDate())
+                ? Integer.compare(a.getId(), b.getId()) : a.getDate().compareTo(b.getDate()));
+        assertEquals(expected.size(), decoded.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertSameRecord(expected.get(i), decoded.get(i));
+        }
+        assertEquals(7, decoded.get(1).getVersion());
+    }
+
+    /**
+     * Test to verify that an empty block decodes to no records.
+     */
+    @Test
+    public void testEmptyBlock() {
+        assertTrue(ArchiveCodec.decode(ArchiveCodec.encode(new ArrayList<>()), 1).isEmpty());
+    }
+
+    private static void assertSameRecord(HealthRecord expected, HealthRecord actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getUserId(), actual.getUserId());
+        assertEquals(expected.getDate(), actual.getDate());
+        assertEquals(Float.floatToIntBits(expected.getWeight()), Float.floatToIntBits(actual.getWeight()));
+        assertEquals(Float.floatToIntBits(expected.getTemperature()), Float.floatToIntBits(actual.getTemperature()));
+        assertEquals(expected.getBloodPressure(), actual.getBloodPressure());
+        assertEquals(expected.getNote(), actual.getNote());
+        assertEquals(expected.getVersion(), actual.getVersion());
+    }
+}
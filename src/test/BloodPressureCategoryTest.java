@@ -0,0 +1,43 @@
+package test;
+
+import model.BloodPressureCategory;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit test class for the BloodPressureCategory classification.
+ */
+public class BloodPressureCategoryTest {
+
+    /**
+     * Test to verify that readings are placed in the expected category.
+     */
+    @Test
+    public void testClassify() {
+        assertEquals(BloodPressureCategory.NORMAL, BloodPressureCategory.classify("115/75"));
+        assertEquals(BloodPressureCategory.ELEVATED, BloodPressureCategory.classify("125/75"));
+        assertEquals(BloodPressureCategory.HYPERTENSION_STAGE_1, BloodPressureCategory.classify("120/80"));
+        assertEquals(BloodPressureCategory.HYPERTENSION_STAGE_2, BloodPressureCategory.classify("145/85"));
+        assertEquals(BloodPressureCategory.HYPERTENSIVE_CRISIS, BloodPressureCategory.classify("190/100"));
+    }
+
+    /**
+     * Test to verify that readings entered as low/high are classified the same as high/low.
+     */
+    @Test
+    public void testClassifyReversedOrder() {
+        assertEquals(BloodPressureCategory.classify("145/85"), BloodPressureCategory.classify("85 / 145"));
+    }
+
+    /**
+     * Test to verify that readings which cannot be parsed are UNKNOWN.
+     */
+    @Test
+    public void testClassifyInvalid() {
+        assertEquals(BloodPressureCategory.UNKNOWN, BloodPressureCategory.classify(null));
+        assertEquals(BloodPressureCategory.UNKNOWN, BloodPressureCategory.classify(""));
+        assertEquals(BloodPressureCategory.UNKNOWN, BloodPressureCategory.classify("120"));
+        assertEquals(BloodPressureCategory.UNKNOWN, BloodPressureCategory.classify("abc/80"));
+    }
+}
@@ -0,0 +1,171 @@
+package test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import database.ChangeEvent;
+import database.ChangeLog;
+import database.Database;
+import model.HealthRecord;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the change log and its subscriptions, on a SQLite file. Skipped when the
+ * SQLite driver is not on the classpath.
+ */
+public class ChangeLogTest {
+    // Folder for the database file, deleted after each test
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String url;
+    private Database database;
+    private ChangeLog changeLog;
+
+    /**
+     * This method is executed before each test. It creates an empty database and a change log reader.
+     */
+    @Before
+    public void setUp() throws SQLException {
+        try {
+            Class.forName("org.sqlite.JDBC");
+        } catch (ClassNotFoundException e) {
+            Assume.assumeNoException(e);
+        }
+        url = "jdbc:sqlite:" + folder.getRoot().toPath().resolve("changes.db");
+        database = new Database(url);
+        changeLog = new ChangeLog(database);
+    }
+
+    /**
+     * This method is executed after each test. It closes the change log reader and the database.
+     */
+    @After
+    public void tearDown() throws SQLException {
+        if (database != null) {
+            changeLog.close();
+            database.close();
+        }
+    }
+
+    /**
+     * Test to verify that a change and its event are committed together, and a rolled back change logs nothing.
+     */
+    @Test
+    public void testEventsAreWrittenWithTheChange() throws SQLException {
+        HealthRecord record = addRecord(1);
+        List<ChangeEvent> events = database.getChanges(0, 100);
+        ChangeEvent last = events.get(events.size() - 1);
+        assertEquals(ChangeEvent.HEALTH_RECORDS, last.getTable());
+        assertEquals(ChangeEvent.Operation.INSERT, last.getOperation());
+        assertEquals(record.getId(), last.getRowId());
+
+        // Make the next insert fail after its text values and change event have been written
+        try (Connection connection = DriverManager.getConnection(url); Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE TRIGGER reject_negative AFTER INSERT ON health_records WHEN NEW.weight < 0 " +
+                    "BEGIN SELECT RAISE(ABORT, 'rejected'); END");
+        }
+        long latest = database.getLatestChangeSeq();
+        try {
+            database.addHealthRecord(new HealthRecord(0, -1, 36.6f, "121/81", "never saved", LocalDate.of(2023, 1, 1), 1));
+            fail("The insert should have been rejected");
+        } catch (SQLException e) {
+            // Expected
+        }
+        assertEquals(latest, database.getLatestChangeSeq());
+    }
+
+    /**
+     * Test to verify that a subscription resumes after its cursor and delivers batches no larger than the batch size.
+     */
+    @Test
+    public void testResumeFromCursorInBatches() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            addRecord(i);
+        }
+        List<ChangeEvent> all = database.getChanges(0, 1000);
+        long cursor = all.get(3).getSeq();
+
+        List<ChangeEvent> received = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+        ChangeLog.Subscription subscription = changeLog.subscribe(cursor, 3, 2, batch -> {
+            batchSizes.add(batch.size());
+            received.addAll(batch);
+        });
+        waitFor(() -> subscription.getCursor() == all.get(all.size() - 1).getSeq());
+        subscription.close();
+
+        assertEquals(all.size() - 4, received.size());
+        for (int i = 0; i < received.size(); i++) {
+            assertEquals(all.get(i + 4).getSeq(), received.get(i).getSeq());
+        }
+        for (int size : batchSizes) {
+            assertTrue("Batch of " + size, size <= 3);
+        }
+        assertNull(subscription.getFailure());
+    }
+
+    /**
+     * Test to verify that a subscription whose listener is stuck stops fetching once its pending batches are full.
+     */
+    @Test
+    public void testBackPressure() throws Exception {
+        CountDownLatch firstBatch = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<ChangeEvent> received = Collections.synchronizedList(new ArrayList<>());
+        ChangeLog.Subscription subscription = changeLog.subscribe(database.getLatestChangeSeq(), 1, 1, batch -> {
+            received.addAll(batch);
+            firstBatch.countDown();
+            release.await();
+        });
+
+        for (int i = 0; i < 10; i++) {
+            addRecord(i);
+        }
+        assertTrue(firstBatch.await(10, TimeUnit.SECONDS));
+        // Let the reader fetch all it will, then drop the events it has not fetched yet
+        Thread.sleep(500);
+        database.truncateChangeLog(database.getLatestChangeSeq());
+        release.countDown();
+        Thread.sleep(500);
+        subscription.close();
+
+        // One batch being processed, one pending, and one the reader waits to queue
+        assertTrue("Received " + received.size(), received.size() <= 3);
+    }
+
+    private HealthRecord addRecord(int day) throws SQLException {
+        HealthRecord record = new HealthRecord(0, 70 + day, 36.6f, "120/80", "fine", LocalDate.of(2023, 1, 1).plusDays(day), 1);
+        database.addHealthRecord(record);
+        return record;
+    }
+
+    private interface Condition {
+        boolean holds() throws Exception;
+    }
+
+    private static void waitFor(Condition condition) throws Exception {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.holds()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Timed out");
+            }
+            Thread.sleep(10);
+        }
+    }
+}
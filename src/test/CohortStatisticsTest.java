@@ -0,0 +1,68 @@
+package test;
+
+import analytics.CohortStatistics;
+import model.BloodPressureCategory;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit test class for the CohortStatistics accumulator.
+ */
+public class CohortStatisticsTest {
+
+    // One day in the epoch-millisecond format the database stores dates in
+    private static final long DAY = 86_400_000L;
+
+    /**
+     * Test to verify that several fever readings on one day count as a single fever day.
+     */
+    @Test
+    public void testFeverDays() {
+        CohortStatistics statistics = new CohortStatistics();
+        statistics.accept(1, 70f, 38.5f, "120/80", 0);
+        statistics.accept(1, 70f, 39.0f, "120/80", 0);
+        statistics.accept(1, 70f, 36.5f, "120/80", DAY);
+        statistics.accept(1, 70f, 38.1f, "120/80", 2 * DAY);
+        statistics.accept(2, 80f, 36.6f, "120/80", 0);
+
+        assertEquals(5, statistics.getRecordCount());
+        assertEquals(2, statistics.getUserCount());
+        assertEquals(2, statistics.getFeverDays());
+        assertEquals(1, statistics.getUsersWithFever());
+    }
+
+    /**
+     * Test to verify that percentiles are computed over merged partitions.
+     */
+    @Test
+    public void testMergedWeightPercentiles() {
+        CohortStatistics left = new CohortStatistics();
+        CohortStatistics right = new CohortStatistics();
+        for (int i = 1; i <= 50; i++) {
+            left.accept(i, i, 0, "115/75", 0);
+            right.accept(100 + i, 50 + i, 0, "150/95", 0);
+        }
+
+        CohortStatistics merged = left.merge(right);
+
+        assertEquals(100, merged.getRecordCount());
+        assertEquals(50.0f, merged.getWeightPercentile(50), 0.01);
+        assertEquals(99.0f, merged.getWeightPercentile(99), 0.01);
+        assertEquals(50, merged.getBloodPressureCount(BloodPressureCategory.NORMAL));
+        assertEquals(0.5, merged.getBloodPressurePrevalence().get(BloodPressureCategory.HYPERTENSION_STAGE_2), 0.001);
+    }
+
+    /**
+     * Test to verify that readings without a weight are left out of the weight distribution.
+     */
+    @Test
+    public void testMissingWeightIgnored() {
+        CohortStatistics statistics = new CohortStatistics();
+        statistics.accept(1, 0f, 36.5f, null, 0);
+        statistics.accept(1, 72.5f, 36.5f, null, DAY);
+
+        assertEquals(72.5f, statistics.getWeightPercentile(1), 0.01);
+        assertEquals(2, statistics.getBloodPressureCount(BloodPressureCategory.UNKNOWN));
+    }
+}
@@ -0,0 +1,152 @@
+package test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import controller.DraftAutosaver;
+import database.DataKeyStore;
+import database.DraftJournal;
+import model.RecordDraft;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the DraftJournal and the DraftAutosaver that writes to it.
+ */
+public class DraftJournalTest {
+    // Folder for the journal files, deleted after each test
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path path;
+
+    /**
+     * This method is executed before each test. It picks a journal file that does not exist yet.
+     */
+    @Before
+    public void setUp() {
+        path = folder.getRoot().toPath().resolve("drafts.journal");
+    }
+
+    /**
+     * Test to verify that the latest draft of each user is read back after reopening, including text with tabs and line breaks.
+     */
+    @Test
+    public void testDraftsSurviveReopening() throws IOException {
+        try (DraftJournal journal = new DraftJournal(path)) {
+            journal.write(new RecordDraft(1, 0, "70", "", "120/80", "first", 1000));
+            journal.write(new RecordDraft(1, 0, "71", "36.6", "120/80", "line one\nline\ttwo \\ done", 2000));
+            journal.write(new RecordDraft(2, 5, "80", "", "", "", 3000));
+            journal.clear(2);
+        }
+
+        try (DraftJournal journal = new DraftJournal(path)) {
+            RecordDraft draft = journal.getDraft(1);
+            assertEquals("71", draft.getWeight());
+            assertEquals("36.6", draft.getTemperature());
+            assertEquals("line one\nline\ttwo \\ done", draft.getNote());
+            assertEquals(2000, draft.getSavedAt());
+            assertNull(journal.getDraft(2));
+        }
+    }
+
+    /**
+     * Test to verify that a line cut short by a crash is ignored and later drafts are still readable.
+     */
+    @Test
+    public void testInterruptedWriteIsIgnored() throws IOException {
+        try (DraftJournal journal = new DraftJournal(path)) {
+            journal.write(new RecordDraft(1, 0, "70", "", "", "kept", 1000));
+        }
+        Files.write(path, "1\t0\t2000\t99\t".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        try (DraftJournal journal = new DraftJournal(path)) {
+            assertEquals("kept", journal.getDraft(1).getNote());
+            journal.write(new RecordDraft(1, 0, "72", "", "", "after", 3000));
+        }
+        try (DraftJournal journal = new DraftJournal(path)) {
+            assertEquals("after", journal.getDraft(1).getNote());
+        }
+    }
+
+    /**
+     * Test to verify that many edits within one interval become a single journal write holding the latest text,
+     * and that a discarded draft is gone.
+     */
+    @Test
+    public void testAutosaverCoalescesEdits() throws IOException {
+        DraftJournal journal = new DraftJournal(path);
+        DraftAutosaver autosaver = new DraftAutosaver(journal, 60_000);
+
+        StringBuilder note = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            note.append('x');
+            autosaver.update(new RecordDraft(1, 0, "70", "", "", note.toString(), i));
+        }
+        assertEquals(0, journal.getLinesWritten());
+        assertEquals(100, autosaver.getDraft(1).getNote().length());
+
+        autosaver.flush();
+        assertEquals(1, journal.getLinesWritten());
+        assertEquals(100, journal.getDraft(1).getNote().length());
+
+        autosaver.discard(1);
+        assertNull(autosaver.getDraft(1));
+        autosaver.close();
+
+        try (DraftJournal reopened = new DraftJournal(path)) {
+            assertNull(reopened.getDraft(1));
+        }
+    }
+
+    /**
+     * Test to verify that with a key store the drafts are written encrypted, read back with the same
+     * keys, and skipped with other keys.
+     */
+    @Test
+    public void testEncryptedDrafts() throws IOException {
+        DataKeyStore keyStore = new DataKeyStore(DataKeyStore.generateMasterKey());
+        try (DraftJournal journal = new DraftJournal(path)) {
+            journal.setKeyStore(keyStore);
+            journal.write(new RecordDraft(1, 0, "71", "36.6", "135/85", "dizzy after lunch", 2000));
+        }
+        String content = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+        assertFalse(content, content.contains("dizzy"));
+        assertFalse(content, content.contains("135/85"));
+
+        try (DraftJournal journal = new DraftJournal(path)) {
+            journal.setKeyStore(keyStore);
+            assertEquals("dizzy after lunch", journal.getDraft(1).getNote());
+            assertEquals("135/85", journal.getDraft(1).getBloodPressure());
+        }
+        try (DraftJournal journal = new DraftJournal(path)) {
+            journal.setKeyStore(new DataKeyStore(DataKeyStore.generateMasterKey()));
+            assertNull(journal.getDraft(1));
+        }
+    }
+
+    /**
+     * Test to verify that drafts written in the clear are rewritten encrypted once a key store is set.
+     */
+    @Test
+    public void testClearDraftsAreEncrypted() throws IOException {
+        try (DraftJournal journal = new DraftJournal(path)) {
+            journal.write(new RecordDraft(1, 0, "71", "", "", "written before encryption", 1000));
+        }
+
+        DataKeyStore keyStore = new DataKeyStore(DataKeyStore.generateMasterKey());
+        try (DraftJournal journal = new DraftJournal(path)) {
+            journal.setKeyStore(keyStore);
+            assertEquals("written before encryption", journal.getDraft(1).getNote());
+        }
+        String content = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+        assertFalse(content, content.contains("written before encryption"));
+    }
+}
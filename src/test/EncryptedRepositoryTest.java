@@ -0,0 +1,154 @@
+package test;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.List;
+
+import javax.crypto.SecretKey;
+
+import database.ChangeEvent;
+import database.DataKeyStore;
+import database.Database;
+import database.EncryptedRepository;
+import database.HealthRecordQuery;
+import database.InMemoryDatabase;
+import model.HealthRecord;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the EncryptedRepository, stored in an InMemoryDatabase, and for the storage of
+ * its keys in a SQLite database.
+ */
+public class EncryptedRepositoryTest {
+    // Folder for the database file of the test that stores keys, deleted after each test
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private InMemoryDatabase storage;
+    private EncryptedRepository repository;
+
+    /**
+     * This method is executed before each test. It creates an encrypting repository with a new master key.
+     */
+    @Before
+    public void setUp() {
+        storage = new InMemoryDatabase();
+        repository = new EncryptedRepository(storage, new DataKeyStore(DataKeyStore.generateMasterKey()), 100);
+    }
+
+    /**
+     * Test to verify that readings and notes are stored encrypted and read back unchanged, also after an update.
+     */
+    @Test
+    public void testRoundTrip() throws SQLException {
+        HealthRecord record = new HealthRecord(0, 72.5f, 36.8f, "125/82", "after the run", LocalDate.of(2023, 6, 1), 1);
+        repository.addHealthRecord(record);
+
+        HealthRecord stored = storage.getHealthRecord(record.getId());
+        assertEquals(0, stored.getWeight(), 0);
+        assertNull(stored.getBloodPressure());
+        assertFalse(stored.getNote().contains("after the run"));
+        assertEquals(LocalDate.of(2023, 6, 1), stored.getDate());
+
+        HealthRecord read = repository.getHealthRecord(record.getId());
+        assertEquals(72.5f, read.getWeight(), 0);
+        assertEquals(36.8f, read.getTemperature(), 0);
+        assertEquals("125/82", read.getBloodPressure());
+        assertEquals("after the run", read.getNote());
+
+        read.setNote(null);
+        read.setWeight(71f);
+        repository.updateHealthRecord(read);
+        repository.clearCache();
+        HealthRecord updated = repository.getAllHealthRecords(1).get(0);
+        assertEquals(71f, updated.getWeight(), 0);
+        assertNull(updated.getNote());
+        assertEquals(2, updated.getVersion());
+    }
+
+    /**
+     * Test to verify that a new user's key is stored in the database with a change event, and that
+     * the records are read back with the same master key after the database is opened again.
+     * Skipped when the SQLite driver is not on the classpath.
+     */
+    @Test
+    public void testKeysAreStoredInTheDatabase() throws SQLException {
+        try {
+            Class.forName("org.sqlite.JDBC");
+        } catch (ClassNotFoundException e) {
+            Assume.assumeNoException(e);
+        }
+        String url = "jdbc:sqlite:" + folder.getRoot().toPath().resolve("keys.db");
+        SecretKey masterKey = DataKeyStore.generateMasterKey();
+        HealthRecord record = new HealthRecord(0, 70f, 36.6f, "120/80", "stored key", LocalDate.of(2023, 6, 1), 7);
+
+        Database database = new Database(url);
+        try {
+            new EncryptedRepository(database, new DataKeyStore(masterKey, database), 100).addHealthRecord(record);
+            boolean keyLogged = false;
+            for (ChangeEvent event : database.getChanges(0, 100)) {
+                keyLogged |= event.getTable().equals(ChangeEvent.USER_KEYS) && event.getRowId() == 7;
+            }
+            assertTrue(keyLogged);
+        } finally {
+            database.close();
+        }
+
+        database = new Database(url);
+        try {
+            EncryptedRepository reopened = new EncryptedRepository(database, new DataKeyStore(masterKey, database), 100);
+            assertEquals("stored key", reopened.getHealthRecord(record.getId()).getNote());
+        } finally {
+            database.close();
+        }
+    }
+
+    /**
+     * Test to verify that repeated reads are answered from the cache, and that queries can still
+     * filter and sort on encrypted readings.
+     */
+    @Test
+    public void testCachedReadsAndQueries() throws SQLException {
+        for (int i = 0; i < 10; i++) {
+            repository.addHealthRecord(new HealthRecord(0, 60 + i, 36.5f, "120/80", "", LocalDate.of(2023, 1, 1 + i), 1));
+        }
+        repository.clearCache();
+        repository.getAllHealthRecords(1);
+        long misses = repository.getCacheMisses();
+        repository.getAllHealthRecords(1);
+        assertEquals(misses, repository.getCacheMisses());
+
+        HealthRecordQuery query = new HealthRecordQuery(1);
+        query.setWeightRange(63f, null);
+        query.setSort(HealthRecordQuery.SortColumn.WEIGHT, false);
+        query.setPageSize(3);
+        List<HealthRecord> page = repository.queryHealthRecords(query, null);
+        assertEquals(3, page.size());
+        assertEquals(69f, page.get(0).getWeight(), 0);
+        assertEquals(67f, page.get(2).getWeight(), 0);
+
+        List<HealthRecord> next = repository.queryHealthRecords(query, page.get(2));
+        assertEquals(66f, next.get(0).getWeight(), 0);
+    }
+
+    /**
+     * Test to verify that a record moved to another user in storage cannot be decrypted.
+     */
+    @Test(expected = SQLException.class)
+    public void testRecordMovedToAnotherUserIsRejected() throws SQLException {
+        HealthRecord record = new HealthRecord(0, 80f, 37f, "130/85", "private", LocalDate.of(2023, 6, 1), 1);
+        repository.addHealthRecord(record);
+
+        HealthRecord stored = storage.getHealthRecord(record.getId());
+        stored.setUserId(2);
+        storage.updateHealthRecord(stored);
+        repository.clearCache();
+        repository.getHealthRecord(record.getId());
+    }
+}
@@ -0,0 +1,195 @@
+package test;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import analytics.CohortAnalytics;
+import analytics.CohortStatistics;
+import database.Database;
+import database.HealthRecordQuery;
+import model.HealthRecord;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the archive of old health records in the Database: archiving, reading archived
+ * records, changing or deleting one, and counting them in the cohort statistics, on a SQLite file.
+ * Skipped when the SQLite driver is not on the classpath.
+ */
+public class HealthRecordArchiveTest {
+    private static final LocalDate CUTOFF = LocalDate.of(2023, 1, 1);
+
+    // Folder for the database file, deleted after each test
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Database database;
+    private final List<HealthRecord> old = new ArrayList<>();
+
+    /**
+     * This method is executed before each test. It creates a database where user 1 has ten records
+     * from before the cutoff and two after it, and user 2 has one from before.
+     */
+    @Before
+    public void setUp() throws SQLException {
+        try {
+            Class.forName("org.sqlite.JDBC");
+        } catch (ClassNotFoundException e) {
+            Assume.assumeNoException(e);
+        }
+        database = new Database("jdbc:sqlite:" + folder.getRoot().toPath().resolve("archive.db"));
+
+        for (int i = 0; i < 10; i++) {
+            old.add(addRecord(1, LocalDate.of(2022, 3, 1).plusDays(i * 7), "12" + i + "/80", "old note " + i));
+        }
+        addRecord(1, CUTOFF, "120/80", "recent");
+        addRecord(1, CUTOFF.plusDays(1), "121/80", "recent");
+        addRecord(2, LocalDate.of(2022, 5, 1), "130/85", "other user");
+    }
+
+    /**
+     * This method is executed after each test. It closes the database.
+     */
+    @After
+    public void tearDown() throws SQLException {
+        if (database != null) {
+            database.close();
+        }
+    }
+
+    /**
+     * Test to verify that archived records move into one block per user and are still returned, with
+     * their readings and notes, by ID and by every page of the record query.
+     */
+    @Test
+    public void testArchivedRecordsAreStillRead() throws SQLException {
+        assertEquals(11, database.archiveRecords(CUTOFF));
+
+        assertEquals(2, count("SELECT COUNT(*) FROM health_records WHERE user_id = 1"));
+        assertEquals(10, count("SELECT record_count FROM health_record_archive WHERE user_id = 1"));
+        assertEquals(0, database.archiveRecords(CUTOFF));
+
+        HealthRecord archived = database.getHealthRecord(old.get(3).getId());
+        assertEquals("123/80", archived.getBloodPressure());
+        assertEquals("old note 3", archived.getNote());
+        assertEquals(old.get(3).getDate(), archived.getDate());
+
+        HealthRecordQuery query = new HealthRecordQuery(1);
+        query.setSort(HealthRecordQuery.SortColumn.DATE, true);
+        query.setPageSize(5);
+        List<HealthRecord> read = readAllPages(query);
+        assertEquals(12, read.size());
+        for (int i = 0; i < old.size(); i++) {
+            assertEquals(old.get(i).getId(), read.get(i).getId());
+            assertEquals("old note " + i, read.get(i).getNote());
+        }
+        assertEquals(12, database.getAllHealthRecords(1).size());
+    }
+
+    /**
+     * Test to verify that updating and deleting archived records moves their block back into
+     * health_records with the changes applied, and that archiving again writes a block without the
+     * deleted record.
+     */
+    @Test
+    public void testChangedRecordsAreThawed() throws SQLException {
+        database.archiveRecords(CUTOFF);
+
+        HealthRecord updated = database.getHealthRecord(old.get(2).getId());
+        updated.setNote("edited");
+        updated.setWeight(75f);
+        database.updateHealthRecord(updated);
+
+        assertEquals(0, count("SELECT COUNT(*) FROM health_record_archive WHERE user_id = 1"));
+        assertEquals(0, count("SELECT COUNT(*) FROM health_record_archive_index WHERE user_id = 1"));
+        assertEquals(12, count("SELECT COUNT(*) FROM health_records WHERE user_id = 1"));
+        HealthRecord thawed = database.getHealthRecord(updated.getId());
+        assertEquals("edited", thawed.getNote());
+        assertEquals("122/80", thawed.getBloodPressure());
+        assertEquals(2, thawed.getVersion());
+        assertEquals("old note 5", database.getHealthRecord(old.get(5).getId()).getNote());
+
+        assertEquals(10, database.archiveRecords(CUTOFF));
+        int deleted = old.get(6).getId();
+        database.deleteHealthRecord(deleted);
+        assertNull(database.getHealthRecord(deleted));
+        assertEquals(11, database.getAllHealthRecords(1).size());
+
+        assertEquals(9, database.archiveRecords(CUTOFF));
+        assertEquals(9, count("SELECT record_count FROM health_record_archive WHERE user_id = 1"));
+        assertEquals(0, count("SELECT COUNT(*) FROM health_record_archive_index WHERE record_id = " + deleted));
+        assertNull(database.getHealthRecord(deleted));
+        HealthRecord rearchived = database.getHealthRecord(updated.getId());
+        assertEquals("edited", rearchived.getNote());
+        assertEquals(75f, rearchived.getWeight(), 0.001);
+        assertEquals(1, count("SELECT COUNT(*) FROM health_record_archive WHERE user_id = 2"));
+    }
+
+    /**
+     * Test to verify that the cohort statistics count archived records as before, also for a
+     * database whose records are all archived.
+     */
+    @Test
+    public void testCohortStatisticsIncludeArchivedRecords() throws SQLException {
+        // Fevers on an archived day of user 1 and a recent day of user 2
+        database.addHealthRecord(new HealthRecord(0, 71f, 38.5f, "150/95", "", old.get(0).getDate(), 1));
+        database.addHealthRecord(new HealthRecord(0, 90f, 38.2f, "", "", CUTOFF.plusDays(3), 2));
+        CohortAnalytics analytics = new CohortAnalytics(database, 2);
+        CohortStatistics before = analytics.compute();
+        assertEquals(15, before.getRecordCount());
+        assertEquals(2, before.getUserCount());
+        assertEquals(2, before.getFeverDays());
+
+        database.archiveRecords(CUTOFF);
+        assertEquals(before.toString(), analytics.compute().toString());
+
+        database.archiveRecords(LocalDate.of(2100, 1, 1));
+        assertEquals(0, count("SELECT COUNT(*) FROM health_records"));
+        CohortStatistics allArchived = analytics.compute();
+        assertEquals(15, allArchived.getRecordCount());
+        assertEquals(before.toString(), allArchived.toString());
+    }
+
+    private HealthRecord addRecord(int userId, LocalDate date, String bloodPressure, String note) throws SQLException {
+        HealthRecord record = new HealthRecord(0, 70f, 36.6f, bloodPressure, note, date, userId);
+        database.addHealthRecord(record);
+        return record;
+    }
+
+    // Reads every page of a query, checking that no record comes twice
+    private List<HealthRecord> readAllPages(HealthRecordQuery query) throws SQLException {
+        List<HealthRecord> records = new ArrayList<>();
+        Set<Integer> ids = new HashSet<>();
+        HealthRecord after = null;
+        while (true) {
+            List<HealthRecord> page = database.queryHealthRecords(query, after);
+            for (HealthRecord record : page) {
+                assertTrue(ids.add(record.getId()));
+            }
+            records.addAll(page);
+            if (page.size() < query.getPageSize()) {
+                return records;
+            }
+            after = page.get(page.size() - 1);
+        }
+    }
+
+    private long count(String sql) throws SQLException {
+        try (PreparedStatement pstmt = database.getConnection().prepareStatement(sql);
+             ResultSet rs = pstmt.executeQuery()) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import controller.HealthRecordController;
+import database.InMemoryDatabase;
+import model.HealthRecord;
+import model.User;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the change events of the HealthRecordController.
+ */
+public class HealthRecordControllerTest {
+    // Controller under test, backed by an in-memory database
+    private HealthRecordController controller;
+    private InMemoryDatabase database;
+
+    // The events received, e.g. "added 1"
+    private final List<String> events = new ArrayList<>();
+
+    private User user;
+
+    /**
+     * This method is executed before each test. It creates a controller with a listener that records every event.
+     */
+    @Before
+    public void setUp() throws SQLException {
+        database = new InMemoryDatabase();
+        user = new User(0, "jdoe", "password", "John", "Doe");
+        database.addUser(user);
+
+        controller = new HealthRecordController(database);
+        controller.addRecordListener(new HealthRecordController.RecordListener() {
+            @Override
+            public void recordAdded(HealthRecord record) {
+                events.add("added " + record.getId());
+            }
+
+            @Override
+            public void recordUpdated(HealthRecord record) {
+                events.add("updated " + record.getId());
+            }
+
+            @Override
+            public void recordDeleted(HealthRecord record) {
+                events.add("deleted " + record.getId());
+            }
+        });
+    }
+
+    /**
+     * Test to verify that adding, updating, deleting and restoring a record each report one event with the record's ID.
+     */
+    @Test
+    public void testChangesAreReported() {
+        HealthRecord record = new HealthRecord(0, 70, 36.6f, "120/80", "note", LocalDate.of(2023, 5, 14), 0);
+        controller.addHealthRecord(user, record);
+        record.setNote("changed");
+        controller.updateHealthRecord(record);
+        controller.deleteHealthRecord(record);
+        controller.restoreHealthRecord(record);
+
+        int id = record.getId();
+        assertEquals(Arrays.asList("added " + id, "updated " + id, "deleted " + id, "added " + id), events);
+    }
+
+    /**
+     * Test to verify that a change that is not stored is not reported, and that removed listeners get no events.
+     */
+    @Test
+    public void testFailedChangesAndRemovedListeners() {
+        HealthRecord record = new HealthRecord(0, 70, 36.6f, "120/80", "note", LocalDate.of(2023, 5, 14), 0);
+        controller.addHealthRecord(user, record);
+        events.clear();
+
+        // A record with an ID that is already taken cannot be added
+        HealthRecord duplicate = new HealthRecord(record.getId(), 80, 37f, "130/85", "", LocalDate.of(2023, 5, 15), 0);
+        controller.addHealthRecord(user, duplicate);
+        assertTrue(events.isEmpty());
+
+        HealthRecordController other = new HealthRecordController(database);
+        List<HealthRecord> seen = new ArrayList<>();
+        HealthRecordController.RecordListener listener = new HealthRecordController.RecordListener() {
+            @Override
+            public void recordAdded(HealthRecord added) {
+                seen.add(added);
+            }
+
+            @Override
+            public void recordUpdated(HealthRecord updated) {
+                seen.add(updated);
+            }
+
+            @Override
+            public void recordDeleted(HealthRecord deleted) {
+                seen.add(deleted);
+            }
+        };
+        other.addRecordListener(listener);
+        other.removeRecordListener(listener);
+        other.deleteHealthRecord(record);
+        assertTrue(seen.isEmpty());
+    }
+
+    /**
+     * Test to verify that the streamed export writes every record in the format of HealthRecord.toString(),
+     * including missing text and dates in the first days of a month.
+     */
+    @Test
+    public void testExportMatchesRecordFormat() throws IOException {
+        List<HealthRecord> records = Arrays.asList(
+                new HealthRecord(0, 70.5f, 36.6f, "120/80", "fine", LocalDate.of(2023, 1, 5), 0),
+                new HealthRecord(0, 0f, 38.25f, null, null, LocalDate.of(2023, 11, 30), 0),
+                new HealthRecord(0, 81f, 0f, "", "after run", LocalDate.of(1999, 12, 31), 0));
+        StringBuilder expected = new StringBuilder();
+        for (HealthRecord record : records) {
+            controller.addHealthRecord(user, record);
+            expected.append(record).append(System.lineSeparator());
+        }
+
+        StringWriter writer = new StringWriter();
+        assertEquals(records.size(), controller.exportHealthRecords(user, writer));
+        assertEquals(expected.toString(), writer.toString());
+    }
+}
@@ -0,0 +1,145 @@
+package test;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.List;
+
+import database.Database;
+import database.HistoryCompactor;
+import model.HealthRecord;
+import model.HealthRecordVersion;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the versioned history of health records: versions, soft delete, restore and
+ * compaction, on a SQLite file. Skipped when the SQLite driver is not on the classpath.
+ */
+public class HealthRecordHistoryTest {
+    // Folder for the database file, deleted after each test
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Database database;
+
+    /**
+     * This method is executed before each test. It creates an empty database.
+     */
+    @Before
+    public void setUp() throws SQLException {
+        try {
+            Class.forName("org.sqlite.JDBC");
+        } catch (ClassNotFoundException e) {
+            Assume.assumeNoException(e);
+        }
+        database = new Database("jdbc:sqlite:" + folder.getRoot().toPath().resolve("history.db"));
+    }
+
+    /**
+     * This method is executed after each test. It closes the database.
+     */
+    @After
+    public void tearDown() throws SQLException {
+        if (database != null) {
+            database.close();
+        }
+    }
+
+    /**
+     * Test to verify that every update keeps the previous version, oldest first, followed by the current one.
+     */
+    @Test
+    public void testVersionHistory() throws SQLException {
+        HealthRecord record = addRecord(1, 3);
+
+        List<HealthRecordVersion> versions = database.getHealthRecordHistory(record.getId());
+        assertEquals(4, versions.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i + 1, versions.get(i).getRecord().getVersion());
+            assertEquals("note " + i, versions.get(i).getRecord().getNote());
+        }
+        assertTrue(versions.get(3).isCurrent());
+        assertFalse(versions.get(2).isCurrent());
+    }
+
+    /**
+     * Test to verify that a deleted record can be listed and restored under its ID as a new version.
+     */
+    @Test
+    public void testSoftDeleteAndRestore() throws SQLException {
+        HealthRecord record = addRecord(1, 1);
+        database.deleteHealthRecord(record.getId());
+
+        assertNull(database.getHealthRecord(record.getId()));
+        List<HealthRecord> deleted = database.getDeletedHealthRecords(1);
+        assertEquals(1, deleted.size());
+        assertEquals("note 1", deleted.get(0).getNote());
+
+        HealthRecord restored = database.restoreHealthRecord(record.getId());
+        assertEquals(record.getId(), restored.getId());
+        assertEquals(3, restored.getVersion());
+        assertEquals("note 1", database.getHealthRecord(record.getId()).getNote());
+        assertTrue(database.getDeletedHealthRecords(1).isEmpty());
+        assertNull(database.restoreHealthRecord(record.getId()));
+    }
+
+    /**
+     * Test to verify that compaction keeps the configured number of versions of every record, working
+     * through the records in windows smaller than the history.
+     */
+    @Test
+    public void testCompactionKeepsNewestVersions() throws SQLException, InterruptedException {
+        int[] ids = new int[5];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = addRecord(1, 5).getId();
+        }
+
+        int batches = new HistoryCompactor(database, 365, 1, 2, 0).compact();
+
+        assertTrue("Ran " + batches + " batches", batches >= 3);
+        for (int id : ids) {
+            List<HealthRecordVersion> versions = database.getHealthRecordHistory(id);
+            // The newest history version, the one at the edge of the policy, and the current row
+            assertEquals(3, versions.size());
+            assertEquals(4, versions.get(0).getRecord().getVersion());
+            assertEquals(6, versions.get(2).getRecord().getVersion());
+        }
+    }
+
+    /**
+     * Test to verify that a batch only looks at its window of record IDs and returns where the next one starts.
+     */
+    @Test
+    public void testBatchIsBoundedByRecordWindow() throws SQLException {
+        int first = addRecord(1, 2).getId();
+        int second = addRecord(1, 2).getId();
+
+        // A full batch resumes at the record it stopped in
+        assertEquals(first, database.compactHistoryBatch(Long.MAX_VALUE, 10, first, 1));
+        assertEquals(2, database.getHealthRecordHistory(first).size());
+        assertEquals(3, database.getHealthRecordHistory(second).size());
+
+        assertEquals(second, database.compactHistoryBatch(Long.MAX_VALUE, 10, first, 1));
+        assertEquals(3, database.getHealthRecordHistory(second).size());
+
+        assertEquals(-1, database.compactHistoryBatch(Long.MAX_VALUE, 10, second, 10));
+        assertEquals(2, database.getHealthRecordHistory(second).size());
+    }
+
+    // Adds a record and updates it the given number of times, each version with its own note
+    private HealthRecord addRecord(int userId, int updates) throws SQLException {
+        HealthRecord record = new HealthRecord(0, 70, 36.6f, "120/80", "note 0", LocalDate.of(2023, 1, 1), userId);
+        database.addHealthRecord(record);
+        for (int i = 1; i <= updates; i++) {
+            record.setNote("note " + i);
+            database.updateHealthRecord(record);
+        }
+        return record;
+    }
+}
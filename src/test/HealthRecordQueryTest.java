@@ -0,0 +1,163 @@
+package test;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import database.Database;
+import database.HealthRecordQuery;
+import model.BloodPressureCategory;
+import model.HealthRecord;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the SQL paging of health record queries: every page of the database must
+ * match the query's own filter and comparator, on a sample where many records share a sort value.
+ * Skipped when the SQLite driver is not on the classpath.
+ */
+public class HealthRecordQueryTest {
+    // Folder for the database file, deleted after each test
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Database database;
+    private final List<HealthRecord> sample = new ArrayList<>();
+
+    /**
+     * This method is executed before each test. It creates a database with records of two users,
+     * where weights, temperatures, readings, notes and dates repeat.
+     */
+    @Before
+    public void setUp() throws SQLException {
+        try {
+            Class.forName("org.sqlite.JDBC");
+        } catch (ClassNotFoundException e) {
+            Assume.assumeNoException(e);
+        }
+        database = new Database("jdbc:sqlite:" + folder.getRoot().toPath().resolve("query.db"));
+
+        String[] readings = {"120/80", "150/95", "135/85", ""};
+        String[] notes = {"", "after run", "morning", "after run", "a longer note that is not kept in the dictionary of short values"};
+        LocalDate start = LocalDate.of(2023, 1, 1);
+        for (int i = 0; i < 40; i++) {
+            HealthRecord record = new HealthRecord(0, 70 + i % 4, 36.5f + (i % 3) * 0.5f, readings[i % readings.length],
+                    notes[i % notes.length], start.plusDays(i / 3), 1);
+            database.addHealthRecord(record);
+            sample.add(record);
+        }
+        database.addHealthRecord(new HealthRecord(0, 71, 37f, "120/80", "other user", start, 2));
+    }
+
+    /**
+     * This method is executed after each test. It closes the database.
+     */
+    @After
+    public void tearDown() throws SQLException {
+        if (database != null) {
+            database.close();
+        }
+    }
+
+    /**
+     * Test to verify that paging by every sort column, in both directions, returns each record once
+     * and in the order of the query's comparator, even where sort values repeat.
+     */
+    @Test
+    public void testEverySortOrder() throws SQLException {
+        for (HealthRecordQuery.SortColumn column : HealthRecordQuery.SortColumn.values()) {
+            for (boolean ascending : new boolean[] {true, false}) {
+                HealthRecordQuery query = new HealthRecordQuery(1);
+                query.setSort(column, ascending);
+                query.setPageSize(3);
+                assertPagesMatch(query);
+            }
+        }
+    }
+
+    /**
+     * Test to verify that date ranges are applied to the stored milliseconds, including the first and
+     * last day, together with the other filters.
+     */
+    @Test
+    public void testFilters() throws SQLException {
+        HealthRecordQuery byDate = new HealthRecordQuery(1);
+        byDate.setDateRange(LocalDate.of(2023, 1, 3), LocalDate.of(2023, 1, 6));
+        byDate.setPageSize(4);
+        assertEquals(12, assertPagesMatch(byDate));
+
+        HealthRecordQuery combined = new HealthRecordQuery(1);
+        combined.setDateRange(LocalDate.of(2023, 1, 2), null);
+        combined.setWeightRange(71f, 72f);
+        combined.setTemperatureRange(37f, null);
+        combined.setCategory(BloodPressureCategory.HYPERTENSION_STAGE_2);
+        combined.setSort(HealthRecordQuery.SortColumn.TEMPERATURE, false);
+        combined.setPageSize(2);
+        assertTrue(assertPagesMatch(combined) > 0);
+
+        HealthRecordQuery before = new HealthRecordQuery(1);
+        before.setDateRange(null, LocalDate.of(2022, 12, 31));
+        assertEquals(0, assertPagesMatch(before));
+    }
+
+    /**
+     * Test to verify that a page starting after a cursor record skips the records that sort with the
+     * same value but a lower ID.
+     */
+    @Test
+    public void testCursorWithinEqualSortValues() throws SQLException {
+        HealthRecordQuery query = new HealthRecordQuery(1);
+        query.setSort(HealthRecordQuery.SortColumn.WEIGHT, true);
+        query.setPageSize(100);
+        List<HealthRecord> all = database.queryHealthRecords(query, null);
+        // The third record of weight 70; the next page continues with the fourth
+        HealthRecord cursor = all.get(2);
+        assertEquals(70f, all.get(3).getWeight(), 0.001);
+
+        List<HealthRecord> rest = database.queryHealthRecords(query, cursor);
+        assertEquals(all.size() - 3, rest.size());
+        assertEquals(all.get(3).getId(), rest.get(0).getId());
+    }
+
+    /**
+     * Reads every page of a query and checks the records against the sample filtered and sorted by
+     * the query itself.
+     *
+     * @return the number of records read
+     */
+    private int assertPagesMatch(HealthRecordQuery query) throws SQLException {
+        List<HealthRecord> expected = new ArrayList<>();
+        for (HealthRecord record : sample) {
+            if (query.matches(record)) {
+                expected.add(record);
+            }
+        }
+        expected.sort(query.comparator());
+
+        List<HealthRecord> actual = new ArrayList<>();
+        HealthRecord after = null;
+        while (true) {
+            List<HealthRecord> page = database.queryHealthRecords(query, after);
+            assertTrue(page.size() <= query.getPageSize());
+            actual.addAll(page);
+            if (page.size() < query.getPageSize()) {
+                break;
+            }
+            after = page.get(page.size() - 1);
+        }
+
+        String description = query.getSortColumn() + (query.isAscending() ? " ascending" : " descending");
+        assertEquals(description, expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(description + " at " + i, expected.get(i).getId(), actual.get(i).getId());
+        }
+        return actual.size();
+    }
+}
@@ -0,0 +1,178 @@
+package test;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import database.Database;
+import model.HealthRecord;
+import model.PeriodSummary;
+import model.RollupPeriod;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the health_rollups table of the Database: the totals kept up to date by every
+ * record change, and the rebuild from the records, on a SQLite file. Skipped when the SQLite driver
+ * is not on the classpath.
+ */
+public class HealthRollupTest {
+    // Wednesday, in the second week of the month
+    private static final LocalDate DAY = LocalDate.of(2023, 3, 8);
+
+    // Folder for the database file, deleted after each test
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Database database;
+
+    /**
+     * This method is executed before each test. It creates an empty database.
+     */
+    @Before
+    public void setUp() throws SQLException {
+        try {
+            Class.forName("org.sqlite.JDBC");
+        } catch (ClassNotFoundException e) {
+            Assume.assumeNoException(e);
+        }
+        database = new Database("jdbc:sqlite:" + folder.getRoot().toPath().resolve("rollups.db"));
+    }
+
+    /**
+     * This method is executed after each test. It closes the database.
+     */
+    @After
+    public void tearDown() throws SQLException {
+        if (database != null) {
+            database.close();
+        }
+    }
+
+    /**
+     * Test to verify that added records are summed up per day, with empty readings left out of the
+     * counts, sums, minimums and maximums.
+     */
+    @Test
+    public void testDayRollupsOfAddedRecords() throws SQLException {
+        addRecord(1, DAY, 70f, 36.5f);
+        addRecord(1, DAY, 72f, 0f);
+        addRecord(1, DAY, 0f, 37.5f);
+        addRecord(1, DAY.plusDays(1), 71f, 36.6f);
+
+        List<PeriodSummary> days = database.getPeriodSummaries(1, RollupPeriod.DAY, DAY, DAY.plusDays(1));
+        assertEquals(2, days.size());
+        PeriodSummary first = days.get(0);
+        assertEquals(DAY, first.getPeriodStart());
+        assertEquals(3, first.getRecordCount());
+        assertEquals(2, first.getWeightCount());
+        assertEquals(142, first.getWeightSum(), 0.001);
+        assertEquals(70f, first.getMinWeight(), 0.001);
+        assertEquals(72f, first.getMaxWeight(), 0.001);
+        assertEquals(2, first.getTemperatureCount());
+        assertEquals(37f, first.getAverageTemperature(), 0.001);
+        assertEquals(1, days.get(1).getRecordCount());
+
+        List<PeriodSummary> weeks = database.getPeriodSummaries(1, RollupPeriod.WEEK, DAY, DAY);
+        assertEquals(1, weeks.size());
+        assertEquals(4, weeks.get(0).getRecordCount());
+        assertTrue(database.getPeriodSummaries(2, RollupPeriod.DAY, DAY, DAY).isEmpty());
+    }
+
+    /**
+     * Test to verify that a record moved to another date, and then to another user, is taken out of
+     * its old day, week and month and counted in the new ones.
+     */
+    @Test
+    public void testMovedRecordCorrectsBothBuckets() throws SQLException {
+        addRecord(1, DAY, 70f, 36.5f);
+        HealthRecord moved = addRecord(1, DAY, 80f, 38f);
+
+        LocalDate nextMonth = LocalDate.of(2023, 4, 20);
+        moved.setDate(nextMonth);
+        database.updateHealthRecord(moved);
+
+        PeriodSummary oldDay = single(1, RollupPeriod.DAY, DAY);
+        assertEquals(1, oldDay.getRecordCount());
+        assertEquals(70f, oldDay.getMaxWeight(), 0.001);
+        assertEquals(36.5f, oldDay.getMaxTemperature(), 0.001);
+        assertEquals(1, single(1, RollupPeriod.MONTH, DAY).getRecordCount());
+        assertEquals(80f, single(1, RollupPeriod.DAY, nextMonth).getMinWeight(), 0.001);
+        assertEquals(1, single(1, RollupPeriod.MONTH, nextMonth).getRecordCount());
+
+        HealthRecord reread = database.getHealthRecord(moved.getId());
+        reread.setUserId(2);
+        database.updateHealthRecord(reread);
+
+        assertTrue(database.getPeriodSummaries(1, RollupPeriod.DAY, nextMonth, nextMonth).isEmpty());
+        assertTrue(database.getPeriodSummaries(1, RollupPeriod.MONTH, nextMonth, nextMonth).isEmpty());
+        assertEquals(1, single(1, RollupPeriod.DAY, DAY).getRecordCount());
+        PeriodSummary newUser = single(2, RollupPeriod.WEEK, nextMonth);
+        assertEquals(1, newUser.getRecordCount());
+        assertEquals(38f, newUser.getMaxTemperature(), 0.001);
+    }
+
+    /**
+     * Test to verify that rebuilding the table from the records gives the rows that the changes
+     * wrote one by one, after adds, updates and deletes.
+     */
+    @Test
+    public void testRebuildMatchesIncrementalRollups() throws SQLException {
+        List<HealthRecord> records = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            records.add(addRecord(1 + i % 3, DAY.plusDays(i % 17 * 3), 60f + i, i % 5 == 0 ? 0f : 36f + i % 4 * 0.5f));
+        }
+        HealthRecord updated = records.get(4);
+        updated.setWeight(99f);
+        updated.setDate(DAY.minusDays(40));
+        database.updateHealthRecord(updated);
+        database.deleteHealthRecord(records.get(7).getId());
+        database.deleteHealthRecord(records.get(20).getId());
+
+        List<String> incremental = rollupRows();
+        long written = database.rebuildRollups();
+
+        assertEquals(incremental.size(), written);
+        assertEquals(incremental, rollupRows());
+    }
+
+    private HealthRecord addRecord(int userId, LocalDate date, float weight, float temperature) throws SQLException {
+        HealthRecord record = new HealthRecord(0, weight, temperature, "120/80", "", date, userId);
+        database.addHealthRecord(record);
+        return record;
+    }
+
+    // Returns the one summary of a user's period that contains the date
+    private PeriodSummary single(int userId, RollupPeriod period, LocalDate date) throws SQLException {
+        List<PeriodSummary> summaries = database.getPeriodSummaries(userId, period, date, date);
+        assertEquals(1, summaries.size());
+        return summaries.get(0);
+    }
+
+    // Every row of health_rollups, one string per row, in key order
+    private List<String> rollupRows() throws SQLException {
+        List<String> rows = new ArrayList<>();
+        try (Statement stmt = database.getConnection().createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT * FROM health_rollups ORDER BY user_id, period, period_start")) {
+            ResultSetMetaData meta = rs.getMetaData();
+            while (rs.next()) {
+                StringBuilder row = new StringBuilder();
+                for (int column = 1; column <= meta.getColumnCount(); column++) {
+                    row.append(meta.getColumnName(column)).append('=').append(rs.getObject(column)).append(' ');
+                }
+                rows.add(row.toString());
+            }
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,212 @@
+package test;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.List;
+
+import controller.HealthRecordController;
+import controller.UserController;
+import database.HealthRecordQuery;
+import database.InMemoryDatabase;
+import model.BloodPressureCategory;
+import model.HealthRecord;
+import model.HealthRecordVersion;
+import model.PeriodSummary;
+import model.RollupPeriod;
+import model.User;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the InMemoryDatabase storage engine.
+ */
+public class InMemoryDatabaseTest {
+    // InMemoryDatabase instance that will be tested
+    private InMemoryDatabase database;
+
+    // Test date to be used in test cases
+    private final LocalDate testDate = LocalDate.of(2023, 5, 14);
+
+    /**
+     * This method is executed before each test. It creates an empty in-memory database.
+     */
+    @Before
+    public void setUp() {
+        database = new InMemoryDatabase();
+    }
+
+    /**
+     * Test to verify that users are assigned IDs and can be found by ID and username.
+     */
+    @Test
+    public void testAddAndFindUser() throws SQLException {
+        User user = new User(0, "jdoe", "password", "John", "Doe");
+        database.addUser(user);
+
+        assertEquals(1, user.getId());
+        assertEquals("John", database.getUser(1).getFirstName());
+        assertEquals(1, database.getUserByUsername("jdoe").getId());
+        assertNull(database.getUserByUsername("nobody"));
+        assertEquals(2, database.getNextUserId());
+    }
+
+    /**
+     * Test to verify that changing an object after storing it does not change the stored copy.
+     */
+    @Test
+    public void testStoredObjectsAreCopies() throws SQLException {
+        User user = new User(0, "jdoe", "password", "John", "Doe");
+        database.addUser(user);
+        user.setFirstName("Changed");
+
+        assertEquals("John", database.getUser(user.getId()).getFirstName());
+    }
+
+    /**
+     * Test to verify that renaming a user moves the username index entry.
+     */
+    @Test
+    public void testUpdateUserRenames() throws SQLException {
+        User user = new User(0, "jdoe", "password", "John", "Doe");
+        database.addUser(user);
+        user.setUsername("johnd");
+        database.updateUser(user);
+
+        assertNull(database.getUserByUsername("jdoe"));
+        assertEquals(user.getId(), database.getUserByUsername("johnd").getId());
+    }
+
+    /**
+     * Test to verify that records are listed per user and updates keep a history.
+     */
+    @Test
+    public void testRecordsAndHistory() throws SQLException {
+        HealthRecord first = new HealthRecord(0, 75.0f, 37.0f, "120/80", "Healthy", testDate, 1);
+        HealthRecord other = new HealthRecord(0, 60.0f, 36.5f, "110/70", "Other user", testDate, 2);
+        database.addHealthRecord(first);
+        database.addHealthRecord(other);
+
+        first.setWeight(74.0f);
+        database.updateHealthRecord(first);
+
+        assertEquals(2, first.getVersion());
+        List<HealthRecord> records = database.getAllHealthRecords(1);
+        assertEquals(1, records.size());
+        assertEquals(74.0f, records.get(0).getWeight(), 0.01);
+
+        List<HealthRecordVersion> history = database.getHealthRecordHistory(first.getId());
+        assertEquals(2, history.size());
+        assertEquals(75.0f, history.get(0).getRecord().getWeight(), 0.01);
+        assertTrue(history.get(1).isCurrent());
+    }
+
+    /**
+     * Test to verify that a deleted record can be listed and restored as a new version.
+     */
+    @Test
+    public void testDeleteAndRestore() throws SQLException {
+        HealthRecord record = new HealthRecord(0, 75.0f, 37.0f, "120/80", "Healthy", testDate, 1);
+        database.addHealthRecord(record);
+        database.deleteHealthRecord(record.getId());
+
+        assertTrue(database.getAllHealthRecords(1).isEmpty());
+        assertEquals(1, database.getDeletedHealthRecords(1).size());
+
+        HealthRecord restored = database.restoreHealthRecord(record.getId());
+        assertEquals(2, restored.getVersion());
+        assertEquals(1, database.getAllHealthRecords(1).size());
+        assertTrue(database.getDeletedHealthRecords(1).isEmpty());
+        assertNull(database.restoreHealthRecord(record.getId()));
+    }
+
+    /**
+     * Test to verify that a query filters, sorts and pages a user's records, each page starting after the last one.
+     */
+    @Test
+    public void testQueryFiltersSortsAndPages() throws SQLException {
+        for (int day = 0; day < 10; day++) {
+            String bloodPressure = day % 2 == 0 ? "120/80" : "150/95";
+            database.addHealthRecord(new HealthRecord(0, 70 + day, 36.5f, bloodPressure, "", testDate.plusDays(day), 1));
+        }
+        database.addHealthRecord(new HealthRecord(0, 75, 36.5f, "150/95", "", testDate, 2));
+
+        HealthRecordQuery query = new HealthRecordQuery(1);
+        query.setCategory(BloodPressureCategory.HYPERTENSION_STAGE_2);
+        query.setWeightRange(72f, null);
+        query.setSort(HealthRecordQuery.SortColumn.WEIGHT, false);
+        query.setPageSize(2);
+
+        // Weights 79, 77, 75, 73 match, highest first
+        List<HealthRecord> first = database.queryHealthRecords(query, null);
+        assertEquals(2, first.size());
+        assertEquals(79f, first.get(0).getWeight(), 0.01);
+        assertEquals(77f, first.get(1).getWeight(), 0.01);
+
+        List<HealthRecord> second = database.queryHealthRecords(query, first.get(1));
+        assertEquals(2, second.size());
+        assertEquals(75f, second.get(0).getWeight(), 0.01);
+        assertEquals(73f, second.get(1).getWeight(), 0.01);
+
+        assertTrue(database.queryHealthRecords(query, second.get(1)).isEmpty());
+
+        HealthRecordQuery byDate = new HealthRecordQuery(1);
+        byDate.setDateRange(testDate.plusDays(3), testDate.plusDays(5));
+        List<HealthRecord> range = database.queryHealthRecords(byDate, null);
+        assertEquals(3, range.size());
+        assertEquals(testDate.plusDays(3), range.get(0).getDate());
+        assertTrue(byDate.matches(range.get(2)));
+    }
+
+    /**
+     * Test to verify that records are summarised by week and month, with periods that start before
+     * the first date included and empty readings left out of the averages.
+     */
+    @Test
+    public void testPeriodSummaries() throws SQLException {
+        // testDate is a Sunday, so the first two records fall in different weeks
+        database.addHealthRecord(new HealthRecord(0, 70f, 36.5f, "", "", testDate, 1));
+        database.addHealthRecord(new HealthRecord(0, 71f, 0f, "", "", testDate.plusDays(1), 1));
+        database.addHealthRecord(new HealthRecord(0, 72f, 38f, "", "", LocalDate.of(2023, 5, 31), 1));
+        HealthRecord june = new HealthRecord(0, 73f, 37f, "", "", LocalDate.of(2023, 6, 1), 1);
+        database.addHealthRecord(june);
+        database.addHealthRecord(new HealthRecord(0, 90f, 36f, "", "", testDate, 2));
+
+        List<PeriodSummary> weeks = database.getPeriodSummaries(1, RollupPeriod.WEEK, testDate, LocalDate.of(2023, 6, 30));
+        assertEquals(3, weeks.size());
+        assertEquals(LocalDate.of(2023, 5, 8), weeks.get(0).getPeriodStart());
+        assertNull(weeks.get(1).getAverageTemperature());
+        assertEquals(LocalDate.of(2023, 5, 29), weeks.get(2).getPeriodStart());
+        assertEquals(2, weeks.get(2).getRecordCount());
+        assertEquals(72.5f, weeks.get(2).getAverageWeight(), 0.001);
+        assertEquals(38f, weeks.get(2).getMaxTemperature(), 0.001);
+
+        List<PeriodSummary> months = database.getPeriodSummaries(1, RollupPeriod.MONTH, LocalDate.of(2023, 5, 20), LocalDate.of(2023, 6, 1));
+        assertEquals(2, months.size());
+        assertEquals(3, months.get(0).getRecordCount());
+        assertEquals(71f, months.get(0).getAverageWeight(), 0.001);
+        assertEquals(2, months.get(0).getTemperatureCount());
+        assertEquals(36.5f, months.get(0).getMinTemperature(), 0.001);
+
+        database.deleteHealthRecord(june.getId());
+        assertEquals(1, database.getPeriodSummaries(1, RollupPeriod.MONTH, testDate, LocalDate.of(2023, 6, 30)).size());
+        assertTrue(database.getPeriodSummaries(1, RollupPeriod.DAY, LocalDate.of(2023, 6, 2), LocalDate.of(2023, 6, 30)).isEmpty());
+    }
+
+    /**
+     * Test to verify that the controllers work on top of the in-memory engine.
+     */
+    @Test
+    public void testControllers() {
+        HealthRecordController healthRecordController = new HealthRecordController(database);
+        UserController userController = new UserController(database, healthRecordController);
+
+        User user = userController.register("jdoe", "password", "John", "Doe");
+        assertNotNull(user);
+        assertTrue(userController.login("jdoe", "password"));
+
+        healthRecordController.addHealthRecord(user, new HealthRecord(0, 75.0f, 37.0f, "120/80", "Healthy", testDate, 0));
+        assertEquals(1, healthRecordController.getHealthRecordsForUser(user).size());
+    }
+}
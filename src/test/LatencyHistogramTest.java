@@ -0,0 +1,66 @@
+package test;
+
+import benchmark.LatencyHistogram;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test class for the LatencyHistogram.
+ */
+public class LatencyHistogramTest {
+
+    /**
+     * Test to verify that percentiles are reported within the histogram's precision.
+     */
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1_000L);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1_000_000L, histogram.getMax());
+        assertEquals(500_500.0, histogram.getMean(), 0.01);
+        assertWithinPrecision(500_000L, histogram.getPercentile(50));
+        assertWithinPrecision(990_000L, histogram.getPercentile(99));
+        assertWithinPrecision(999_000L, histogram.getPercentile(99.9));
+    }
+
+    /**
+     * Test to verify that small values are recorded exactly.
+     */
+    @Test
+    public void testSmallValuesExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(3);
+        histogram.record(-5);
+
+        assertEquals(0, histogram.getPercentile(50));
+        assertEquals(3, histogram.getPercentile(100));
+    }
+
+    /**
+     * Test to verify that adding histograms combines their counts and maximum.
+     */
+    @Test
+    public void testAdd() {
+        LatencyHistogram first = new LatencyHistogram();
+        LatencyHistogram second = new LatencyHistogram();
+        first.record(100);
+        second.record(Long.MAX_VALUE);
+
+        first.add(second);
+
+        assertEquals(2, first.getCount());
+        assertEquals(Long.MAX_VALUE, first.getMax());
+        assertEquals(Long.MAX_VALUE, first.getPercentile(100));
+    }
+
+    private static void assertWithinPrecision(long expected, long actual) {
+        assertTrue("expected about " + expected + " but was " + actual,
+                actual >= expected && actual <= expected * 1.02);
+    }
+}
@@ -0,0 +1,98 @@
+package test;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import database.Database;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the query plan check of the Database: which plan steps count as full table
+ * scans, and the plans of the application's most common reads on SQLite. Skipped when the SQLite
+ * driver is not on the classpath.
+ */
+public class QueryPlanTest {
+    // Folder for the database file, deleted after each test
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Database database;
+
+    /**
+     * This method is executed before each test. It creates an empty database.
+     */
+    @Before
+    public void setUp() {
+        try {
+            Class.forName("org.sqlite.JDBC");
+        } catch (ClassNotFoundException e) {
+            Assume.assumeNoException(e);
+        }
+        database = new Database("jdbc:sqlite:" + folder.getRoot().toPath().resolve("plans.db"));
+    }
+
+    /**
+     * This method is executed after each test. It closes the database.
+     */
+    @After
+    public void tearDown() throws SQLException {
+        if (database != null) {
+            database.close();
+        }
+    }
+
+    /**
+     * Test to verify that scans of health_records and users are reported, in the plan formats of
+     * older and newer SQLite versions, and that index searches and scans of other tables are not.
+     */
+    @Test
+    public void testFullScanSteps() {
+        assertTrue(Database.isFullScan("SCAN users"));
+        assertTrue(Database.isFullScan("SCAN TABLE users"));
+        assertTrue(Database.isFullScan("SCAN health_records"));
+        assertTrue(Database.isFullScan("SCAN TABLE health_records"));
+        assertTrue(Database.isFullScan("SCAN health_records USING INDEX idx_health_records_user_date"));
+        assertTrue(Database.isFullScan("SCAN users USING COVERING INDEX idx_users_username"));
+
+        assertFalse(Database.isFullScan("SEARCH users USING INDEX idx_users_username (username=?)"));
+        assertFalse(Database.isFullScan("SEARCH TABLE users USING INTEGER PRIMARY KEY (rowid=?)"));
+        assertFalse(Database.isFullScan("SEARCH health_records USING INDEX idx_health_records_user_date (user_id=? AND date>? AND date<?)"));
+        assertFalse(Database.isFullScan("SCAN health_record_archive"));
+        assertFalse(Database.isFullScan("SCAN health_records_copy"));
+        assertFalse(Database.isFullScan("SCAN text_values"));
+        assertFalse(Database.isFullScan("USE TEMP B-TREE FOR ORDER BY"));
+        assertFalse(Database.isFullScan("CORRELATED SCALAR SUBQUERY 1 SCAN users"));
+    }
+
+    /**
+     * Test to verify that every read checked at startup is answered through an index.
+     */
+    @Test
+    public void testNoFullScans() throws SQLException {
+        assertEquals(0, database.checkQueryPlans().size());
+    }
+
+    /**
+     * Test to verify that a dropped index is caught: without the username index, logging in reads
+     * every user.
+     */
+    @Test
+    public void testDroppedIndexIsReported() throws SQLException {
+        try (Statement stmt = database.getConnection().createStatement()) {
+            stmt.execute("DROP INDEX idx_users_username");
+        }
+
+        List<String> scans = database.checkQueryPlans();
+
+        assertEquals(scans.toString(), 1, scans.size());
+        assertTrue(scans.get(0), scans.get(0).contains("WHERE username = ?"));
+    }
+}
@@ -0,0 +1,193 @@
+package test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import database.Database;
+import database.ReplicaStatus;
+import database.ReplicatedDatabase;
+import model.HealthRecord;
+import model.User;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the ReplicatedDatabase: applying changes, copying bulk loads, staleness and
+ * resuming after a restart, with a primary and a replica in SQLite files. Skipped when the SQLite
+ * driver is not on the classpath.
+ */
+public class ReplicatedDatabaseTest {
+    // Folder for the primary and replica files, deleted after each test
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String primaryUrl;
+    private List<String> replicaUrls;
+    private ReplicatedDatabase database;
+
+    /**
+     * This method is executed before each test. It creates a primary with one replica.
+     */
+    @Before
+    public void setUp() throws SQLException {
+        try {
+            Class.forName("org.sqlite.JDBC");
+        } catch (ClassNotFoundException e) {
+            Assume.assumeNoException(e);
+        }
+        primaryUrl = "jdbc:sqlite:" + folder.getRoot().toPath().resolve("primary.db");
+        replicaUrls = Collections.singletonList("jdbc:sqlite:" + folder.getRoot().toPath().resolve("replica.db"));
+        database = new ReplicatedDatabase(primaryUrl, replicaUrls, 60_000);
+    }
+
+    /**
+     * This method is executed after each test. It closes the primary and the replica.
+     */
+    @After
+    public void tearDown() throws SQLException {
+        if (database != null) {
+            database.close();
+        }
+    }
+
+    /**
+     * Test to verify that inserted, updated and deleted records reach the replica with their readings and notes.
+     */
+    @Test
+    public void testApplyRecordChanges() throws Exception {
+        User user = addUser("alice");
+        HealthRecord kept = addRecord(user.getId(), "first");
+        HealthRecord deleted = addRecord(user.getId(), "second");
+        kept.setNote("edited");
+        kept.setBloodPressure("130/85");
+        database.updateHealthRecord(kept);
+        database.deleteHealthRecord(deleted.getId());
+        waitForReplica();
+
+        Database replica = database.getReplicas().get(0);
+        assertEquals("alice", replica.getUser(user.getId()).getUsername());
+        List<HealthRecord> records = replica.getAllHealthRecords(user.getId());
+        assertEquals(1, records.size());
+        assertEquals("edited", records.get(0).getNote());
+        assertEquals("130/85", records.get(0).getBloodPressure());
+    }
+
+    /**
+     * Test to verify that deleting a user removes the user's records from the replica too, when they
+     * were removed with the user without change events of their own.
+     */
+    @Test
+    public void testDeleteUser() throws Exception {
+        User leaving = addUser("leaving");
+        User staying = addUser("staying");
+        addRecord(leaving.getId(), "gone");
+        addRecord(staying.getId(), "kept");
+        waitForReplica();
+
+        // Remove the records the way a cascade would, without logging them
+        try (Connection connection = DriverManager.getConnection(primaryUrl); Statement stmt = connection.createStatement()) {
+            stmt.executeUpdate("DELETE FROM health_records WHERE user_id = " + leaving.getId());
+        }
+        database.deleteUser(leaving.getId());
+        waitForReplica();
+
+        Database replica = database.getReplicas().get(0);
+        assertNull(replica.getUser(leaving.getId()));
+        assertTrue(replica.getAllHealthRecords(leaving.getId()).isEmpty());
+        assertEquals(1, replica.getAllHealthRecords(staying.getId()).size());
+    }
+
+    /**
+     * Test to verify that a bulk load larger than one copy chunk is copied to the replica completely.
+     */
+    @Test
+    public void testBulkLoadIsCopied() throws Exception {
+        User user = addUser("loader");
+        List<HealthRecord> records = new ArrayList<>();
+        for (int i = 0; i < 1200; i++) {
+            records.add(new HealthRecord(0, 60 + i % 40, 36.6f, "12" + i % 10 + "/80", "day " + i,
+                    LocalDate.of(2020, 1, 1).plusDays(i), user.getId()));
+        }
+        database.bulkLoadHealthRecords(records.iterator(), 250);
+        waitForReplica();
+
+        List<HealthRecord> copied = database.getReplicas().get(0).getAllHealthRecords(user.getId());
+        assertEquals(1200, copied.size());
+        assertEquals(database.getAllHealthRecords(user.getId()).get(0).getNote(), copied.get(0).getNote());
+    }
+
+    /**
+     * Test to verify that reads go to the replica while it is recent enough, and to the primary once
+     * it falls behind the staleness bound.
+     */
+    @Test
+    public void testStaleReplicaIsNotRead() throws Exception {
+        User user = addUser("reader");
+        waitForReplica();
+        assertSame(database.getReplicas().get(0), database.getReadDatabase());
+
+        database.stopReplication();
+        addRecord(user.getId(), "not replicated");
+        assertSame(database, database.getReadDatabase());
+
+        ReplicaStatus status = database.getReplicationStatus().get(0);
+        assertFalse(status.isRunning());
+        assertTrue(status.getSequenceLag() > 0);
+        assertTrue(database.getReplicatedSeq() < database.getLatestChangeSeq());
+    }
+
+    /**
+     * Test to verify that a replica resumes from the changes it applied when the database is opened again.
+     */
+    @Test
+    public void testResumeAfterRestart() throws Exception {
+        User user = addUser("restarted");
+        addRecord(user.getId(), "before");
+        waitForReplica();
+        database.stopReplication();
+        addRecord(user.getId(), "while stopped");
+        database.close();
+
+        database = new ReplicatedDatabase(primaryUrl, replicaUrls, 60_000);
+        waitForReplica();
+
+        assertEquals(2, database.getReplicas().get(0).getAllHealthRecords(user.getId()).size());
+        assertEquals(0, database.getReplicationStatus().get(0).getSequenceLag());
+    }
+
+    private User addUser(String username) throws SQLException {
+        User user = new User(0, username, "password", "First", "Last");
+        database.addUser(user);
+        return user;
+    }
+
+    private HealthRecord addRecord(int userId, String note) throws SQLException {
+        HealthRecord record = new HealthRecord(0, 70, 36.6f, "120/80", note, LocalDate.of(2023, 1, 1), userId);
+        database.addHealthRecord(record);
+        return record;
+    }
+
+    // Waits until the replica has applied every change committed on the primary
+    private void waitForReplica() throws Exception {
+        long latest = database.getLatestChangeSeq();
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (database.getReplicationStatus().get(0).getAppliedSeq() < latest) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Timed out: " + database.getReplicationStatus().get(0));
+            }
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.time.LocalDate;
+
+import database.InMemoryDatabase;
+import model.HealthRecord;
+import model.RollupPeriod;
+import model.User;
+import org.junit.Before;
+import org.junit.Test;
+import report.ReportGenerator;
+import report.ReportTemplate;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the ReportGenerator and ReportTemplate, on an InMemoryDatabase.
+ */
+public class ReportGeneratorTest {
+    private InMemoryDatabase database;
+    private User user;
+
+    /**
+     * This method is executed before each test. It stores a user with records in May and June 2023.
+     */
+    @Before
+    public void setUp() throws SQLException {
+        database = new InMemoryDatabase();
+        user = new User(0, "jdoe", "password", "John", "Doe");
+        database.addUser(user);
+        for (int day = 1; day <= 31; day++) {
+            database.addHealthRecord(new HealthRecord(0, 70 + day % 3, 36.5f, "120/80", "day " + day, LocalDate.of(2023, 5, day), user.getId()));
+        }
+        database.addHealthRecord(new HealthRecord(0, 80f, 38.2f, "125/85", "<b>fever</b> & chills", LocalDate.of(2023, 5, 20), user.getId()));
+        database.addHealthRecord(new HealthRecord(0, 90f, 39f, "", "", LocalDate.of(2023, 6, 2), user.getId()));
+    }
+
+    /**
+     * Test to verify that an HTML report fills in the figures of the report period only, lists every
+     * record of the period across pages, and escapes the values.
+     */
+    @Test
+    public void testHtmlReport() throws Exception {
+        ReportTemplate template = new ReportTemplate("{{firstName}}: {{recordCount}} records, highest {{maxTemperature}}\n" +
+                "{{#periods}}[{{periodStart}} {{recordCount}}]{{/periods}}\n" +
+                "{{#records}}{{date}} {{weight}} {{note}}\n{{/records}}", true);
+        ReportGenerator generator = new ReportGenerator(database, template, ReportGenerator.Format.HTML, RollupPeriod.MONTH, 1);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        generator.generate(user, LocalDate.of(2023, 5, 1), LocalDate.of(2023, 5, 31), out);
+        String[] lines = out.toString(StandardCharsets.UTF_8.name()).split("\n");
+
+        assertEquals("John: 32 records, highest 38.2", lines[0]);
+        assertEquals("[2023-05-01 32]", lines[1]);
+        assertEquals(2 + 32, lines.length);
+        assertEquals("2023-05-01 71.0 day 1", lines[2]);
+        assertTrue(out.toString(StandardCharsets.UTF_8.name()).contains("80.0 &lt;b&gt;fever&lt;/b&gt; &amp; chills"));
+    }
+
+    /**
+     * Test to verify that a PDF report is a complete document with a cross-reference table, and that
+     * the built-in templates parse.
+     */
+    @Test
+    public void testPdfReport() throws Exception {
+        new ReportTemplate(ReportTemplate.DEFAULT_HTML, true);
+        ReportGenerator generator = new ReportGenerator(database, new ReportTemplate(ReportTemplate.DEFAULT_TEXT, false),
+                ReportGenerator.Format.PDF, RollupPeriod.WEEK, 1);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        generator.generate(user, LocalDate.of(2023, 5, 1), LocalDate.of(2023, 6, 30), out);
+        String pdf = out.toString(StandardCharsets.ISO_8859_1.name());
+
+        assertTrue(pdf.startsWith("%PDF-1.4"));
+        assertTrue(pdf.endsWith("%%EOF\n"));
+        int xref = Integer.parseInt(pdf.substring(pdf.lastIndexOf("startxref\n") + 10, pdf.lastIndexOf("\n%%EOF")));
+        assertTrue(pdf.startsWith("xref", xref));
+        assertTrue(pdf.contains("(HEALTH SUMMARY FOR John Doe \\(jdoe\\)) Tj"));
+    }
+
+    /**
+     * Test to verify that a template with a misspelt field is rejected when it is parsed.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownFieldIsRejected() {
+        new ReportTemplate("{{#records}}{{wieght}}{{/records}}", false);
+    }
+}
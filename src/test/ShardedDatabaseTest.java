@@ -0,0 +1,205 @@
+package test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import database.ShardedDatabase;
+import model.HealthRecord;
+import model.User;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import tools.ShardRebalancer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the ShardedDatabase and the ShardRebalancer: routing through the directory,
+ * moving users and recovering from an interrupted move. Skipped when the SQLite driver is not on the
+ * classpath.
+ */
+public class ShardedDatabaseTest {
+    // Folder for the directory and shard files, deleted after each test
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String path;
+    private ShardedDatabase database;
+
+    /**
+     * This method is executed before each test. It creates a database with two shards.
+     */
+    @Before
+    public void setUp() throws SQLException {
+        try {
+            Class.forName("org.sqlite.JDBC");
+        } catch (ClassNotFoundException e) {
+            Assume.assumeNoException(e);
+        }
+        path = folder.getRoot().getPath();
+        database = new ShardedDatabase(path, 2);
+    }
+
+    /**
+     * This method is executed after each test. It closes the database.
+     */
+    @After
+    public void tearDown() throws SQLException {
+        if (database != null) {
+            database.close();
+        }
+    }
+
+    /**
+     * Test to verify that users are placed on the shard of their ID and found by ID and username, and
+     * that record IDs are unique across shards.
+     */
+    @Test
+    public void testRouting() throws SQLException {
+        Set<Integer> recordIds = new HashSet<>();
+        for (int i = 0; i < 6; i++) {
+            User user = addUserWithRecord("user" + i);
+            int shard = database.getShardOf(user.getId());
+            assertEquals(ShardedDatabase.placement(user.getId(), 2), shard);
+            assertNotNull(database.getShards().get(shard).getUser(user.getId()));
+            assertNull(database.getShards().get(1 - shard).getUser(user.getId()));
+            assertEquals(user.getId(), database.getUserByUsername("user" + i).getId());
+            for (HealthRecord record : database.getAllHealthRecords(user.getId())) {
+                assertTrue(recordIds.add(record.getId()));
+            }
+        }
+        assertEquals(6, database.getAllUsers().size());
+        assertEquals(-1, database.getShardOf(999));
+    }
+
+    /**
+     * Test to verify that the directory file holds the directory only, not the application's tables.
+     */
+    @Test
+    public void testDirectoryHasNoApplicationTables() throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + path + "/directory.db");
+             Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM sqlite_master WHERE name IN ('users', 'health_records')")) {
+            rs.next();
+            assertEquals(0, rs.getInt(1));
+        }
+    }
+
+    /**
+     * Test to verify that a moved user keeps their records, readings and notes, and is no longer on the old shard.
+     */
+    @Test
+    public void testMoveUser() throws SQLException {
+        User user = addUserWithRecord("mover");
+        int source = database.getShardOf(user.getId());
+
+        assertTrue(database.moveUser(user.getId(), 1 - source));
+        assertFalse(database.moveUser(user.getId(), 1 - source));
+
+        assertEquals(1 - source, database.getShardOf(user.getId()));
+        assertNull(database.getShards().get(source).getUser(user.getId()));
+        List<HealthRecord> records = database.getAllHealthRecords(user.getId());
+        assertEquals(1, records.size());
+        assertEquals("120/80", records.get(0).getBloodPressure());
+        assertEquals("mover's note", records.get(0).getNote());
+    }
+
+    /**
+     * Test to verify that the rebalancer moves users to their placement after the shard count grew.
+     */
+    @Test
+    public void testRebalanceAfterAddingShards() throws Exception {
+        for (int i = 0; i < 12; i++) {
+            addUserWithRecord("user" + i);
+        }
+        database.close();
+        database = new ShardedDatabase(path, 3);
+        assertFalse(database.getMisplacedUsers(100).isEmpty());
+
+        long moved = new ShardRebalancer(database, 0).rebalance();
+
+        assertTrue(moved > 0);
+        assertTrue(database.getMisplacedUsers(100).isEmpty());
+        for (User user : database.getAllUsers()) {
+            assertEquals(ShardedDatabase.placement(user.getId(), 3), database.getShardOf(user.getId()));
+            assertEquals(1, database.getAllHealthRecords(user.getId()).size());
+        }
+    }
+
+    /**
+     * Test to verify that a user whose rows moved but whose directory entry could not be updated is
+     * still found, and that the directory is completed.
+     */
+    @Test
+    public void testInterruptedMoveIsCompleted() throws SQLException {
+        User user = addUserWithRecord("interrupted");
+        int source = database.getShardOf(user.getId());
+        execute(path + "/directory.db", "CREATE TRIGGER fail_move BEFORE UPDATE OF shard ON user_directory " +
+                "BEGIN SELECT RAISE(ABORT, 'directory unavailable'); END");
+
+        try {
+            database.moveUser(user.getId(), 1 - source);
+            fail("The directory update should have failed");
+        } catch (SQLException e) {
+            // Expected
+        }
+        execute(path + "/directory.db", "DROP TRIGGER fail_move");
+
+        assertEquals("interrupted", database.getUser(user.getId()).getUsername());
+        assertEquals(1 - source, database.getShardOf(user.getId()));
+
+        database.close();
+        database = new ShardedDatabase(path, 2);
+        assertEquals(1 - source, database.getShardOf(user.getId()));
+        assertEquals(1, database.getAllHealthRecords(user.getId()).size());
+    }
+
+    /**
+     * Test to verify that a move whose copy fails leaves the user on the old shard.
+     */
+    @Test
+    public void testFailedCopyKeepsUser() throws SQLException {
+        User user = addUserWithRecord("stays");
+        int source = database.getShardOf(user.getId());
+        execute(path + "/shard-" + (1 - source) + ".db", "CREATE TRIGGER fail_copy BEFORE INSERT ON health_records " +
+                "BEGIN SELECT RAISE(ABORT, 'disk full'); END");
+
+        try {
+            database.moveUser(user.getId(), 1 - source);
+            fail("The copy should have failed");
+        } catch (SQLException e) {
+            // Expected
+        }
+
+        assertEquals(source, database.getShardOf(user.getId()));
+        assertNull(database.getShards().get(1 - source).getUser(user.getId()));
+        assertEquals(1, database.getAllHealthRecords(user.getId()).size());
+        database.close();
+        database = new ShardedDatabase(path, 2);
+        assertEquals(source, database.getShardOf(user.getId()));
+    }
+
+    private User addUserWithRecord(String username) throws SQLException {
+        User user = new User(0, username, "password", "First", "Last");
+        database.addUser(user);
+        database.addHealthRecord(new HealthRecord(0, 70, 36.6f, "120/80", username + "'s note", LocalDate.of(2023, 1, 1), user.getId()));
+        return user;
+    }
+
+    private static void execute(String file, String sql) throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file);
+             Statement stmt = connection.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package test;
+
+import database.SlowQueryLog;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test class for the SlowQueryLog, on a fake connection whose queries return three rows.
+ */
+public class SlowQueryLogTest {
+
+    /**
+     * Test to verify that a query is logged with its SQL, rows read and the types of its parameters, but not their values.
+     */
+    @Test
+    public void testQueryIsLoggedWithoutValues() throws SQLException {
+        StringWriter out = new StringWriter();
+        SlowQueryLog log = new SlowQueryLog(out, 0);
+        Connection connection = log.wrap(fakeConnection());
+
+        try (PreparedStatement pstmt = connection.prepareStatement("SELECT id FROM users WHERE username = ? AND id > ?")) {
+            pstmt.setString(1, "secret-name");
+            pstmt.setInt(2, 987654);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    // Read every row
+                }
+            }
+        }
+
+        String entry = out.toString();
+        assertEquals(1, log.getEntries());
+        assertTrue(entry, entry.contains("rows=3"));
+        assertTrue(entry, entry.contains("SELECT id FROM users WHERE username = ? AND id > ?"));
+        assertTrue(entry, entry.contains("[text(11), int]"));
+        assertTrue(entry, entry.contains("SlowQueryLogTest.testQueryIsLoggedWithoutValues"));
+        assertFalse(entry, entry.contains("secret-name"));
+        assertFalse(entry, entry.contains("987654"));
+    }
+
+    /**
+     * Test to verify that updates are logged with their update count and statements under the threshold are not.
+     */
+    @Test
+    public void testThreshold() throws SQLException {
+        StringWriter out = new StringWriter();
+        SlowQueryLog log = new SlowQueryLog(out, 0);
+        Connection connection = log.wrap(fakeConnection());
+
+        try (PreparedStatement pstmt = connection.prepareStatement("DELETE FROM health_records WHERE id = ?")) {
+            pstmt.setInt(1, 7);
+            pstmt.executeUpdate();
+            assertTrue(out.toString(), out.toString().contains("rows=1"));
+
+            log.setThresholdMillis(60_000);
+            pstmt.executeUpdate();
+        }
+        assertEquals(1, log.getEntries());
+    }
+
+    /**
+     * Test to verify that bound values are described by their type only.
+     */
+    @Test
+    public void testRedact() {
+        assertEquals("null", SlowQueryLog.redact(null));
+        assertEquals("text(6)", SlowQueryLog.redact("120/80"));
+        assertEquals("bytes(16)", SlowQueryLog.redact(new byte[16]));
+        assertEquals("int", SlowQueryLog.redact(5L));
+        assertEquals("real", SlowQueryLog.redact(36.6f));
+    }
+
+    // A connection whose statements update one row and whose result sets have three rows
+    private static Connection fakeConnection() {
+        return (Connection) Proxy.newProxyInstance(SlowQueryLogTest.class.getClassLoader(), new Class<?>[] {Connection.class},
+                (proxy, method, args) -> method.getName().equals("prepareStatement") ? fakeStatement() : null);
+    }
+
+    private static PreparedStatement fakeStatement() {
+        return (PreparedStatement) Proxy.newProxyInstance(SlowQueryLogTest.class.getClassLoader(), new Class<?>[] {PreparedStatement.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "executeQuery": return fakeResultSet();
+                        case "executeUpdate": return 1;
+                        default: return null;
+                    }
+                });
+    }
+
+    private static ResultSet fakeResultSet() {
+        int[] rows = {3};
+        return (ResultSet) Proxy.newProxyInstance(SlowQueryLogTest.class.getClassLoader(), new Class<?>[] {ResultSet.class},
+                (proxy, method, args) -> method.getName().equals("next") ? rows[0]-- > 0 : null);
+    }
+}
@@ -0,0 +1,100 @@
+package test;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+
+import database.Database;
+import database.SqlDialect;
+import model.HealthRecord;
+import model.User;
+import org.junit.Assume;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the SqlDialect: choosing the dialect by URL and the DDL each dialect generates,
+ * and the schema on an in-memory H2 database, which is skipped when the H2 driver is not on the classpath.
+ */
+public class SqlDialectTest {
+
+    /**
+     * Test to verify that the dialect is chosen by the engine in the JDBC URL.
+     */
+    @Test
+    public void testForUrl() {
+        assertSame(SqlDialect.SQLITE, SqlDialect.forUrl("jdbc:sqlite:myhealthtracker.db"));
+        assertSame(SqlDialect.SQLITE, SqlDialect.forUrl("jdbc:sqlite::memory:"));
+        assertSame(SqlDialect.H2, SqlDialect.forUrl("jdbc:h2:./myhealthtracker"));
+        assertSame(SqlDialect.H2, SqlDialect.forUrl("jdbc:h2:mem:test;DB_CLOSE_DELAY=-1"));
+        assertEquals("SQLite", SqlDialect.SQLITE.getName());
+        assertEquals("H2", SqlDialect.H2.getName());
+    }
+
+    /**
+     * Test to verify that a URL for another engine is rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedUrl() {
+        SqlDialect.forUrl("jdbc:mysql://localhost/myhealthtracker");
+    }
+
+    /**
+     * Test to verify the column definitions of the SQLite dialect, which keep the types of existing files.
+     */
+    @Test
+    public void testSqliteDdl() {
+        SqlDialect dialect = SqlDialect.SQLITE;
+        assertEquals("INTEGER PRIMARY KEY", dialect.generatedIdColumn());
+        assertEquals("INTEGER PRIMARY KEY AUTOINCREMENT", dialect.sequenceColumn());
+        assertEquals("TEXT", dialect.textType());
+        assertEquals("INTEGER", dialect.millisType());
+        assertEquals("TEXT", dialect.dateType());
+        assertFalse(dialect.supportsConcurrentWriters());
+    }
+
+    /**
+     * Test to verify the column definitions of the H2 dialect: generated keys that accept NULL on
+     * insert, 64-bit sequence numbers and dates stored as milliseconds.
+     */
+    @Test
+    public void testH2Ddl() {
+        SqlDialect dialect = SqlDialect.H2;
+        assertTrue(dialect.generatedIdColumn().startsWith("INTEGER GENERATED BY DEFAULT AS IDENTITY"));
+        assertTrue(dialect.generatedIdColumn().contains("DEFAULT ON NULL"));
+        assertTrue(dialect.generatedIdColumn().endsWith("PRIMARY KEY"));
+        assertTrue(dialect.sequenceColumn().startsWith("BIGINT GENERATED BY DEFAULT AS IDENTITY"));
+        assertEquals("VARCHAR", dialect.textType());
+        assertEquals("BIGINT", dialect.millisType());
+        assertEquals(dialect.millisType(), dialect.dateType());
+        assertTrue(dialect.supportsConcurrentWriters());
+    }
+
+    /**
+     * Test to verify that the application's tables are created on H2, whose reserved words differ
+     * from SQLite's, and that a record is read back with its reading and note from the dictionary.
+     */
+    @Test
+    public void testSchemaOnH2() throws SQLException {
+        try {
+            Class.forName("org.h2.Driver");
+        } catch (ClassNotFoundException e) {
+            Assume.assumeNoException(e);
+        }
+        Database database = new Database("jdbc:h2:mem:dialect-test");
+        try {
+            User user = new User(0, "h2user", "password", "First", "Last");
+            database.addUser(user);
+            HealthRecord record = new HealthRecord(0, 70, 36.6f, "120/80", "fine", LocalDate.of(2023, 1, 1), user.getId());
+            database.addHealthRecord(record);
+
+            database.clearTextCache();
+            HealthRecord read = database.getHealthRecord(record.getId());
+            assertEquals("120/80", read.getBloodPressure());
+            assertEquals("fine", read.getNote());
+            assertEquals(LocalDate.of(2023, 1, 1), read.getDate());
+        } finally {
+            database.close();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.List;
+
+import database.Database;
+import database.OfflineDatabase;
+import database.SyncConflict;
+import database.SyncWorker;
+import model.HealthRecord;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the OfflineDatabase and the SyncWorker, with two local SQLite files standing in
+ * for a clinic laptop and the central database. Skipped when the SQLite driver is not on the classpath.
+ */
+public class SyncWorkerTest {
+    // Folder for the database files, deleted after each test
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String primaryUrl;
+    private Database primary;
+    private OfflineDatabase local;
+
+    /**
+     * This method is executed before each test. It creates a primary with one record and copies the
+     * file to the laptop, as it would be before going offline.
+     */
+    @Before
+    public void setUp() throws SQLException, IOException {
+        try {
+            Class.forName("org.sqlite.JDBC");
+        } catch (ClassNotFoundException e) {
+            Assume.assumeNoException(e);
+        }
+        primaryUrl = "jdbc:sqlite:" + folder.getRoot().toPath().resolve("primary.db");
+        primary = new Database(primaryUrl);
+        primary.addHealthRecord(new HealthRecord(0, 70, 36.6f, "120/80", "shared", LocalDate.of(2023, 5, 1), 1));
+
+        Path localPath = folder.getRoot().toPath().resolve("local.db");
+        Files.copy(folder.getRoot().toPath().resolve("primary.db"), localPath);
+        local = new OfflineDatabase("jdbc:sqlite:" + localPath);
+    }
+
+    /**
+     * Test to verify that writes are kept locally until synced, and that a record created offline gets
+     * its own primary ID, with a later edit reaching that record.
+     */
+    @Test
+    public void testOfflineWritesReachPrimary() throws SQLException {
+        // Another client takes ID 2 on the primary meanwhile
+        primary.addHealthRecord(new HealthRecord(0, 90, 37f, "130/85", "other client", LocalDate.of(2023, 5, 2), 2));
+
+        HealthRecord created = new HealthRecord(0, 71, 36.7f, "118/79", "offline", LocalDate.of(2023, 5, 3), 1);
+        local.addHealthRecord(created);
+        created.setNote("offline, edited");
+        local.updateHealthRecord(created);
+        assertEquals(2, local.getPendingSyncCount());
+
+        SyncWorker worker = new SyncWorker(local, primaryUrl, 100, 60_000);
+        assertEquals(2, worker.syncOnce());
+        assertEquals(0, local.getPendingSyncCount());
+
+        HealthRecord synced = primary.getHealthRecord(3);
+        assertEquals("offline, edited", synced.getNote());
+        assertEquals(1, synced.getUserId());
+        assertEquals("other client", primary.getHealthRecord(2).getNote());
+        assertTrue(worker.getConflicts().isEmpty());
+        worker.close();
+    }
+
+    /**
+     * Test to verify that a local edit of a record changed on the primary meanwhile is recorded as
+     * a conflict and the primary's version is kept.
+     */
+    @Test
+    public void testStaleEditIsAConflict() throws SQLException {
+        HealthRecord onPrimary = primary.getHealthRecord(1);
+        onPrimary.setNote("edited at the clinic");
+        primary.updateHealthRecord(onPrimary);
+
+        HealthRecord onLaptop = local.getHealthRecord(1);
+        onLaptop.setNote("edited offline");
+        local.updateHealthRecord(onLaptop);
+
+        SyncWorker worker = new SyncWorker(local, primaryUrl, 100, 60_000);
+        worker.syncOnce();
+
+        assertEquals("edited at the clinic", primary.getHealthRecord(1).getNote());
+        List<SyncConflict> conflicts = worker.getConflicts();
+        assertEquals(1, conflicts.size());
+        assertEquals("UPDATE", conflicts.get(0).getOperation());
+        assertEquals(1, conflicts.get(0).getExpectedVersion());
+        assertEquals(2, conflicts.get(0).getPrimaryVersion());
+        worker.close();
+    }
+}
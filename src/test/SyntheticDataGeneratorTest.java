@@ -0,0 +1,86 @@
+package test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Iterator;
+
+import model.HealthRecord;
+import org.junit.Test;
+import tools.SyntheticDataGenerator;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the SyntheticDataGenerator.
+ */
+public class SyntheticDataGeneratorTest {
+
+    /**
+     * Test to verify that the same seed always produces the same records.
+     */
+    @Test
+    public void testDeterministic() {
+        Iterator<HealthRecord> first = new SyntheticDataGenerator(7, 3, 20).records();
+        Iterator<HealthRecord> second = new SyntheticDataGenerator(7, 3, 20).records();
+
+        while (first.hasNext()) {
+            assertTrue(second.hasNext());
+            assertEquals(first.next().toString(), second.next().toString());
+        }
+        assertFalse(second.hasNext());
+    }
+
+    /**
+     * Test to verify that a user's records do not depend on which other users are generated.
+     */
+    @Test
+    public void testUserRecordsIndependentOfRange() {
+        Iterator<HealthRecord> all = new SyntheticDataGenerator(7, 3, 5).records();
+        Iterator<HealthRecord> single = new SyntheticDataGenerator(7, 1, 5).recordsForUser(3);
+
+        // Skip the records of users 1 and 2
+        for (int i = 0; i < 10; i++) {
+            all.next();
+        }
+        while (single.hasNext()) {
+            assertEquals(single.next().toString(), all.next().toString());
+        }
+    }
+
+    /**
+     * Test to verify that every user gets the requested number of plausible records in date order.
+     */
+    @Test
+    public void testRecordCountsAndRanges() {
+        Iterator<HealthRecord> records = new SyntheticDataGenerator(1, 4, 50).records();
+        int count = 0;
+        HealthRecord previous = null;
+        while (records.hasNext()) {
+            HealthRecord record = records.next();
+            assertTrue(record.getWeight() > 30 && record.getWeight() < 150);
+            assertTrue(record.getTemperature() > 35 && record.getTemperature() < 41);
+            assertTrue(record.getBloodPressure().matches("\\d+/\\d+"));
+            if (previous != null && previous.getUserId() == record.getUserId()) {
+                assertTrue(record.getDate().isAfter(previous.getDate()));
+            }
+            previous = record;
+            count++;
+        }
+        assertEquals(200, count);
+    }
+
+    /**
+     * Test to verify that the CSV output has a header line followed by one line per record.
+     */
+    @Test
+    public void testWriteCsv() throws IOException {
+        StringWriter writer = new StringWriter();
+        long count = new SyntheticDataGenerator(3, 2, 10).writeCsv(writer);
+
+        String[] lines = writer.toString().split(System.lineSeparator());
+        assertEquals(20, count);
+        assertEquals(21, lines.length);
+        assertEquals("user_id,weight,temperature,bloodPressure,note,date", lines[0]);
+        assertTrue(lines[1].startsWith("1,"));
+    }
+}
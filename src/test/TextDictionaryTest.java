@@ -0,0 +1,163 @@
+package test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+
+import database.Database;
+import model.HealthRecord;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit test class for the dictionary of short readings and notes, through the text cache of the
+ * Database: least recently used eviction, resizing, clearing after a rollback and the one-time
+ * encoding of older files. Skipped when the SQLite driver is not on the classpath.
+ */
+public class TextDictionaryTest {
+    // Folder for the database file, deleted after each test
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String url;
+    private Database database;
+
+    /**
+     * This method is executed before each test. It creates an empty database.
+     */
+    @Before
+    public void setUp() throws SQLException {
+        try {
+            Class.forName("org.sqlite.JDBC");
+        } catch (ClassNotFoundException e) {
+            Assume.assumeNoException(e);
+        }
+        url = "jdbc:sqlite:" + folder.getRoot().toPath().resolve("dictionary.db");
+        database = new Database(url);
+    }
+
+    /**
+     * This method is executed after each test. It closes the database.
+     */
+    @After
+    public void tearDown() throws SQLException {
+        if (database != null) {
+            database.close();
+        }
+    }
+
+    /**
+     * Test to verify that the cache keeps the most recently used values, hands out the same String
+     * while a value is cached, and drops the least recently used values when it is made smaller.
+     */
+    @Test
+    public void testLeastRecentlyUsedValuesAreEvicted() throws SQLException {
+        int first = addRecord("120/80");
+        int second = addRecord("130/85");
+        int third = addRecord("140/90");
+        database.setTextCacheSize(2);
+        database.clearTextCache();
+
+        assertReads(first, "120/80", 0, 1);
+        String cached = database.getHealthRecord(first).getBloodPressure();
+        assertSame(cached, database.getHealthRecord(first).getBloodPressure());
+        assertReads(second, "130/85", 0, 1);
+        // Evicts the first value, which was used least recently
+        assertReads(third, "140/90", 0, 1);
+        assertReads(second, "130/85", 1, 0);
+        assertReads(first, "120/80", 0, 1);
+
+        // Only the value read last is kept
+        database.setTextCacheSize(1);
+        assertReads(first, "120/80", 1, 0);
+        assertReads(second, "130/85", 0, 1);
+    }
+
+    /**
+     * Test to verify that a rolled back write empties the caches, so the ID its new value had, now
+     * given to another value, is not used for that value again.
+     */
+    @Test
+    public void testRollbackClearsCache() throws SQLException {
+        execute("CREATE TRIGGER reject_negative AFTER INSERT ON health_records WHEN NEW.weight < 0 " +
+                "BEGIN SELECT RAISE(ABORT, 'rejected'); END");
+        try {
+            database.addHealthRecord(new HealthRecord(0, -1, 36.6f, "199/99", null, LocalDate.of(2023, 1, 1), 1));
+            fail("The insert should have been rejected");
+        } catch (SQLException e) {
+            // Expected
+        }
+
+        int other = addRecord("111/77");
+        int retried = addRecord("199/99");
+
+        assertEquals("111/77", database.getHealthRecord(other).getBloodPressure());
+        assertEquals("199/99", database.getHealthRecord(retried).getBloodPressure());
+    }
+
+    /**
+     * Test to verify that the text of older records is moved into the dictionary once, and that a
+     * file whose dictionary column has its old name is upgraded when opened.
+     */
+    @Test
+    public void testOlderFilesAreUpgradedOnce() throws SQLException {
+        int encoded = addRecord("120/80");
+        database.close();
+        // A record written by a version without the dictionary, and the column name of older files
+        execute("INSERT INTO health_records (user_id, weight, temperature, bloodPressure, date) " +
+                "VALUES (1, 70, 36.6, '125/82', 1672531200000)");
+        execute("ALTER TABLE text_values RENAME COLUMN text_value TO value");
+
+        database = new Database(url);
+        assertEquals("120/80", database.getHealthRecord(encoded).getBloodPressure());
+        // The encoding has run before, so the record keeps its text in the row
+        assertEquals(1, count("SELECT COUNT(*) FROM health_records WHERE bp_id IS NULL AND bloodPressure = '125/82'"));
+        assertEquals(0, count("SELECT COUNT(*) FROM pragma_table_info('text_values') WHERE name = 'value'"));
+        database.close();
+
+        execute("DELETE FROM schema_upgrades WHERE name = 'encode_repeated_text'");
+        database = new Database(url);
+        assertEquals(0, count("SELECT COUNT(*) FROM health_records WHERE bp_id IS NULL"));
+        assertEquals(1, count("SELECT COUNT(*) FROM schema_upgrades WHERE name = 'encode_repeated_text'"));
+    }
+
+    // Reads a record and checks its reading and the change in cache hits and misses
+    private void assertReads(int id, String bloodPressure, long hits, long misses) throws SQLException {
+        long hitsBefore = database.getTextCacheHits();
+        long missesBefore = database.getTextCacheMisses();
+        assertEquals(bloodPressure, database.getHealthRecord(id).getBloodPressure());
+        assertEquals(hits, database.getTextCacheHits() - hitsBefore);
+        assertEquals(misses, database.getTextCacheMisses() - missesBefore);
+    }
+
+    // Adds a record without a note, so that the reading is its only dictionary value
+    private int addRecord(String bloodPressure) throws SQLException {
+        HealthRecord record = new HealthRecord(0, 70, 36.6f, bloodPressure, null, LocalDate.of(2023, 1, 1), 1);
+        database.addHealthRecord(record);
+        return record.getId();
+    }
+
+    private void execute(String sql) throws SQLException {
+        try (Connection connection = DriverManager.getConnection(url); Statement stmt = connection.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    private long count(String sql) throws SQLException {
+        try (Connection connection = DriverManager.getConnection(url);
+             Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+}
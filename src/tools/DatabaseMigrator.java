@@ -0,0 +1,167 @@
+package tools;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import database.Database;
+
+/**
+ * Copies every table of one database into another, typically an existing SQLite file into a new
+ * H2 database. The target's tables are created by {@link Database} in its own dialect, then the rows
+ * are copied in batches with their IDs, so change log cursors and record IDs stay valid.
+ *
+ * The target tables should be empty; the copy stops if a row already exists.
+ *
+ * Usage: java tools.DatabaseMigrator sourceUrl targetUrl [--batch n]
+ */
+public class DatabaseMigrator {
+
+    // Tables copied, with their generated key column or null
+    private static final String[][] TABLES = {
+        {"users", "id"},
+        {"health_records", "id"},
+        {"health_record_history", null},
+        {"change_log", "seq"},
+        {"user_keys", null},
+        {"health_rollups", null},
+        {"health_record_archive", null},
+        {"health_record_archive_index", null},
+        {"text_values", "id"}
+    };
+
+    private final Database source;
+    private final Database target;
+    private final int batchSize;
+
+    /**
+     * Creates a migrator.
+     *
+     * @param source the database to copy from
+     * @param target the database to copy into
+     * @param batchSize the number of rows copied per transaction
+     */
+    public DatabaseMigrator(Database source, Database target, int batchSize) {
+        this.source = source;
+        this.target = target;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Copies all tables and checks that the row counts match afterwards.
+     *
+     * @return the number of rows copied
+     * @throws SQLException if reading or writing fails, or a row count differs after the copy
+     */
+    public long migrate() throws SQLException {
+        long total = 0;
+        try (Connection from = source.openReadConnection();
+             Connection to = target.openReadConnection()) {
+            for (String[] table : TABLES) {
+                long copied = copyTable(from, to, table[0]);
+                if (table[1] != null) {
+                    target.getDialect().syncGeneratedKeys(to, table[0], table[1]);
+                }
+
+                long expected = count(from, table[0]);
+                long actual = count(to, table[0]);
+                if (actual != expected) {
+                    throw new SQLException("Row count of " + table[0] + " differs after the copy: " + expected + " != " + actual);
+                }
+                System.out.printf("%-24s %,12d rows%n", table[0], copied);
+                total += copied;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Copies the rows of one table, using the columns both sides have.
+     */
+    private long copyTable(Connection from, Connection to, String table) throws SQLException {
+        List<String> columns = new ArrayList<>();
+        try (Statement stmt = from.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT * FROM " + table + " WHERE 1 = 0")) {
+            ResultSetMetaData metaData = rs.getMetaData();
+            for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                String column = metaData.getColumnName(i);
+                if (target.getDialect().hasColumn(to, table, column)) {
+                    columns.add(column);
+                }
+            }
+        }
+
+        String columnList = String.join(", ", columns);
+        String placeholders = String.join(", ", Collections.nCopies(columns.size(), "?"));
+        String insertSql = "INSERT INTO " + table + " (" + columnList + ") VALUES (" + placeholders + ")";
+
+        long count = 0;
+        boolean autoCommit = to.getAutoCommit();
+        to.setAutoCommit(false);
+        try (Statement select = from.createStatement();
+             ResultSet rs = select.executeQuery("SELECT " + columnList + " FROM " + table);
+             PreparedStatement insert = to.prepareStatement(insertSql)) {
+            while (rs.next()) {
+                for (int i = 1; i <= columns.size(); i++) {
+                    insert.setObject(i, rs.getObject(i));
+                }
+                insert.addBatch();
+                if (++count % batchSize == 0) {
+                    insert.executeBatch();
+                    to.commit();
+                }
+            }
+            insert.executeBatch();
+            to.commit();
+        } catch (SQLException e) {
+            to.rollback();
+            throw e;
+        } finally {
+            to.setAutoCommit(autoCommit);
+        }
+        return count;
+    }
+
+    private static long count(Connection connection, String table) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM " + table)) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    /**
+     * Copies a database into another from the command line.
+     *
+     * @param args the source URL, the target URL and option --batch
+     * @throws Exception if a database cannot be opened, the copy fails or the row counts differ
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage: java tools.DatabaseMigrator sourceUrl targetUrl [--batch n]");
+            return;
+        }
+
+        int batchSize = 5_000;
+        for (int i = 2; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--batch": batchSize = Integer.parseInt(args[i + 1]); break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        Database source = new Database(args[0]);
+        Database target = new Database(args[1]);
+        long start = System.nanoTime();
+        long rows = new DatabaseMigrator(source, target, batchSize).migrate();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Copied %d rows from %s (%s) to %s (%s) in %.1f s%n", rows,
+                args[0], source.getDialect().getName(), args[1], target.getDialect().getName(), seconds);
+    }
+}
@@ -0,0 +1,59 @@
+package tools;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+
+import database.Database;
+
+/**
+ * Moves health records older than a given age into the compressed archive of a database.
+ *
+ * Archived records take a fraction of the space of rows in health_records and are still returned
+ * by every read, decoded on the fly; see {@link Database#archiveRecords(LocalDate)}. The space is
+ * handed back to the file system by the next VACUUM. The tool can run while the application is
+ * running; each user is archived in a short transaction of its own.
+ *
+ * Usage: java tools.RecordArchiver [databaseUrl] [ageInDays]
+ */
+public class RecordArchiver {
+
+    /**
+     * The age in days after which records are archived unless another age is given.
+     */
+    public static final int DEFAULT_AGE_DAYS = 365;
+
+    /**
+     * Archives the old records of every shard of a database.
+     *
+     * @param database the database, or the directory of a sharded database
+     * @param cutoff records dated before this day are archived
+     * @return the number of records archived
+     * @throws SQLException if reading or moving the records fails
+     */
+    public static long archive(Database database, LocalDate cutoff) throws SQLException {
+        long archived = 0;
+        for (Database shard : database.getShards()) {
+            archived += shard.archiveRecords(cutoff);
+        }
+        return archived;
+    }
+
+    /**
+     * Archives the old records of a database from the command line.
+     *
+     * @param args optional database URL and age in days; the application's default database and
+     *             {@link #DEFAULT_AGE_DAYS} if omitted
+     * @throws SQLException if reading or moving the records fails
+     */
+    public static void main(String[] args) throws SQLException {
+        String url = args.length > 0 ? args[0] : Database.DEFAULT_URL;
+        int ageDays = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_AGE_DAYS;
+        LocalDate cutoff = LocalDate.now().minusDays(ageDays);
+
+        Database database = new Database(url);
+        long start = System.nanoTime();
+        long archived = archive(database, cutoff);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Archived %d records dated before %s in %s in %.1f s%n", archived, cutoff, url, seconds);
+    }
+}
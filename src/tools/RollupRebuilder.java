@@ -0,0 +1,50 @@
+package tools;
+
+import java.sql.SQLException;
+
+import database.Database;
+
+/**
+ * Recomputes the health_rollups table of a database from its health records.
+ *
+ * Every write through {@link Database} keeps the rollups up to date, and a database file opened for
+ * the first time since the table was added is filled when it is opened. This tool is for the cases
+ * where health_records was changed behind the application's back, such as a manual fix or a restore
+ * of the table from a backup. It can run while the application is running; writes wait for the
+ * rebuild's transaction.
+ *
+ * Usage: java tools.RollupRebuilder [databaseUrl]
+ */
+public class RollupRebuilder {
+
+    /**
+     * Rebuilds the rollups of every shard of a database, one shard per transaction.
+     *
+     * @param database the database, or the directory of a sharded database
+     * @return the number of rollup rows written
+     * @throws SQLException if reading the records or writing the rollups fails
+     */
+    public static long rebuild(Database database) throws SQLException {
+        long written = 0;
+        for (Database shard : database.getShards()) {
+            written += shard.rebuildRollups();
+        }
+        return written;
+    }
+
+    /**
+     * Rebuilds the rollups of a database from the command line.
+     *
+     * @param args optional database URL; the application's default database if omitted
+     * @throws SQLException if reading the records or writing the rollups fails
+     */
+    public static void main(String[] args) throws SQLException {
+        String url = args.length > 0 ? args[0] : Database.DEFAULT_URL;
+
+        Database database = new Database(url);
+        long start = System.nanoTime();
+        long written = rebuild(database);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Wrote %d rollup rows for %s in %.1f s%n", written, url, seconds);
+    }
+}
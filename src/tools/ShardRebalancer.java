@@ -0,0 +1,100 @@
+package tools;
+
+import java.sql.SQLException;
+import java.util.List;
+
+import database.ShardedDatabase;
+
+/**
+ * Moves users to the shard their ID is placed on after the number of shards has changed.
+ *
+ * Users are moved one at a time while the application keeps running: each move only locks the
+ * user being moved, and a pause between moves keeps the extra write load on the shards low.
+ */
+public class ShardRebalancer {
+
+    // Number of misplaced users looked up at a time
+    private static final int SCAN_BATCH = 500;
+
+    private final ShardedDatabase database;
+    private final long pauseMillis;
+
+    private volatile boolean stopped;
+
+    /**
+     * Creates a rebalancer.
+     *
+     * @param database the sharded database to rebalance
+     * @param pauseMillis the pause between two user moves, in milliseconds
+     */
+    public ShardRebalancer(ShardedDatabase database, long pauseMillis) {
+        this.database = database;
+        this.pauseMillis = pauseMillis;
+    }
+
+    /**
+     * Moves all misplaced users to their placement shard.
+     *
+     * @return the number of users moved
+     * @throws SQLException if a move fails; users moved before it stay moved
+     * @throws InterruptedException if interrupted while pausing between moves
+     */
+    public long rebalance() throws SQLException, InterruptedException {
+        long moved = 0;
+        while (!stopped) {
+            List<Integer> misplaced = database.getMisplacedUsers(SCAN_BATCH);
+            if (misplaced.isEmpty()) {
+                break;
+            }
+            for (int userId : misplaced) {
+                if (stopped) {
+                    break;
+                }
+                int target = ShardedDatabase.placement(userId, database.getPlacementShardCount());
+                if (database.moveUser(userId, target)) {
+                    moved++;
+                }
+                Thread.sleep(pauseMillis);
+            }
+        }
+        return moved;
+    }
+
+    /**
+     * Asks a running rebalance to stop after the current move.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Rebalances a sharded database from the command line.
+     * Usage: java tools.ShardRebalancer folder shardCount [--pause millis]
+     *
+     * @param args the database folder, the new number of shards and option --pause
+     * @throws Exception if the database cannot be opened or a move fails
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage: java tools.ShardRebalancer folder shardCount [--pause millis]");
+            return;
+        }
+
+        String folder = args[0];
+        int shardCount = Integer.parseInt(args[1]);
+        long pauseMillis = 10;
+        for (int i = 2; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--pause": pauseMillis = Long.parseLong(args[i + 1]); break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        ShardedDatabase database = new ShardedDatabase(folder, shardCount);
+        long start = System.nanoTime();
+        long moved = new ShardRebalancer(database, pauseMillis).rebalance();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Moved %d users to their shard in %.1f s%n", moved, seconds);
+        database.shutdown();
+    }
+}
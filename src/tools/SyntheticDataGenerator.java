@@ -0,0 +1,354 @@
+package tools;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.SplittableRandom;
+
+import database.Database;
+import database.HealthRepository;
+import model.HealthRecord;
+import model.User;
+
+/**
+ * Generates realistic, reproducible users and health records for benchmarks and load tests.
+ *
+ * Every user gets one record per day starting at a fixed date. Weight follows a slow random walk
+ * around a personal baseline, temperature is normal apart from occasional multi-day fever spikes,
+ * blood pressure varies around a personal baseline, and notes are drawn from a small corpus.
+ *
+ * The records of each user are derived only from the seed and the user ID, so the same seed always
+ * produces the same data no matter how the output is consumed. Data is produced lazily through
+ * iterators, so datasets far larger than memory can be generated.
+ *
+ * Usage: java tools.SyntheticDataGenerator users recordsPerUser [--seed n] [--db file] [--csv file]
+ */
+public class SyntheticDataGenerator {
+
+    /**
+     * The date of every user's first record unless another start date is given.
+     */
+    public static final LocalDate DEFAULT_START_DATE = LocalDate.of(2020, 1, 1);
+
+    // Records written per transaction when loading into a database
+    private static final int BATCH_SIZE = 10_000;
+
+    private static final String[] FIRST_NAMES = {
+        "Olivia", "Jack", "Charlotte", "Noah", "Amelia", "William", "Isla", "Oliver",
+        "Mia", "Leo", "Ava", "Henry", "Grace", "Lucas", "Chloe", "Thomas"
+    };
+
+    private static final String[] LAST_NAMES = {
+        "Smith", "Jones", "Williams", "Brown", "Wilson", "Taylor", "Nguyen", "Johnson",
+        "Martin", "White", "Anderson", "Walker", "Thompson", "Lee", "Ryan", "Kelly"
+    };
+
+    // Most notes are short and repetitive, as they are in real use
+    private static final String[] NOTES = {
+        "", "", "", "", "fine", "fine", "feeling good", "after run", "after gym",
+        "before breakfast", "tired", "slept badly", "headache", "after dinner",
+        "took medication", "stressed at work", "long walk today", "feeling unwell"
+    };
+
+    private static final String[] FEVER_NOTES = {
+        "feeling unwell", "fever", "sore throat", "stayed home sick", "took paracetamol"
+    };
+
+    private final long seed;
+    private final int userCount;
+    private final int recordsPerUser;
+    private final int firstUserId;
+    private final LocalDate startDate;
+
+    /**
+     * Creates a generator for the given number of users and records per user, numbering users from 1.
+     *
+     * @param seed the seed that determines all generated values
+     * @param userCount the number of users to generate
+     * @param recordsPerUser the number of daily records to generate for each user
+     */
+    public SyntheticDataGenerator(long seed, int userCount, int recordsPerUser) {
+        this(seed, userCount, recordsPerUser, 1, DEFAULT_START_DATE);
+    }
+
+    /**
+     * Creates a generator for the given number of users and records per user.
+     *
+     * @param seed the seed that determines all generated values
+     * @param userCount the number of users to generate
+     * @param recordsPerUser the number of daily records to generate for each user
+     * @param firstUserId the ID of the first generated user; the others follow sequentially
+     * @param startDate the date of each user's first record
+     */
+    public SyntheticDataGenerator(long seed, int userCount, int recordsPerUser, int firstUserId, LocalDate startDate) {
+        this.seed = seed;
+        this.userCount = userCount;
+        this.recordsPerUser = recordsPerUser;
+        this.firstUserId = firstUserId;
+        this.startDate = startDate;
+    }
+
+    /**
+     * Returns an iterator over the generated users.
+     *
+     * @return the users, in ascending ID order
+     */
+    public Iterator<User> users() {
+        return new Iterator<User>() {
+            private int index;
+
+            @Override
+            public boolean hasNext() {
+                return index < userCount;
+            }
+
+            @Override
+            public User next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return createUser(firstUserId + index++);
+            }
+        };
+    }
+
+    /**
+     * Returns an iterator over the generated health records of all users.
+     *
+     * @return the records, in (user, date) order
+     */
+    public Iterator<HealthRecord> records() {
+        return new Iterator<HealthRecord>() {
+            private int userIndex;
+            private UserTimeline timeline = userCount > 0 && recordsPerUser > 0 ? new UserTimeline(firstUserId) : null;
+
+            @Override
+            public boolean hasNext() {
+                return timeline != null && (timeline.day < recordsPerUser || userIndex + 1 < userCount);
+            }
+
+            @Override
+            public HealthRecord next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                if (timeline.day == recordsPerUser) {
+                    userIndex++;
+                    timeline = new UserTimeline(firstUserId + userIndex);
+                }
+                return timeline.next();
+            }
+        };
+    }
+
+    /**
+     * Returns an iterator over the generated health records of one user.
+     *
+     * @param userId the ID of the user, which need not be in this generator's range
+     * @return the user's records, in date order
+     */
+    public Iterator<HealthRecord> recordsForUser(int userId) {
+        UserTimeline timeline = new UserTimeline(userId);
+        return new Iterator<HealthRecord>() {
+            @Override
+            public boolean hasNext() {
+                return timeline.day < recordsPerUser;
+            }
+
+            @Override
+            public HealthRecord next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return timeline.next();
+            }
+        };
+    }
+
+    /**
+     * Writes all generated users and records into the repository through its bulk-load path.
+     *
+     * @param database the database or in-memory repository to load into
+     * @return the number of records written
+     * @throws SQLException if an SQL error occurs
+     */
+    public long writeTo(HealthRepository database) throws SQLException {
+        database.bulkLoadUsers(users(), BATCH_SIZE);
+        return database.bulkLoadHealthRecords(records(), BATCH_SIZE);
+    }
+
+    /**
+     * Streams all generated records to CSV, one line per record with a header line first.
+     * Dates are written in ISO format and notes are quoted where needed.
+     *
+     * @param writer the writer to write to; it is flushed but not closed
+     * @return the number of records written
+     * @throws IOException if writing fails
+     */
+    public long writeCsv(Writer writer) throws IOException {
+        writer.write("user_id,weight,temperature,bloodPressure,note,date");
+        writer.write(System.lineSeparator());
+
+        long count = 0;
+        Iterator<HealthRecord> records = records();
+        while (records.hasNext()) {
+            HealthRecord record = records.next();
+            writer.write(Integer.toString(record.getUserId()));
+            writer.write(',');
+            writer.write(Float.toString(record.getWeight()));
+            writer.write(',');
+            writer.write(Float.toString(record.getTemperature()));
+            writer.write(',');
+            writer.write(record.getBloodPressure());
+            writer.write(',');
+            writer.write(quoteCsv(record.getNote()));
+            writer.write(',');
+            writer.write(record.getDate().toString());
+            writer.write(System.lineSeparator());
+            count++;
+        }
+
+        writer.flush();
+        return count;
+    }
+
+    /**
+     * Quotes a CSV field if it contains a separator, quote or line break.
+     */
+    private static String quoteCsv(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * Creates the user with the given ID. Names are derived from the ID so they are reproducible.
+     */
+    private User createUser(int userId) {
+        SplittableRandom random = randomFor(userId, 0x5EED_0000_0001L);
+        String firstName = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)];
+        String lastName = LAST_NAMES[random.nextInt(LAST_NAMES.length)];
+        return new User(userId, "user" + userId, "password" + userId, firstName, lastName);
+    }
+
+    /**
+     * Returns a random source for one user that depends only on the seed and the user ID.
+     */
+    private SplittableRandom randomFor(int userId, long stream) {
+        return new SplittableRandom(seed ^ (userId * 0x9E3779B97F4A7C15L) ^ stream);
+    }
+
+    /**
+     * Produces one user's daily records, carrying the state of the random walks from day to day.
+     */
+    private class UserTimeline {
+
+        private final int userId;
+        private final SplittableRandom random;
+
+        // Personal baselines
+        private final double baseWeight;
+        private final double baseSystolic;
+        private final double baseDiastolic;
+
+        private double weight;
+        private int feverDaysLeft;
+        private double feverPeak;
+        private int day;
+
+        UserTimeline(int userId) {
+            this.userId = userId;
+            this.random = randomFor(userId, 0x5EED_0000_0002L);
+            this.baseWeight = 50 + random.nextDouble() * 60;
+            this.baseSystolic = 105 + random.nextDouble() * 45;
+            this.baseDiastolic = 65 + random.nextDouble() * 30;
+            this.weight = baseWeight;
+        }
+
+        HealthRecord next() {
+            // Weight drifts a little each day and is slowly pulled back towards the baseline
+            weight += random.nextDouble() * 0.4 - 0.2 + (baseWeight - weight) * 0.02;
+
+            // Occasionally start a fever episode lasting a few days
+            if (feverDaysLeft == 0 && random.nextInt(100) < 2) {
+                feverDaysLeft = 1 + random.nextInt(4);
+                feverPeak = 38.0 + random.nextDouble() * 1.8;
+            }
+            double temperature;
+            String note;
+            if (feverDaysLeft > 0) {
+                feverDaysLeft--;
+                temperature = feverPeak - random.nextDouble() * 0.4;
+                note = FEVER_NOTES[random.nextInt(FEVER_NOTES.length)];
+            } else {
+                temperature = 36.2 + random.nextDouble() * 0.8;
+                note = NOTES[random.nextInt(NOTES.length)];
+            }
+
+            int systolic = (int) Math.round(baseSystolic + random.nextDouble() * 16 - 8);
+            int diastolic = (int) Math.round(baseDiastolic + random.nextDouble() * 10 - 5);
+
+            HealthRecord record = new HealthRecord(0, round1(weight), round1(temperature),
+                    systolic + "/" + diastolic, note, startDate.plusDays(day), userId);
+            day++;
+            return record;
+        }
+
+        private float round1(double value) {
+            return Math.round(value * 10) / 10f;
+        }
+    }
+
+    /**
+     * Generates a dataset from the command line, into a database file, a CSV file or both.
+     *
+     * @param args users, records per user and options --seed, --db and --csv
+     * @throws Exception if generation fails
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage: java tools.SyntheticDataGenerator users recordsPerUser [--seed n] [--db file] [--csv file]");
+            return;
+        }
+
+        int users = Integer.parseInt(args[0]);
+        int recordsPerUser = Integer.parseInt(args[1]);
+        long seed = 42;
+        String dbFile = null;
+        String csvFile = null;
+        for (int i = 2; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--seed": seed = Long.parseLong(args[i + 1]); break;
+                case "--db": dbFile = args[i + 1]; break;
+                case "--csv": csvFile = args[i + 1]; break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        if (dbFile != null) {
+            Database database = new Database("jdbc:sqlite:" + dbFile);
+            SyntheticDataGenerator generator = new SyntheticDataGenerator(seed, users, recordsPerUser,
+                    database.getNextUserId(), DEFAULT_START_DATE);
+            long start = System.nanoTime();
+            long count = generator.writeTo(database);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("Loaded %d records into %s in %.1f s (%.0f records/s)%n", count, dbFile, seconds, count / seconds);
+        }
+
+        if (csvFile != null) {
+            SyntheticDataGenerator generator = new SyntheticDataGenerator(seed, users, recordsPerUser);
+            try (Writer writer = new BufferedWriter(Files.newBufferedWriter(Paths.get(csvFile), StandardCharsets.UTF_8), 1 << 16)) {
+                long count = generator.writeCsv(writer);
+                System.out.printf("Wrote %d records to %s%n", count, csvFile);
+            }
+        }
+    }
+}
@@ -1,25 +1,34 @@
 package view;
 
+import analytics.HealthAlert;
 import controller.UserController;
-import database.Database;
+import controller.DraftAutosaver;
 import controller.HealthRecordController;
+import database.HealthRecordQuery;
 import model.User;
 import model.HealthRecord;
+import model.BloodPressureCategory;
+import model.RecordDraft;
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyObjectWrapper;
 import javafx.collections.FXCollections;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
-import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.scene.layout.*;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.sql.SQLException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.FormatStyle;
 import java.time.LocalDate;
-import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * This class represents the main view of the My Health Tracker application. It contains methods for 
@@ -61,9 +70,9 @@ public class MyHealthTrackerView {
     private Scene homeScene;
 
     /**
-    * Database instance for performing CRUD operations.
+    * Completes once the controllers are available; they may still be waiting for the database to open.
     */
-    private Database database;
+    private CompletableFuture<Void> controllersReady;
 
     
     
@@ -80,14 +89,29 @@ public class MyHealthTrackerView {
     private Scene recordsScene;
 
     /**
-    * The scene for creating a new health record.
+    * The scene for creating a new health record or editing an existing one.
     */
-    private Scene createRecordScene;
+    private Scene recordFormScene;
 
     /**
-    * The scene for editing an existing health record.
+    * The Save button of the record form, whose action depends on whether a record is created or edited.
     */
-    private Scene editRecordScene;
+    private Button recordSaveButton;
+
+    /**
+    * The record being edited in the record form, or null when a new record is being created.
+    */
+    private HealthRecord editingRecord;
+
+    /**
+    * Saves the record form as a draft while the user types, so unsaved input survives the application closing.
+    */
+    private DraftAutosaver draftAutosaver;
+
+    /**
+    * True while the record form's fields are filled in by the application rather than typed by the user.
+    */
+    private boolean fillingRecordForm;
 
     /**
     * A text field for entering weight information.
@@ -114,6 +138,30 @@ public class MyHealthTrackerView {
     */
     private TableView<HealthRecord> recordsTable;
 
+    /**
+    * The records shown in the records table, fetched page by page and patched in place as records change.
+    */
+    private RecordTableModel recordTableModel;
+
+    /**
+    * Date pickers for the first and last date of the records shown.
+    */
+    private DatePicker fromDatePicker;
+    private DatePicker toDatePicker;
+
+    /**
+    * Text fields for the weight and temperature ranges of the records shown.
+    */
+    private TextField minWeightField;
+    private TextField maxWeightField;
+    private TextField minTemperatureField;
+    private TextField maxTemperatureField;
+
+    /**
+    * A combo box for the blood pressure category of the records shown.
+    */
+    private ComboBox<BloodPressureCategory> categoryBox;
+
     /**
     * A label that displays the full name of the current user.
     */
@@ -141,12 +189,33 @@ public class MyHealthTrackerView {
      * @param primaryStage the primary stage for this view
      * @param userController the user controller for handling user-related actions
      * @param healthRecordController the health record controller for handling health record-related actions
+     * @param draftAutosaver saves the record form as a draft while the user types; closed by its owner
+     */
+    public MyHealthTrackerView(Stage primaryStage, UserController userController, HealthRecordController healthRecordController,
+                               DraftAutosaver draftAutosaver) {
+        this(primaryStage, CompletableFuture.completedFuture(userController), CompletableFuture.completedFuture(healthRecordController),
+                draftAutosaver);
+    }
+
+    /**
+     * Constructs a MyHealthTrackerView whose controllers are still being created, typically while the
+     * database is opened on a background thread. Only the login scene is built here; the other scenes
+     * are built the first time they are shown. A login or registration submitted before the controllers
+     * are ready is carried out as soon as they are.
+     *
+     * @param primaryStage the primary stage for this view
+     * @param userControllerReady completes with the user controller
+     * @param healthRecordControllerReady completes with the health record controller
+     * @param draftAutosaver saves the record form as a draft while the user types
      */
-    public MyHealthTrackerView(Stage primaryStage, UserController userController, HealthRecordController healthRecordController) {
+    public MyHealthTrackerView(Stage primaryStage, CompletableFuture<UserController> userControllerReady,
+                               CompletableFuture<HealthRecordController> healthRecordControllerReady, DraftAutosaver draftAutosaver) {
         this.primaryStage = primaryStage;
-        this.userController = userController;
-        this.healthRecordController = healthRecordController;
-        this.database = new Database();
+        this.draftAutosaver = draftAutosaver;
+        this.controllersReady = userControllerReady.thenAcceptBoth(healthRecordControllerReady, (users, records) -> {
+            this.userController = users;
+            this.healthRecordController = records;
+        });
 
         // Initialize input fields
         weightField = new TextField();
@@ -157,14 +226,8 @@ public class MyHealthTrackerView {
         // Set the title for the primary stage
         this.primaryStage.setTitle("My Health Tracker");
     
-        // Initialize the scenes
+        // Only the first scene is built up front; the others are built when they are first shown
         initLoginScene();
-        initRegisterScene();
-        initHomeScene();
-        initProfileScene();
-        initRecordsScene();
-        initCreateRecordScene();
-        initEditRecordScene();
     }
 
 
@@ -178,8 +241,8 @@ public class MyHealthTrackerView {
         Button goToRegisterButton = new Button("Register");
 
         // Set event handlers for the buttons
-        loginButton.setOnAction(e -> handleLogin(usernameField.getText(), passwordField.getText()));
-        goToRegisterButton.setOnAction(e -> primaryStage.setScene(registerScene));
+        loginButton.setOnAction(e -> whenControllersReady(() -> handleLogin(usernameField.getText(), passwordField.getText())));
+        goToRegisterButton.setOnAction(e -> primaryStage.setScene(getRegisterScene()));
 
         // Create and configure the GridPane layout
         GridPane grid = new GridPane();
@@ -232,12 +295,12 @@ public class MyHealthTrackerView {
         // Set the event handlers for the buttons
         // The registerButton's handler calls the handleRegister method with the text from each input field
         // The backButton's handler changes the scene back to the login scene
-        registerButton.setOnAction(e -> handleRegister(
+        registerButton.setOnAction(e -> whenControllersReady(() -> handleRegister(
             usernameField.getText(),
             passwordField.getText(),
             firstNameField.getText(),
             lastNameField.getText()
-        ));
+        )));
         backButton.setOnAction(e -> primaryStage.setScene(loginScene));
     
         // Create the scene with the VBox as the root node and add it to the primary stage
@@ -325,24 +388,69 @@ public class MyHealthTrackerView {
         // This line allows the TableView to adjust columns based on its size
         recordsTable.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY);
     
-        // Create columns for the TableView, setting the cell value factory for each column
+        // Create columns for the TableView, reading each value straight from the record
+        // The user data of each column is the database column it sorts by
         TableColumn<HealthRecord, Float> weightColumn = new TableColumn<>("Weight");
-        weightColumn.setCellValueFactory(new PropertyValueFactory<>("weight"));
+        weightColumn.setCellValueFactory(cell -> new ReadOnlyObjectWrapper<>(cell.getValue().getWeight()));
+        weightColumn.setUserData(HealthRecordQuery.SortColumn.WEIGHT);
     
         TableColumn<HealthRecord, Float> temperatureColumn = new TableColumn<>("Temperature");
-        temperatureColumn.setCellValueFactory(new PropertyValueFactory<>("temperature"));
+        temperatureColumn.setCellValueFactory(cell -> new ReadOnlyObjectWrapper<>(cell.getValue().getTemperature()));
+        temperatureColumn.setUserData(HealthRecordQuery.SortColumn.TEMPERATURE);
     
         TableColumn<HealthRecord, String> bloodPressureColumn = new TableColumn<>("Blood Pressure");
-        bloodPressureColumn.setCellValueFactory(new PropertyValueFactory<>("bloodPressure"));
+        bloodPressureColumn.setCellValueFactory(cell -> new ReadOnlyObjectWrapper<>(cell.getValue().getBloodPressure()));
+        bloodPressureColumn.setUserData(HealthRecordQuery.SortColumn.BLOOD_PRESSURE);
     
         TableColumn<HealthRecord, String> noteColumn = new TableColumn<>("Note");
-        noteColumn.setCellValueFactory(new PropertyValueFactory<>("note"));
+        noteColumn.setCellValueFactory(cell -> new ReadOnlyObjectWrapper<>(cell.getValue().getNote()));
+        noteColumn.setUserData(HealthRecordQuery.SortColumn.NOTE);
     
         TableColumn<HealthRecord, LocalDate> dateColumn = new TableColumn<>("Date");
-        dateColumn.setCellValueFactory(new PropertyValueFactory<>("date"));
+        dateColumn.setCellValueFactory(cell -> new ReadOnlyObjectWrapper<>(cell.getValue().getDate()));
+        dateColumn.setUserData(HealthRecordQuery.SortColumn.DATE);
     
         // Add columns to the table
         recordsTable.getColumns().addAll(weightColumn, temperatureColumn, bloodPressureColumn, noteColumn, dateColumn);
+
+        // The table model fetches filtered, sorted pages from the database and keeps them up to date
+        // from the changes the healthRecordController reports
+        recordTableModel = new RecordTableModel(recordsTable, healthRecordController);
+        healthRecordController.addRecordListener(recordTableModel);
+
+        // Create the filter controls; empty fields do not filter
+        fromDatePicker = new DatePicker();
+        toDatePicker = new DatePicker();
+        minWeightField = new TextField();
+        maxWeightField = new TextField();
+        minTemperatureField = new TextField();
+        maxTemperatureField = new TextField();
+        categoryBox = new ComboBox<>(FXCollections.observableArrayList(BloodPressureCategory.values()));
+        categoryBox.setPromptText("Any");
+        Button filterButton = new Button("Filter");
+        Button clearFilterButton = new Button("Clear");
+        filterButton.setOnAction(e -> handleFilterRecords());
+        clearFilterButton.setOnAction(e -> handleClearFilter());
+
+        GridPane filterGrid = new GridPane();
+        filterGrid.setHgap(5);
+        filterGrid.setVgap(5);
+        filterGrid.add(new Label("From:"), 0, 0);
+        filterGrid.add(fromDatePicker, 1, 0);
+        filterGrid.add(new Label("To:"), 2, 0);
+        filterGrid.add(toDatePicker, 3, 0);
+        filterGrid.add(new Label("BP category:"), 4, 0);
+        filterGrid.add(categoryBox, 5, 0);
+        filterGrid.add(new Label("Weight:"), 0, 1);
+        filterGrid.add(new HBox(5, minWeightField, new Label("-"), maxWeightField), 1, 1);
+        filterGrid.add(new Label("Temperature:"), 2, 1);
+        filterGrid.add(new HBox(5, minTemperatureField, new Label("-"), maxTemperatureField), 3, 1);
+        filterGrid.add(new HBox(5, filterButton, clearFilterButton), 5, 1);
+
+        // Further pages are fetched on request
+        Button loadMoreButton = new Button("Load More");
+        loadMoreButton.disableProperty().bind(recordTableModel.morePagesProperty().not());
+        loadMoreButton.setOnAction(e -> recordTableModel.loadNextPage());
         
         // Create buttons for adding, editing, deleting records, and returning to the home scene
         Button addButton = new Button("Add");
@@ -359,7 +467,7 @@ public class MyHealthTrackerView {
         // Create and configure the VBox layout
         VBox vbox = new VBox(10);
         vbox.setAlignment(Pos.CENTER);
-        vbox.getChildren().addAll(recordsTable, addButton, editButton, deleteButton, backButton);
+        vbox.getChildren().addAll(filterGrid, recordsTable, loadMoreButton, addButton, editButton, deleteButton, backButton);
     
         // Set the VBox as the root of the recordsScene
         recordsScene = new Scene(vbox, 600, 400); // Set the size of the scene
@@ -368,72 +476,43 @@ public class MyHealthTrackerView {
 
 
     /**
-     * Initializes the create record scene.
-     * This scene allows the user to input new health record data and save it.
-     * There are also options to clear input fields and return to the records scene.
+     * Initializes the record form scene.
+     * The same form is used to create a new health record and to edit an existing one, so it is built once;
+     * the Save button's event handler is set each time the form is shown.
+     * There is also an option to return to the records scene.
      */
-    private void initCreateRecordScene() {
-        // Clear previous input fields
-        weightField.clear();
-        temperatureField.clear();
-        bloodPressureField.clear();
-        noteField.clear();
-
-        // Create a "Save" button and set its event handler to save the record when clicked
-        Button saveButton = new Button("Save");
-        saveButton.setOnAction(e -> handleSaveRecord());
+    private void initRecordFormScene() {
+        // Create the "Save" button; its event handler is set by showCreateRecordScene() or showEditRecordScene()
+        recordSaveButton = new Button("Save");
 
-        // Create a "Back" button and set its event handler to return to the records scene when clicked
+        // Create a "Back" button and set its event handler to abandon the draft and return to the records scene when clicked
         Button backButton = new Button("Back");
-        backButton.setOnAction(e -> showRecordsScene());
-
-        // Create and configure the GridPane layout using the helper method createRecordGridPane()
-        GridPane grid = createRecordGridPane();
-        // Add the buttons to the grid
-        grid.add(saveButton, 0, 4);
-        grid.add(backButton, 1, 4);
+        backButton.setOnAction(e -> {
+            draftAutosaver.discard(currentUser.getId());
+            showRecordsScene();
+        });
 
-        // Set the GridPane as the root of the createRecordScene and set its size
-        createRecordScene = new Scene(grid, 600, 400);
-    }
-
-    /**
-     * Initializes the edit record scene.
-     * This scene allows the user to modify an existing health record and save the changes.
-     * The input fields are first cleared to ensure that previous data doesn't persist.
-     * There are also options to clear input fields and return to the records scene.
-     */
-    private void initEditRecordScene() {
-        // Clear previous input fields
-        weightField.clear();
-        temperatureField.clear();
-        bloodPressureField.clear();
-        noteField.clear();
-        
-        // Create a "Save" button and set its event handler to save the edited record when clicked
-        Button saveButton = new Button("Save");
-        saveButton.setOnAction(e -> handleSaveEditedRecord());
-
-        // Create a "Back" button and set its event handler to return to the records scene when clicked
-        Button backButton = new Button("Back");
-        backButton.setOnAction(e -> showRecordsScene());
+        // Save a draft whenever the user changes a field; the autosaver coalesces the edits into occasional writes
+        weightField.textProperty().addListener((observable, oldText, newText) -> saveDraft());
+        temperatureField.textProperty().addListener((observable, oldText, newText) -> saveDraft());
+        bloodPressureField.textProperty().addListener((observable, oldText, newText) -> saveDraft());
+        noteField.textProperty().addListener((observable, oldText, newText) -> saveDraft());
 
         // Create and configure the GridPane layout using the helper method createRecordGridPane()
         GridPane grid = createRecordGridPane();
         // Add the buttons to the grid
-        grid.add(saveButton, 0, 4);
+        grid.add(recordSaveButton, 0, 4);
         grid.add(backButton, 1, 4);
 
-        // Set the GridPane as the root of the editRecordScene and set its size
-        editRecordScene = new Scene(grid, 600, 400);
+        // Set the GridPane as the root of the recordFormScene and set its size
+        recordFormScene = new Scene(grid, 600, 400);
     }
 
 
     /**
      * Creates a GridPane layout for adding or editing a health record.
      * This layout includes labels and input fields for recording health data.
-     * The GridPane is used in both createRecordScene and editRecordScene.
-     * This method helps to avoid duplication of code, improving maintainability.
+     * The GridPane is the root of the record form scene, which is used both to create and to edit records.
      *
      * @return A GridPane with labels and input fields for health record data.
      */
@@ -467,6 +546,88 @@ public class MyHealthTrackerView {
     
 
 
+    /**
+     * Returns the register scene, building it the first time it is needed.
+     *
+     * @return the register scene
+     */
+    private Scene getRegisterScene() {
+        if (registerScene == null) {
+            initRegisterScene();
+        }
+        return registerScene;
+    }
+
+    /**
+     * Returns the home scene, building it the first time it is needed.
+     *
+     * @return the home scene
+     */
+    private Scene getHomeScene() {
+        if (homeScene == null) {
+            initHomeScene();
+        }
+        return homeScene;
+    }
+
+    /**
+     * Returns the profile scene, building it the first time it is needed.
+     *
+     * @return the profile scene
+     */
+    private Scene getProfileScene() {
+        if (profileScene == null) {
+            initProfileScene();
+        }
+        return profileScene;
+    }
+
+    /**
+     * Returns the records scene, building it the first time it is needed.
+     *
+     * @return the records scene
+     */
+    private Scene getRecordsScene() {
+        if (recordsScene == null) {
+            initRecordsScene();
+        }
+        return recordsScene;
+    }
+
+    /**
+     * Returns the record form scene, building it the first time it is needed.
+     *
+     * @return the record form scene
+     */
+    private Scene getRecordFormScene() {
+        if (recordFormScene == null) {
+            initRecordFormScene();
+        }
+        return recordFormScene;
+    }
+
+    /**
+     * Runs an action on the JavaFX application thread once the controllers are available.
+     * The action runs straight away if they already are; otherwise it runs when the database has been opened,
+     * so the login scene can be shown and filled in while that is still happening.
+     *
+     * @param action the action that needs the controllers
+     */
+    private void whenControllersReady(Runnable action) {
+        if (controllersReady.isDone() && !controllersReady.isCompletedExceptionally()) {
+            action.run();
+            return;
+        }
+        controllersReady.whenComplete((ignored, error) -> Platform.runLater(() -> {
+            if (error == null) {
+                action.run();
+            } else {
+                showErrorAlert("The database could not be opened: " + error.getMessage());
+            }
+        }));
+    }
+
+
     /**
     * Sets the current scene to the login scene.
     */
@@ -475,11 +636,29 @@ public class MyHealthTrackerView {
         primaryStage.show();
     }
 
+    /**
+     * Tells the logged-in user about an unusual reading in a record they just saved.
+     * May be called from any thread; alerts about other users' records are ignored.
+     *
+     * @param healthAlert the alert to show
+     */
+    public void showHealthAlert(HealthAlert healthAlert) {
+        Platform.runLater(() -> {
+            if (currentUser == null || currentUser.getId() != healthAlert.getRecord().getUserId()) {
+                return;
+            }
+            Alert alert = new Alert(Alert.AlertType.WARNING, healthAlert.toString() + ".");
+            alert.setTitle("Unusual Reading");
+            alert.setHeaderText(null);
+            alert.show();
+        });
+    }
+
     /**
      * Sets the current scene to the home scene.
      */
     private void showHomeScene() {
-        primaryStage.setScene(homeScene);
+        primaryStage.setScene(getHomeScene());
         updateHomeScene();
     }
 
@@ -495,7 +674,7 @@ public class MyHealthTrackerView {
      * Sets the current scene to the profile scene.
      */
     private void showProfileScene() {
-        primaryStage.setScene(profileScene);
+        primaryStage.setScene(getProfileScene());
         updateProfileFields();
     }
 
@@ -511,7 +690,7 @@ public class MyHealthTrackerView {
      * Sets the current scene to the records scene.
      */
     private void showRecordsScene() {
-        primaryStage.setScene(recordsScene);
+        primaryStage.setScene(getRecordsScene());
         updateRecordTable();
     }
 
@@ -520,23 +699,31 @@ public class MyHealthTrackerView {
      * Displays the create record scene on the primary stage.
      */
     private void showCreateRecordScene() {
-        initCreateRecordScene();
-        primaryStage.setScene(createRecordScene);
+        Scene scene = getRecordFormScene();
+        editingRecord = null;
+
+        // Clear previous input fields
+        clearRecordFields();
+
+        // Saving the form adds a new record
+        recordSaveButton.setOnAction(e -> handleSaveRecord());
+        primaryStage.setScene(scene);
     }
 
 
     /**
-     * This method populates the fields of the 'editRecordScene' with the data from the provided health record. 
-     * It then sets the primary stage to show the 'editRecordScene'.
+     * This method populates the fields of the record form with the data from the provided health record. 
+     * It then sets the primary stage to show the record form, whose Save button updates the record.
      * It is used when the user wishes to edit a specific health record.
      *
      * @param record The health record whose data is to be edited. This is passed to populate the fields 
-     *               in the 'editRecordScene'.
+     *               in the record form.
      */
     private void showEditRecordScene(HealthRecord record) {
-        // Reinitialize the editRecordScene with the updated fields
-        initEditRecordScene();
+        Scene scene = getRecordFormScene();
+        editingRecord = record;
     
+        fillingRecordForm = true;
         // Populate the weight field with the record's weight
         weightField.setText(String.valueOf(record.getWeight()));
         // Populate the temperature field with the record's temperature
@@ -545,14 +732,84 @@ public class MyHealthTrackerView {
         bloodPressureField.setText(record.getBloodPressure());
         // Populate the note field with the record's note
         noteField.setText(record.getNote());
+        fillingRecordForm = false;
     
-        // Set the scene of the primary stage to the 'editRecordScene'
-        primaryStage.setScene(editRecordScene);
+        // Saving the form updates the record being edited
+        recordSaveButton.setOnAction(e -> handleSaveEditedRecord());
+
+        // Set the scene of the primary stage to the record form
+        primaryStage.setScene(scene);
     }
     
     
 
 
+    /**
+     * Clears the record form's fields without saving a draft of the empty form.
+     */
+    private void clearRecordFields() {
+        fillingRecordForm = true;
+        weightField.clear();
+        temperatureField.clear();
+        bloodPressureField.clear();
+        noteField.clear();
+        fillingRecordForm = false;
+    }
+
+    /**
+     * Hands the current content of the record form to the draft autosaver.
+     * Changes made by the application itself, such as clearing or filling the form, are not drafts.
+     */
+    private void saveDraft() {
+        if (fillingRecordForm || currentUser == null) {
+            return;
+        }
+        int recordId = editingRecord == null ? 0 : editingRecord.getId();
+        draftAutosaver.update(new RecordDraft(currentUser.getId(), recordId, weightField.getText(), temperatureField.getText(),
+                bloodPressureField.getText(), noteField.getText(), System.currentTimeMillis()));
+    }
+
+    /**
+     * Offers to continue a draft the current user left unsaved, for example because the application was closed.
+     * If the user accepts, the record form is shown with the draft's content; otherwise the draft is discarded.
+     */
+    private void offerDraftRestore() {
+        RecordDraft draft = draftAutosaver.getDraft(currentUser.getId());
+        if (draft == null) {
+            return;
+        }
+        // A draft of changes to a record that has since been deleted cannot be continued
+        HealthRecord record = draft.getRecordId() > 0 ? healthRecordController.getHealthRecord(draft.getRecordId()) : null;
+        if (draft.getRecordId() > 0 && record == null) {
+            draftAutosaver.discard(currentUser.getId());
+            return;
+        }
+
+        String savedAt = DateTimeFormatter.ofLocalizedDateTime(FormatStyle.SHORT)
+                .format(Instant.ofEpochMilli(draft.getSavedAt()).atZone(ZoneId.systemDefault()));
+        Alert alert = new Alert(Alert.AlertType.CONFIRMATION,
+                "You have an unsaved health record from " + savedAt + ". Do you want to continue editing it?",
+                ButtonType.YES, ButtonType.NO);
+        alert.setTitle("Unsaved Record");
+        alert.setHeaderText(null);
+        Optional<ButtonType> answer = alert.showAndWait();
+        if (!answer.isPresent() || answer.get() != ButtonType.YES) {
+            draftAutosaver.discard(currentUser.getId());
+            return;
+        }
+
+        if (record != null) {
+            showEditRecordScene(record);
+        } else {
+            showCreateRecordScene();
+        }
+        // Typing the draft back in saves it again, under the same record
+        weightField.setText(draft.getWeight());
+        temperatureField.setText(draft.getTemperature());
+        bloodPressureField.setText(draft.getBloodPressure());
+        noteField.setText(draft.getNote());
+    }
+
     /**
      * This method generates and displays an error alert dialog box with a specified message.
      * It is used when an error occurs in the application and the user needs to be notified.
@@ -574,9 +831,11 @@ public class MyHealthTrackerView {
 
     /**
      * This method is responsible for updating the records table view to display the current user's health records.
-     * The records are retrieved from the healthRecordController. If the recordsTable, healthRecordController, 
-     * or the currentUser is null, a relevant error message is printed to the console and the method returns without
-     * updating the records table.
+     * The first page of records is retrieved from the healthRecordController only when the table does not hold the
+     * current user's records yet, with the filters cleared; after that, the table model applies each added, updated or
+     * deleted record as the controller reports it.
+     * If the recordsTable, healthRecordController, or the currentUser is null, a relevant error message is printed to
+     * the console and the method returns without updating the records table.
      */
     private void updateRecordTable() {
         // Check if recordsTable is null and print an error message if so
@@ -594,15 +853,55 @@ public class MyHealthTrackerView {
             System.out.println("currentUser is null");
             return;
         }
-        // Retrieve the current user's health records
-        List<HealthRecord> healthRecords = healthRecordController.getHealthRecordsForUser(currentUser);
-        // Check if the retrieved records list is null and print an error message if so
-        if (healthRecords == null) {
-            System.out.println("getHealthRecordsForUser returned null");
+        // The table already holds this user's records and has been kept up to date since
+        if (recordTableModel.isLoaded(currentUser.getId())) {
             return;
         }
-        // Update the recordsTable items with the retrieved health records, converting the list to an ObservableList
-        recordsTable.setItems(FXCollections.observableArrayList(healthRecords));
+        // A different user's filters do not apply; load the first page of all of this user's records
+        handleClearFilter();
+    }
+
+    /**
+     * Handles the Filter button click event, loading the first page of the records that pass the filters.
+     */
+    private void handleFilterRecords() {
+        try {
+            HealthRecordQuery query = healthRecordController.newQuery(currentUser.getId());
+            query.setDateRange(fromDatePicker.getValue(), toDatePicker.getValue());
+            query.setWeightRange(parseFilter(minWeightField), parseFilter(maxWeightField));
+            query.setTemperatureRange(parseFilter(minTemperatureField), parseFilter(maxTemperatureField));
+            query.setCategory(categoryBox.getValue());
+            recordTableModel.load(query);
+        } catch (NumberFormatException e) {
+            // Handle invalid input
+            showErrorAlert("Invalid weight or temperature filter.");
+        }
+    }
+
+    /**
+     * Handles the Clear button click event, emptying the filter controls and loading the first page of all records.
+     */
+    private void handleClearFilter() {
+        fromDatePicker.setValue(null);
+        toDatePicker.setValue(null);
+        minWeightField.clear();
+        maxWeightField.clear();
+        minTemperatureField.clear();
+        maxTemperatureField.clear();
+        categoryBox.setValue(null);
+        recordTableModel.load(healthRecordController.newQuery(currentUser.getId()));
+    }
+
+    /**
+     * Reads a numeric filter bound from a text field.
+     *
+     * @param field the text field
+     * @return the bound, or null if the field is empty
+     * @throws NumberFormatException if the field does not hold a number
+     */
+    private static Float parseFilter(TextField field) {
+        String text = field.getText().trim();
+        return text.isEmpty() ? null : Float.valueOf(text);
     }
     
 
@@ -625,6 +924,8 @@ public class MyHealthTrackerView {
             // If login is successful, retrieve the user with the provided username and show the home scene
             currentUser = userController.getUserByUsername(username);
             showHomeScene();
+            // Offer to continue a record the user did not get to save last time
+            offerDraftRestore();
         } else {
             // If login is not successful, show an error alert dialog indicating an invalid username or password
             showErrorAlert("Invalid username or password.");
@@ -710,14 +1011,13 @@ public class MyHealthTrackerView {
      * returns without saving the record.
      *
      * On successful retrieval and validation of input, a new HealthRecord object is created with the current 
-     * date and user ID, along with the retrieved input. This record is then added to the database.
+     * date and user ID, along with the retrieved input. This record is then added through the healthRecordController.
      * 
-     * After successful addition of the record to the database, all input fields are cleared and the home scene is displayed.
+     * After successful addition of the record, all input fields are cleared and the home scene is displayed.
      * 
-     * If an SQLException occurs while adding the record to the database, or a NumberFormatException occurs while
-     * converting weight or temperature input to float, the exception is caught and printed to the console.
+     * If a NumberFormatException occurs while converting weight or temperature input to float, the exception
+     * is caught and printed to the console.
      * 
-     * @throws SQLException If there is an error while adding the record to the database.
      * @throws NumberFormatException If the weight or temperature input cannot be converted to float. This can occur if a non-numeric character is entered.
     */
     private void handleSaveRecord() {
@@ -751,20 +1051,17 @@ public class MyHealthTrackerView {
             // Create a new HealthRecord object
             HealthRecord newRecord = new HealthRecord(0, weight, temperature, bloodPressure, note, date, userId);
     
-            // Use the Database class to add the new record to the database
-            database.addHealthRecord(newRecord);
+            // Use the healthRecordController to add the new record to the database
+            healthRecordController.addHealthRecord(currentUser, newRecord);
+
+            // The draft is now a real record
+            draftAutosaver.discard(currentUser.getId());
     
             // Clear the fields after successfully saving the record
-            weightField.clear();
-            temperatureField.clear();
-            bloodPressureField.clear();
-            noteField.clear();
+            clearRecordFields();
     
             // Optionally, switch back to the previous scene or clear the input fields
             showHomeScene();
-        } catch (SQLException e) {
-            // Handle any errors that might occur when trying to access the database
-            e.printStackTrace();
         } catch (NumberFormatException e) {
             // Handle any errors that might occur when converting the strings to floats. This can occur if non-numeric characters are entered.
             e.printStackTrace();
@@ -776,7 +1073,7 @@ public class MyHealthTrackerView {
      * This method handles saving changes made to an existing health record. It retrieves the updated data 
      * from the input fields, including weight, temperature, blood pressure, and a note. If all fields are empty,
      * an error alert is shown and the method returns without saving the changes. In case of an empty field,
-     * the previous value is retained. It then retrieves the currently selected health record's ID. If no 
+     * the previous value is retained. It then takes the health record being edited. If no 
      * record is selected, a message is printed to the console and the method returns. A new HealthRecord 
      * object is then created with the updated data, maintaining the original record's date and user ID. The 
      * record is then updated in the database. Upon successful completion, the input fields are cleared and the 
@@ -795,8 +1092,8 @@ public class MyHealthTrackerView {
             String updatedBloodPressure = bloodPressureField.getText();
             String updatedNote = noteField.getText();
     
-            // Get the selected record's id
-            HealthRecord selectedRecord = recordsTable.getSelectionModel().getSelectedItem();
+            // Get the record being edited
+            HealthRecord selectedRecord = editingRecord;
             if (selectedRecord == null) {
                 System.out.println("No record selected.");
                 return;
@@ -820,12 +1117,12 @@ public class MyHealthTrackerView {
     
             // Update the record in the database
             healthRecordController.updateHealthRecord(updatedRecord);
+
+            // The draft of the changes is now saved in the record
+            draftAutosaver.discard(currentUser.getId());
     
             // Clear the fields after successfully updating the record
-            weightField.clear();
-            temperatureField.clear();
-            bloodPressureField.clear();
-            noteField.clear();
+            clearRecordFields();
     
             // Switch to the home scene
             showHomeScene();
@@ -862,11 +1159,9 @@ public class MyHealthTrackerView {
 
         // If a record is selected
         if (selectedRecord != null) {
-            // Delete the selected record using the healthRecordController
+            // Delete the selected record using the healthRecordController;
+            // the table model removes it from the table when the controller reports the deletion
             healthRecordController.deleteHealthRecord(selectedRecord);
-
-            // Update the record table to reflect the deletion
-            updateRecordTable();
         } else {
             // If no record is selected, show an error alert
             showErrorAlert("Please select a record to delete.");
@@ -892,15 +1187,10 @@ public class MyHealthTrackerView {
         
         // If a file was chosen
         if (file != null) {
-            try {
-                // Create a FileWriter for the chosen file
-                FileWriter writer = new FileWriter(file);
+            // Create a FileWriter for the chosen file, closing it once the export is done
+            try (FileWriter writer = new FileWriter(file)) {
                 // Get all health records for the current user and write them to the file
-                for (HealthRecord record : healthRecordController.getHealthRecordsForUser(currentUser)) {
-                    writer.write(record.toString() + System.lineSeparator());
-                }
-                // Close the FileWriter
-                writer.close();
+                healthRecordController.exportHealthRecords(currentUser, writer);
             } catch (IOException e) {
                 // If an IOException occurs, show an error alert with the exception message
                 showErrorAlert("Failed to export records: " + e.getMessage());
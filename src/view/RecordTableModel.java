@@ -0,0 +1,237 @@
+package view;
+
+import controller.HealthRecordController;
+import database.HealthRecordQuery;
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyBooleanProperty;
+import javafx.beans.property.ReadOnlyBooleanWrapper;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.collections.transformation.SortedList;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
+import model.HealthRecord;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The health records shown in the records table. Filtering, sorting and paging are done by the
+ * database through a {@link HealthRecordQuery}: the table holds the pages fetched so far, and clicking
+ * a column header fetches the first page again in the new order instead of sorting in memory. Each
+ * column's user data is the {@link HealthRecordQuery.SortColumn} it sorts by.
+ *
+ * Once loaded, the pages are kept up to date from the changes the {@link HealthRecordController}
+ * reports instead of being fetched again. The records are held in an unordered list with an index
+ * from record ID to position, so adding, updating or deleting a record changes a single element;
+ * the table shows them through a sorted view in the query's order. A changed record is only shown if
+ * it passes the filters and falls within the pages fetched so far, otherwise it turns up on a later
+ * page. Because the list is changed in place rather than replaced, the table keeps its selection and
+ * scroll position.
+ */
+class RecordTableModel implements HealthRecordController.RecordListener {
+
+    private final TableView<HealthRecord> table;
+    private final HealthRecordController healthRecordController;
+
+    private final ObservableList<HealthRecord> records = FXCollections.observableArrayList();
+    private final SortedList<HealthRecord> sorted = new SortedList<>(records);
+
+    // Position of each record in records
+    private final Map<Integer, Integer> indexById = new HashMap<>();
+
+    // The query of the loaded pages, or null if nothing is loaded
+    private HealthRecordQuery query;
+
+    // The last record of the last page fetched, where the next page starts
+    private HealthRecord cursor;
+
+    private final ReadOnlyBooleanWrapper morePages = new ReadOnlyBooleanWrapper(false);
+
+    /**
+     * Creates the model and makes it the content of the table.
+     *
+     * @param table the records table
+     * @param healthRecordController the controller the pages are fetched through
+     */
+    RecordTableModel(TableView<HealthRecord> table, HealthRecordController healthRecordController) {
+        this.table = table;
+        this.healthRecordController = healthRecordController;
+        table.setItems(sorted);
+
+        // Sorting is done by the database: a new sort order fetches the first page again
+        table.setSortPolicy(sortedTable -> {
+            if (query != null) {
+                HealthRecordQuery resorted = withTableSortOrder(query);
+                if (resorted.getSortColumn() != query.getSortColumn() || resorted.isAscending() != query.isAscending()) {
+                    load(resorted);
+                }
+            }
+            return true;
+        });
+    }
+
+    /**
+     * Returns whether the records of the given user are loaded.
+     *
+     * @param userId the user's ID
+     * @return true if the model holds pages of that user's records
+     */
+    boolean isLoaded(int userId) {
+        return query != null && query.getUserId() == userId;
+    }
+
+    /**
+     * Returns whether there are records after the pages fetched so far.
+     *
+     * @return the property, true while loadNextPage would fetch more records
+     */
+    ReadOnlyBooleanProperty morePagesProperty() {
+        return morePages.getReadOnlyProperty();
+    }
+
+    /**
+     * Replaces the content of the model with the first page of a query. The query is sorted by the
+     * table's current sort order, or as given if the table is not sorted.
+     *
+     * @param newQuery the filters and page size
+     */
+    void load(HealthRecordQuery newQuery) {
+        query = withTableSortOrder(newQuery);
+        cursor = null;
+        indexById.clear();
+        records.clear();
+        sorted.setComparator(query.comparator());
+        loadNextPage();
+    }
+
+    /**
+     * Appends the next page of the query.
+     */
+    void loadNextPage() {
+        if (query == null) {
+            return;
+        }
+        List<HealthRecord> page = healthRecordController.getHealthRecordsPage(query, cursor);
+        for (HealthRecord record : page) {
+            if (!indexById.containsKey(record.getId())) {
+                indexById.put(record.getId(), records.size());
+                records.add(record);
+            }
+        }
+        if (!page.isEmpty()) {
+            cursor = page.get(page.size() - 1);
+        }
+        morePages.set(page.size() == query.getPageSize());
+    }
+
+    /**
+     * Empties the model, so the next user's records are loaded when the table is shown again.
+     */
+    void clear() {
+        query = null;
+        cursor = null;
+        indexById.clear();
+        records.clear();
+        morePages.set(false);
+    }
+
+    @Override
+    public void recordAdded(HealthRecord record) {
+        onFxThread(() -> {
+            if (belongsOnLoadedPages(record) && !indexById.containsKey(record.getId())) {
+                indexById.put(record.getId(), records.size());
+                records.add(record);
+            }
+        });
+    }
+
+    @Override
+    public void recordUpdated(HealthRecord record) {
+        onFxThread(() -> {
+            Integer index = indexById.get(record.getId());
+            if (!belongsOnLoadedPages(record)) {
+                // Filtered out now, or moved past the loaded pages
+                if (index != null) {
+                    remove(record.getId());
+                }
+            } else if (index != null) {
+                replace(index, record);
+            } else {
+                indexById.put(record.getId(), records.size());
+                records.add(record);
+            }
+        });
+    }
+
+    @Override
+    public void recordDeleted(HealthRecord record) {
+        onFxThread(() -> remove(record.getId()));
+    }
+
+    /**
+     * Returns whether a record passes the filters and sorts no later than the last record fetched,
+     * so that no later page will return it.
+     */
+    private boolean belongsOnLoadedPages(HealthRecord record) {
+        if (query == null || !query.matches(record)) {
+            return false;
+        }
+        return !morePages.get() || query.comparator().compare(record, cursor) <= 0;
+    }
+
+    /**
+     * Removes a record by moving the last record into its place, so no other element shifts.
+     */
+    private void remove(int recordId) {
+        Integer index = indexById.remove(recordId);
+        if (index == null) {
+            return;
+        }
+        int last = records.size() - 1;
+        if (index != last) {
+            HealthRecord moved = records.get(last);
+            indexById.put(moved.getId(), index);
+            replace(index, moved);
+        }
+        records.remove(last);
+    }
+
+    /**
+     * Replaces the record at a position, selecting the new one if the old one was selected.
+     */
+    private void replace(int index, HealthRecord record) {
+        HealthRecord selected = table.getSelectionModel().getSelectedItem();
+        records.set(index, record);
+        if (selected != null && selected.getId() == record.getId()) {
+            table.getSelectionModel().select(record);
+        }
+    }
+
+    /**
+     * Returns a copy of a query sorted by the table's first sort column, if the table is sorted.
+     */
+    private HealthRecordQuery withTableSortOrder(HealthRecordQuery base) {
+        HealthRecordQuery result = new HealthRecordQuery(base);
+        if (!table.getSortOrder().isEmpty()) {
+            TableColumn<HealthRecord, ?> column = table.getSortOrder().get(0);
+            if (column.getUserData() instanceof HealthRecordQuery.SortColumn) {
+                result.setSort((HealthRecordQuery.SortColumn) column.getUserData(),
+                        column.getSortType() == TableColumn.SortType.ASCENDING);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Runs a change on the JavaFX application thread, where the table's items may be modified.
+     */
+    private static void onFxThread(Runnable change) {
+        if (Platform.isFxApplicationThread()) {
+            change.run();
+        } else {
+            Platform.runLater(change);
+        }
+    }
+}